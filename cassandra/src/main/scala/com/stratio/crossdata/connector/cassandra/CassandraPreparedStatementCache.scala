@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.connector.cassandra
+
+import java.util.Map.Entry
+
+import com.datastax.driver.core.{Cluster, PreparedStatement, Session}
+
+import scala.collection.mutable
+
+/**
+  * Prepared statements of the native query processor, keyed by the keyspace of their table and their CQL text
+  * (that is, by query shape).
+  *
+  * Prepared statements belong to the cluster they were prepared at so there is a bounded LRU cache per cluster,
+  * which is released along with the cluster.
+  */
+object CassandraPreparedStatementCache {
+
+  val MaxStatementsPerCluster = 1000
+
+  private case class StatementKey(keyspace: String, cql: String)
+
+  private val clusterCaches = mutable.WeakHashMap.empty[Cluster, java.util.LinkedHashMap[StatementKey, PreparedStatement]]
+
+  def prepare(session: Session, keyspace: String, cql: String): PreparedStatement = {
+    val statements = clusterCaches.synchronized {
+      clusterCaches.getOrElseUpdate(session.getCluster, newStatementsCache)
+    }
+    val key = StatementKey(keyspace, cql)
+    statements.synchronized(Option(statements.get(key))) getOrElse {
+      // Concurrent preparations of the same statement are harmless, the driver returns equivalent statements
+      val prepared = session.prepare(cql)
+      statements.synchronized(statements.put(key, prepared))
+      prepared
+    }
+  }
+
+  private def newStatementsCache = new java.util.LinkedHashMap[StatementKey, PreparedStatement](16, 0.75f, true) {
+    override def removeEldestEntry(eldest: Entry[StatementKey, PreparedStatement]): Boolean =
+      size() > MaxStatementsPerCluster
+  }
+
+}
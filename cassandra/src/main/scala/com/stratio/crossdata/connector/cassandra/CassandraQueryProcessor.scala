@@ -16,15 +16,19 @@
 package com.stratio.crossdata.connector.cassandra
 
 
-import com.datastax.driver.core.ResultSet
+import java.io.Closeable
+import java.util.concurrent.{CancellationException, ConcurrentLinkedQueue}
+
+import com.datastax.driver.core.{ResultSet, ResultSetFuture, Session, Statement}
+import com.google.common.util.concurrent.ListenableFuture
 import com.datastax.spark.connector.CassandraRowMetadata
 import com.stratio.common.utils.components.logger.impl.SparkLoggerComponent
 import com.stratio.crossdata.connector.cassandra.CassandraAttributeRole.{CassandraAttributeRole, ClusteringKey, Function, Indexed, NonIndexed, PartitionKey, Unknown}
-import com.stratio.crossdata.connector.{SQLLikeQueryProcessorUtils, SQLLikeUDFQueryProcessorUtils}
+import com.stratio.crossdata.connector.{CancellationToken, SQLLikeQueryProcessorUtils, SQLLikeUDFQueryProcessorUtils}
 import org.apache.spark.sql.cassandra.{CassandraSQLRow, CassandraXDSourceRelation}
-import org.apache.spark.sql.catalyst.expressions.aggregate.Count
+import org.apache.spark.sql.catalyst.expressions.aggregate.{AggregateExpression, Average, Count, Max, Min, Sum}
 import org.apache.spark.sql.catalyst.expressions.{Alias, Attribute, Expression, Literal, NamedExpression}
-import org.apache.spark.sql.catalyst.plans.logical.{Aggregate, Limit, LogicalPlan}
+import org.apache.spark.sql.catalyst.plans.logical.{Limit, LogicalPlan}
 import org.apache.spark.sql.crossdata.catalyst.NativeUDF
 import org.apache.spark.sql.crossdata.catalyst.planning.ExtendedPhysicalOperation
 import org.apache.spark.sql.sources.CatalystToCrossdataAdapter._
@@ -34,6 +38,9 @@ import org.apache.spark.sql.{Row, sources}
 object CassandraQueryProcessor extends SQLLikeQueryProcessorUtils with SQLLikeUDFQueryProcessorUtils {
 
   val DefaultLimit = 10000
+
+  // Maximum number of per-partition queries in flight for each native query
+  val MaxConcurrentQueries = 32
   type ColumnName = String
 
   case class CassandraQueryProcessorContext(udfs: Map[String, NativeUDF]) extends SQLLikeUDFQueryProcessorUtils.ContextWithUDFs
@@ -45,7 +52,66 @@ object CassandraQueryProcessor extends SQLLikeQueryProcessorUtils with SQLLikeUD
     def udfsMap: Map[Attribute, NativeUDF] = basePlan.udfsMap
   }
 
-  def apply(cassandraRelation: CassandraXDSourceRelation, logicalPlan: LogicalPlan) = new CassandraQueryProcessor(cassandraRelation, logicalPlan)
+  /**
+    * CQL statement with bind markers (`?`) and the values to be bound to them, in order.
+    * The statement text only depends on the query shape so it can be prepared once and reused.
+    */
+  case class CQLStatementTemplate(cql: String, values: Seq[BoundValue])
+
+  /**
+    * @param column Column the value is compared to, it determines the CQL type the value is converted to.
+    * @param value Single value or, for `IN` clauses, sequence of values.
+    */
+  case class BoundValue(column: ColumnName, value: Any)
+
+  def apply(cassandraRelation: CassandraXDSourceRelation,
+            logicalPlan: LogicalPlan,
+            cancellation: CancellationToken = CancellationToken.Never) =
+    new CassandraQueryProcessor(cassandraRelation, logicalPlan, cancellation)
+
+  /**
+    * Builds a parameterized query: filter values compared to columns are replaced by bind markers whereas
+    * values compared to native functions are kept inline.
+    */
+  def buildPreparedQuery(tableQN: String,
+                         requiredColumns: Seq[String],
+                         filters: Array[SourceFilter],
+                         limit: Option[Int],
+                         udfs: Map[String, NativeUDF] = Map.empty,
+                         groupingColumns: Seq[ColumnName] = Nil): CQLStatementTemplate = {
+
+    implicit val procCtx = CassandraQueryProcessorContext(udfs)
+
+    def comparison(attribute: String, operator: String, value: Any): (String, Seq[BoundValue]) =
+      if (udfs contains attribute) (s"${expandAttribute(attribute)} $operator ${quoteString(value)}", Nil)
+      else (s"${expandAttribute(attribute)} $operator ?", BoundValue(expandAttribute(attribute), value) :: Nil)
+
+    def filterToCQL(filter: SourceFilter): (String, Seq[BoundValue]) = filter match {
+
+      case sources.EqualTo(attribute, value) => comparison(attribute, "=", value)
+      case sources.In(attribute, values) if udfs contains attribute =>
+        (s"${expandAttribute(attribute)} IN ${values.map(quoteString).mkString("(", ",", ")")}", Nil)
+      case sources.In(attribute, values) => comparison(attribute, "IN", values.toSeq)
+      case sources.LessThan(attribute, value) => comparison(attribute, "<", value)
+      case sources.GreaterThan(attribute, value) => comparison(attribute, ">", value)
+      case sources.LessThanOrEqual(attribute, value) => comparison(attribute, "<=", value)
+      case sources.GreaterThanOrEqual(attribute, value) => comparison(attribute, ">=", value)
+      case sources.And(leftFilter, rightFilter) =>
+        val (leftCQL, leftValues) = filterToCQL(leftFilter)
+        val (rightCQL, rightValues) = filterToCQL(rightFilter)
+        (s"$leftCQL AND $rightCQL", leftValues ++ rightValues)
+
+    }
+
+    val (filterClauses, values) = filters.map(filterToCQL).unzip
+    val filter = if (filters.nonEmpty) filterClauses.mkString("WHERE ", " AND ", "") else ""
+    val columns = requiredColumns.map(expandAttribute).mkString(", ")
+
+    val groupBy = if (groupingColumns.nonEmpty) groupingColumns.mkString(" GROUP BY ", ", ", "") else ""
+    val limitClause = limit.map(n => s" LIMIT $n").getOrElse("")
+
+    CQLStatementTemplate(s"SELECT $columns FROM $tableQN $filter$groupBy$limitClause ALLOW FILTERING", values.flatten)
+  }
 
   def buildNativeQuery(tableQN: String,
                        requiredColumns: Seq[String],
@@ -76,11 +142,44 @@ object CassandraQueryProcessor extends SQLLikeQueryProcessorUtils with SQLLikeUD
 }
 
 // TODO logs, doc, tests
-class CassandraQueryProcessor(cassandraRelation: CassandraXDSourceRelation, logicalPlan: LogicalPlan) extends SparkLoggerComponent {
+/**
+  * @param cancellation Cancelling it aborts the in-flight requests of the query. Cancelled queries fail instead of
+  *                     falling back to Spark.
+  */
+class CassandraQueryProcessor(cassandraRelation: CassandraXDSourceRelation,
+                              logicalPlan: LogicalPlan,
+                              cancellation: CancellationToken = CancellationToken.Never) extends SparkLoggerComponent {
 
   import CassandraQueryProcessor._
 
-  def execute(): Option[Array[Row]] = {
+  /**
+    * Executes the plan natively, its result being capped at [[CassandraQueryProcessor.DefaultLimit]] rows
+    * unless the plan has its own limit or it is a grouped aggregation.
+    */
+  def execute(): Option[Array[Row]] =
+    try {
+      executeQueries(Some(DefaultLimit)) map { rows =>
+        try rows.toArray finally rows.close()
+      }
+    } catch {
+      case cancelled: CancellationException => throw cancelled
+      case exc: Exception => log.warn(s"Exception executing the native query $logicalPlan", exc); None
+    }
+
+  /**
+    * Executes the plan natively without capping its result. Rows are fetched page by page (see
+    * `spark.cassandra.input.fetch.size_in_rows`), the next page being fetched while the current one is consumed.
+    * The Cassandra session is held until the iterator is exhausted.
+    */
+  def executeIterator(): Option[Iterator[Row]] =
+    try {
+      executeQueries(None)
+    } catch {
+      case cancelled: CancellationException => throw cancelled
+      case exc: Exception => log.warn(s"Exception executing the native query $logicalPlan", exc); None
+    }
+
+  private[this] def executeQueries(defaultLimit: Option[Int]): Option[CassandraRowIterator] = {
     def annotateRepeatedNames(names: Seq[String]): Seq[String] = {
       val indexedNames = names zipWithIndex
       val name2pos = indexedNames.groupBy(_._1).values.flatMap(_.zipWithIndex.map(x => x._1._2 -> x._2)).toMap
@@ -90,46 +189,73 @@ class CassandraQueryProcessor(cassandraRelation: CassandraXDSourceRelation, logi
     def buildAggregationExpression(names: Expression): String = {
       names match {
         case Alias(child, _) => buildAggregationExpression(child)
+        case AggregateExpression(aggregateFunction, _, false) => buildAggregationExpression(aggregateFunction)
         case Count(children) => s"count(${children.map(buildAggregationExpression).mkString(",")})"
+        case Min(child) => s"min(${buildAggregationExpression(child)})"
+        case Max(child) => s"max(${buildAggregationExpression(child)})"
+        case Sum(child) => s"sum(${buildAggregationExpression(child)})"
+        case Average(child) => s"avg(${buildAggregationExpression(child)})"
         case Literal(1, _) => "*"
+        case attribute: Attribute => attribute.name
       }
     }
 
-    try {
-      validatedNativePlan.map { cassandraPlan =>
-        if (cassandraPlan.limit.exists(_ == 0)) {
-          Array.empty[Row]
-        } else {
-          val projectsString: Seq[String] = cassandraPlan.basePlan match {
-            case SimpleLogicalPlan(projects, _, _, _) =>
-              projects.map(_.toString())
-
-            case AggregationLogicalPlan(projects, groupingExpression, _, _, _) =>
-              require(groupingExpression.isEmpty)
-              projects.map(buildAggregationExpression)
-          }
+    validatedNativePlan.map { cassandraPlan =>
+      if (cassandraPlan.limit.exists(_ == 0)) {
+        CassandraRowIterator.empty
+      } else {
+        val projectsString: Seq[String] = cassandraPlan.basePlan match {
+          case SimpleLogicalPlan(projects, _, _, _) =>
+            projects.map(_.toString())
+
+          case AggregationLogicalPlan(projects, _, _, _, _) =>
+            projects.map(buildAggregationExpression)
+        }
+
+        val groupingColumns: Seq[ColumnName] = cassandraPlan.basePlan match {
+          case AggregationLogicalPlan(_, groupingExpression, _, _, _) =>
+            val groupingNames = groupingExpression map { case attribute: Attribute => attribute.name }
+            // CQL requires the grouping columns to be listed in primary key order
+            cassandraRelation.tableDef.primaryKey.map(_.columnName).filter(groupingNames.contains)
+          case _ => Nil
+        }
 
-          val cqlQuery = buildNativeQuery(
-            cassandraRelation.tableDef.name,
-            projectsString,
-            cassandraPlan.filters,
-            cassandraPlan.limit.getOrElse(CassandraQueryProcessor.DefaultLimit),
-            cassandraPlan.udfsMap map { case (k, v) => k.toString -> v }
-          )
-          val resultSet = cassandraRelation.connector.withSessionDo { session =>
-            session.execute(cqlQuery)
+        // Capping the groups would silently drop some of them, so only their own limit applies to grouped aggregations
+        val limit = cassandraPlan.limit orElse defaultLimit.filter(_ => groupingColumns.isEmpty)
+        val udfs = cassandraPlan.udfsMap map { case (k, v) => k.toString -> v }
+
+        // A query per partition so that each one is routed to its replicas and they run in parallel (see CassandraRowIterator)
+        val statements = partitionKeyInValues(cassandraPlan) map { case (inFilter, values) =>
+          values.toSeq map { value =>
+            val filters = cassandraPlan.filters map { filter =>
+              if (filter eq inFilter) sources.EqualTo(inFilter.attribute, value) else filter
+            }
+            buildPreparedQuery(cassandraRelation.tableDef.name, projectsString, filters, limit, udfs)
           }
-          sparkResultFromCassandra(annotateRepeatedNames(cassandraPlan.projects.map(_.name)).toArray, resultSet)
+        } getOrElse {
+          buildPreparedQuery(
+            cassandraRelation.tableDef.name, projectsString, cassandraPlan.filters, limit, udfs, groupingColumns
+          ) :: Nil
         }
 
+        val columnNames = annotateRepeatedNames(cassandraPlan.projects.map(_.name)).toArray
+        val fetchSize = cassandraRelation.readconf.fetchSizeInRows
+        val session = cassandraRelation.connector.openSession()
+        val rows = try {
+          val boundStatements = statements.iterator map { statement =>
+            bind(session, statement).setFetchSize(fetchSize)
+          }
+          new CassandraRowIterator(session, boundStatements, columnNames, fetchSize, limit, cancellation)
+        } catch {
+          case exc: Exception =>
+            session.close()
+            throw exc
+        }
+        rows.start() // Fails fast so that the query can fall back to Spark
       }
-    } catch {
-      case exc: Exception => log.warn(s"Exception executing the native query $logicalPlan", exc.getMessage); None
     }
-
   }
 
-
   def validatedNativePlan: Option[CassandraPlan] = {
     lazy val limit: Option[Int] = logicalPlan.collectFirst { case Limit(Literal(num: Int, _), _) => num }
 
@@ -139,9 +265,6 @@ class CassandraQueryProcessor(cassandraRelation: CassandraXDSourceRelation, logi
         case Limit(_, child) =>
           findBasePlan(child)
 
-        case Aggregate(_, _, child) =>
-          findBasePlan(child)
-
         case ExtendedPhysicalOperation(projectList, filterList, _, crossdataExecutionPlan) =>
           crossdataExecutionPlan match {
             case CrossdataExecutionPlan(_, ProjectReport(exprIgnored), FilterReport(filtersIgnored, _)) if filtersIgnored.nonEmpty || exprIgnored.nonEmpty =>
@@ -211,6 +334,34 @@ class CassandraQueryProcessor(cassandraRelation: CassandraXDSourceRelation, logi
 
   }
 
+  /**
+    * @return the `IN` filter on the partition key, and its values, when the query asks for several partitions
+    *         and its results can be merged by concatenation.
+    */
+  private[this] def partitionKeyInValues(cassandraPlan: CassandraPlan): Option[(sources.In, Array[Any])] =
+    cassandraPlan.basePlan match {
+      case _: SimpleLogicalPlan =>
+        val partitionKeyColumns = cassandraRelation.tableDef.partitionKey.map(_.columnName).toSet
+        cassandraPlan.filters collectFirst {
+          case inFilter @ sources.In(attribute, values) if partitionKeyColumns.contains(attribute) && values.length > 1 =>
+            (inFilter, values)
+        }
+      case _ => None
+    }
+
+  private[this] def bind(session: Session, statement: CQLStatementTemplate) = {
+    import scala.collection.JavaConversions._
+    val boundValues = statement.values map { case BoundValue(column, value) =>
+      val converter = cassandraRelation.tableDef.columnByName(column).columnType.converterToCassandra
+      value match {
+        case values: Seq[_] => seqAsJavaList(values.map(converter.convert))
+        case singleValue => converter.convert(singleValue)
+      }
+    }
+    CassandraPreparedStatementCache.prepare(session, cassandraRelation.tableDef.keyspaceName, statement.cql)
+      .bind(boundValues: _*)
+  }
+
   private[this] def columnNameFromFilter(sourceFilter: SourceFilter): Option[ColumnName] = sourceFilter match {
     case sources.EqualTo(attribute, _) => Some(attribute)
     case sources.In(attribute, _) => Some(attribute)
@@ -230,10 +381,103 @@ class CassandraQueryProcessor(cassandraRelation: CassandraXDSourceRelation, logi
       case _ => NonIndexed
     }
 
-  private[this] def sparkResultFromCassandra(requiredColumns: Array[ColumnName], resultSet: ResultSet): Array[Row] = {
-    import scala.collection.JavaConversions._
-    val cassandraRowMetadata = CassandraRowMetadata.fromColumnNames(requiredColumns)
-    resultSet.all().map(CassandraSQLRow.fromJavaDriverRow(_, cassandraRowMetadata)).toArray
+  private[this] object CassandraRowIterator {
+    def empty: CassandraRowIterator =
+      new CassandraRowIterator(null, Iterator.empty, Array.empty, 0, None, CancellationToken.Never)
+  }
+
+  /**
+    * Iterates over the results of several queries, fetching the next page of each result asynchronously
+    * as soon as half of the current page has been consumed. At most [[CassandraQueryProcessor.MaxConcurrentQueries]]
+    * queries are in flight: the next one is sent once the result of the oldest one starts being read.
+    * The session is closed once all the rows have been read. Cancelling the query aborts the requests in flight
+    * and makes the iterator fail.
+    */
+  private[this] class CassandraRowIterator(session: Session,
+                                           statements: Iterator[Statement],
+                                           requiredColumns: Array[ColumnName],
+                                           fetchSize: Int,
+                                           limit: Option[Int],
+                                           cancellation: CancellationToken) extends Iterator[Row] with Closeable {
+
+    private val cassandraRowMetadata = CassandraRowMetadata.fromColumnNames(requiredColumns)
+    // Results of the queries in flight, in the order they are read
+    private val pendingResults = new ConcurrentLinkedQueue[ResultSetFuture]()
+    private var current: Option[ResultSet] = None
+    private var nRows = 0
+    private var closed = false
+    @volatile private var prefetch: Option[ListenableFuture[ResultSet]] = None
+
+    cancellation.onCancel(cancelRequests())
+
+    /**
+      * Sends the first queries and waits for the result of the first one, so that a failing query fails
+      * before any row is returned.
+      */
+    def start(): this.type = closingOnFailure {
+      sendQueries()
+      Option(pendingResults.peek()) foreach (_.getUninterruptibly)
+      this
+    }
+
+    override def hasNext: Boolean = !closed && closingOnFailure {
+      cancellation.throwIfCancelled()
+      val more = limit.forall(nRows < _) && nextAvailableResultSet.isDefined
+      if (!more) close()
+      more
+    }
+
+    override def next(): Row = {
+      if (!hasNext) throw new NoSuchElementException("No more rows in the Cassandra result")
+      closingOnFailure {
+        val resultSet = current.get
+        if (resultSet.getAvailableWithoutFetching <= fetchSize / 2 && !resultSet.isFullyFetched)
+          prefetch = Some(resultSet.fetchMoreResults()) // Prefetches the next page while the current one is being converted
+        nRows += 1
+        CassandraSQLRow.fromJavaDriverRow(resultSet.one(), cassandraRowMetadata)
+      }
+    }
+
+    /**
+      * Aborts the pending requests and releases the session. It is called once the rows are exhausted or
+      * a request fails.
+      */
+    override def close(): Unit = if (!closed) {
+      closed = true
+      try {
+        cancelRequests()
+      } finally {
+        Option(session).foreach(_.close())
+      }
+    }
+
+    private def cancelRequests(): Unit = {
+      import scala.collection.JavaConversions._
+      prefetch foreach (_.cancel(true))
+      pendingResults foreach (_.cancel(true))
+    }
+
+    private def sendQueries(): Unit =
+      while (!closed && pendingResults.size < MaxConcurrentQueries && statements.hasNext)
+        pendingResults.add(session.executeAsync(statements.next()))
+
+    private def closingOnFailure[T](action: => T): T =
+      try action catch {
+        case failure: Throwable =>
+          close()
+          throw failure
+      }
+
+    private def nextAvailableResultSet: Option[ResultSet] = {
+      while (current.forall(_.isExhausted) && !pendingResults.isEmpty) {
+        // Kept among the pending results while it is awaited so that it can be cancelled
+        current = Some(pendingResults.peek().getUninterruptibly)
+        pendingResults.poll()
+        sendQueries()
+      }
+      current.filterNot(_.isExhausted)
+    }
+
   }
 
 }
@@ -21,7 +21,7 @@ import java.io.IOException
 import java.net.InetAddress
 import java.util.UUID
 
-import com.datastax.driver.core.Metadata
+import com.datastax.driver.core.{Metadata, VersionNumber}
 import com.datastax.spark.connector.cql.{CassandraConnector, CassandraConnectorConf, Schema}
 import com.datastax.spark.connector.rdd.partitioner.{CassandraPartitionGenerator, DataSizeEstimates}
 import com.datastax.spark.connector.rdd.{CassandraRDD, ReadConf}
@@ -32,12 +32,14 @@ import com.datastax.spark.connector.writer.{SqlRowWriter, WriteConf}
 import com.datastax.spark.connector.{ColumnName, ColumnRef, FunctionCallRef, SomeColumns, _}
 import com.stratio.common.utils.components.logger.impl.SparkLoggerComponent
 import com.stratio.crossdata.connector.cassandra.CassandraQueryProcessor
-import com.stratio.crossdata.connector.{NativeFunctionExecutor, NativeScan}
+import com.stratio.crossdata.connector.{CancellationToken, NativeFunctionExecutor, NativeScan}
 import org.apache.spark.rdd.RDD
 import org.apache.spark.sql.cassandra.DataTypeConverter.toStructField
 import org.apache.spark.sql.catalyst.CatalystTypeConverters
-import org.apache.spark.sql.catalyst.expressions.aggregate.Count
-import org.apache.spark.sql.catalyst.expressions.{Alias, AttributeReference, GenericRowWithSchema, Literal}
+import org.apache.spark.sql.catalyst.expressions
+import org.apache.spark.sql.catalyst.expressions.aggregate.{AggregateExpression, AggregateFunction, Average, Count, Max, Min, Sum}
+import org.apache.spark.sql.catalyst.expressions.{Alias, AttributeReference, Expression, GenericRowWithSchema, Literal}
+import org.apache.spark.sql.catalyst.plans.logical
 import org.apache.spark.sql.catalyst.plans.logical._
 import org.apache.spark.sql.crossdata.catalyst.{EvaluateNativeUDF, NativeUDF}
 import org.apache.spark.sql.sources.{BaseRelation, Filter, InsertableRelation, PrunedFilteredScan}
@@ -45,6 +47,8 @@ import org.apache.spark.sql.types.{StructType, _}
 import org.apache.spark.sql.{DataFrame, Row, SQLContext, sources}
 import org.apache.spark.unsafe.types.UTF8String
 
+import scala.util.Try
+
 /**
  * Implements [[org.apache.spark.sql.sources.BaseRelation]]]], [[org.apache.spark.sql.sources.InsertableRelation]]]]
  * and [[org.apache.spark.sql.sources.PrunedFilteredScan]]]]
@@ -69,39 +73,117 @@ class CassandraXDSourceRelation(tableRef: TableRef,
 
   override def buildScan(optimizedLogicalPlan: LogicalPlan): Option[Array[Row]] = {
     logDebug(s"Processing ${optimizedLogicalPlan.toString()}")
-    val queryExecutor = CassandraQueryProcessor(this, optimizedLogicalPlan)
+    val queryExecutor = CassandraQueryProcessor(this, optimizedLogicalPlan, CancellationToken.current(sqlContext.sparkContext))
+    val convert = rowConverter(optimizedLogicalPlan)
+
+    queryExecutor.execute() map { rows =>
+      rows map convert
+    }
 
+  }
+
+  /**
+   * Unlike [[buildScan]], the result isn't capped at [[CassandraQueryProcessor.DefaultLimit]] rows
+   * and it is fetched from Cassandra page by page.
+   */
+  override def buildScanIterator(optimizedLogicalPlan: LogicalPlan): Option[Iterator[Row]] = {
+    logDebug(s"Processing (streamed) ${optimizedLogicalPlan.toString()}")
+    val queryExecutor = CassandraQueryProcessor(this, optimizedLogicalPlan, CancellationToken.current(sqlContext.sparkContext))
+    val convert = rowConverter(optimizedLogicalPlan)
+
+    queryExecutor.executeIterator() map { rows =>
+      rows map convert
+    }
+  }
+
+  private def rowConverter(optimizedLogicalPlan: LogicalPlan): Row => Row = {
     val toCatalyst = CatalystTypeConverters.createToCatalystConverter(optimizedLogicalPlan.schema)
     val toScala = CatalystTypeConverters.createToScalaConverter(optimizedLogicalPlan.schema)
 
-    queryExecutor.execute() map { rows =>
-      rows map { row =>
-        val iRow = toCatalyst(row)
-        toScala(iRow).asInstanceOf[GenericRowWithSchema]
-      }
+    row => {
+      val iRow = toCatalyst(row)
+      toScala(iRow).asInstanceOf[GenericRowWithSchema]
     }
-
   }
 
   override def isSupported(logicalStep: LogicalPlan, wholeLogicalPlan: LogicalPlan): Boolean = logicalStep match {
     case ln: LeafNode => true // TODO leafNode == LogicalRelation(xdSourceRelation)
     case un: UnaryNode => un match {
       case Limit(_, _) | Project(_, _) | Filter(_, _) | EvaluateNativeUDF(_, _, _) => true
-      case aggregatePlan: Aggregate => isAggregateSupported(aggregatePlan)
+      case aggregatePlan: Aggregate => isAggregateSupported(aggregatePlan, wholeLogicalPlan)
       case _ => false
     }
     case unsupportedLogicalPlan => log.debug(s"LogicalPlan $unsupportedLogicalPlan cannot be executed natively"); false
   }
 
-  def isAggregateSupported(aggregateLogicalPlan: Aggregate): Boolean = aggregateLogicalPlan match {
-    case Aggregate(Nil, aggregateExpressions, _) if aggregateExpressions.length == 1 =>
-      aggregateExpressions.head match {
-        case Alias(Count(Literal(1, _) :: Nil), _) => false // TODO Keep it unless Cassandra implement the count efficiently
+  /**
+   * Aggregations are pushed down when Cassandra can compute them without scanning the whole table, that is,
+   * either grouping by a primary key prefix which includes the whole partition key or, when there is no grouping,
+   * restricting the partition key. Grouping requires every node of the cluster to run Cassandra 3.10 or later.
+   * The supported functions are count, min, max and sum/avg of those types whose Cassandra result type matches
+   * Spark's one.
+   */
+  def isAggregateSupported(aggregateLogicalPlan: Aggregate, wholeLogicalPlan: LogicalPlan): Boolean = {
+    val Aggregate(groupingExpressions, aggregateExpressions, _) = aggregateLogicalPlan
+    val groupingColumns = groupingExpressions collect { case attribute: AttributeReference => attribute.name }
+
+    def isNativeAggregateFunction(aggregateFunction: AggregateFunction): Boolean = aggregateFunction match {
+      case Count(Literal(1, _) :: Nil) | Count((_: AttributeReference) :: Nil) => true
+      case Min(_: AttributeReference) | Max(_: AttributeReference) => true
+      case Sum(column: AttributeReference) => column.dataType match {
+        case LongType | DoubleType | _: DecimalType => true
         case _ => false
       }
-    case _ => false
+      case Average(column: AttributeReference) => column.dataType match {
+        case DoubleType | _: DecimalType => true
+        case _ => false
+      }
+      case _ => false
+    }
+
+    def isNativeAggregation(expression: Expression): Boolean = expression match {
+      case Alias(child, _) => isNativeAggregation(child)
+      case AggregateExpression(aggregateFunction, _, false) => isNativeAggregateFunction(aggregateFunction)
+      case attribute: AttributeReference => groupingColumns contains attribute.name
+      case _ => false
+    }
+
+    def isPrimaryKeyPrefix: Boolean = {
+      val primaryKey = tableDef.primaryKey.map(_.columnName)
+      groupingColumns.length >= tableDef.partitionKey.length &&
+        primaryKey.take(groupingColumns.length).toSet == groupingColumns.toSet
+    }
+
+    def restrictsPartitionKey: Boolean = {
+      def conjuncts(condition: Expression): Seq[Expression] = condition match {
+        case expressions.And(left, right) => conjuncts(left) ++ conjuncts(right)
+        case other => other :: Nil
+      }
+      val restrictedColumns = wholeLogicalPlan.collect {
+        case logical.Filter(condition, _) => conjuncts(condition)
+      }.flatten.collect {
+        case expressions.EqualTo(attribute: AttributeReference, _: Literal) => attribute.name
+        case expressions.EqualTo(_: Literal, attribute: AttributeReference) => attribute.name
+        case expressions.In(attribute: AttributeReference, values) if values.forall(_.isInstanceOf[Literal]) => attribute.name
+        case expressions.InSet(attribute: AttributeReference, _) => attribute.name
+      }
+      tableDef.partitionKey.forall(column => restrictedColumns contains column.columnName)
+    }
+
+    groupingColumns.length == groupingExpressions.length &&
+      (if (groupingColumns.isEmpty) restrictsPartitionKey else isPrimaryKeyPrefix && supportsGroupBy) &&
+      aggregateExpressions.forall(isNativeAggregation)
   }
 
+  private lazy val supportsGroupBy: Boolean = Try {
+    import scala.collection.JavaConversions._
+    connector.withClusterDo { cluster =>
+      cluster.getMetadata.getAllHosts forall { host =>
+        Option(host.getCassandraVersion).exists(_.compareTo(CassandraXDSourceRelation.MinGroupByVersion) >= 0)
+      }
+    }
+  } getOrElse false
+
   // ~~ NativeScan implementation 
 
   lazy val tableDef = Schema.tableFromCassandra(connector, tableRef.keyspace, tableRef.table)
@@ -327,6 +409,9 @@ object CassandraXDSourceRelation {
 
   import CassandraSourceRelation._
 
+  // First Cassandra version supporting GROUP BY
+  val MinGroupByVersion = VersionNumber.parse("3.10")
+
   def apply(tableRef: TableRef,
             sqlContext: SQLContext,
             options: CassandraSourceOptions = CassandraSourceOptions(),
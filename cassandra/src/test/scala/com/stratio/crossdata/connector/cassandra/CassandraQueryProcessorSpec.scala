@@ -146,7 +146,50 @@ class CassandraQueryProcessorSpec extends BaseXDTest {
     }
 
   }
-  
+
+  it should "build a prepared query binding the filter values" in {
+    val statement = CassandraQueryProcessor.buildPreparedQuery(
+      TableQN, Array(ColumnId), Array(sources.EqualTo(ColumnId, ValueId), sources.In(ColumnAge, Array(ValueAge, ValueAge2))), Some(Limit))
+
+    statement.cql should be(s"SELECT $ColumnId FROM $TableQN WHERE $ColumnId = ? AND $ColumnAge IN ? LIMIT $Limit ALLOW FILTERING")
+    statement.values should be(
+      Seq(CassandraQueryProcessor.BoundValue(ColumnId, ValueId), CassandraQueryProcessor.BoundValue(ColumnAge, Seq(ValueAge, ValueAge2)))
+    )
+  }
+
+  it should "build the same prepared query for queries with the same shape" in {
+    def statement(age: Int) = CassandraQueryProcessor.buildPreparedQuery(
+      TableQN, Array(ColumnId), Array(sources.And(sources.GreaterThan(ColumnAge, age), sources.LessThan(ColumnAge, age + 10))), Some(Limit))
+
+    statement(ValueAge).cql should be(statement(ValueAge2).cql)
+    statement(ValueAge).values.map(_.value) should be(Seq(ValueAge, ValueAge + 10))
+  }
+
+  it should "keep inline the values compared to pushed-down functions in prepared queries" in {
+    val statement = CassandraQueryProcessor.buildPreparedQuery(
+      TableQN, Array(ColumnId), Array(sources.EqualTo(Function01, ValueId)), Some(Limit), udfs)
+
+    statement.cql should be(
+      s"SELECT $ColumnId FROM $TableQN WHERE ${getFunctionName(Function01)}($ColumnId) = '$ValueId' LIMIT $Limit ALLOW FILTERING"
+    )
+    statement.values shouldBe empty
+  }
+
+  it should "build a prepared aggregation query grouping by some columns" in {
+    val statement = CassandraQueryProcessor.buildPreparedQuery(
+      TableQN, Array(ColumnId, s"max($ColumnAge)"), Array(sources.EqualTo(ColumnId, ValueId)), Some(Limit), groupingColumns = Seq(ColumnId))
+
+    statement.cql should be(
+      s"SELECT $ColumnId, max($ColumnAge) FROM $TableQN WHERE $ColumnId = ? GROUP BY $ColumnId LIMIT $Limit ALLOW FILTERING"
+    )
+  }
+
+  it should "build a prepared query without limit" in {
+    val statement = CassandraQueryProcessor.buildPreparedQuery(TableQN, Array(ColumnId), Array(), None)
+
+    statement.cql should be(s"SELECT $ColumnId FROM $TableQN  ALLOW FILTERING")
+  }
+
   /*
      "A CassandraXDSourceRelation" should "support natively a table scan" in {
 
@@ -17,10 +17,13 @@ package com.stratio.crossdata.common
 
 import java.util.UUID
 
+import akka.actor.ActorRef
 import akka.cluster.ClusterEvent.CurrentClusterState
 import com.stratio.crossdata.common.result.SQLResult
 import com.stratio.crossdata.common.security.Session
 import com.typesafe.config.Config
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.types.StructType
 
 import scala.collection._
 import scala.concurrent.duration.FiniteDuration
@@ -30,10 +33,15 @@ trait Command {
   private[crossdata] val requestId = UUID.randomUUID()
 }
 
+/**
+  * @param pageSize When defined, the server will deliver the result in pages of `pageSize` rows which are
+  *                 pulled by the driver one by one (see [[RequestResultPage]] and [[ResultPage]]).
+  */
 case class SQLCommand private(sql: String,
                                                  queryId: UUID = UUID.randomUUID(),
                                                  flattenResults: Boolean = false,
-                                                 timeout: Option[FiniteDuration] = None
+                                                 timeout: Option[FiniteDuration] = None,
+                                                 pageSize: Option[Int] = None
                                                 ) extends Command {
 
   def this(query: String,
@@ -99,6 +107,35 @@ private[crossdata] case class GetJobStatus() extends ControlCommand
 
 private[crossdata] case class CancelQueryExecution(queryId: UUID) extends ControlCommand
 
+/**
+  * Opens a server-side cursor over the result of `sql`, its rows are then pulled through [[FetchCursorCommand]]
+  * until the last one is delivered or the cursor gets closed by [[CloseCursorCommand]].
+  */
+private[crossdata] case class OpenCursorCommand(sql: String) extends Command
+
+/**
+  * @param maxRows Maximum number of rows to be returned, the server may cap it.
+  */
+private[crossdata] case class FetchCursorCommand(cursorId: UUID, maxRows: Int) extends Command
+
+private[crossdata] case class CloseCursorCommand(cursorId: UUID) extends Command
+
+/**
+  * Sent by the driver directly to the producer of a paged result (see [[ResultPage#producer]])
+  * in order to get the next page.
+  *
+  * @param queryRequestId Identifier of the request which started the paged query.
+  */
+private[crossdata] case class RequestResultPage(queryRequestId: UUID)
+
+/**
+  * Sent by the driver directly to the producer of a paged result when it stops consuming it before its last page
+  * so that the pages still to be requested are discarded right away.
+  *
+  * @param queryRequestId Identifier of the request which started the paged query.
+  */
+private[crossdata] case class ReleaseResultPages(queryRequestId: UUID)
+
 /*
   Note that this message implies that the server trust the client in regard to the relation between the session id
    and the user. This assumption will be taken for granted until the model of session management changes from
@@ -115,6 +152,23 @@ private[crossdata] case class QueryCancelledReply(requestId: UUID, cancellationR
 
 private[crossdata] case class SQLReply(requestId: UUID, sqlResult: SQLResult) extends ServerReply
 
+/**
+  * A page of a paged result.
+  *
+  * @param requestId Identifier of the request which started the paged query.
+  * @param rows Page contents.
+  * @param schema Schema of the whole result.
+  * @param isLast Whether there are no more pages to be requested.
+  * @param producer Actor serving the pages, the following ones are requested to it through [[RequestResultPage]].
+  */
+private[crossdata] case class ResultPage(
+                                          requestId: UUID,
+                                          rows: Array[Row],
+                                          schema: StructType,
+                                          isLast: Boolean,
+                                          producer: ActorRef
+                                        ) extends ServerReply
+
 /**
   * This class encapsulates the information about the state of the Crossdata cluster.
   *
@@ -127,6 +181,17 @@ private[crossdata] case class ClusterStateReply(
                                                  clusterState: CurrentClusterState,
                                                  sessionCluster: Set[String] = Set.empty[String]) extends ServerReply
 
+private[crossdata] case class CursorOpenedReply(requestId: UUID, cursorId: UUID, schema: StructType) extends ServerReply
+
+/**
+  * @param result Fetched rows or the error which made the cursor fail.
+  * @param isLast Whether the cursor is exhausted, it is closed by the server in that case.
+  */
+private[crossdata] case class CursorFetchReply(requestId: UUID, cursorId: UUID, result: SQLResult, isLast: Boolean)
+  extends ServerReply
+
+private[crossdata] case class CursorClosedReply(requestId: UUID, cursorId: UUID) extends ServerReply
+
 private[crossdata] case class OpenSessionReply(requestId: UUID, isOpen: Boolean) extends ServerReply
 
 private[crossdata] case class AddHdfsFileReply(requestId: UUID, hdfsRoute: String) extends ServerReply
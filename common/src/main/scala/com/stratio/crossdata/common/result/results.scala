@@ -15,14 +15,21 @@
  */
 package com.stratio.crossdata.common.result
 
-import akka.NotUsed
+import java.io.Closeable
+import java.util.concurrent.CompletionStage
+import java.util.function.Consumer
+
 import akka.actor.ActorSystem
-import akka.stream.ActorMaterializer
-import akka.stream.scaladsl.Source
+import akka.stream.scaladsl.{Sink, SinkQueueWithCancel, Source}
+import akka.stream.{ActorMaterializer, Attributes, Materializer}
+import akka.{Done, NotUsed}
+import com.typesafe.config.ConfigFactory
 import org.apache.commons.lang3.StringUtils
 import org.apache.spark.sql.Row
 import org.apache.spark.sql.types.StructType
 
+import scala.collection.JavaConverters._
+import scala.compat.java8.FutureConverters._
 import scala.concurrent._
 import scala.concurrent.duration.Duration
 import scala.util.{Success, Try}
@@ -105,23 +112,98 @@ case class ErrorSQLResult(message: String, cause: Option[Throwable] = None) exte
 }
 
 
+/**
+ * Result whose rows are streamed from the server. The rows can be consumed without holding them all in memory by
+ * iterating over them ([[toIterator]], [[javaIterator]]) or by processing them in batches ([[foreachBatch]]).
+ */
 trait StreamedSQLResult extends SQLResult {
+
+  import StreamedSQLResult._
+
   val rowsSource: Source[Row, NotUsed]
-  val javaRowsSource: akka.stream.javadsl.Source[Row, NotUsed] = rowsSource.asJava
+  lazy val javaRowsSource: akka.stream.javadsl.Source[Row, NotUsed] = rowsSource.asJava
+
+  /**
+   * Materializer running the stream of rows, it is owned by the driver which has received the result.
+   */
+  protected def materializer: Materializer
+
+  override def resultSet: Array[Row] =
+    Await.result(rowsSource.runWith(Sink.seq)(materializer), Duration.Inf).toArray
+
+  def toIterator(): StreamedRowIterator = toIterator(DefaultBufferSize)
+
+  /**
+   * Iterator pulling the rows from the stream: the rows are requested as they are consumed and at most
+   * `bufferSize` rows are buffered. The stream is cancelled when the iterator is closed before being exhausted.
+   */
+  def toIterator(bufferSize: Int): StreamedRowIterator = {
+    val queueSink = Sink.queue[Row]().withAttributes(Attributes.inputBuffer(bufferSize, bufferSize))
+    new StreamedRowIterator(rowsSource.runWith(queueSink)(materializer))
+  }
+
+  def javaIterator(): java.util.Iterator[Row] = javaIterator(DefaultBufferSize)
+
+  def javaIterator(bufferSize: Int): java.util.Iterator[Row] = toIterator(bufferSize).asJava
+
+  /**
+   * Processes the rows in batches of `batchSize` rows: a batch is requested once the previous one has been processed.
+   *
+   * @return a future which is completed when every batch has been processed.
+   */
+  def foreachBatch(batchSize: Int)(process: Seq[Row] => Unit): Future[Done] =
+    rowsSource.grouped(batchSize).runForeach(process)(materializer)
 
-  override def resultSet: Array[Row] = {
-    implicit val aSystem: ActorSystem = ActorSystem()
-    implicit  val aMater: ActorMaterializer = ActorMaterializer()
+  def foreachBatch(batchSize: Int, process: Consumer[java.util.List[Row]]): CompletionStage[Done] =
+    foreachBatch(batchSize)(batch => process.accept(batch.asJava)).toJava
 
-    val sqlResult = rowsSource.runFold(List.empty[Row]) {
-      case (acc: List[Row], row: Row) => row :: acc
-      case _ => Nil
+}
+
+object StreamedSQLResult {
+
+  val DefaultBufferSize = 1000
+
+  /**
+   * Materializer of the results which are not received by a driver. Its (daemon) actor system is created on first use.
+   */
+  lazy val DefaultMaterializer: Materializer = {
+    val config = ConfigFactory.parseString("akka.daemonic = on").withFallback(ConfigFactory.load())
+    ActorMaterializer()(ActorSystem("crossdata-streamed-results", config))
+  }
+
+}
+
+class StreamedRowIterator private[result](queue: SinkQueueWithCancel[Row]) extends Iterator[Row] with Closeable {
+
+  private var nextRow: Option[Row] = None
+  private var finished = false
+
+  override def hasNext: Boolean = {
+    if (nextRow.isEmpty && !finished) {
+      nextRow = Await.result(queue.pull(), Duration.Inf)
+      finished = nextRow.isEmpty
     }
-    Await.result(sqlResult, Duration.Inf).reverse.toArray
+    nextRow.isDefined
+  }
+
+  override def next(): Row = {
+    if (!hasNext) throw new NoSuchElementException("No more rows in the streamed result")
+    val row = nextRow.get
+    nextRow = None
+    row
   }
+
+  override def close(): Unit = if (!finished) {
+    finished = true
+    nextRow = None
+    queue.cancel()
+  }
+
 }
 
-case class StreamedSuccessfulSQLResult(rowsSource: Source[Row, NotUsed], schema: StructType) extends StreamedSQLResult {
+case class StreamedSuccessfulSQLResult(rowsSource: Source[Row, NotUsed], schema: StructType)
+                                      (implicit protected val materializer: Materializer = StreamedSQLResult.DefaultMaterializer)
+  extends StreamedSQLResult {
   val hasError: Boolean = false
 }
 
@@ -130,6 +212,8 @@ case class StreamedErrorSQLResult(message: String, cause: Option[Throwable] = No
   override lazy val rowsSource = throw mkException
   override lazy val schema = throw mkException
 
+  override protected def materializer: Materializer = StreamedSQLResult.DefaultMaterializer
+
   private def mkException: Exception =
     cause.map(throwable => new RuntimeException(message, throwable)).getOrElse(new RuntimeException(message))
 }
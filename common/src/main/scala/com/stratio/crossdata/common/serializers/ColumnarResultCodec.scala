@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.common.serializers
+
+import java.nio.ByteOrder
+import java.nio.charset.StandardCharsets.UTF_8
+import java.sql.Timestamp
+
+import akka.NotUsed
+import akka.stream.scaladsl.{Flow, Source}
+import akka.util.{ByteIterator, ByteString, ByteStringBuilder}
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.catalyst.expressions.GenericRowWithSchema
+import org.apache.spark.sql.catalyst.util.DateTimeUtils
+import org.apache.spark.sql.types._
+
+import scala.collection.immutable
+import scala.collection.mutable.ListBuffer
+
+/**
+  * Binary columnar format for query results.
+  *
+  * A result is a sequence of frames, each one prefixed by its length (4 bytes, big endian) and its kind (1 byte):
+  *  - The first frame contains the result schema (JSON representation).
+  *  - Each following frame contains a batch of rows stored column by column: the number of rows in the batch
+  *    followed, for each column, by its null bitmap and its non-null values.
+  *
+  * Only flat schemas of atomic types are supported, results having any other column type should be
+  * serialized as JSON (see [[RowSerializer]]).
+  */
+object ColumnarResultCodec {
+
+  val MediaSubType = "x-crossdata-columnar"
+  val DefaultBatchSize = 4096
+
+  private implicit val byteOrder = ByteOrder.BIG_ENDIAN
+
+  private val SchemaFrameKind: Byte = 0
+  private val BatchFrameKind: Byte = 1
+
+  private type ValueWriter = (ByteStringBuilder, Any) => Unit
+  private type ValueReader = ByteIterator => Any
+
+  def isSupported(schema: StructType): Boolean = schema.fields.forall(field => writer.isDefinedAt(field.dataType))
+
+  def encodeSchema(schema: StructType): ByteString = frame(SchemaFrameKind) { builder =>
+    builder.putBytes(schema.json.getBytes(UTF_8))
+  }
+
+  /**
+    * @param schema Schema of the rows to be encoded, it must be supported (see [[isSupported]]).
+    * @return a function encoding batches of rows whose column codecs are resolved just once.
+    */
+  def batchEncoder(schema: StructType): Seq[Row] => ByteString = {
+    val writers: Array[ValueWriter] = schema.fields.map(field => writer(field.dataType))
+
+    rows => frame(BatchFrameKind) { builder =>
+      val batch = rows.toIndexedSeq
+      val nRows = batch.length
+      builder.putInt(nRows)
+
+      var col = 0
+      while (col < writers.length) {
+        val write = writers(col)
+        val bitmap = new Array[Byte]((nRows + 7) / 8)
+        var i = 0
+        while (i < nRows) {
+          if (batch(i).isNullAt(col)) bitmap(i / 8) = (bitmap(i / 8) | (1 << (i % 8))).toByte
+          i += 1
+        }
+        builder.putBytes(bitmap)
+        i = 0
+        while (i < nRows) {
+          val row = batch(i)
+          if (!row.isNullAt(col)) write(builder, row.get(col))
+          i += 1
+        }
+        col += 1
+      }
+    }
+  }
+
+  /**
+    * Splits a byte stream into frames (without their length prefix) regardless of how it has been chunked.
+    * The stream fails if it ends within a frame, so that a cut result isn't taken for a complete one.
+    */
+  def framing: Flow[ByteString, ByteString, NotUsed] =
+    Flow[ByteString].map(Option(_)).concat(Source.single(None)).statefulMapConcat { () =>
+      var buffer = ByteString.empty
+
+      {
+        case Some(bytes) =>
+          buffer ++= bytes
+          val frames = ListBuffer.empty[ByteString]
+          var pending = true
+          while (pending && buffer.length >= 4) {
+            val frameLength = buffer.iterator.getInt
+            if (buffer.length >= 4 + frameLength) {
+              frames += buffer.slice(4, 4 + frameLength)
+              buffer = buffer.drop(4 + frameLength)
+            } else pending = false
+          }
+          frames.toList
+
+        case None if buffer.nonEmpty =>
+          throw new RuntimeException(s"Truncated result: The stream ended within a frame (${buffer.length} bytes left)")
+
+        case None =>
+          Nil
+      }
+    }
+
+  def decodeSchema(frame: ByteString): StructType = {
+    require(frame.headOption.contains(SchemaFrameKind), "Schema frame expected")
+    DataType.fromJson(frame.drop(1).utf8String).asInstanceOf[StructType]
+  }
+
+  /**
+    * @param schema Schema of the rows to be decoded.
+    * @return a function decoding batch frames whose column codecs are resolved just once.
+    */
+  def batchDecoder(schema: StructType): ByteString => immutable.Seq[Row] = {
+    val readers: Array[ValueReader] = schema.fields.map(field => reader(field.dataType))
+
+    frame => {
+      require(frame.headOption.contains(BatchFrameKind), "Batch frame expected")
+      val it = frame.iterator
+      it.getByte
+      val nRows = it.getInt
+      val values = Array.fill(nRows)(new Array[Any](readers.length))
+
+      var col = 0
+      while (col < readers.length) {
+        val read = readers(col)
+        val bitmap = new Array[Byte]((nRows + 7) / 8)
+        it.getBytes(bitmap)
+        var i = 0
+        while (i < nRows) {
+          val isNull = (bitmap(i / 8) & (1 << (i % 8))) != 0
+          values(i)(col) = if (isNull) null else read(it)
+          i += 1
+        }
+        col += 1
+      }
+
+      values.map(rowValues => new GenericRowWithSchema(rowValues, schema): Row).toList
+    }
+  }
+
+  private def frame(kind: Byte)(body: ByteStringBuilder => Unit): ByteString = {
+    val bodyBuilder = new ByteStringBuilder
+    bodyBuilder.putByte(kind)
+    body(bodyBuilder)
+    val content = bodyBuilder.result()
+    new ByteStringBuilder().putInt(content.length).append(content).result()
+  }
+
+  private def putBytes(builder: ByteStringBuilder, bytes: Array[Byte]): Unit = {
+    builder.putInt(bytes.length)
+    builder.putBytes(bytes)
+  }
+
+  private def getBytes(it: ByteIterator): Array[Byte] = {
+    val bytes = new Array[Byte](it.getInt)
+    it.getBytes(bytes)
+    bytes
+  }
+
+  private val writer: PartialFunction[DataType, ValueWriter] = {
+    case StringType => (b, v) => putBytes(b, v.toString.getBytes(UTF_8))
+    case IntegerType => (b, v) => b.putInt(v.asInstanceOf[Int])
+    case LongType => (b, v) => b.putLong(v.asInstanceOf[Long])
+    case ShortType => (b, v) => b.putShort(v.asInstanceOf[Short])
+    case ByteType => (b, v) => b.putByte(v.asInstanceOf[Byte])
+    case FloatType => (b, v) => b.putFloat(v.asInstanceOf[Float])
+    case DoubleType => (b, v) => b.putDouble(v.asInstanceOf[Double])
+    case BooleanType => (b, v) => b.putByte(if (v.asInstanceOf[Boolean]) 1 else 0)
+    case BinaryType => (b, v) => putBytes(b, v.asInstanceOf[Array[Byte]])
+    case _: DecimalType => (b, v) =>
+      val decimal = v match {
+        case d: Decimal => d.toJavaBigDecimal
+        case d: java.math.BigDecimal => d
+        case d: BigDecimal => d.bigDecimal
+        case n => new java.math.BigDecimal(n.toString)
+      }
+      putBytes(b, decimal.toString.getBytes(UTF_8))
+    case DateType => (b, v) =>
+      // Days since epoch, as Spark stores them, so that the decoded dates don't depend on the time of the day
+      val days = v match {
+        case d: java.sql.Date => DateTimeUtils.fromJavaDate(d)
+        case d: java.util.Date => DateTimeUtils.millisToDays(d.getTime)
+        case days: Int => days
+      }
+      b.putInt(days)
+    case TimestampType => (b, v) =>
+      val ts = v match {
+        case t: Timestamp => t
+        case micros: Long => DateTimeUtils.toJavaTimestamp(micros)
+      }
+      b.putLong(ts.getTime)
+      b.putInt(ts.getNanos)
+  }
+
+  private def reader(dataType: DataType): ValueReader = dataType match {
+    case StringType => it => new String(getBytes(it), UTF_8)
+    case IntegerType => _.getInt
+    case LongType => _.getLong
+    case ShortType => _.getShort
+    case ByteType => _.getByte
+    case FloatType => _.getFloat
+    case DoubleType => _.getDouble
+    case BooleanType => _.getByte != 0
+    case BinaryType => getBytes
+    case _: DecimalType => it => Decimal(new java.math.BigDecimal(new String(getBytes(it), UTF_8)))
+    case DateType => it => DateTimeUtils.toJavaDate(it.getInt)
+    case TimestampType => it =>
+      val ts = new Timestamp(it.getLong)
+      ts.setNanos(it.getInt)
+      ts
+  }
+
+}
@@ -41,7 +41,10 @@ private [serializers] object CommandSerializerHelper {
     "CancelQueryExecution" -> { jSQLCommand => (jSQLCommand \ "details").extract[CancelQueryExecution] },
     "OpenSessionCommand" -> { jSQLCommand => (jSQLCommand \ "details").extract[OpenSessionCommand] },
     "CloseSessionCommand" -> { _.extract[CloseSessionCommand] },
-    "ClusterStateCommand" -> { _.extract[ClusterStateCommand] }
+    "ClusterStateCommand" -> { _.extract[ClusterStateCommand] },
+    "OpenCursorCommand" -> { jCommand => (jCommand \ "details").extract[OpenCursorCommand] },
+    "FetchCursorCommand" -> { jCommand => (jCommand \ "details").extract[FetchCursorCommand] },
+    "CloseCursorCommand" -> { jCommand => (jCommand \ "details").extract[CloseCursorCommand] }
   )
 
   val commandSerializer: PartialFunction[Any, JValue] = {
@@ -55,6 +58,12 @@ private [serializers] object CommandSerializerHelper {
       Extraction.decompose(CommandWithName[ClusterStateCommand])
     case cancellation: CancelQueryExecution =>
       Extraction.decompose(CommandWithName(cancellation))
+    case command: OpenCursorCommand =>
+      Extraction.decompose(CommandWithName(command))
+    case command: FetchCursorCommand =>
+      Extraction.decompose(CommandWithName(command))
+    case command: CloseCursorCommand =>
+      Extraction.decompose(CommandWithName(command))
   }
 
 }
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.common.serializers
+
+import java.sql.Timestamp
+
+import akka.util.{ByteString, ByteStringBuilder}
+import com.fasterxml.jackson.core.{JsonFactory, JsonGenerator, JsonParser, JsonToken}
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.catalyst.expressions.GenericRowWithSchema
+import org.apache.spark.sql.catalyst.util.{DateTimeUtils, ArrayBasedMapData => ArrayBasedMapDataNotDeprecated, ArrayData => ArrayDataNotDeprecated, MapData => MapDataNotDeprecated}
+import org.apache.spark.sql.types._
+
+import scala.collection.mutable
+
+import StreamedSuccessfulSQLResultSerializerHelper.RowLabel
+
+/**
+  * Schema-compiled JSON codec for streamed rows.
+  *
+  * It produces and consumes the same representation as [[RowSerializer]] (wrapped within a [[StreamedRowSerializer]]
+  * frame) but each column writer and reader is resolved just once for the provided schema and values are streamed
+  * straight through Jackson's generator and parser, so no intermediate json4s AST is built for each row.
+  *
+  * Rows are written without their schema, which the reader already knows, and any `schema` field found
+  * when reading is skipped.
+  */
+class RowCodec(schema: StructType) {
+
+  import RowCodec._
+
+  private val writeValues: (JsonGenerator, Row) => Unit = structWriter(schema)
+  private val readValues: JsonParser => Row = structReader(schema)
+
+  /**
+    * @return a `{"streamedRow":{"values":[...]}}` frame.
+    */
+  def writeStreamedRow(row: Row): ByteString = {
+    val builder = new ByteStringBuilder
+    val generator = jsonFactory.createGenerator(builder.asOutputStream)
+    generator.writeStartObject()
+    generator.writeFieldName(RowLabel)
+    writeValues(generator, row)
+    generator.writeEndObject()
+    generator.close()
+    builder.result()
+  }
+
+  /**
+    * @param frame `{"streamedRow":{"values":[...]}}` frame.
+    */
+  def readStreamedRow(frame: ByteString): Row = {
+    val parser = jsonFactory.createParser(frame.toArray)
+    try {
+      expect(parser.nextToken(), JsonToken.START_OBJECT)
+      expect(parser.nextToken(), JsonToken.FIELD_NAME)
+      require(parser.getCurrentName == RowLabel, s"$RowLabel field expected")
+      parser.nextToken()
+      readValues(parser)
+    } finally {
+      parser.close()
+    }
+  }
+
+}
+
+object RowCodec {
+
+  private val jsonFactory = new JsonFactory()
+
+  private type ValueWriter = (JsonGenerator, Any) => Unit
+  private type ValueReader = JsonParser => Any
+
+  private def expect(token: JsonToken, expected: JsonToken): Unit =
+    require(token == expected, s"Unexpected JSON token: $token, $expected was expected")
+
+  private def structWriter(st: StructType): (JsonGenerator, Row) => Unit = {
+    val writers: Array[ValueWriter] = st.fields.map(field => nullSafe(writer(field.dataType)))
+
+    (gen, row) => {
+      gen.writeStartObject()
+      gen.writeFieldName("values")
+      gen.writeStartArray()
+      var i = 0
+      while (i < writers.length) {
+        writers(i)(gen, row.get(i))
+        i += 1
+      }
+      gen.writeEndArray()
+      gen.writeEndObject()
+    }
+  }
+
+  private def nullSafe(write: ValueWriter): ValueWriter = (gen, v) =>
+    if (v == null) gen.writeNull() else write(gen, v)
+
+  private def writer(dataType: DataType): ValueWriter = dataType match {
+    case NullType => (gen, _) => gen.writeNull()
+    case StringType => (gen, v) => gen.writeString(v.toString)
+    case TimestampType => (gen, v) => v match {
+      case ts: Timestamp => gen.writeString(ts.toString)
+      case micros: Long => gen.writeString(DateTimeUtils.toJavaTimestamp(micros).toString)
+    }
+    case DateType => (gen, v) => v match {
+      case date: java.sql.Date => gen.writeString(date.toString)
+      case days: Int => gen.writeString(DateTimeUtils.toJavaDate(days).toString)
+    }
+    case IntegerType => (gen, v) => gen.writeNumber(v.asInstanceOf[Int])
+    case ShortType => (gen, v) => gen.writeNumber(v.asInstanceOf[Short].toInt)
+    case ByteType => (gen, v) => gen.writeNumber(v.asInstanceOf[Byte].toInt)
+    case LongType => (gen, v) => gen.writeNumber(v.asInstanceOf[Long])
+    case FloatType => (gen, v) => gen.writeNumber(v.asInstanceOf[Float])
+    case DoubleType => (gen, v) => gen.writeNumber(v.asInstanceOf[Double])
+    case _: DecimalType => (gen, v) => v match {
+      case d: Decimal => gen.writeNumber(d.toJavaBigDecimal)
+      case d: java.math.BigDecimal => gen.writeNumber(d)
+      case d: BigDecimal => gen.writeNumber(d.bigDecimal)
+      case d: Double => gen.writeNumber(BigDecimal(d).bigDecimal)
+      case f: Float => gen.writeNumber(BigDecimal(f).bigDecimal)
+    }
+    case BinaryType => (gen, v) => gen.writeString(new String(v.asInstanceOf[Array[Byte]]))
+    case BooleanType => (gen, v) => gen.writeBoolean(v.asInstanceOf[Boolean])
+    case udt: UserDefinedType[_] => writer(udt.sqlType)
+    case ArrayType(elementType, _) =>
+      val writeElement = nullSafe(writer(elementType))
+      (gen, v) => {
+        val elements: Iterable[Any] = v match {
+          case arr: ArrayDataNotDeprecated => arr.array
+          case seq: Seq[_] => seq
+          case arr: Array[_] => arr
+        }
+        gen.writeStartArray()
+        elements.foreach(writeElement(gen, _))
+        gen.writeEndArray()
+      }
+    case MapType(keyType, valueType, _) =>
+      /* Maps will be serialized as sub-objects so keys are constrained to be strings */
+      val writeKey = nullSafe(writer(keyType))
+      val writeValue = nullSafe(writer(valueType))
+      (gen, v) => {
+        val (keys, values) = v match {
+          case m: MapDataNotDeprecated => (m.keyArray().array.toSeq, m.valueArray().array.toSeq)
+          case m: scala.collection.Map[_, _] => (m.keys.toSeq, m.values.toSeq)
+        }
+        gen.writeStartObject()
+        gen.writeFieldName("map")
+        gen.writeStartObject()
+        gen.writeFieldName("keys")
+        gen.writeStartArray()
+        keys.foreach(writeKey(gen, _))
+        gen.writeEndArray()
+        gen.writeFieldName("values")
+        gen.writeStartArray()
+        values.foreach(writeValue(gen, _))
+        gen.writeEndArray()
+        gen.writeEndObject()
+        gen.writeEndObject()
+      }
+    case st: StructType =>
+      val writeStruct = structWriter(st)
+      (gen, v) => writeStruct(gen, v.asInstanceOf[Row])
+  }
+
+  /**
+    * The returned reader expects the parser to be positioned at the struct START_OBJECT token and
+    * leaves it at the matching END_OBJECT token.
+    */
+  private def structReader(st: StructType): JsonParser => Row = {
+    val readers: Array[ValueReader] = st.fields.map(field => nullSafe(reader(field.dataType)))
+
+    parser => {
+      expect(parser.getCurrentToken, JsonToken.START_OBJECT)
+      var values: Array[Any] = null
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        val fieldName = parser.getCurrentName
+        parser.nextToken()
+        if (fieldName == "values") {
+          expect(parser.getCurrentToken, JsonToken.START_ARRAY)
+          values = new Array[Any](readers.length)
+          var i = 0
+          while (parser.nextToken() != JsonToken.END_ARRAY) {
+            values(i) = readers(i)(parser)
+            i += 1
+          }
+        } else parser.skipChildren()
+      }
+      require(values != null, "Row values not found")
+      new GenericRowWithSchema(values, st)
+    }
+  }
+
+  private def nullSafe(read: ValueReader): ValueReader = parser =>
+    if (parser.getCurrentToken == JsonToken.VALUE_NULL) null else read(parser)
+
+  /**
+    * Readers expect the parser to be positioned at the first token of the value to be read and
+    * leave it at the last token of that value.
+    */
+  private def reader(dataType: DataType): ValueReader = dataType match {
+    case NullType => _ => null
+    case StringType => _.getText
+    case TimestampType => parser => Timestamp.valueOf(parser.getText)
+    case DateType => parser => java.sql.Date.valueOf(parser.getText)
+    case IntegerType => _.getIntValue
+    case ShortType => _.getShortValue
+    case ByteType => _.getIntValue.toByte
+    case LongType => _.getLongValue
+    case FloatType => _.getFloatValue
+    case DoubleType => _.getDoubleValue
+    case _: DecimalType => parser => Decimal(BigDecimal(parser.getDecimalValue))
+    case BinaryType => _.getText.getBytes
+    case BooleanType => _.getBooleanValue
+    case udt: UserDefinedType[_] => reader(udt.sqlType)
+    case ArrayType(elementType, _) =>
+      val readElement = nullSafe(reader(elementType))
+      parser => {
+        expect(parser.getCurrentToken, JsonToken.START_ARRAY)
+        val elements = mutable.ArrayBuffer.empty[Any]
+        while (parser.nextToken() != JsonToken.END_ARRAY) elements += readElement(parser)
+        mutable.WrappedArray make elements.toArray
+      }
+    case MapType(keyType, valueType, _) =>
+      val readKey = nullSafe(reader(keyType))
+      val readValue = nullSafe(reader(valueType))
+      def readArray(parser: JsonParser, read: ValueReader): Array[Any] = {
+        expect(parser.getCurrentToken, JsonToken.START_ARRAY)
+        val elements = mutable.ArrayBuffer.empty[Any]
+        while (parser.nextToken() != JsonToken.END_ARRAY) elements += read(parser)
+        elements.toArray
+      }
+      parser => {
+        expect(parser.getCurrentToken, JsonToken.START_OBJECT)
+        var keys = Array.empty[Any]
+        var values = Array.empty[Any]
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          val fieldName = parser.getCurrentName
+          parser.nextToken()
+          fieldName match {
+            case "map" =>
+              expect(parser.getCurrentToken, JsonToken.START_OBJECT)
+              while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                val mapFieldName = parser.getCurrentName
+                parser.nextToken()
+                mapFieldName match {
+                  case "keys" => keys = readArray(parser, readKey)
+                  case "values" => values = readArray(parser, readValue)
+                  case _ => parser.skipChildren()
+                }
+              }
+            case _ => parser.skipChildren()
+          }
+        }
+        ArrayBasedMapDataNotDeprecated(keys, values)
+      }
+    case st: StructType => structReader(st)
+  }
+
+}
@@ -19,7 +19,8 @@ package com.stratio.crossdata.common
 
 import java.util.UUID
 
-import com.stratio.crossdata.common.result.{ErrorSQLResult, SuccessfulSQLResult}
+import akka.stream.scaladsl.Source
+import com.stratio.crossdata.common.result.{ErrorSQLResult, StreamedSuccessfulSQLResult, SuccessfulSQLResult}
 import com.stratio.crossdata.test.BaseXDTest
 import org.apache.spark.sql.Row
 import org.apache.spark.sql.types.StructType
@@ -27,6 +28,11 @@ import org.junit.runner.RunWith
 import org.scalatest.junit.JUnitRunner
 import org.scalatest.mock.MockitoSugar
 
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+import scala.concurrent.Await
+import scala.concurrent.duration._
+
 @RunWith(classOf[JUnitRunner])
 class SQLResultSpec extends BaseXDTest  with MockitoSugar{
 
@@ -54,4 +60,34 @@ class SQLResultSpec extends BaseXDTest  with MockitoSugar{
     hasError should be (false)
   }
 
+  "A StreamedSuccessfulSQLResult" should "iterate over its rows" in {
+    val rows = (1 to 10).map(Row(_))
+    val result = StreamedSuccessfulSQLResult(Source(rows.toList), mock[StructType])
+
+    result.toIterator(2).toList shouldBe rows
+    result.javaIterator().asScala.toList shouldBe rows
+    result.resultSet shouldBe rows.toArray
+  }
+
+  it should "stop pulling rows when its iterator is closed" in {
+    var pulled = 0
+    val result = StreamedSuccessfulSQLResult(Source.fromIterator(() => Iterator.from(1).map { i => pulled = i; Row(i) }), mock[StructType])
+
+    val iterator = result.toIterator(4)
+    iterator.take(3).toList shouldBe Seq(Row(1), Row(2), Row(3))
+    iterator.close()
+
+    iterator.hasNext shouldBe false
+    pulled should be < 100
+  }
+
+  it should "process its rows in batches" in {
+    val result = StreamedSuccessfulSQLResult(Source((1 to 5).map(Row(_)).toList), mock[StructType])
+    val batches = mutable.ListBuffer.empty[Seq[Row]]
+
+    Await.result(result.foreachBatch(2)(batch => batches += batch), 5.seconds)
+
+    batches shouldBe Seq(Seq(Row(1), Row(2)), Seq(Row(3), Row(4)), Seq(Row(5)))
+  }
+
 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.common.serializers
+
+import java.nio.ByteOrder
+
+import akka.actor.ActorSystem
+import akka.stream.ActorMaterializer
+import akka.stream.scaladsl.{Sink, Source}
+import akka.util.ByteString
+import com.stratio.crossdata.test.BaseXDTest
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.catalyst.expressions.GenericRowWithSchema
+import org.apache.spark.sql.types._
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import scala.concurrent.Await
+import scala.concurrent.duration._
+
+@RunWith(classOf[JUnitRunner])
+class ColumnarResultCodecSpec extends BaseXDTest {
+
+  import ColumnarResultCodec._
+
+  lazy val schema = StructType(List(
+    StructField("int", IntegerType, true),
+    StructField("long", LongType, true),
+    StructField("string", StringType, true),
+    StructField("boolean", BooleanType, true),
+    StructField("double", DoubleType, true),
+    StructField("float", FloatType, true),
+    StructField("decimal", DecimalType(10, 2), true),
+    StructField("date", DateType, true),
+    StructField("timestamp", TimestampType, true),
+    StructField("smallint", ShortType, true),
+    StructField("tinyint", ByteType, true)
+  ))
+
+  lazy val rows: Seq[Row] = (0 until 10) map { i =>
+    val values: Array[Any] = Array(
+      i,
+      i.toLong << 40,
+      s"string$i",
+      i % 2 == 0,
+      i * 1.5,
+      i * 0.5F,
+      Decimal(BigDecimal(i) / 4),
+      java.sql.Date.valueOf(s"2015-11-${10 + i}"),
+      java.sql.Timestamp.valueOf(s"2015-11-30 10:00:0$i.123456789"),
+      i.toShort,
+      i.toByte
+    )
+    // Each row has a null value placed in a different column
+    if (i < values.length) values(i) = null
+    new GenericRowWithSchema(values, schema)
+  }
+
+  "A ColumnarResultCodec" should "support flat schemas of atomic types only" in {
+    isSupported(schema) shouldBe true
+    isSupported(StructType(StructField("array", ArrayType(IntegerType)) :: Nil)) shouldBe false
+    isSupported(StructType(StructField("struct", schema) :: Nil)) shouldBe false
+  }
+
+  it should "encode and decode rows preserving their values and nulls" in {
+    val encoded = encodeSchema(schema) ++ rows.grouped(3).map(batchEncoder(schema)).reduce(_ ++ _)
+
+    val frames = splitFrames(encoded)
+    val decodedSchema = decodeSchema(frames.head)
+    val decodedRows = frames.tail.flatMap(batchDecoder(decodedSchema))
+
+    decodedSchema shouldEqual schema
+    decodedRows.map(_.toSeq) shouldEqual rows.map(_.toSeq)
+  }
+
+  it should "encode dates as days regardless of their time of the day" in {
+    val dateSchema = StructType(StructField("date", DateType) :: Nil)
+    val afternoon = java.sql.Timestamp.valueOf("2015-11-10 15:30:00").getTime
+    val row = new GenericRowWithSchema(Array(new java.sql.Date(afternoon)), dateSchema)
+
+    val frames = splitFrames(batchEncoder(dateSchema)(row :: Nil))
+    val decoded = batchDecoder(dateSchema)(frames.head).head.getDate(0)
+
+    decoded shouldEqual java.sql.Date.valueOf("2015-11-10")
+  }
+
+  it should "encode empty batches" in {
+    val frames = splitFrames(batchEncoder(schema)(Seq.empty))
+    batchDecoder(schema)(frames.head) shouldBe empty
+  }
+
+  it should "split a chunked stream into frames and fail when it is truncated" in {
+    implicit val system = ActorSystem("ColumnarResultCodecSpec")
+    implicit val materializer = ActorMaterializer()
+    try {
+      val chunks = (encodeSchema(schema) ++ batchEncoder(schema)(rows)).grouped(7).toList
+
+      val frames = Await.result(Source(chunks).via(framing).runWith(Sink.seq), 5 seconds)
+      decodeSchema(frames.head) shouldEqual schema
+      batchDecoder(schema)(frames(1)).map(_.toSeq) shouldEqual rows.map(_.toSeq)
+
+      val truncated = Source(chunks.init).via(framing).runWith(Sink.seq)
+      the[RuntimeException].thrownBy(Await.result(truncated, 5 seconds)).getMessage should startWith ("Truncated result")
+    } finally {
+      system.terminate()
+    }
+  }
+
+  private def splitFrames(bytes: ByteString): List[ByteString] =
+    if (bytes.isEmpty) Nil
+    else {
+      val length = bytes.iterator.getInt(ByteOrder.BIG_ENDIAN)
+      bytes.slice(4, 4 + length) :: splitFrames(bytes.drop(4 + length))
+    }
+
+}
@@ -36,7 +36,10 @@ class CommandSerializerSpec extends XDSerializationTest[Command] with CrossdataC
     TestCase("marshall & unmarshall a SQLCommand 2", SQLCommand("select * from highschool", timeout = Some(5 seconds))),
     TestCase("marshall & unmarshall an OpenSessionCommand", OpenSessionCommand("usr")),
     TestCase("marshall & unmarshall an CloseSessionCommand", CloseSessionCommand()),
-    TestCase("marshall & unmarshall an CancelQueryExecution", CancelQueryExecution(UUID.randomUUID()))
+    TestCase("marshall & unmarshall an CancelQueryExecution", CancelQueryExecution(UUID.randomUUID())),
+    TestCase("marshall & unmarshall an OpenCursorCommand", OpenCursorCommand("select * from highschool")),
+    TestCase("marshall & unmarshall a FetchCursorCommand", FetchCursorCommand(UUID.randomUUID(), 100)),
+    TestCase("marshall & unmarshall a CloseCursorCommand", CloseCursorCommand(UUID.randomUUID()))
   )
 
 }
\ No newline at end of file
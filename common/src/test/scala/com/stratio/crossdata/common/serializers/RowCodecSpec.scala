@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.common.serializers
+
+import akka.util.ByteString
+import com.stratio.crossdata.common.result.{InternalStreamedSuccessfulSQLResult, StreamedRow}
+import com.stratio.crossdata.test.BaseXDTest
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.catalyst.expressions.GenericRowWithSchema
+import org.apache.spark.sql.catalyst.util.ArrayBasedMapData
+import org.apache.spark.sql.types._
+import org.json4s.jackson.JsonMethods.{compact, parse, render}
+import org.json4s.{Extraction, Formats}
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import scala.collection.mutable.WrappedArray
+
+@RunWith(classOf[JUnitRunner])
+class RowCodecSpec extends BaseXDTest with CrossdataCommonSerializer {
+
+  lazy val structType = StructType(StructField("field1", IntegerType, true) :: StructField("field2", StringType, true) :: Nil)
+
+  lazy val schema = StructType(List(
+    StructField("int", IntegerType, true),
+    StructField("long", LongType, true),
+    StructField("string", StringType, true),
+    StructField("boolean", BooleanType, true),
+    StructField("double", DoubleType, true),
+    StructField("float", FloatType, true),
+    StructField("decimal", DecimalType(10, 2), true),
+    StructField("date", DateType, true),
+    StructField("timestamp", TimestampType, true),
+    StructField("smallint", ShortType, true),
+    StructField("tinyint", ByteType, true),
+    StructField("null", StringType, true),
+    StructField("arraystring", ArrayType(StringType, true), true),
+    StructField("mapstringint", MapType(StringType, IntegerType, true), true),
+    StructField("struct", structType, true)
+  ))
+
+  lazy val row: Row = new GenericRowWithSchema(
+    Array(
+      2147483647,
+      9223372036854775807L,
+      "string",
+      true,
+      3.0,
+      3.0F,
+      Decimal(BigDecimal("12.25")),
+      java.sql.Date.valueOf("2015-11-30"),
+      java.sql.Timestamp.valueOf("2015-11-30 10:00:00.0"),
+      12.toShort,
+      3.toByte,
+      null,
+      WrappedArray make Array("hello", "world"),
+      ArrayBasedMapData(Map("b" -> 2)),
+      new GenericRowWithSchema(Array(1, "one"), structType)
+    ),
+    schema
+  )
+
+  "A RowCodec" should "encode and decode rows" in {
+    val codec = new RowCodec(schema)
+    val decoded = codec.readStreamedRow(codec.writeStreamedRow(row))
+
+    decoded.schema shouldBe schema
+    assertSameValues(decoded, row)
+  }
+
+  it should "produce frames which can be deserialized by the json4s streamed row serializer" in {
+    implicit val formats: Formats = json4sJacksonFormats + new StreamedRowSerializer(schema)
+    val frame = new RowCodec(schema).writeStreamedRow(row)
+
+    val StreamedRow(decoded, _) = parse(frame.utf8String, false).extract[InternalStreamedSuccessfulSQLResult]
+    assertSameValues(decoded, row)
+  }
+
+  it should "decode frames produced by the json4s streamed row serializer" in {
+    val serialized = compact(render(Extraction.decompose(StreamedRow(row, Some(schema)): InternalStreamedSuccessfulSQLResult)))
+
+    val decoded = new RowCodec(schema).readStreamedRow(ByteString(serialized))
+    assertSameValues(decoded, row)
+  }
+
+  private def assertSameValues(actual: Row, expected: Row): Unit = {
+    actual.length shouldBe expected.length
+    for (i <- 0 until expected.length) (actual.get(i), expected.get(i)) match {
+      case (a: ArrayBasedMapData, e: ArrayBasedMapData) =>
+        a.keyArray.array.toSeq shouldEqual e.keyArray.array.toSeq
+        a.valueArray.array.toSeq shouldEqual e.valueArray.array.toSeq
+      case (a: Row, e: Row) => a.toSeq shouldEqual e.toSeq
+      case (a, e) => a shouldEqual e
+    }
+  }
+
+}
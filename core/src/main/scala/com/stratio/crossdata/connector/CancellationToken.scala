@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.connector
+
+import java.util.concurrent.CancellationException
+
+import org.apache.spark.SparkContext
+import org.apache.spark.annotation.DeveloperApi
+
+import scala.collection.concurrent.TrieMap
+import scala.concurrent.duration.Duration
+import scala.concurrent.{Await, Future, Promise}
+import scala.util.Try
+
+/**
+ * Cancellation signal of the query run by a Spark job group. Spark cancels the jobs of a cancelled group but the
+ * native executions ([[NativeScan]]) are run by the driver thread so datasources should check the token,
+ * or register a callback aborting their requests, in order to release their connections as soon as possible.
+ */
+@DeveloperApi
+class CancellationToken private {
+
+  private val cancelled = Promise[Nothing]()
+  private var callbacks: List[() => Unit] = Nil
+
+  def isCancelled: Boolean = cancelled.isCompleted
+
+  /**
+   * Registers a callback to be run, once, when the token is cancelled. It is run right away if the token
+   * has already been cancelled.
+   */
+  def onCancel(callback: => Unit): Unit = {
+    val runNow = synchronized {
+      if (!isCancelled) callbacks = (() => callback) :: callbacks
+      isCancelled
+    }
+    if (runNow) callback
+  }
+
+  /**
+   * @throws CancellationException if the token has been cancelled.
+   */
+  def throwIfCancelled(): Unit =
+    if (isCancelled) throw new CancellationException("The query has been cancelled")
+
+  /**
+   * Waits for the result of an asynchronous request, giving up as soon as the token is cancelled.
+   *
+   * @throws CancellationException if the token is cancelled before the request completes.
+   */
+  def awaitResult[T](request: Future[T], atMost: Duration): T =
+    Await.result(Future.firstCompletedOf(request :: cancelled.future :: Nil)(CancellationToken.SameThread), atMost)
+
+  private[connector] def cancel(): Unit = {
+    val pending = synchronized {
+      val pending = callbacks
+      callbacks = Nil
+      cancelled.tryFailure(new CancellationException("The query has been cancelled"))
+      pending
+    }
+    pending.reverse foreach (callback => Try(callback()))
+  }
+
+}
+
+@DeveloperApi
+object CancellationToken {
+
+  // Local property set by SparkContext#setJobGroup (SparkContext.SPARK_JOB_GROUP_ID is private to Spark)
+  private[connector] val JobGroupIdProperty = "spark.jobGroup.id"
+
+  /**
+   * Token of the executions which don't belong to any registered job group, it is never cancelled.
+   */
+  val Never: CancellationToken = new CancellationToken
+
+  private val tokens = TrieMap.empty[String, CancellationToken]
+
+  /**
+   * Creates the token of a job group, it should be unregistered once the job group is no longer used.
+   */
+  def register(jobGroupId: String): CancellationToken = tokens.getOrElseUpdate(jobGroupId, new CancellationToken)
+
+  def unregister(jobGroupId: String): Unit = tokens.remove(jobGroupId)
+
+  /**
+   * @return the token of the job group set at the calling thread (see [[SparkContext#setJobGroup]]).
+   */
+  def current(sparkContext: SparkContext): CancellationToken =
+    Option(sparkContext.getLocalProperty(JobGroupIdProperty)) flatMap tokens.get getOrElse Never
+
+  /**
+   * Cancels both the Spark jobs and the native executions of a job group.
+   */
+  def cancelJobGroup(sparkContext: SparkContext, jobGroupId: String): Unit = {
+    tokens.get(jobGroupId) foreach (_.cancel())
+    sparkContext.cancelJobGroup(jobGroupId)
+  }
+
+  private object SameThread extends scala.concurrent.ExecutionContext {
+    override def execute(runnable: Runnable): Unit = runnable.run()
+    override def reportFailure(cause: Throwable): Unit = throw cause
+  }
+
+}
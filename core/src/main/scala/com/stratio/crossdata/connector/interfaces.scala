@@ -34,6 +34,21 @@ import scala.util.Try
 @DeveloperApi
 trait NativeScan extends PushDownable {
   def buildScan(optimizedLogicalPlan: LogicalPlan): Option[Array[Row]]
+
+  /**
+   * Streaming version of [[buildScan]]. The returned iterator should produce the rows as they are
+   * fetched from the datasource so that the whole result doesn't need to be held in memory.
+   * Datasources able to fetch their results incrementally should override it; the default
+   * implementation just iterates over the materialized result.
+   *
+   * Iterators holding datasource resources should be [[java.io.Closeable]] and release them as soon as they are
+   * exhausted, fail or are closed, whichever comes first, as callers only close those they don't consume fully.
+   *
+   * @param optimizedLogicalPlan the logical plan once it has been processed by the parser, analyzer and optimizer.
+   * @return an iterator over the result or None if the plan cannot be executed natively.
+   */
+  def buildScanIterator(optimizedLogicalPlan: LogicalPlan): Option[Iterator[Row]] =
+    buildScan(optimizedLogicalPlan).map(_.iterator)
 }
 
 /**
@@ -47,7 +47,7 @@ import org.apache.spark.sql.crossdata.catalyst.parser.{CrossdataParserDialect, X
 import org.apache.spark.sql.crossdata.catalyst.planning.{ExtendedDataSourceStrategy, XDStrategies}
 import org.apache.spark.sql.crossdata.catalyst.{ExtractNativeUDFs, NativeUDF, XDFunctionRegistry}
 import org.apache.spark.sql.crossdata.config.CoreConfig
-import org.apache.spark.sql.crossdata.execution.XDQueryExecution
+import org.apache.spark.sql.crossdata.execution.{QueryResultCache, XDQueryExecution}
 import org.apache.spark.sql.crossdata.launcher.SparkJobLauncher
 import org.apache.spark.sql.crossdata.user.functions.GroupConcat
 import org.apache.spark.sql.execution.{ExtractPythonUDFs, SparkSQLParser}
@@ -123,6 +123,9 @@ class XDContext protected(@transient val sc: SparkContext,
   }
 
 
+  @transient
+  protected[sql] lazy val resultCache: QueryResultCache = QueryResultCache(sc, conf)
+
   @transient
   protected[crossdata] lazy val securityManager: Option[CrossdataSecurityManager] = None
 
@@ -182,7 +185,7 @@ class XDContext protected(@transient val sc: SparkContext,
 
   @transient
   class XDPlanner extends sparkexecution.SparkPlanner(this) with XDStrategies {
-    override def strategies: Seq[Strategy] = Seq(XDDDLStrategy, ExtendedDataSourceStrategy) ++ super.strategies
+    override def strategies: Seq[Strategy] = Seq(XDDDLStrategy, IndexLookupJoinStrategy, ExtendedDataSourceStrategy) ++ super.strategies
   }
 
   @transient
@@ -16,6 +16,8 @@
 package org.apache.spark.sql.crossdata
 
 
+import java.io.Closeable
+
 import com.stratio.common.utils.components.logger.impl.SparkLoggerComponent
 import com.stratio.crossdata.connector.NativeScan
 import org.apache.spark.annotation.DeveloperApi
@@ -29,8 +31,10 @@ import org.apache.spark.sql.crossdata.ExecutionType.Default
 import org.apache.spark.sql.crossdata.ExecutionType.ExecutionType
 import org.apache.spark.sql.crossdata.ExecutionType.Native
 import org.apache.spark.sql.crossdata.ExecutionType.Spark
-import org.apache.spark.sql.crossdata.XDDataFrame.findNativeQueryExecutor
+import org.apache.spark.sql.crossdata.XDDataFrame.{closeable, findNativeQueryExecutor}
 import org.apache.spark.sql.crossdata.exceptions.NativeExecutionException
+import org.apache.spark.sql.crossdata.execution.LocalExecution
+import org.apache.spark.sql.crossdata.execution.QueryResultCache
 import org.apache.spark.sql.execution.QueryExecution
 import org.apache.spark.sql.execution.datasources.LogicalRelation
 import org.apache.spark.sql.types.ArrayType
@@ -88,6 +92,20 @@ private[sql] object XDDataFrame {
     }
   }
 
+  /**
+   * @return `rows` along with the means to release the resources they hold, closing it does nothing unless
+   *         `rows` is [[Closeable]] itself.
+   */
+  def closeable[T](rows: Iterator[T]): Iterator[T] with Closeable = rows match {
+    case closeableRows: Closeable => closeableRows.asInstanceOf[Iterator[T] with Closeable]
+    case _ =>
+      new Iterator[T] with Closeable {
+        override def hasNext: Boolean = rows.hasNext
+        override def next(): T = rows.next()
+        override def close(): Unit = ()
+      }
+  }
+
 }
 
 /**
@@ -111,7 +129,12 @@ class XDDataFrame private[sql](@transient override val sqlContext: SQLContext,
   /**
    * @inheritdoc
     */
-  override def collect(): Array[Row] = {
+  override def collect(): Array[Row] =
+    resultCache map { cache =>
+      cache.getOrCompute(queryExecution.optimizedPlan, sqlContext.conf.getAllConfs, referencedTables)(uncachedCollect())
+    } getOrElse uncachedCollect()
+
+  private[this] def uncachedCollect(): Array[Row] = {
     // If cache doesn't go through native
     if (sqlContext.cacheManager.lookupCachedData(this).nonEmpty) {
       super.collect()
@@ -122,10 +145,47 @@ class XDDataFrame private[sql](@transient override val sqlContext: SQLContext,
       } else {
         logInfo(s"Native query: ${queryExecution.simpleString}")
       }
-      nativeQueryExecutor.flatMap(executeNativeQuery).getOrElse(super.collect())
+      nativeQueryExecutor.flatMap(executeNativeQuery) orElse executeLocally() getOrElse super.collect()
+    }
+  }
+
+  /**
+   * Returns an iterator over all the [[Row]]s of this [[XDDataFrame]] without materializing the whole result:
+   * native queries are streamed from the datasource ([[NativeScan#buildScanIterator]]) whereas Spark queries
+   * are fetched one partition at a time. The result is added to the query result cache once the iterator is
+   * exhausted, unless it exceeds the rows limit of the cache entries.
+   *
+   * Streamed native results hold datasource resources (connections, cursors...) which are released once the
+   * iterator is exhausted or fails. Callers which stop consuming it earlier must close it; closing it is harmless
+   * otherwise.
+   *
+   * @return an iterator that contains all of [[Row]]s in this [[XDDataFrame]]
+   */
+  def toLocalIterator(): Iterator[Row] with Closeable = {
+    val cachedResult = resultCache.flatMap(_.lookup(queryExecution.optimizedPlan, sqlContext.conf.getAllConfs))
+    cachedResult.map(result => closeable(result.iterator)) getOrElse {
+      val rows = closeable(uncachedLocalIterator())
+      resultCache map {
+        _.caching(queryExecution.optimizedPlan, sqlContext.conf.getAllConfs, referencedTables)(rows)
+      } getOrElse rows
     }
   }
 
+  private[this] def uncachedLocalIterator(): Iterator[Row] =
+    if (sqlContext.cacheManager.lookupCachedData(this).nonEmpty) {
+      rdd.toLocalIterator
+    } else {
+      val nativeQueryExecutor: Option[NativeScan] = findNativeQueryExecutor(queryExecution.optimizedPlan)
+      if (nativeQueryExecutor.isEmpty) {
+        logInfo(s"Spark Query (streamed): ${queryExecution.simpleString}")
+      } else {
+        logInfo(s"Native query (streamed): ${queryExecution.simpleString}")
+      }
+      nativeQueryExecutor.flatMap(executeNativeQueryIterator) orElse executeLocally().map(_.iterator) getOrElse {
+        rdd.toLocalIterator
+      }
+    }
+
   def flattenedCollect(): Array[Row] = {
 
     def flattenProjectedColumns(exp: Expression, prev: List[String] = Nil): (List[String], Boolean) = exp match {
@@ -279,6 +339,16 @@ class XDDataFrame private[sql](@transient override val sqlContext: SQLContext,
   }
 
 
+  /**
+   * Query result cache shared by the sessions of the [[XDContext]], if it is enabled.
+   */
+  private[this] def referencedTables: Set[String] = QueryResultCache.referencedTables(queryExecution.analyzed)
+
+  private[this] def resultCache: Option[QueryResultCache] = sqlContext match {
+    case xdContext: XDContext if xdContext.resultCache.isEnabled => Some(xdContext.resultCache)
+    case _ => None
+  }
+
   /**
    * Executes the logical plan.
    *
@@ -288,9 +358,7 @@ class XDDataFrame private[sql](@transient override val sqlContext: SQLContext,
    */
   private[this] def executeNativeQuery(provider: NativeScan): Option[Array[Row]] = {
 
-    val containsSubfields = notSupportedProject(queryExecution.optimizedPlan)
-    val planSupported = !containsSubfields && queryExecution.optimizedPlan.map(lp => lp).forall(provider.isSupported(_, queryExecution.optimizedPlan))
-    if(planSupported) {
+    if(isNativelySupported(provider)) {
       // TODO handle failed executions which are currently wrapped within the option, so these jobs will appear duplicated
       // TODO the plan should notice the native execution
       withNewExecutionId{
@@ -301,6 +369,52 @@ class XDDataFrame private[sql](@transient override val sqlContext: SQLContext,
 
   }
 
+  /**
+   * Executes the logical plan producing its rows lazily.
+   *
+   * @param provider [[org.apache.spark.sql.sources.BaseRelation]] mixing-in [[NativeScan]]
+   * @return an iterator over the [[Row]]s in this [[XDDataFrame]]
+   *         or None if the provider cannot resolve the entire [[XDDataFrame]] natively.
+   */
+  private[this] def executeNativeQueryIterator(provider: NativeScan): Option[Iterator[Row]] = {
+    if(isNativelySupported(provider)) {
+      withNewExecutionId{
+        provider.buildScanIterator(queryExecution.optimizedPlan)
+      }
+    } else
+      None
+  }
+
+  /**
+   * Executes within the driver the plans combining small results of several native relations, e.g. a join between
+   * tables of different datasources.
+   *
+   * @return the [[Row]]s in this [[XDDataFrame]] or None if the plan cannot be executed locally or any relation
+   *         returns more than [[LocalExecution.Settings.maxRowsPerRelation]] rows.
+   */
+  private[this] def executeLocally(): Option[Array[Row]] = {
+    val optimizedPlan = queryExecution.optimizedPlan
+    val settings = LocalExecution.Settings(sqlContext.conf)
+    if (settings.enabled && LocalExecution.isCandidate(optimizedPlan)) {
+      logInfo(s"Local query: ${queryExecution.simpleString}")
+      withNewExecutionId {
+        new LocalExecution(optimizedPlan, settings, nativeScan).execute()
+      }
+    } else
+      None
+  }
+
+  private[this] def nativeScan(logicalPlan: LogicalPlan): Option[NativeScan] =
+    findNativeQueryExecutor(logicalPlan).filter(isNativelySupported(_, logicalPlan))
+
+  private[this] def isNativelySupported(provider: NativeScan): Boolean =
+    isNativelySupported(provider, queryExecution.optimizedPlan)
+
+  private[this] def isNativelySupported(provider: NativeScan, logicalPlan: LogicalPlan): Boolean = {
+    val containsSubfields = notSupportedProject(logicalPlan)
+    !containsSubfields && logicalPlan.map(lp => lp).forall(provider.isSupported(_, logicalPlan))
+  }
+
   private[this] def notSupportedProject(optimizedLogicalPlan: LogicalPlan): Boolean = {
 
     optimizedLogicalPlan collectFirst {
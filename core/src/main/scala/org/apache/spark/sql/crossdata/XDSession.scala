@@ -21,6 +21,7 @@ import org.apache.spark.Logging
 import org.apache.spark.sql.SQLConf
 import org.apache.spark.sql.crossdata.catalog.interfaces.XDCatalogCommon
 import org.apache.spark.sql.crossdata.catalog.{CatalogChain, XDCatalog}
+import org.apache.spark.sql.crossdata.execution.QueryResultCache
 import org.apache.spark.sql.crossdata.session.{XDSessionState, XDSharedState}
 
 object XDSession {
@@ -51,6 +52,9 @@ class XDSession(
   @transient
   override protected[sql] lazy val conf: SQLConf = xdSessionState.sqlConf.enableCacheInvalidation(false)
 
+  @transient
+  override protected[sql] lazy val resultCache: QueryResultCache = xdSharedState.resultCache
+
   @transient
   override protected[crossdata] lazy val securityManager: Option[CrossdataSecurityManager] = xdSharedState.securityManager
 
@@ -19,7 +19,7 @@ import com.stratio.common.utils.components.logger.impl.SparkLoggerComponent
 import org.apache.spark.sql.catalyst.plans.logical.LogicalPlan
 import org.apache.spark.sql.catalyst.{CatalystConf, TableIdentifier}
 import org.apache.spark.sql.crossdata.XDContext
-import org.apache.spark.sql.crossdata.catalog.XDCatalog.{CrossdataApp, CrossdataIndex, CrossdataTable, IndexIdentifier, ViewIdentifier}
+import org.apache.spark.sql.crossdata.catalog.XDCatalog.{CrossdataApp, CrossdataIndex, CrossdataTable, IndexIdentifier, IndexStatus, ViewIdentifier}
 import org.apache.spark.sql.crossdata.catalog.interfaces.{XDCatalogCommon, XDPersistentCatalog, XDStreamingCatalog, XDTemporaryCatalog}
 import org.apache.spark.sql.crossdata.models.{EphemeralQueryModel, EphemeralStatusModel, EphemeralTableModel}
 
@@ -103,6 +103,18 @@ private[crossdata] class CatalogChain private(val temporaryCatalogs: Seq[XDTempo
   }
 
 
+  /**
+    * Catalog changes might alter the result of any query so cached query results are discarded.
+    */
+  private def invalidatingResults[R](catalogOperation: => R): R =
+    try catalogOperation finally xdContext.resultCache.invalidateAll()
+
+  /**
+    * Temporary tables and views are (re)registered quite often so only the results read from them are discarded.
+    */
+  private def invalidatingResultsOf[R](tableIdent: TableIdentifier)(catalogOperation: => R): R =
+    try catalogOperation finally xdContext.resultCache.invalidateTable(tableIdent.table)
+
   private def persistentChainedLookup[R](lookup: XDPersistentCatalog => Option[R]): Option[R] =
     persistentCatalogs.view map lookup collectFirst {
       case Some(res) => res
@@ -111,21 +123,26 @@ private[crossdata] class CatalogChain private(val temporaryCatalogs: Seq[XDTempo
   /**
    * TemporaryCatalog
    */
-  override def registerView(viewIdentifier: ViewIdentifier, logicalPlan: LogicalPlan, sql: Option[String]): Unit =
+  override def registerView(viewIdentifier: ViewIdentifier, logicalPlan: LogicalPlan, sql: Option[String]): Unit = invalidatingResultsOf(viewIdentifier) {
     temporaryCatalogs.foreach(_.saveView(normalize(viewIdentifier), logicalPlan, sql))
+  }
 
   // TODO throw an exception if there is no temp catalogs! Review CatalogChain
-  override def registerTable(tableIdent: TableIdentifier, plan: LogicalPlan, crossdataTable: Option[CrossdataTable]): Unit =
+  override def registerTable(tableIdent: TableIdentifier, plan: LogicalPlan, crossdataTable: Option[CrossdataTable]): Unit = invalidatingResultsOf(tableIdent) {
     temporaryCatalogs.foreach(_.saveTable(normalize(tableIdent), plan, crossdataTable))
+  }
 
-  override def unregisterView(viewIdentifier: ViewIdentifier): Unit =
+  override def unregisterView(viewIdentifier: ViewIdentifier): Unit = invalidatingResultsOf(viewIdentifier) {
     temporaryCatalogs.foreach(_.dropView(normalize(viewIdentifier)))
+  }
 
-  override def unregisterTable(tableIdent: TableIdentifier): Unit =
+  override def unregisterTable(tableIdent: TableIdentifier): Unit = invalidatingResultsOf(tableIdent) {
     temporaryCatalogs.foreach(_.dropTable(normalize(tableIdent)))
+  }
 
-  override def unregisterAllTables(): Unit =
+  override def unregisterAllTables(): Unit = invalidatingResults {
     temporaryCatalogs.foreach(_.dropAllTables())
+  }
 
 
   /**
@@ -168,11 +185,13 @@ private[crossdata] class CatalogChain private(val temporaryCatalogs: Seq[XDTempo
    * ExternalCatalog
    */
 
-  override def persistTable(crossdataTable: CrossdataTable, table: LogicalPlan): Unit =
+  override def persistTable(crossdataTable: CrossdataTable, table: LogicalPlan): Unit = invalidatingResults {
     persistentCatalogs.foreach(_.saveTable(crossdataTable, table))
+  }
 
-  override def persistView(viewIdentifier: ViewIdentifier, plan: LogicalPlan, sqlText: String): Unit =
+  override def persistView(viewIdentifier: ViewIdentifier, plan: LogicalPlan, sqlText: String): Unit = invalidatingResults {
     persistentCatalogs.foreach(_.saveView(normalize(viewIdentifier), plan, sqlText))
+  }
 
   override def persistIndex(crossdataIndex: CrossdataIndex): Unit =
     if (tableMetadata(crossdataIndex.tableIdentifier.toTableIdentifier).isEmpty) {
@@ -181,7 +200,7 @@ private[crossdata] class CatalogChain private(val temporaryCatalogs: Seq[XDTempo
       persistentCatalogs.foreach(_.saveIndex(crossdataIndex))
     }
 
-  override def dropTable(tableIdentifier: TableIdentifier): Unit = {
+  override def dropTable(tableIdentifier: TableIdentifier): Unit = invalidatingResults {
     val strTable = tableIdentifier.unquotedString
     if (!tableExists(tableIdentifier)) throw new RuntimeException(s"Table $strTable can't be deleted because it doesn't exist")
     logInfo(s"Deleting table $strTable from catalog")
@@ -199,14 +218,14 @@ private[crossdata] class CatalogChain private(val temporaryCatalogs: Seq[XDTempo
 
   }
 
-  override def dropAllTables(): Unit = {
+  override def dropAllTables(): Unit = invalidatingResults {
     dropAllViews()
     dropAllIndexes()
     temporaryCatalogs foreach (_.dropAllTables())
     persistentCatalogs foreach (_.dropAllTables())
   }
 
-  override def dropView(viewIdentifier: ViewIdentifier): Unit = {
+  override def dropView(viewIdentifier: ViewIdentifier): Unit = invalidatingResults {
     val strView = viewIdentifier.unquotedString
     if (lookupRelationOpt(viewIdentifier).isEmpty) throw new RuntimeException(s"View $strView can't be deleted because it doesn't exist")
     logInfo(s"Deleting view ${viewIdentifier.unquotedString} from catalog")
@@ -214,13 +233,13 @@ private[crossdata] class CatalogChain private(val temporaryCatalogs: Seq[XDTempo
     persistentCatalogs foreach (_.dropView(normalize(viewIdentifier)))
   }
 
-  override def dropAllViews(): Unit = {
+  override def dropAllViews(): Unit = invalidatingResults {
     temporaryCatalogs foreach (_.dropAllViews())
     persistentCatalogs foreach (_.dropAllViews())
   }
 
 
-  override def dropIndex(indexIdentifier: IndexIdentifier): Unit = {
+  override def dropIndex(indexIdentifier: IndexIdentifier): Unit = invalidatingResults {
     val strIndex = indexIdentifier.unquotedString
     if(indexMetadata(indexIdentifier).isEmpty) throw new RuntimeException(s"Index $strIndex can't be deleted because it doesn't exist")
     logInfo(s"Deleting index ${indexIdentifier.unquotedString} from catalog")
@@ -240,16 +259,24 @@ private[crossdata] class CatalogChain private(val temporaryCatalogs: Seq[XDTempo
       case Some(index) =>index
     }
 
-  override def dropAllIndexes(): Unit = {
+  override def dropAllIndexes(): Unit = invalidatingResults {
     persistentCatalogs foreach (_.dropAllIndexes())
 
   }
 
+  override def indexStatus(indexIdentifier: IndexIdentifier): Option[IndexStatus] =
+    persistentChainedLookup(_.indexStatus(normalize(indexIdentifier)))
+
+  override def updateIndexStatus(indexIdentifier: IndexIdentifier, status: IndexStatus): Unit = invalidatingResults {
+    persistentCatalogs foreach (_.updateIndexStatus(normalize(indexIdentifier), status))
+  }
+
   override def tableMetadata(tableIdentifier: TableIdentifier): Option[CrossdataTable] =
     persistentChainedLookup(_.lookupTable(normalize(tableIdentifier)))
 
-  override def refreshTable(tableIdent: TableIdentifier): Unit =
+  override def refreshTable(tableIdent: TableIdentifier): Unit = invalidatingResults {
     persistentCatalogs.foreach(_.refreshCache(normalize(tableIdent)))
+  }
 
   /**
    * StreamingCatalog
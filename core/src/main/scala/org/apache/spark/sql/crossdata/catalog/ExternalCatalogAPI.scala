@@ -17,7 +17,7 @@ package org.apache.spark.sql.crossdata.catalog
 
 import org.apache.spark.sql.catalyst.TableIdentifier
 import org.apache.spark.sql.catalyst.plans.logical.LogicalPlan
-import org.apache.spark.sql.crossdata.catalog.XDCatalog.{CrossdataIndex, CrossdataTable, IndexIdentifier, ViewIdentifier}
+import org.apache.spark.sql.crossdata.catalog.XDCatalog.{CrossdataIndex, CrossdataTable, IndexIdentifier, IndexStatus, ViewIdentifier}
 import org.apache.spark.sql.crossdata.catalog.interfaces.XDAppsCatalog
 
 
@@ -41,6 +41,18 @@ private[crossdata] trait ExternalCatalogAPI extends XDAppsCatalog{
   def indexMetadataByTableIdentifier(tableIdentifier: TableIdentifier): Option[CrossdataIndex]
   def tableHasGlobalIndex(tableIdentifier: TableIdentifier): Boolean =
     indexMetadataByTableIdentifier(tableIdentifier).isDefined
+
+  def indexStatus(indexIdentifier: IndexIdentifier): Option[IndexStatus]
+  def updateIndexStatus(indexIdentifier: IndexIdentifier, status: IndexStatus): Unit
+
+  /**
+    * Global index of the table which can be used by queries, see [[IndexStatus.isQueryable]]. Indexes without status
+    * were created before statuses were tracked, and populated by their writes, so they are usable.
+    */
+  def queryableIndexByTableIdentifier(tableIdentifier: TableIdentifier): Option[CrossdataIndex] =
+    indexMetadataByTableIdentifier(tableIdentifier) filter { index =>
+      IndexStatus.of(index).forall(_.isQueryable)
+    }
 }
 
 
@@ -26,6 +26,8 @@ import org.apache.spark.sql.crossdata.serializers.CrossdataSerializer
 import org.apache.spark.sql.types.StructType
 import org.json4s.jackson.Serialization._
 
+import scala.util.Try
+
 
 object XDCatalog extends CrossdataSerializer {
 
@@ -54,6 +56,65 @@ implicit def asXDCatalog (catalog: Catalog): XDCatalog = catalog.asInstanceOf[XD
   case class CrossdataApp(jar: String, appAlias: String, appClass: String)
 
 
+  object IndexState extends Enumeration {
+
+    type State = Value
+    val Building, Ready, Failed = Value
+  }
+
+  /**
+    * State of the contents of a global index. Queries only use the index when it is [[IndexState.Ready]]: it might be
+    * incomplete while it is being built and stale after a failed build or update.
+    *
+    * The status is persisted among the options of the index metadata, so it survives restarts. It is read from the
+    * persistent catalog on every lookup, bypassing the metadata cache, so every server using the catalog sees its
+    * changes at once.
+    *
+    * @param indexedRows rows written into the index by the last build.
+    * @param updatedAt time of the last state change.
+    * @param error cause of the failure, if the index is [[IndexState.Failed]].
+    */
+  case class IndexStatus(state: IndexState.State, indexedRows: Long = 0, updatedAt: Long = System.currentTimeMillis(),
+                         error: Option[String] = None) {
+    def isQueryable: Boolean = state == IndexState.Ready
+
+    private[crossdata] def toOptions: Map[String, String] = Map(
+      IndexStatus.StateOption -> state.toString,
+      IndexStatus.IndexedRowsOption -> indexedRows.toString,
+      IndexStatus.UpdatedAtOption -> updatedAt.toString
+    ) ++ error.map(IndexStatus.ErrorOption -> _)
+  }
+
+  object IndexStatus {
+
+    private[crossdata] val StateOption = "crossdata.index.state"
+    private[crossdata] val IndexedRowsOption = "crossdata.index.indexed-rows"
+    private[crossdata] val UpdatedAtOption = "crossdata.index.updated-at"
+    private[crossdata] val ErrorOption = "crossdata.index.error"
+
+    private val StatusOptions = Set(StateOption, IndexedRowsOption, UpdatedAtOption, ErrorOption)
+
+    /**
+      * @return the status persisted with the index, if any: Indexes created before statuses were tracked have none.
+      */
+    def of(index: CrossdataIndex): Option[IndexStatus] =
+      index.opts.get(StateOption) flatMap { state =>
+        Try(IndexState.withName(state)).toOption
+      } map { state =>
+        IndexStatus(
+          state,
+          index.opts.get(IndexedRowsOption).flatMap(rows => Try(rows.toLong).toOption).getOrElse(0L),
+          index.opts.get(UpdatedAtOption).flatMap(time => Try(time.toLong).toOption).getOrElse(0L),
+          index.opts.get(ErrorOption)
+        )
+      }
+
+    private[crossdata] def withStatus(index: CrossdataIndex, status: IndexStatus): CrossdataIndex =
+      index.copy(opts = index.opts -- StatusOptions ++ status.toOptions)
+
+  }
+
+
   def serializeSchema(schema: StructType): String = write(schema)
 
   def deserializeUserSpecifiedSchema(schemaJSON: String): StructType = read[StructType](schemaJSON)
@@ -19,7 +19,7 @@ import com.stratio.common.utils.components.logger.impl.SparkLoggerComponent
 import org.apache.spark.sql.SQLContext
 import org.apache.spark.sql.catalyst.plans.logical.{LogicalPlan, Subquery}
 import org.apache.spark.sql.catalyst.{CatalystConf, TableIdentifier}
-import org.apache.spark.sql.crossdata.catalog.XDCatalog.{CrossdataApp, CrossdataIndex, CrossdataTable, IndexIdentifier, ViewIdentifierNormalized}
+import org.apache.spark.sql.crossdata.catalog.XDCatalog.{CrossdataApp, CrossdataIndex, CrossdataTable, IndexIdentifier, IndexStatus, ViewIdentifierNormalized}
 import org.apache.spark.sql.crossdata.catalog.{IndexIdentifierNormalized, StringNormalized, TableIdentifierNormalized}
 import org.apache.spark.sql.crossdata.models.{EphemeralQueryModel, EphemeralStatusModel, EphemeralTableModel}
 
@@ -137,6 +137,10 @@ trait XDPersistentCatalog extends XDCatalogCommon {
 
   def lookupIndexByTableIdentifier(tableIdentifier: TableIdentifierNormalized): Option[CrossdataIndex]
 
+  def indexStatus(indexIdentifier: IndexIdentifierNormalized): Option[IndexStatus]
+
+  def updateIndexStatus(indexIdentifier: IndexIdentifierNormalized, status: IndexStatus): Unit
+
   def getApp(alias: String): Option[CrossdataApp]
 
   def saveAppMetadata(crossdataApp: CrossdataApp): Unit
@@ -348,6 +348,21 @@ class DerbyCatalog(override val catalystConf: CatalystConf)
     }
 
 
+  override def updateIndexMetadata(crossdataIndex: CrossdataIndex): Unit =
+    withStatement(
+      s"""|UPDATE $DB.$TableWithIndexMetadata
+          |SET $IndexedColsField=?, $PKField=?, $DatasourceField=?, $OptionsField=?, $CrossdataVersionField=?
+          |WHERE $IndexTypeField=? AND $IndexNameField=?""".stripMargin) { statement =>
+      statement.setString(1, serializeSeq(crossdataIndex.indexedCols))
+      statement.setString(2, crossdataIndex.pk)
+      statement.setString(3, crossdataIndex.datasource)
+      statement.setString(4, serializeOptions(crossdataIndex.opts))
+      statement.setString(5, CrossdataVersion)
+      statement.setString(6, crossdataIndex.indexIdentifier.indexType)
+      statement.setString(7, crossdataIndex.indexIdentifier.indexName)
+      statement.executeUpdate()
+    }
+
   override def saveAppMetadata(crossdataApp: CrossdataApp): Unit =
     withConnectionWithoutCommit { implicit conn =>
 
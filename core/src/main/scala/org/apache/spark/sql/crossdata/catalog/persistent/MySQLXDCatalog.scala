@@ -419,6 +419,26 @@ class MySQLXDCatalog(override val catalystConf: CatalystConf)
       connection.setAutoCommit(true)
     }
 
+  override def updateIndexMetadata(crossdataIndex: CrossdataIndex): Unit = {
+    val prepped = connection.prepareStatement(
+      s"""|UPDATE $db.$tableWithIndexMetadata
+          |SET $IndexedColsField=?, $PKField=?, $DatasourceField=?, $OptionsField=?, $CrossdataVersionField=?
+          |WHERE $IndexTypeField=? AND $IndexNameField=?
+       """.stripMargin)
+    try {
+      prepped.setString(1, serializeSeq(crossdataIndex.indexedCols))
+      prepped.setString(2, crossdataIndex.pk)
+      prepped.setString(3, crossdataIndex.datasource)
+      prepped.setString(4, serializeOptions(crossdataIndex.opts))
+      prepped.setString(5, CrossdataVersion)
+      prepped.setString(6, crossdataIndex.indexIdentifier.indexType)
+      prepped.setString(7, crossdataIndex.indexIdentifier.indexName)
+      prepped.executeUpdate()
+    } finally {
+      prepped.close()
+    }
+  }
+
   override def dropIndexMetadata(indexIdentifier: IndexIdentifierNormalized): Unit =
     connection.createStatement.executeUpdate(
       s"DELETE FROM $db.$tableWithIndexMetadata WHERE $IndexTypeField='${indexIdentifier.indexType}' AND $IndexNameField='${indexIdentifier.indexName}'"
@@ -19,13 +19,12 @@ import org.apache.spark.sql.SQLContext
 import org.apache.spark.sql.catalyst.CatalystConf
 import org.apache.spark.sql.catalyst.analysis.UnresolvedRelation
 import org.apache.spark.sql.catalyst.plans.logical.LogicalPlan
-import org.apache.spark.sql.crossdata.catalog.XDCatalog.{CrossdataIndex, CrossdataTable, ViewIdentifierNormalized}
+import org.apache.spark.sql.crossdata.catalog.XDCatalog.{CrossdataIndex, CrossdataTable, IndexStatus, ViewIdentifierNormalized}
 import org.apache.spark.sql.crossdata.catalog.interfaces.{XDCatalogCommon, XDPersistentCatalog}
+import org.apache.spark.sql.crossdata.catalog.utils.MetadataCache
 import org.apache.spark.sql.crossdata.catalog.{IndexIdentifierNormalized, TableIdentifierNormalized}
 import org.apache.spark.sql.crossdata.util.CreateRelationUtil
 
-import scala.collection.mutable
-
 
 /**
   * PersistentCatalog aims to provide a mechanism to persist the
@@ -36,28 +35,31 @@ abstract class PersistentCatalogWithCache(catalystConf: CatalystConf) extends XD
 
   import CreateRelationUtil._
 
-  val tableCache: mutable.Map[TableIdentifierNormalized, LogicalPlan] = mutable.Map.empty
-  val viewCache: mutable.Map[TableIdentifierNormalized, LogicalPlan] = mutable.Map.empty
-  val indexCache: mutable.Map[TableIdentifierNormalized, CrossdataIndex] = mutable.Map.empty
+  // Shared by concurrent sessions: bounded, thread-safe and remembering, for a while, relations which don't exist
+  private val cacheSettings = MetadataCache.Settings(catalystConf)
+  val tableCache = new MetadataCache[TableIdentifierNormalized, LogicalPlan](cacheSettings)
+  val viewCache = new MetadataCache[TableIdentifierNormalized, LogicalPlan](cacheSettings)
+  val indexCache = new MetadataCache[TableIdentifierNormalized, CrossdataIndex](cacheSettings)
 
   override final def relation(relationIdentifier: TableIdentifierNormalized)(implicit sqlContext: SQLContext): Option[LogicalPlan] =
-    (tableCache get relationIdentifier) orElse (viewCache get relationIdentifier) orElse {
+    tableCache.getOrLoad(relationIdentifier) {
       logInfo(s"PersistentCatalog: Looking up table ${relationIdentifier.unquotedString}")
-      lookupTable(relationIdentifier) map { crossdataTable =>
-        val table: LogicalPlan = createLogicalRelation(sqlContext, crossdataTable)
-        tableCache.put(relationIdentifier, table)
-        table
-      }
-    } orElse {
+      lookupTable(relationIdentifier) map (createLogicalRelation(sqlContext, _))
+    } orElse viewCache.getOrLoad(relationIdentifier) {
       log.debug(s"Table Not Found: ${relationIdentifier.unquotedString}")
-      lookupView(relationIdentifier).map { sqlView =>
-        val viewPlan: LogicalPlan = sqlContext.sql(sqlView).logicalPlan
-        viewCache.put(relationIdentifier, viewPlan)
-        viewPlan
-      }
+      lookupView(relationIdentifier) map (sqlContext.sql(_).logicalPlan)
     }
 
-  override final def refreshCache(tableIdent: ViewIdentifierNormalized): Unit = tableCache clear
+  override final def refreshCache(tableIdent: ViewIdentifierNormalized): Unit = {
+    tableCache invalidate tableIdent
+    viewCache invalidate tableIdent
+  }
+
+  /**
+    * @return hit/miss/load-time statistics of the table, view and index caches.
+    */
+  def cacheStats: Map[String, MetadataCache.Stats] =
+    Map("tables" -> tableCache.stats, "views" -> viewCache.stats, "indexes" -> indexCache.stats)
 
   override final def saveView(viewIdentifier: ViewIdentifierNormalized, plan: LogicalPlan, sqlText: String)(implicit sqlContext:SQLContext): Unit = {
     import XDCatalogCommon._
@@ -78,6 +80,7 @@ abstract class PersistentCatalogWithCache(catalystConf: CatalystConf) extends XD
       throw new UnsupportedOperationException(msg)
     } else {
       logInfo(s"Persisting view ${viewIdentifier.unquotedString}")
+      tableCache invalidate viewIdentifier
       viewCache.put(viewIdentifier, plan)
       persistViewMetadata(viewIdentifier, sqlText)
     }
@@ -91,6 +94,7 @@ abstract class PersistentCatalogWithCache(catalystConf: CatalystConf) extends XD
       throw new UnsupportedOperationException(s"The table $tableIdentifier already exists")
     } else {
       logInfo(s"Persisting table ${crossdataTable.tableIdentifier.table}")
+      viewCache invalidate tableIdentifier
       tableCache.put(tableIdentifier, table)
       persistTableMetadata(crossdataTable.copy(schema = Option(table.schema)))
     }
@@ -112,46 +116,67 @@ abstract class PersistentCatalogWithCache(catalystConf: CatalystConf) extends XD
   }
 
   override final def dropTable(tableIdentifier: TableIdentifierNormalized): Unit = {
-    tableCache remove tableIdentifier
+    tableCache invalidate tableIdentifier
     dropTableMetadata(tableIdentifier)
     dropIndexesFromTable(tableIdentifier)
   }
 
   override final def dropView(viewIdentifier: ViewIdentifierNormalized): Unit = {
-    viewCache remove viewIdentifier
+    viewCache invalidate viewIdentifier
     dropViewMetadata(viewIdentifier)
   }
 
   override final def dropIndexesFromTable(tableIdentifier: TableIdentifierNormalized): Unit = {
-    indexCache remove tableIdentifier
+    indexCache invalidate tableIdentifier
     dropIndexMetadata(tableIdentifier)
   }
 
   override final def dropIndex(indexIdentifer: IndexIdentifierNormalized): Unit = {
 
-    val found: Option[(TableIdentifierNormalized, CrossdataIndex)] = indexCache find { case(key,value) => value.indexIdentifier == indexIdentifer}
-
-    if(found.isDefined) indexCache remove found.get._1
+    indexCache invalidateWhere (_.indexIdentifier == indexIdentifer)
 
     dropIndexMetadata(indexIdentifer)
   }
 
+  /**
+    * The index cache only holds the recently used indexes so it falls back to the persisted ones.
+    */
   override final def tableHasIndex(tableIdentifier: TableIdentifierNormalized): Boolean =
-    indexCache.contains(tableIdentifier)
+    indexCache.contains(tableIdentifier) || lookupIndexByTableIdentifier(tableIdentifier).isDefined
+
+  override final def indexStatus(indexIdentifier: IndexIdentifierNormalized): Option[IndexStatus] =
+    lookupIndex(indexIdentifier) flatMap IndexStatus.of
+
+  /**
+    * The status is stored along the index metadata, which is updated in place so that the index is never missing
+    * from the catalog. Statuses are always read from the persisted metadata, not from the index cache, so the other
+    * servers see the new status as soon as it is stored.
+    */
+  override final def updateIndexStatus(indexIdentifier: IndexIdentifierNormalized, status: IndexStatus): Unit =
+    lookupIndex(indexIdentifier) match {
+      case Some(index) =>
+        logInfo(s"Index $indexIdentifier is ${status.state}")
+        val updatedIndex = IndexStatus.withStatus(index, status)
+        indexCache invalidateWhere (_.indexIdentifier == indexIdentifier)
+        updateIndexMetadata(updatedIndex)
+        indexCache.put(updatedIndex.tableIdentifier, updatedIndex)
+      case None =>
+        logWarning(s"Cannot update the status of the index $indexIdentifier: It doesn't exist")
+    }
 
 
   override final def dropAllViews(): Unit = {
-    viewCache.clear
+    viewCache.clear()
     dropAllViewsMetadata()
   }
 
   override final def dropAllTables(): Unit = {
-    tableCache.clear
+    tableCache.clear()
     dropAllTablesMetadata()
   }
 
   override final def dropAllIndexes(): Unit = {
-    indexCache.clear
+    indexCache.clear()
     dropAllIndexesMetadata()
   }
 
@@ -168,6 +193,12 @@ abstract class PersistentCatalogWithCache(catalystConf: CatalystConf) extends XD
 
   def persistIndexMetadata(crossdataIndex: CrossdataIndex): Unit
 
+  /**
+    * Replaces, within a single write, the stored metadata of an existing index. Nothing is stored if the index doesn't
+    * exist.
+    */
+  def updateIndexMetadata(crossdataIndex: CrossdataIndex): Unit
+
   def dropTableMetadata(tableIdentifier: TableIdentifierNormalized): Unit
 
   def dropViewMetadata(viewIdentifier: ViewIdentifierNormalized): Unit
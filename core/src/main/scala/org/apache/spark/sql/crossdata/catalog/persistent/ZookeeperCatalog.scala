@@ -204,6 +204,11 @@ class ZookeeperCatalog(override val catalystConf: CatalystConf)
     indexDAO.dao.create(indexId, IndexModel(indexId, crossdataIndex))
   }
 
+  override def updateIndexMetadata(crossdataIndex: CrossdataIndex): Unit =
+    indexDAO.dao.getAll().find(
+      _.crossdataIndex.indexIdentifier == crossdataIndex.indexIdentifier
+    ) foreach (stored => indexDAO.dao.update(stored.indexId, IndexModel(stored.indexId, crossdataIndex)))
+
   override def dropIndexMetadata(indexIdentifier: IndexIdentifierNormalized): Unit =
     //TODO: Defend against race conditions!
     indexDAO.dao.getAll().filter(
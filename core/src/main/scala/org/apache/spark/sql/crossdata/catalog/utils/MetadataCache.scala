@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.spark.sql.crossdata.catalog.utils
+
+import java.util.concurrent.atomic.AtomicLong
+
+import org.apache.spark.sql.SQLConf
+import org.apache.spark.sql.catalyst.CatalystConf
+
+import scala.collection.JavaConversions._
+import scala.util.Try
+
+object MetadataCache {
+
+  // SQL properties (they can be set as `crossdata-core.config.spark.sql.crossdata.catalogCache.<property>`)
+  val MaxEntriesProperty = "spark.sql.crossdata.catalogCache.maxEntries"
+  val NegativeTTLProperty = "spark.sql.crossdata.catalogCache.negativeTtlMs"
+
+  val DefaultMaxEntries = 10000
+  val DefaultNegativeTTLMs = 2000L
+
+  /**
+    * @param maxEntries Maximum number of cached entries, the least recently used ones are evicted first.
+    * @param negativeTtlMs Time during which a failed lookup is remembered so that the backing store
+    *                      isn't queried again for the same key. Negative lookups aren't cached if it is 0.
+    */
+  case class Settings(maxEntries: Int = DefaultMaxEntries, negativeTtlMs: Long = DefaultNegativeTTLMs)
+
+  object Settings {
+    def apply(catalystConf: CatalystConf): Settings = catalystConf match {
+      case sqlConf: SQLConf =>
+        Settings(
+          Try(sqlConf.getConfString(MaxEntriesProperty).toInt).getOrElse(DefaultMaxEntries),
+          Try(sqlConf.getConfString(NegativeTTLProperty).toLong).getOrElse(DefaultNegativeTTLMs)
+        )
+      case _ => Settings()
+    }
+  }
+
+  case class Stats(hits: Long, negativeHits: Long, misses: Long, loads: Long, totalLoadTimeNanos: Long, evictions: Long) {
+    def averageLoadTimeNanos: Double = if (loads == 0) 0.0 else totalLoadTimeNanos.toDouble / loads
+  }
+
+  private sealed trait Entry[+V]
+  private case class Present[V](value: V) extends Entry[V]
+  private case class Absent(expiresAt: Long) extends Entry[Nothing]
+
+}
+
+/**
+  * Thread-safe, size-bounded LRU cache for catalog metadata which also remembers, for a while, the keys
+  * which couldn't be found at the backing store.
+  *
+  * Values are loaded outside the cache lock so that slow lookups don't block other sessions. A loaded value
+  * isn't cached when the cache has been invalidated during the load, so stale metadata can't be reinstated.
+  */
+class MetadataCache[K, V](val settings: MetadataCache.Settings) extends Serializable {
+
+  import MetadataCache._
+
+  // The following fields are guarded by `entries`. Access-ordered so that the least recently used entry comes first.
+  @transient private lazy val entries = new java.util.LinkedHashMap[K, Entry[V]](16, 0.75f, true)
+  private var generation = 0L
+
+  private val hits = new AtomicLong(0)
+  private val negativeHits = new AtomicLong(0)
+  private val misses = new AtomicLong(0)
+  private val loads = new AtomicLong(0)
+  private val loadTimeNanos = new AtomicLong(0)
+  private val evictions = new AtomicLong(0)
+
+  /**
+    * @return the cached value for `key` without trying to load it.
+    */
+  def get(key: K): Option[V] = entries.synchronized(entries.get(key)) match {
+    case Present(value) =>
+      hits.incrementAndGet()
+      Some(value)
+    case _ =>
+      misses.incrementAndGet()
+      None
+  }
+
+  /**
+    * @return the cached value for `key` or, if it isn't cached nor known to be missing, the result of `load`.
+    */
+  def getOrLoad(key: K)(load: => Option[V]): Option[V] = {
+    val now = System.currentTimeMillis()
+    val (cached, loadGeneration) = entries.synchronized((Option(entries.get(key)), generation))
+    cached match {
+      case Some(Present(value)) =>
+        hits.incrementAndGet()
+        Some(value)
+      case Some(Absent(expiresAt)) if expiresAt > now =>
+        negativeHits.incrementAndGet()
+        None
+      case _ =>
+        misses.incrementAndGet()
+        val startTime = System.nanoTime()
+        val loaded = load
+        loads.incrementAndGet()
+        loadTimeNanos.addAndGet(System.nanoTime() - startTime)
+        loaded match {
+          case Some(value) => store(key, Present(value), loadGeneration)
+          case None if settings.negativeTtlMs > 0 =>
+            store(key, Absent(System.currentTimeMillis() + settings.negativeTtlMs), loadGeneration)
+          case None =>
+        }
+        loaded
+    }
+  }
+
+  def put(key: K, value: V): Unit = entries.synchronized(store(key, Present(value), generation))
+
+  def contains(key: K): Boolean = entries.synchronized(entries.get(key)).isInstanceOf[Present[_]]
+
+  def invalidate(key: K): Unit = entries.synchronized {
+    generation += 1
+    entries.remove(key)
+  }
+
+  /**
+    * Removes the entries whose values satisfy `p`.
+    */
+  def invalidateWhere(p: V => Boolean): Unit = entries.synchronized {
+    generation += 1
+    val it = entries.values.iterator
+    while (it.hasNext) it.next() match {
+      case Present(value) if p(value) => it.remove()
+      case _ =>
+    }
+  }
+
+  def clear(): Unit = entries.synchronized {
+    generation += 1
+    entries.clear()
+  }
+
+  /**
+    * @return number of cached values, failed lookups aren't taken into account.
+    */
+  def size: Int = entries.synchronized(entries.values.count(_.isInstanceOf[Present[_]]))
+
+  def stats: Stats =
+    Stats(hits.get, negativeHits.get, misses.get, loads.get, loadTimeNanos.get, evictions.get)
+
+  private def store(key: K, entry: Entry[V], loadGeneration: Long): Unit = entries.synchronized {
+    if (loadGeneration == generation) {
+      entries.put(key, entry)
+      val it = entries.values.iterator
+      while (entries.size > settings.maxEntries && it.hasNext) {
+        it.next()
+        it.remove()
+        evictions.incrementAndGet()
+      }
+    }
+  }
+
+}
@@ -128,8 +128,8 @@ case class WrapRelationWithGlobalIndex(catalog: XDCatalog) extends Rule[LogicalP
         helper(filtersConditions, child)
 
       case u: UnresolvedRelation =>
-        //Check if table has index and if there are some Filter that have all its attributes indexed
-        catalog.indexMetadataByTableIdentifier(u.tableIdentifier).map { index =>
+        //Check if table has a usable index and if there are some Filter that have all its attributes indexed
+        catalog.queryableIndexByTableIdentifier(u.tableIdentifier).map { index =>
           filtersConditions exists { condition =>
             IndexUtils.areAllAttributeIndexedInExpr(condition, index.indexedCols)
           }
@@ -26,6 +26,7 @@ import org.apache.spark.sql.catalyst.plans.logical.{LogicalPlan, Project, Subque
 import org.apache.spark.sql.crossdata.XDContext
 import org.apache.spark.sql.crossdata.catalog.XDCatalog._
 import org.apache.spark.sql.crossdata.catalog.interfaces.XDCatalogCommon._
+import org.apache.spark.sql.crossdata.catalyst.globalindex.GlobalIndexBuilder
 import org.apache.spark.sql.execution.RunnableCommand
 import org.apache.spark.sql.execution.datasources._
 import org.apache.spark.sql.sources.{BaseRelation, HadoopFsRelation, InsertableRelation}
@@ -33,6 +34,7 @@ import org.apache.spark.sql.types.{StructType, _}
 
 import scala.language.implicitConversions
 import scala.reflect.io.File
+import scala.util.control.NonFatal
 import scala.util.{Failure, Success, Try}
 
 object DDLUtils {
@@ -223,6 +225,11 @@ private[crossdata] case class InsertIntoTable(tableIdentifier: TableIdentifier,
 
             insertableRelation.insert(dataframe, overwrite = false)
 
+            sqlContext match {
+              case xdContext: XDContext => xdContext.resultCache.invalidateAll()
+              case _ =>
+            }
+
           case hadoopFsRelation: HadoopFsRelation =>
             sys.error("Operation not supported")
           //TODO: Available from Spark 2.0
@@ -260,7 +267,12 @@ private[crossdata] case class InsertIntoTable(tableIdentifier: TableIdentifier,
       }
     }
 
-    InsertIntoTable(crossdataIndex.indexIdentifier.asTableIdentifierNormalized.toTableIdentifier, filteredParsedRows, Some(columnsToIndex)).run(sqlContext)
+    Try {
+      InsertIntoTable(crossdataIndex.indexIdentifier.asTableIdentifierNormalized.toTableIdentifier, filteredParsedRows, Some(columnsToIndex)).run(sqlContext)
+    } recover {
+      // The rows are inserted anyway, the index won't be used until it is rebuilt
+      case NonFatal(exception) => GlobalIndexBuilder.markFailed(sqlContext, crossdataIndex, exception)
+    }
   }
 
   private def convertRows(sqlContext: SQLContext, rows: Seq[DDLUtils.RowValues], tableSchema: StructType): DataFrame = {
@@ -346,6 +358,8 @@ private[crossdata] case class AddJar(jarPath: String)
 
 object CreateGlobalIndex {
   val DefaultDatabaseName = "gidx"
+  // Index documents are identified by the primary key so that rows can be indexed again, e.g. when rebuilding it
+  val ElasticMappingIdOption = "es.mapping.id"
 }
 
 
@@ -367,6 +381,7 @@ private[crossdata] case class CreateGlobalIndex(
       val finalIndex = IndexIdentifier(index.table, index.database getOrElse DefaultDatabaseName).normalize(sqlContext.conf)
 
       val colsWithoutSchema = Seq(pk) ++ cols
+      val indexOptions = options + (ElasticMappingIdOption -> options.getOrElse(ElasticMappingIdOption, pk))
 
       val elasticSchema = sqlContext.catalog.lookupRelation(tableIdent) match {
 
@@ -378,9 +393,9 @@ private[crossdata] case class CreateGlobalIndex(
       }
 
       //TODO: Change index name, for allowing multiple index ???
-      CreateExternalTable(TableIdentifier(finalIndex.indexType, Option(finalIndex.indexName)), elasticSchema, indexProvider, options).run(sqlContext)
+      CreateExternalTable(TableIdentifier(finalIndex.indexType, Option(finalIndex.indexName)), elasticSchema, indexProvider, indexOptions).run(sqlContext)
 
-      CrossdataIndex(tableIdent.normalize(sqlContext.conf), finalIndex, cols, pk, indexProvider, options)
+      CrossdataIndex(tableIdent.normalize(sqlContext.conf), finalIndex, cols, pk, indexProvider, indexOptions)
 
     }
 
@@ -392,13 +407,37 @@ private[crossdata] case class CreateGlobalIndex(
 
   override def run(sqlContext: SQLContext): Seq[Row] = {
 
-    val crossdataIndex = createElasticIndex(sqlContext).get
+    // Queries mustn't use the index until it has been populated
+    val crossdataIndex = IndexStatus.withStatus(createElasticIndex(sqlContext).get, IndexStatus(IndexState.Building))
     saveIndexMetadata(sqlContext, crossdataIndex)
+    GlobalIndexBuilder.build(sqlContext, crossdataIndex, overwrite = false)
     Seq.empty
     //TODO: Recover if something bad happens
   }
 }
 
+/**
+  * Populates again a global index from the table it indexes, e.g. after its maintenance has failed.
+  */
+private[crossdata] case class RebuildGlobalIndex(index: TableIdentifier) extends LogicalPlan with RunnableCommand {
+
+  override val output: Seq[Attribute] = {
+    val schema = StructType(
+      Seq(StructField("Number of indexed rows", LongType, nullable = false))
+    )
+    schema.toAttributes
+  }
+
+  override def run(sqlContext: SQLContext): Seq[Row] = {
+    val indexIdentifier = IndexIdentifier(index.table, index.database getOrElse CreateGlobalIndex.DefaultDatabaseName)
+    val crossdataIndex = sqlContext.catalog.indexMetadata(indexIdentifier) getOrElse {
+      sys.error(s"Index ${indexIdentifier.unquotedString} doesn't exist")
+    }
+
+    Row(GlobalIndexBuilder.build(sqlContext, crossdataIndex, overwrite = true)) :: Nil
+  }
+}
+
   private[crossdata] case class AddApp(jarPath: String, className: String, aliasName: Option[String] = None)
     extends LogicalPlan with RunnableCommand {
 
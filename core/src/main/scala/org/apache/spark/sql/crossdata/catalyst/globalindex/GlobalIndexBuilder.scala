@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.spark.sql.crossdata.catalyst.globalindex
+
+import com.stratio.common.utils.components.logger.impl.SparkLoggerComponent
+import org.apache.spark.sql.SQLContext
+import org.apache.spark.sql.catalyst.plans.logical.Subquery
+import org.apache.spark.sql.crossdata.catalog.XDCatalog._
+import org.apache.spark.sql.execution.datasources.LogicalRelation
+import org.apache.spark.sql.functions.col
+import org.apache.spark.sql.sources.InsertableRelation
+
+import scala.util.control.NonFatal
+
+/**
+  * Populates global indexes from the tables they index and keeps track of their state in the catalog.
+  */
+object GlobalIndexBuilder extends SparkLoggerComponent {
+
+  /**
+    * Writes the primary key and the indexed columns of every row of the indexed table into the index. Both the scan
+    * and the writes are distributed among the Spark tasks reading the table partitions.
+    *
+    * @param overwrite whether the current contents of the index have to be replaced.
+    * @return the number of rows written into the index.
+    */
+  def build(sqlContext: SQLContext, index: CrossdataIndex, overwrite: Boolean): Long = {
+    val indexIdentifier = index.indexIdentifier.toIndexIdentifier
+    sqlContext.catalog.updateIndexStatus(indexIdentifier, IndexStatus(IndexState.Building))
+
+    try {
+      val indexRelation = insertableIndex(sqlContext, index)
+      val tableRows = sqlContext.table(index.tableIdentifier.unquotedString)
+        .select((index.pk +: index.indexedCols).map(col): _*)
+
+      logInfo(s"Building global index ${indexIdentifier.unquotedString} from ${index.tableIdentifier.unquotedString}")
+      indexRelation.insert(tableRows, overwrite)
+
+      /* Counted from the index itself (its documents are identified by the primary key and they are refreshed once
+          written) as counting while writing would also count the rows of retried tasks. */
+      val indexedRows = sqlContext.table(index.indexIdentifier.asTableIdentifierNormalized.unquotedString).count()
+
+      sqlContext.catalog.updateIndexStatus(indexIdentifier, IndexStatus(IndexState.Ready, indexedRows))
+      indexedRows
+    } catch {
+      case NonFatal(exception) =>
+        markFailed(sqlContext, index, exception)
+        throw exception
+    }
+  }
+
+  /**
+    * Prevents queries from using an index whose contents are not in sync with the indexed table.
+    */
+  def markFailed(sqlContext: SQLContext, index: CrossdataIndex, cause: Throwable): Unit = {
+    val indexIdentifier = index.indexIdentifier.toIndexIdentifier
+    log.warn(s"Global index ${indexIdentifier.unquotedString} must be rebuilt: ${cause.getMessage}")
+    sqlContext.catalog.updateIndexStatus(indexIdentifier, IndexStatus(IndexState.Failed, error = Option(cause.getMessage)))
+  }
+
+  private def insertableIndex(sqlContext: SQLContext, index: CrossdataIndex): InsertableRelation =
+    sqlContext.catalog.lookupRelation(index.indexIdentifier.asTableIdentifierNormalized.toTableIdentifier) match {
+      case Subquery(_, LogicalRelation(relation: InsertableRelation, _)) => relation
+      case _ => sys.error(s"The index ${index.indexIdentifier.toIndexIdentifier.unquotedString} doesn't support insertions")
+    }
+
+}
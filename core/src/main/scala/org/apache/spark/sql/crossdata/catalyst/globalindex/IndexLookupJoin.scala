@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.spark.sql.crossdata.catalyst.globalindex
+
+import org.apache.spark.rdd.RDD
+import org.apache.spark.sql.SQLConf
+import org.apache.spark.sql.catalyst.InternalRow
+import org.apache.spark.sql.catalyst.expressions.{And, Attribute, EqualTo, Expression, In, Literal, Or}
+import org.apache.spark.sql.catalyst.plans.logical
+import org.apache.spark.sql.catalyst.plans.logical.{LogicalPlan, UnaryNode}
+import org.apache.spark.sql.crossdata.XDDataFrame
+import org.apache.spark.sql.crossdata.config.SQLConfSettings
+import org.apache.spark.sql.execution
+import org.apache.spark.sql.execution.SparkPlan
+
+object IndexLookupJoin {
+
+  // How the rows matched by a global index are looked up in the indexed table
+  val LookupChunkSizeProperty = "spark.sql.crossdata.globalIndex.lookupChunkSize"
+  val MaxLookupKeysProperty = "spark.sql.crossdata.globalIndex.maxLookupKeys"
+
+  /**
+    * @param lookupChunkSize Number of primary keys requested to the indexed table by each lookup.
+    * @param maxLookupKeys Maximum number of primary keys found in the index for which lookups are used. If the
+    *                      index matches more keys, the indexed table is scanned and filtered instead.
+    */
+  case class Settings(lookupChunkSize: Int = 1000, maxLookupKeys: Int = 100000)
+
+  object Settings {
+    def apply(conf: SQLConf): Settings = {
+      val defaults = Settings()
+      val settings = new SQLConfSettings(conf)
+
+      Settings(
+        settings.getPositiveInt(LookupChunkSizeProperty, defaults.lookupChunkSize),
+        settings.getPositiveInt(MaxLookupKeysProperty, defaults.maxLookupKeys)
+      )
+    }
+  }
+
+  /**
+    * Condition matching the rows whose primary key is one of `keys`. Compound keys are matched column by column.
+    */
+  def lookupCondition(pkAttributes: Seq[Attribute], keys: Seq[Seq[Any]]): Expression = pkAttributes match {
+    case Seq(pk) =>
+      In(pk, keys.map(key => Literal.create(key.head, pk.dataType)))
+    case _ =>
+      balanced(keys map { key =>
+        balanced((pkAttributes zip key) map { case (pk, value) =>
+          EqualTo(pk, Literal.create(value, pk.dataType)): Expression
+        })(And)
+      })(Or)
+  }
+
+  // Balanced trees keep deep conditions away from the recursive tree transformations
+  private def balanced(expressions: Seq[Expression])(combine: (Expression, Expression) => Expression): Expression =
+    expressions match {
+      case Seq(expression) => expression
+      case _ =>
+        val (left, right) = expressions.splitAt(expressions.length / 2)
+        combine(balanced(left)(combine), balanced(right)(combine))
+    }
+
+}
+
+/**
+  * Rows of `child` satisfying `condition`, which is evaluated by the global index instead of the indexed table.
+  *
+  * @param pkColumns primary key columns of `child`, which are also stored in the index.
+  * @param indexPlan plan which returns the primary keys of the index documents satisfying the condition.
+  * @param condition condition on indexed columns, it is only evaluated by `child` when there are too many matches.
+  */
+case class IndexLookupJoin(pkColumns: Seq[String], indexPlan: LogicalPlan, condition: Expression, child: LogicalPlan)
+  extends UnaryNode {
+  override def output: Seq[Attribute] = child.output
+}
+
+/**
+  * Streams the primary keys matched by the index and looks them up in the indexed table, a chunk of keys per
+  * request. Up to [[IndexLookupJoin.Settings.maxLookupKeys]] keys are held by the driver: when the index matches more
+  * keys, the indexed table is scanned and filtered instead (`fallback`).
+  */
+case class IndexLookupJoinExec(pkColumns: Seq[String],
+                               indexPlan: LogicalPlan,
+                               lookupRelation: LogicalPlan,
+                               fallback: SparkPlan) extends execution.UnaryNode {
+
+  import IndexLookupJoin._
+
+  override def child: SparkPlan = fallback
+
+  override def output: Seq[Attribute] = fallback.output
+
+  protected override def doExecute(): RDD[InternalRow] = {
+    val settings = Settings(sqlContext.conf)
+
+    val indexRows = new XDDataFrame(sqlContext, indexPlan).toLocalIterator()
+    val keys = try {
+      indexRows.take(settings.maxLookupKeys + 1).map(_.toSeq).toVector
+    } finally {
+      indexRows.close()
+    }
+
+    if (keys.length > settings.maxLookupKeys) {
+      logInfo(s"The global index matches more than ${settings.maxLookupKeys} keys, scanning the indexed table instead")
+      fallback.execute()
+    } else if (keys.isEmpty) {
+      sparkContext.emptyRDD[InternalRow]
+    } else {
+      val pkAttributes = pkColumns map { name =>
+        lookupRelation.output.find(_.name == name) getOrElse {
+          sys.error(s"Unexpected error. Primary key $name not found in ${lookupRelation.output.mkString(", ")}")
+        }
+      }
+      val lookups = keys.grouped(settings.lookupChunkSize) map { chunk =>
+        sqlContext.executePlan(logical.Filter(lookupCondition(pkAttributes, chunk), lookupRelation)).toRdd
+      }
+      sparkContext.union(lookups.toVector)
+    }
+  }
+
+}
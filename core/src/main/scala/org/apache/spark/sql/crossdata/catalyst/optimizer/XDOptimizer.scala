@@ -15,10 +15,9 @@
  */
 package org.apache.spark.sql.crossdata.catalyst.optimizer
 
-import org.apache.spark.sql.Row
 import org.apache.spark.sql.catalyst.CatalystConf
 import org.apache.spark.sql.catalyst.analysis.UnresolvedAttribute
-import org.apache.spark.sql.catalyst.expressions.{AttributeReference, Expression, In, Literal}
+import org.apache.spark.sql.catalyst.expressions.{AttributeReference, Expression}
 import org.apache.spark.sql.catalyst.optimizer.{DefaultOptimizer, Optimizer}
 import org.apache.spark.sql.catalyst.plans.logical
 import org.apache.spark.sql.catalyst.plans.logical._
@@ -26,11 +25,11 @@ import org.apache.spark.sql.catalyst.rules.Rule
 import org.apache.spark.sql.crossdata.catalog.XDCatalog.CrossdataIndex
 import org.apache.spark.sql.crossdata.catalyst.ExtendedUnresolvedRelation
 import org.apache.spark.sql.crossdata.catalyst.execution.DDLUtils
-import org.apache.spark.sql.crossdata.catalyst.globalindex.IndexUtils
-import org.apache.spark.sql.crossdata.{XDContext, XDDataFrame}
+import org.apache.spark.sql.crossdata.catalyst.globalindex.{IndexLookupJoin, IndexUtils}
+import org.apache.spark.sql.crossdata.XDContext
 import org.apache.spark.sql.execution.datasources.LogicalRelation
 import org.apache.spark.sql.sources.BaseRelation
-import org.apache.spark.sql.types.{DataType, StructType}
+import org.apache.spark.sql.types.StructType
 
 import scala.annotation.tailrec
 
@@ -64,42 +63,22 @@ case class CheckGlobalIndexInFilters(xdContext: XDContext) extends Rule[LogicalP
         sys.error("Unexpected error. Can't find index for enhance query with indexes")
       }
 
-      //Change the filters that has indexed rows, with a Filter IN with ES results or LocalRelation if we don't have results
+      //Change the filters that has indexed rows, with a lookup of the primary keys found in the index
       val newFilters: Seq[LogicalPlan] = filters map { filter =>
         if (IndexUtils.areAllAttributeIndexedInExpr(filter.condition, crossdataIndex.indexedCols)) {
           val indexLogicalPlan = buildIndexRequestLogicalPlan(filter.condition, crossdataIndex)
-          val indexedRows = XDDataFrame(xdContext, indexLogicalPlan).collect() //TODO: Warning memory issues
-          if (indexedRows.nonEmpty) {
-
-            //Convert to query with filter IN
-            val lr = relation.collectFirst { case lr: LogicalRelation => lr }.get
-            val pkSchema = DDLUtils.extractSchema(Seq(crossdataIndex.pk), lr.schema)
-            val pkAttribute = schemaToAttribute(pkSchema).head
-            analyzeAndOptimize(
-              logical.Filter(In(pkAttribute, resultPksToLiterals(indexedRows, pkSchema.fields.head.dataType)), relation)
-            )
-
-          } else {
-            LocalRelation(filter.output)
-          }
+          IndexLookupJoin(Seq(crossdataIndex.pk), indexLogicalPlan, filter.condition, filter.child)
         } else {
           filter
         }
       }
 
-      //If LocalRelation appear there are no results
-      val noResults: Option[LocalRelation] = newFilters collectFirst {
-        case localRelation: LocalRelation => localRelation
-      }
-
-      noResults getOrElse {
-        //If projects exists, just remain the first in the tree + Filters + Relation
-        val combined: LogicalPlan = combineFiltersAndRelation(newFilters, relation)
-        if (projects.nonEmpty) {
-          analyzeAndOptimize(projects.head.withNewChildren(Seq(combined)))
-        } else {
-          analyzeAndOptimize(combined)
-        }
+      //If projects exists, just remain the first in the tree + Filters + Relation
+      val combined: LogicalPlan = combineFiltersAndRelation(newFilters, relation)
+      if (projects.nonEmpty) {
+        analyzeAndOptimize(projects.head.withNewChildren(Seq(combined)))
+      } else {
+        analyzeAndOptimize(combined)
       }
 
   }
@@ -118,12 +97,6 @@ case class CheckGlobalIndexInFilters(xdContext: XDContext) extends Rule[LogicalP
   private def schemaToAttribute(schema: StructType): Seq[UnresolvedAttribute] =
     schema.fields map {field => UnresolvedAttribute(field.name)}
 
-  private def resultPksToLiterals(rows: Array[Row], dataType:DataType): Seq[Literal] =
-    rows map { row =>
-      val valTransformed = row.get(0)
-      Literal.create(valTransformed, dataType)
-    } //TODO compound PK
-
   private def buildIndexRequestLogicalPlan(condition: Expression, index: CrossdataIndex): LogicalPlan = {
 
     val logicalRelation = xdContext.catalog.lookupRelation(index.indexIdentifier.asTableIdentifierNormalized.toTableIdentifier) match {
@@ -139,7 +112,8 @@ case class CheckGlobalIndexInFilters(xdContext: XDContext) extends Rule[LogicalP
       case AttributeReference(name, _, _, _) => (pkAndColsIndexed filter (_.name == name)).head
     }
 
-    Filter(convertedCondition, Project(pkAndColsIndexed, logicalRelation))
+    val pk: Seq[UnresolvedAttribute] = pkAndColsIndexed filter (_.name == index.pk)
+    Project(pk, Filter(convertedCondition, Project(pkAndColsIndexed, logicalRelation)))
   }
 
   def combineFiltersAndRelation(filters: Seq[LogicalPlan], relation: LogicalPlan): LogicalPlan =
@@ -44,6 +44,7 @@ class XDDdlParser(parseQuery: String => LogicalPlan, xDContext: XDContext) exten
   protected val INDEX = Keyword("INDEX")
   protected val ON = Keyword("ON")
   protected val PK = Keyword("PK")
+  protected val REBUILD = Keyword("REBUILD")
   //Streaming keywords
   protected val EPHEMERAL = Keyword("EPHEMERAL")
   protected val SHOW = Keyword("SHOW")
@@ -68,7 +69,7 @@ class XDDdlParser(parseQuery: String => LogicalPlan, xDContext: XDContext) exten
   override protected lazy val ddl: Parser[LogicalPlan] =
 
     createTable | describeTable | refreshTable | importStart | dropTable | dropExternalTable |
-      createView | createExternalTable | dropView | addJar | streamingSentences | insertIntoTable | addApp | executeApp | createGlobalIndex
+      createView | createExternalTable | dropView | addJar | streamingSentences | insertIntoTable | addApp | executeApp | createGlobalIndex | rebuildGlobalIndex
 
   // TODO move to StreamingDdlParser
   protected lazy val streamingSentences: Parser[LogicalPlan] =
@@ -323,4 +324,10 @@ protected lazy val addApp: Parser[LogicalPlan] =
     }
   }
 
+  protected lazy val rebuildGlobalIndex: Parser[LogicalPlan] =
+    REBUILD ~ GLOBAL.? ~ INDEX ~> tableIdentifier ^^ {
+      case index =>
+        RebuildGlobalIndex(index)
+    }
+
 }
@@ -16,11 +16,13 @@
 package org.apache.spark.sql.crossdata.catalyst.planning
 
 import org.apache.spark.sql.Strategy
+import org.apache.spark.sql.catalyst.plans.logical
 import org.apache.spark.sql.catalyst.plans.logical.LogicalPlan
 import org.apache.spark.sql.crossdata.XDContext
 import org.apache.spark.sql.crossdata.catalog.TableIdentifierNormalized
 import org.apache.spark.sql.crossdata.catalog.XDCatalog.CrossdataTable
 import org.apache.spark.sql.crossdata.catalyst.execution.{PersistDataSourceTable, PersistSelectAsTable, RegisterDataSourceTable}
+import org.apache.spark.sql.crossdata.catalyst.globalindex.{IndexLookupJoin, IndexLookupJoinExec}
 import org.apache.spark.sql.execution.datasources.{CreateTableUsing, CreateTableUsingAsSelect}
 import org.apache.spark.sql.execution.{ExecutedCommand, SparkPlan, SparkStrategies}
 
@@ -54,4 +56,13 @@ trait XDStrategies extends SparkStrategies {
     }
   }
 
+  object IndexLookupJoinStrategy extends Strategy {
+    def apply(plan: LogicalPlan): Seq[SparkPlan] = plan match {
+      case IndexLookupJoin(pkColumns, indexPlan, condition, child) =>
+        IndexLookupJoinExec(pkColumns, indexPlan, child, planLater(logical.Filter(condition, child))) :: Nil
+
+      case _ => Nil
+    }
+  }
+
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.spark.sql.crossdata.config
+
+import org.apache.spark.sql.SQLConf
+
+import scala.util.Try
+
+/**
+  * Reads the settings of a feature from the SQL properties, which can be set per session or for every session
+  * as `crossdata-core.config.<property>`. Missing and invalid values are replaced by their defaults.
+  */
+private[crossdata] class SQLConfSettings(conf: SQLConf) {
+
+  def get[T](key: String, default: T)(parse: String => T): T =
+    Try(parse(conf.getConfString(key))).getOrElse(default)
+
+  def getBoolean(key: String, default: Boolean): Boolean = get(key, default)(_.toBoolean)
+
+  def getInt(key: String, default: Int): Int = get(key, default)(_.toInt)
+
+  def getLong(key: String, default: Long): Long = get(key, default)(_.toLong)
+
+  def getPositiveInt(key: String, default: Int): Int = get(key, default) { value =>
+    val number = value.toInt
+    require(number > 0, s"$key must be positive")
+    number
+  }
+
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.spark.sql.crossdata.execution
+
+import java.io.Closeable
+
+import com.stratio.common.utils.components.logger.impl.SparkLoggerComponent
+import com.stratio.crossdata.connector.NativeScan
+import org.apache.spark.sql.catalyst.expressions.aggregate.{AggregateExpression, DeclarativeAggregate}
+import org.apache.spark.sql.catalyst.expressions.{Attribute, AttributeReference, BindReferences, Expression, GenericInternalRow, InterpretedOrdering, InterpretedPredicate, InterpretedProjection, JoinedRow, Literal, NamedExpression}
+import org.apache.spark.sql.catalyst.planning.ExtractEquiJoinKeys
+import org.apache.spark.sql.catalyst.plans.logical._
+import org.apache.spark.sql.catalyst.plans.{Inner, JoinType, LeftOuter, RightOuter}
+import org.apache.spark.sql.catalyst.{CatalystTypeConverters, InternalRow}
+import org.apache.spark.sql.crossdata.config.SQLConfSettings
+import org.apache.spark.sql.execution.datasources.LogicalRelation
+import org.apache.spark.sql.{Row, SQLConf}
+
+import scala.collection.mutable
+import scala.util.control.NonFatal
+
+object LocalExecution {
+
+  // Whether joins between small native results are executed by the driver instead of Spark, and how small they must be
+  val EnabledProperty = "spark.sql.crossdata.localExecution.enabled"
+  val MaxRowsPerRelationProperty = "spark.sql.crossdata.localExecution.maxRowsPerRelation"
+
+  /**
+    * @param maxRowsPerRelation Maximum number of rows read natively from each relation. Queries reading more rows
+    *                           from any of its relations are executed by Spark.
+    */
+  case class Settings(enabled: Boolean = true, maxRowsPerRelation: Int = 1000)
+
+  object Settings {
+    def apply(conf: SQLConf): Settings = {
+      val defaults = Settings()
+      val settings = new SQLConfSettings(conf)
+
+      Settings(
+        settings.getBoolean(EnabledProperty, defaults.enabled),
+        settings.getInt(MaxRowsPerRelationProperty, defaults.maxRowsPerRelation)
+      )
+    }
+  }
+
+  /**
+    * Whether the plan combines relations which can only be executed together by Spark, e.g. a join between tables
+    * of different datasources, whose relations support native execution.
+    */
+  def isCandidate(plan: LogicalPlan): Boolean =
+    plan.collectFirst { case join: Join => join }.isDefined &&
+      plan.collect { case leaf: LeafNode => leaf }.forall {
+        case LogicalRelation(_: NativeScan, _) => true
+        case _ => false
+      }
+
+  private case class LocalResult(rows: Seq[InternalRow])
+
+  private class TooManyRowsException extends Exception
+
+}
+
+/**
+  * Executes a plan within the driver, without scheduling Spark jobs: the largest subplans which can be executed
+  * natively are executed by their datasources and their (small) results are joined, filtered, projected, sorted and
+  * aggregated in-process.
+  *
+  * @param nativeScan provider able to execute the given subplan natively, if any.
+  */
+class LocalExecution(plan: LogicalPlan, settings: LocalExecution.Settings, nativeScan: LogicalPlan => Option[NativeScan])
+  extends SparkLoggerComponent {
+
+  import LocalExecution._
+
+  /**
+    * @return the result or `None` when the plan is not supported or any relation returns too many rows.
+    */
+  def execute(): Option[Array[Row]] =
+    if (!settings.enabled) {
+      None
+    } else {
+      try {
+        evaluate(plan) map { result =>
+          val toScala = CatalystTypeConverters.createToScalaConverter(plan.schema)
+          result.rows.map(toScala(_).asInstanceOf[Row]).toArray
+        }
+      } catch {
+        case _: TooManyRowsException =>
+          logInfo(s"A relation returns more than ${settings.maxRowsPerRelation} rows, it cannot be executed locally")
+          None
+        case NonFatal(exception) =>
+          log.warn(s"Local execution failed, it will be executed by Spark: ${exception.getMessage}")
+          None
+      }
+    }
+
+  private def evaluate(plan: LogicalPlan): Option[LocalResult] = nativeScan(plan) flatMap (scan(plan, _)) orElse {
+    plan match {
+      case ExtractEquiJoinKeys(joinType @ (Inner | LeftOuter | RightOuter), leftKeys, rightKeys, condition, left, right) =>
+        for (leftResult <- evaluate(left); rightResult <- evaluate(right))
+          yield hashJoin(joinType, leftKeys, rightKeys, condition, left.output, right.output, leftResult, rightResult)
+
+      case Project(projectList, child) =>
+        evaluate(child) map { result =>
+          val projection = new InterpretedProjection(projectList, child.output)
+          LocalResult(result.rows map projection)
+        }
+
+      case Filter(condition, child) =>
+        evaluate(child) map { result =>
+          LocalResult(result.rows filter InterpretedPredicate.create(condition, child.output))
+        }
+
+      case Limit(Literal(limit: Int, _), child) =>
+        evaluate(child) map (result => LocalResult(result.rows take limit))
+
+      case Sort(order, _, child) =>
+        evaluate(child) map { result =>
+          val ordering = new InterpretedOrdering(order.map(BindReferences.bindReference(_, child.output)))
+          LocalResult(result.rows.sorted(ordering))
+        }
+
+      case Subquery(_, child) =>
+        evaluate(child)
+
+      case Aggregate(groupingExpressions, aggregateExpressions, child) =>
+        evaluate(child) flatMap (aggregate(groupingExpressions, aggregateExpressions, child.output, _))
+
+      case _ =>
+        None
+    }
+  }
+
+  /**
+    * @return the native result of `plan` or `None` if the datasource cannot execute it after all, in which case
+    *         its children are evaluated instead.
+    */
+  private def scan(plan: LogicalPlan, provider: NativeScan): Option[LocalResult] =
+    provider.buildScanIterator(plan) map { rows =>
+      try {
+        val limited = rows.take(settings.maxRowsPerRelation + 1).toVector
+        if (limited.length > settings.maxRowsPerRelation) throw new TooManyRowsException
+        val toCatalyst = CatalystTypeConverters.createToCatalystConverter(plan.schema)
+        LocalResult(limited.map(toCatalyst(_).asInstanceOf[InternalRow]))
+      } finally {
+        rows match {
+          case closeable: Closeable => closeable.close()
+          case _ =>
+        }
+      }
+    }
+
+  private def hashJoin(joinType: JoinType,
+                       leftKeys: Seq[Expression],
+                       rightKeys: Seq[Expression],
+                       condition: Option[Expression],
+                       leftOutput: Seq[Attribute],
+                       rightOutput: Seq[Attribute],
+                       left: LocalResult,
+                       right: LocalResult): LocalResult = {
+
+    val keyTypes = leftKeys.map(_.dataType)
+    val leftKey = new InterpretedProjection(leftKeys, leftOutput)
+    val rightKey = new InterpretedProjection(rightKeys, rightOutput)
+    val residual = condition.map(InterpretedPredicate.create(_, leftOutput ++ rightOutput)) getOrElse ((_: InternalRow) => true)
+    val joined = new JoinedRow
+
+    // Null keys never match
+    def keyOf(projection: InterpretedProjection)(row: InternalRow): Option[Seq[Any]] =
+      Some(projection(row)).filterNot(_.anyNull).map(_.toSeq(keyTypes))
+
+    if (joinType == RightOuter) {
+      val leftRows = left.rows.groupBy(keyOf(leftKey)) - None
+      val nullLeft = new GenericInternalRow(leftOutput.length)
+      LocalResult(right.rows flatMap { rightRow =>
+        val matches = leftRows.getOrElse(keyOf(rightKey)(rightRow), Seq.empty) filter (l => residual(joined(l, rightRow)))
+        if (matches.isEmpty) Seq(joined(nullLeft, rightRow).copy()) else matches.map(joined(_, rightRow).copy())
+      })
+    } else {
+      val rightRows = right.rows.groupBy(keyOf(rightKey)) - None
+      val nullRight = new GenericInternalRow(rightOutput.length)
+      LocalResult(left.rows flatMap { leftRow =>
+        val matches = rightRows.getOrElse(keyOf(leftKey)(leftRow), Seq.empty) filter (r => residual(joined(leftRow, r)))
+        if (matches.isEmpty && joinType == LeftOuter) Seq(joined(leftRow, nullRight).copy())
+        else matches.map(joined(leftRow, _).copy())
+      })
+    }
+  }
+
+  /**
+    * Aggregates with the declarative aggregate functions (count, sum, avg, min, max...). Distinct aggregations are not
+    * supported.
+    */
+  private def aggregate(groupingExpressions: Seq[Expression],
+                        resultExpressions: Seq[NamedExpression],
+                        inputOutput: Seq[Attribute],
+                        input: LocalResult): Option[LocalResult] = {
+
+    val aggregateExpressions = resultExpressions.flatMap(_.collect { case a: AggregateExpression => a }).distinct
+    val functions = aggregateExpressions.map(_.aggregateFunction) collect { case d: DeclarativeAggregate => d }
+
+    if (aggregateExpressions.exists(_.isDistinct) || functions.length != aggregateExpressions.length) {
+      None
+    } else {
+      val bufferAttributes = functions.flatMap(_.aggBufferAttributes)
+      val initialBuffer = new InterpretedProjection(functions.flatMap(_.initialValues), Nil)
+      val update = new InterpretedProjection(functions.flatMap(_.updateExpressions), bufferAttributes ++ inputOutput)
+      val evaluate = new InterpretedProjection(functions.map(_.evaluateExpression), bufferAttributes)
+      val groupingKey = new InterpretedProjection(groupingExpressions, inputOutput)
+      val groupingTypes = groupingExpressions.map(_.dataType)
+      val joined = new JoinedRow
+
+      val groups = mutable.LinkedHashMap.empty[Seq[Any], (InternalRow, InternalRow)]
+      input.rows foreach { row =>
+        val keyRow = groupingKey(row)
+        val key = keyRow.toSeq(groupingTypes)
+        val (_, buffer) = groups.getOrElse(key, (keyRow, initialBuffer(InternalRow.empty)))
+        groups(key) = (keyRow, update(joined(buffer, row)))
+      }
+      // A global aggregation always returns a row
+      if (groups.isEmpty && groupingExpressions.isEmpty) {
+        groups(Seq.empty) = (InternalRow.empty, initialBuffer(InternalRow.empty))
+      }
+
+      val groupingAttributes = groupingExpressions.map(e => AttributeReference("group", e.dataType, e.nullable)())
+      val aggregateAttributes = aggregateExpressions.map(a => AttributeReference("aggregate", a.dataType, a.nullable)())
+      val rewrittenResult = resultExpressions map (_ transformDown {
+        case a: AggregateExpression =>
+          aggregateAttributes(aggregateExpressions.indexOf(a))
+        case e if groupingExpressions.exists(_ semanticEquals e) =>
+          groupingAttributes(groupingExpressions.indexWhere(_ semanticEquals e))
+      })
+      val result = new InterpretedProjection(rewrittenResult, groupingAttributes ++ aggregateAttributes)
+
+      Some(LocalResult(groups.values.toVector map { case (keyRow, buffer) =>
+        result(joined(keyRow, evaluate(buffer)))
+      }))
+    }
+  }
+
+}
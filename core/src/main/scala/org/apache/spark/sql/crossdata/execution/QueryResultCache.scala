@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.spark.sql.crossdata.execution
+
+import java.io.Closeable
+
+import com.stratio.common.utils.components.logger.impl.SparkLoggerComponent
+import org.apache.spark.SparkContext
+import org.apache.spark.sql.{Row, SQLConf}
+import org.apache.spark.sql.catalyst.plans.logical.{Command, LogicalPlan, Subquery}
+import org.apache.spark.sql.crossdata.config.SQLConfSettings
+import org.apache.spark.sql.crossdata.metrics.XDMetricsSource
+import org.apache.spark.util.SizeEstimator
+
+import scala.collection.JavaConversions._
+import scala.collection.mutable.ArrayBuffer
+
+object QueryResultCache {
+
+  // The cache is shared by every session so it is usually configured for all of them at the core configuration
+  val EnabledProperty = "spark.sql.crossdata.resultCache.enabled"
+  val TTLProperty = "spark.sql.crossdata.resultCache.ttlMs"
+  val MaxEntriesProperty = "spark.sql.crossdata.resultCache.maxEntries"
+  val MaxMemoryProperty = "spark.sql.crossdata.resultCache.maxMemoryBytes"
+  val MaxRowsProperty = "spark.sql.crossdata.resultCache.maxRowsPerEntry"
+
+  /**
+    * @param ttlMs Time an entry is valid since it was cached.
+    * @param maxEntries Maximum number of cached results, the least recently used ones are evicted first.
+    * @param maxMemoryBytes Maximum estimated heap size of all the cached results.
+    * @param maxRowsPerEntry Results having more rows than this limit are never cached.
+    */
+  case class Settings(
+                       enabled: Boolean = false,
+                       ttlMs: Long = 30000,
+                       maxEntries: Int = 1000,
+                       maxMemoryBytes: Long = 256L * 1024 * 1024,
+                       maxRowsPerEntry: Int = 10000
+                     )
+
+  object Settings {
+    def apply(conf: SQLConf): Settings = {
+      val defaults = Settings()
+      val settings = new SQLConfSettings(conf)
+
+      Settings(
+        settings.getBoolean(EnabledProperty, defaults.enabled),
+        settings.getLong(TTLProperty, defaults.ttlMs),
+        settings.getInt(MaxEntriesProperty, defaults.maxEntries),
+        settings.getLong(MaxMemoryProperty, defaults.maxMemoryBytes),
+        settings.getInt(MaxRowsProperty, defaults.maxRowsPerEntry)
+      )
+    }
+  }
+
+  def apply(sc: SparkContext, conf: SQLConf): QueryResultCache = new QueryResultCache(Settings(conf), metricsSource(sc))
+
+  // Sources are registered by name so the caches of a SparkContext share theirs instead of registering it again
+  private val metricsSources = new java.util.WeakHashMap[SparkContext, XDMetricsSource]()
+
+  private def metricsSource(sc: SparkContext): XDMetricsSource = metricsSources.synchronized {
+    Option(metricsSources.get(sc)) getOrElse {
+      val metrics = new XDMetricsSource()
+      sc.env.metricsSystem.registerSource(metrics)
+      metricsSources.put(sc, metrics)
+      metrics
+    }
+  }
+
+  private case class Key(canonicalPlan: String, sessionSettings: Map[String, String])
+
+  /**
+    * @param tables Names of the tables and views read by the plan, see [[referencedTables]].
+    */
+  private case class Entry(plan: LogicalPlan, tables: Set[String], rows: Array[Row], sizeInBytes: Long, expiresAt: Long)
+
+  private val ExpressionIdPattern = "#\\d+".r
+
+  /**
+    * @param analyzedPlan Analyzed plan of a query, in which every table or view it reads is wrapped in a subquery
+    *                     named after it.
+    * @return the names of the tables and views read by the query, without their database.
+    */
+  def referencedTables(analyzedPlan: LogicalPlan): Set[String] =
+    analyzedPlan.collect { case Subquery(alias, _) => tableName(alias) }.toSet
+
+  private def tableName(qualifiedName: String): String =
+    qualifiedName.substring(qualifiedName.lastIndexOf('.') + 1).toLowerCase
+
+}
+
+/**
+  * Cache of query results keyed by the optimized logical plan of the queries along with the settings of the session
+  * which runs them. It is meant to be shared by all the sessions so that repeated queries don't reach the datasources.
+  *
+  * Plans are looked up by their tree representation, expression identifiers removed, and then compared using
+  * [[LogicalPlan#sameResult]]. Entries expire once their TTL has elapsed and the least recently used ones are
+  * evicted when either the maximum number of entries or the memory limit is exceeded. Registering or dropping a
+  * temporary table or view only invalidates the results read from it, any other change in the catalog invalidates
+  * the whole cache.
+  *
+  * This class is thread-safe.
+  */
+class QueryResultCache(val settings: QueryResultCache.Settings, val metrics: XDMetricsSource)
+  extends SparkLoggerComponent {
+
+  import QueryResultCache._
+
+  // Guarded by `this`. Access-ordered so that its iteration order goes from the least to the most recently used.
+  private val entries = new java.util.LinkedHashMap[Key, List[Entry]](16, 0.75f, true)
+  private var memoryInBytes = 0L
+
+  def isEnabled: Boolean = settings.enabled
+
+  /**
+    * @param tables Tables read by the plan (see [[QueryResultCache.referencedTables]]). Results without them are
+    *               invalidated by any change of a table.
+    * @return the cached result of `plan` or, if there is not a valid one, `compute` result which is cached
+    *         when the plan and the result are cacheable.
+    */
+  def getOrCompute(plan: LogicalPlan, sessionSettings: Map[String, String], tables: Set[String] = Set.empty)
+                  (compute: => Array[Row]): Array[Row] =
+    if (!isCacheable(plan)) compute
+    else lookup(plan, sessionSettings) getOrElse {
+      val rows = compute
+      put(plan, sessionSettings, tables, rows)
+      rows
+    }
+
+  /**
+    * @return `rows` which are cached, once exhausted, when the plan and the result are cacheable. Results exceeding
+    *         `maxRowsPerEntry` rows stop being buffered as soon as they exceed it.
+    */
+  def caching(plan: LogicalPlan, sessionSettings: Map[String, String], tables: Set[String] = Set.empty)
+             (rows: Iterator[Row] with Closeable): Iterator[Row] with Closeable =
+    if (!isCacheable(plan)) rows
+    else new CachingIterator(plan, sessionSettings, tables, rows)
+
+  /**
+    * @return a copy of the cached result of `plan`, if any.
+    */
+  def lookup(plan: LogicalPlan, sessionSettings: Map[String, String]): Option[Array[Row]] =
+    if (!isCacheable(plan)) None
+    else {
+      val key = Key(canonicalize(plan), sessionSettings)
+      val now = System.currentTimeMillis()
+      val found = synchronized {
+        Option(entries.get(key)) flatMap { keyEntries =>
+          val (valid, expired) = keyEntries.partition(_.expiresAt > now)
+          if (expired.nonEmpty) {
+            memoryInBytes -= expired.map(_.sizeInBytes).sum
+            if (valid.isEmpty) entries.remove(key) else entries.put(key, valid)
+          }
+          valid.find(_.plan.sameResult(plan)).map(_.rows.clone())
+        }
+      }
+      if (found.isDefined) metrics.resultCacheHits.inc() else metrics.resultCacheMisses.inc()
+      found
+    }
+
+  def invalidateAll(): Unit = if (isEnabled) {
+    synchronized {
+      entries.clear()
+      memoryInBytes = 0
+    }
+    metrics.resultCacheInvalidations.inc()
+    logDebug("Query result cache invalidated")
+  }
+
+  /**
+    * Discards the results read from the given table or view, as well as those whose tables are unknown.
+    */
+  def invalidateTable(table: String): Unit = if (isEnabled) {
+    val name = tableName(table)
+    synchronized {
+      val it = entries.entrySet.iterator
+      while (it.hasNext) {
+        val keyEntry = it.next()
+        val (invalid, valid) = keyEntry.getValue.partition(entry => entry.tables.isEmpty || entry.tables.contains(name))
+        if (invalid.nonEmpty) {
+          memoryInBytes -= invalid.map(_.sizeInBytes).sum
+          if (valid.isEmpty) it.remove() else keyEntry.setValue(valid)
+        }
+      }
+    }
+    metrics.resultCacheInvalidations.inc()
+    logDebug(s"Query results read from $table invalidated")
+  }
+
+  def size: Int = synchronized(entries.values.map(_.size).sum)
+
+  private def put(plan: LogicalPlan, sessionSettings: Map[String, String], tables: Set[String], rows: Array[Row]): Unit =
+    if (rows.length <= settings.maxRowsPerEntry) {
+      val sizeInBytes = SizeEstimator.estimate(rows)
+      if (sizeInBytes <= settings.maxMemoryBytes) {
+        val key = Key(canonicalize(plan), sessionSettings)
+        val entry = Entry(plan, tables, rows.clone(), sizeInBytes, System.currentTimeMillis() + settings.ttlMs)
+        val nEvicted = synchronized {
+          val others = Option(entries.get(key)).getOrElse(Nil) filterNot { old =>
+            val replaced = old.plan.sameResult(plan)
+            if (replaced) memoryInBytes -= old.sizeInBytes
+            replaced
+          }
+          entries.put(key, entry :: others)
+          memoryInBytes += sizeInBytes
+          evict()
+        }
+        metrics.resultCacheEvictions.inc(nEvicted)
+      }
+    }
+
+  /**
+    * Removes the least recently used entries until the limits are satisfied.
+    * @return number of evicted entries.
+    */
+  private def evict(): Int = {
+    var nEntries = entries.values.map(_.size).sum
+    var nEvicted = 0
+    val it = entries.entrySet.iterator
+    while ((nEntries > settings.maxEntries || memoryInBytes > settings.maxMemoryBytes) && it.hasNext) {
+      val keyEntries = it.next().getValue
+      it.remove()
+      nEntries -= keyEntries.size
+      nEvicted += keyEntries.size
+      memoryInBytes -= keyEntries.map(_.sizeInBytes).sum
+    }
+    nEvicted
+  }
+
+  private def isCacheable(plan: LogicalPlan): Boolean =
+    isEnabled && !plan.isInstanceOf[Command] && plan.expressions.forall(_.deterministic) &&
+      plan.collect { case node if !node.expressions.forall(_.deterministic) => node }.isEmpty
+
+  private def canonicalize(plan: LogicalPlan): String = ExpressionIdPattern.replaceAllIn(plan.treeString, "")
+
+  private class CachingIterator(plan: LogicalPlan,
+                                sessionSettings: Map[String, String],
+                                tables: Set[String],
+                                rows: Iterator[Row] with Closeable) extends Iterator[Row] with Closeable {
+
+    private val buffer = ArrayBuffer.empty[Row]
+    private var cacheable = true
+
+    override def hasNext: Boolean = {
+      val more = rows.hasNext
+      if (!more && cacheable) {
+        cacheable = false
+        put(plan, sessionSettings, tables, buffer.toArray)
+      }
+      more
+    }
+
+    override def next(): Row = {
+      val row = rows.next()
+      if (cacheable) {
+        buffer += row
+        if (buffer.length > settings.maxRowsPerEntry) {
+          cacheable = false
+          buffer.clear()
+        }
+      }
+      row
+    }
+
+    override def close(): Unit = {
+      cacheable = false
+      buffer.clear()
+      rows.close()
+    }
+  }
+
+}
@@ -21,7 +21,7 @@ import org.apache.spark.sql.catalyst.analysis.UnresolvedRelation
 import org.apache.spark.sql.catalyst.plans.logical.{InsertIntoTable, LogicalPlan}
 import org.apache.spark.sql.catalyst.{TableIdentifier, plans}
 import org.apache.spark.sql.crossdata.XDSQLConf
-import org.apache.spark.sql.crossdata.catalyst.execution.{AddApp, AddJar, CreateExternalTable, CreateGlobalIndex, CreateTempView, CreateView, DropAllTables, DropExternalTable, DropTable, DropView, ExecuteApp, ImportTablesUsingWithOptions, InsertIntoTable => XDInsertIntoTable}
+import org.apache.spark.sql.crossdata.catalyst.execution.{AddApp, AddJar, CreateExternalTable, CreateGlobalIndex, CreateTempView, CreateView, DropAllTables, DropExternalTable, DropTable, DropView, ExecuteApp, ImportTablesUsingWithOptions, RebuildGlobalIndex, InsertIntoTable => XDInsertIntoTable}
 import org.apache.spark.sql.crossdata.catalyst.streaming._
 import org.apache.spark.sql.crossdata.execution.XDQueryExecution
 import org.apache.spark.sql.execution._
@@ -112,6 +112,7 @@ class AuthDirectivesExtractor(crossdataInstances: Seq[String], catalogIdentifier
 
   private[auth] def insecurePlanToResourcesAndOps: PartialFunction[LogicalPlan, Seq[(Resource, Action)]] = {
     case lPlan: CreateGlobalIndex => throw new RuntimeException(s"Unauthorized command: $lPlan")
+    case lPlan: RebuildGlobalIndex => throw new RuntimeException(s"Unauthorized command: $lPlan")
     case lPlan: AddApp => throw new RuntimeException(s"Unauthorized command: $lPlan")
     case lPlan: ExecuteApp => throw new RuntimeException(s"Unauthorized command: $lPlan")
     case lPlan: AddJar => throw new RuntimeException(s"Unauthorized command: $lPlan")
@@ -15,7 +15,7 @@
  */
 package org.apache.spark.sql.crossdata.metrics
 
-import com.codahale.metrics.{Gauge, MetricRegistry}
+import com.codahale.metrics.{Counter, Gauge, MetricRegistry}
 import org.apache.spark.metrics.source.Source
 
 class XDMetricsSource extends Source{
@@ -28,6 +28,12 @@ class XDMetricsSource extends Source{
     override def getValue: String = "valueOfExecutionType"
   })
 
+  // Query result cache metrics
+  val resultCacheHits: Counter = metricRegistry.counter(MetricRegistry.name("resultCache", "hits"))
+  val resultCacheMisses: Counter = metricRegistry.counter(MetricRegistry.name("resultCache", "misses"))
+  val resultCacheEvictions: Counter = metricRegistry.counter(MetricRegistry.name("resultCache", "evictions"))
+  val resultCacheInvalidations: Counter = metricRegistry.counter(MetricRegistry.name("resultCache", "invalidations"))
+
   def registerGauge(name: String): Unit = {
     metricRegistry.register(MetricRegistry.name("metricName", name), new Gauge[String] {
       override def getValue: String = name
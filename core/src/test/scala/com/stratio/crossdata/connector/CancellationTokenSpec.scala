@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.connector
+
+import java.util.concurrent.CancellationException
+
+import com.stratio.crossdata.test.BaseXDTest
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import scala.concurrent.duration._
+import scala.concurrent.{Future, Promise}
+
+@RunWith(classOf[JUnitRunner])
+class CancellationTokenSpec extends BaseXDTest {
+
+  "A CancellationToken" should "run its callbacks once when cancelled" in {
+    val token = CancellationToken.register("spec-callbacks")
+    var nCalls = 0
+    token.onCancel(nCalls += 1)
+
+    token.isCancelled shouldBe false
+    token.cancel()
+    token.cancel()
+
+    token.isCancelled shouldBe true
+    nCalls shouldBe 1
+    a [CancellationException] should be thrownBy token.throwIfCancelled()
+    CancellationToken.unregister("spec-callbacks")
+  }
+
+  it should "run the callbacks registered once cancelled right away" in {
+    val token = CancellationToken.register("spec-late-callbacks")
+    token.cancel()
+
+    var called = false
+    token.onCancel(called = true)
+    called shouldBe true
+    CancellationToken.unregister("spec-late-callbacks")
+  }
+
+  it should "stop waiting for a pending request when cancelled" in {
+    val token = CancellationToken.register("spec-await")
+    val request = Promise[Int]()
+    token.awaitResult(Future.successful(1), 1.second) shouldBe 1
+
+    token.cancel()
+    a [CancellationException] should be thrownBy token.awaitResult(request.future, 1.second)
+    CancellationToken.unregister("spec-await")
+  }
+
+  it should "be shared by the executions of a job group" in {
+    CancellationToken.register("spec-group") shouldBe theSameInstanceAs(CancellationToken.register("spec-group"))
+    CancellationToken.unregister("spec-group")
+    CancellationToken.register("spec-group") should not be theSameInstanceAs(CancellationToken.Never)
+    CancellationToken.unregister("spec-group")
+  }
+
+}
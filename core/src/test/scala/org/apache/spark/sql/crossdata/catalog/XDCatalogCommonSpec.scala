@@ -36,4 +36,21 @@ class XDCatalogCommonSpec extends BaseXDTest {
     tableIdentifier.normalize(new SimpleCatalystConf(false)) shouldBe TableIdentifierNormalized(tableName.toLowerCase, Some(dbName.toLowerCase))
 
   }
+
+  "An index status" should "be stored among the index options" in {
+    import XDCatalog.{CrossdataIndex, IndexState, IndexStatus}
+    val index = CrossdataIndex(
+      TableIdentifierNormalized("table", Some("db")), IndexIdentifierNormalized("idx", "gidx"),
+      Seq("col"), "id", "com.stratio.crossdata.connector.elasticsearch", Map("es.nodes" -> "localhost")
+    )
+    IndexStatus.of(index) shouldBe None
+
+    val failed = IndexStatus(IndexState.Failed, indexedRows = 10, updatedAt = 1, error = Some("Boom"))
+    val failedIndex = IndexStatus.withStatus(index, failed)
+    IndexStatus.of(failedIndex) shouldBe Some(failed)
+    failedIndex.opts should contain ("es.nodes" -> "localhost")
+
+    val ready = IndexStatus(IndexState.Ready, indexedRows = 20, updatedAt = 2)
+    IndexStatus.of(IndexStatus.withStatus(failedIndex, ready)) shouldBe Some(ready)
+  }
 }
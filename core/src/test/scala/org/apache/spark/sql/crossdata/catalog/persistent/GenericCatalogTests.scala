@@ -344,6 +344,26 @@ trait GenericCatalogTests extends SharedXDContextTest with CatalogConstants {
 
   }
 
+  it should "update the status of an index in place" in {
+    import XDCatalog.{IndexState, IndexStatus}
+    val tableIdentifier = TableIdentifier("tableIndex5").normalize
+    val indexIdentifier = IndexIdentifier("global5", "myIndex5").normalize
+    val opts = Map("es.nodes" -> "localhost")
+    val crossdataIndex = CrossdataIndex(tableIdentifier, indexIdentifier, Seq("colIndexed"), "primaryCol", "mongo", opts)
+
+    val crossdataTable = CrossdataTable(tableIdentifier, Some(Columns), SourceDatasource, Array(Field1Name), OptsJSON)
+    xdContext.catalog.persistTableMetadata(crossdataTable)
+    xdContext.catalog.persistIndex(crossdataIndex)
+
+    val ready = IndexStatus(IndexState.Ready, indexedRows = 20, updatedAt = 2)
+    xdContext.catalog.updateIndexStatus(indexIdentifier.toIndexIdentifier, ready)
+
+    val res = xdContext.catalog.lookupIndex(indexIdentifier)
+    res.flatMap(IndexStatus.of) shouldBe Some(ready)
+    res.get.opts should contain ("es.nodes" -> "localhost")
+    res.get.pk shouldBe "primaryCol"
+  }
+
   it should "remove an index associated to a table" in {
 
     val tableIdentifier = TableIdentifier("testTable", Option("dbTest")).normalize
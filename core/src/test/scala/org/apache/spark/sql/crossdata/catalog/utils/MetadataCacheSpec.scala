@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.spark.sql.crossdata.catalog.utils
+
+import com.stratio.crossdata.test.BaseXDTest
+import org.apache.spark.sql.crossdata.catalog.utils.MetadataCache.Settings
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class MetadataCacheSpec extends BaseXDTest {
+
+  "A MetadataCache" should "load values just once" in {
+    val cache = new MetadataCache[String, String](Settings())
+    var nLoads = 0
+
+    cache.getOrLoad("table") { nLoads += 1; Some("plan") } shouldBe Some("plan")
+    cache.getOrLoad("table") { nLoads += 1; Some("plan") } shouldBe Some("plan")
+
+    nLoads shouldBe 1
+    cache.stats.hits shouldBe 1
+    cache.stats.misses shouldBe 1
+    cache.stats.loads shouldBe 1
+  }
+
+  it should "remember missing keys until their negative TTL expires" in {
+    val cache = new MetadataCache[String, String](Settings(negativeTtlMs = 60000))
+    var nLoads = 0
+
+    cache.getOrLoad("unknown") { nLoads += 1; None } shouldBe None
+    cache.getOrLoad("unknown") { nLoads += 1; None } shouldBe None
+    nLoads shouldBe 1
+    cache.stats.negativeHits shouldBe 1
+    cache.size shouldBe 0
+
+    cache.invalidate("unknown")
+    cache.getOrLoad("unknown") { nLoads += 1; Some("plan") } shouldBe Some("plan")
+    nLoads shouldBe 2
+  }
+
+  it should "evict the least recently used entries" in {
+    val cache = new MetadataCache[String, String](Settings(maxEntries = 2))
+    cache.put("t1", "p1")
+    cache.put("t2", "p2")
+    cache.get("t1")
+    cache.put("t3", "p3")
+
+    cache.contains("t1") shouldBe true
+    cache.contains("t2") shouldBe false
+    cache.contains("t3") shouldBe true
+    cache.stats.evictions shouldBe 1
+  }
+
+  it should "not cache values loaded while it is being invalidated" in {
+    val cache = new MetadataCache[String, String](Settings())
+
+    cache.getOrLoad("table") {
+      cache.clear()
+      Some("stalePlan")
+    } shouldBe Some("stalePlan")
+
+    cache.contains("table") shouldBe false
+  }
+
+  it should "invalidate the entries matching a predicate" in {
+    val cache = new MetadataCache[String, String](Settings())
+    cache.put("t1", "index1")
+    cache.put("t2", "index2")
+
+    cache.invalidateWhere(_ == "index1")
+
+    cache.contains("t1") shouldBe false
+    cache.contains("t2") shouldBe true
+  }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.spark.sql.crossdata.catalyst.globalindex
+
+import com.stratio.crossdata.test.BaseXDTest
+import org.apache.spark.sql.SQLConf
+import org.apache.spark.sql.catalyst.expressions.{And, AttributeReference, EqualTo, Expression, In, Literal, Or}
+import org.apache.spark.sql.crossdata.catalyst.globalindex.IndexLookupJoin.Settings
+import org.apache.spark.sql.types.{IntegerType, StringType}
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class IndexLookupJoinSpec extends BaseXDTest {
+
+  val id = AttributeReference("id", IntegerType)()
+  val name = AttributeReference("name", StringType)()
+
+  "An IndexLookupJoin" should "look up simple primary keys with an IN condition" in {
+    IndexLookupJoin.lookupCondition(Seq(id), Seq(Seq(1), Seq(2))) shouldBe In(id, Seq(Literal(1), Literal(2)))
+  }
+
+  it should "look up compound primary keys column by column" in {
+    val condition = IndexLookupJoin.lookupCondition(Seq(id, name), Seq(Seq(1, "a"), Seq(2, "b")))
+
+    condition shouldBe Or(
+      And(EqualTo(id, Literal(1)), EqualTo(name, Literal.create("a", StringType))),
+      And(EqualTo(id, Literal(2)), EqualTo(name, Literal.create("b", StringType)))
+    )
+  }
+
+  it should "keep the lookup condition of many compound keys shallow" in {
+    val keys = (1 to 1024).map(i => Seq(i, i.toString))
+    val condition = IndexLookupJoin.lookupCondition(Seq(id, name), keys)
+
+    def depth(expression: Expression): Int =
+      1 + (expression.children.map(depth) :+ 0).max
+
+    depth(condition) should be <= 14
+    condition.collect { case e: EqualTo => e } should have length 2048
+  }
+
+  it should "read its settings from the SQL configuration" in {
+    val conf = new SQLConf
+    conf.setConfString(IndexLookupJoin.LookupChunkSizeProperty, "50")
+    conf.setConfString(IndexLookupJoin.MaxLookupKeysProperty, "invalid")
+
+    Settings(conf) shouldBe Settings(lookupChunkSize = 50)
+  }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.spark.sql.crossdata.config
+
+import com.stratio.crossdata.test.BaseXDTest
+import org.apache.spark.sql.SQLConf
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class SQLConfSettingsSpec extends BaseXDTest {
+
+  def settings(properties: (String, String)*): SQLConfSettings = {
+    val conf = new SQLConf
+    properties foreach { case (key, value) => conf.setConfString(key, value) }
+    new SQLConfSettings(conf)
+  }
+
+  "SQLConfSettings" should "parse the properties which are set" in {
+    val conf = settings("enabled" -> "false", "size" -> "50", "bytes" -> "1099511627776")
+
+    conf.getBoolean("enabled", default = true) shouldBe false
+    conf.getInt("size", 10) shouldBe 50
+    conf.getLong("bytes", 10L) shouldBe 1099511627776L
+    conf.get("size", Seq.empty[Int])(value => Seq(value.toInt)) shouldBe Seq(50)
+  }
+
+  it should "return the defaults of missing and invalid properties" in {
+    val conf = settings("size" -> "invalid", "count" -> "-1")
+
+    conf.getInt("missing", 10) shouldBe 10
+    conf.getInt("size", 10) shouldBe 10
+    conf.getPositiveInt("count", 10) shouldBe 10
+  }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.spark.sql.crossdata.execution
+
+import com.stratio.crossdata.connector.NativeScan
+import com.stratio.crossdata.test.BaseXDTest
+import org.apache.spark.sql.catalyst.expressions.aggregate.{AggregateExpression, Complete, Count, Sum}
+import org.apache.spark.sql.catalyst.expressions.{Alias, Descending, EqualTo, Literal, SortOrder}
+import org.apache.spark.sql.catalyst.plans.logical._
+import org.apache.spark.sql.catalyst.plans.{FullOuter, Inner, LeftOuter}
+import org.apache.spark.sql.crossdata.MockBaseRelation
+import org.apache.spark.sql.execution.datasources.LogicalRelation
+import org.apache.spark.sql.types._
+import org.apache.spark.sql.{Row, SQLConf}
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class LocalExecutionSpec extends BaseXDTest {
+
+  class MockNativeRelation(override val schema: StructType, rows: Seq[Row]) extends MockBaseRelation with NativeScan {
+    override def isSupported(logicalStep: LogicalPlan, wholeLogicalPlan: LogicalPlan): Boolean =
+      logicalStep.isInstanceOf[LeafNode]
+
+    override def buildScan(optimizedLogicalPlan: LogicalPlan): Option[Array[Row]] = optimizedLogicalPlan match {
+      case _: LogicalRelation => Some(rows.toArray)
+      case _ => None
+    }
+  }
+
+  val people = LogicalRelation(new MockNativeRelation(
+    StructType(Seq(StructField("id", IntegerType), StructField("name", StringType))),
+    Seq(Row(1, "a"), Row(2, "b"), Row(3, "c"))
+  ))
+  val orders = LogicalRelation(new MockNativeRelation(
+    StructType(Seq(StructField("personId", IntegerType), StructField("amount", IntegerType))),
+    Seq(Row(1, 10), Row(1, 20), Row(2, 5), Row(null, 1))
+  ))
+
+  val Seq(id, name) = people.output
+  val Seq(personId, amount) = orders.output
+
+  val nativeScan: LogicalPlan => Option[NativeScan] = {
+    case LogicalRelation(relation: NativeScan, _) => Some(relation)
+    case _ => None
+  }
+
+  def execute(plan: LogicalPlan, settings: LocalExecution.Settings = LocalExecution.Settings()): Option[Seq[Row]] =
+    new LocalExecution(plan, settings, nativeScan).execute().map(_.toSeq)
+
+  "A LocalExecution" should "join the results of native relations by their keys" in {
+    val plan = Project(Seq(name, amount), Join(people, orders, Inner, Some(EqualTo(id, personId))))
+
+    execute(plan).get should contain theSameElementsAs Seq(Row("a", 10), Row("a", 20), Row("b", 5))
+  }
+
+  it should "keep the unmatched rows of left outer joins" in {
+    val plan = Project(Seq(name, amount), Join(people, orders, LeftOuter, Some(EqualTo(id, personId))))
+
+    execute(plan).get should contain theSameElementsAs Seq(Row("a", 10), Row("a", 20), Row("b", 5), Row("c", null))
+  }
+
+  it should "aggregate and sort the joined rows" in {
+    val total = Alias(AggregateExpression(Sum(amount), Complete, isDistinct = false), "total")()
+    val count = Alias(AggregateExpression(Count(amount), Complete, isDistinct = false), "count")()
+    val aggregate = Aggregate(Seq(name), Seq(name, total, count), Join(people, orders, Inner, Some(EqualTo(id, personId))))
+    val plan = Sort(Seq(SortOrder(total.toAttribute, Descending)), global = true, aggregate)
+
+    execute(plan) shouldBe Some(Seq(Row("a", 30L, 2L), Row("b", 5L, 1L)))
+  }
+
+  it should "return a row for global aggregations without input rows" in {
+    val count = Alias(AggregateExpression(Count(amount), Complete, isDistinct = false), "count")()
+    val join = Join(people, orders, Inner, Some(EqualTo(id, personId)))
+    val plan = Aggregate(Nil, Seq(count), Filter(EqualTo(name, Literal("z")), join))
+
+    execute(plan) shouldBe Some(Seq(Row(0L)))
+  }
+
+  it should "not execute joins which are not supported" in {
+    execute(Join(people, orders, Inner, None)) shouldBe None
+    execute(Join(people, orders, FullOuter, Some(EqualTo(id, personId)))) shouldBe None
+  }
+
+  it should "give up when a relation returns too many rows" in {
+    val plan = Join(people, orders, Inner, Some(EqualTo(id, personId)))
+
+    execute(plan, LocalExecution.Settings(maxRowsPerRelation = 3)) shouldBe None
+  }
+
+  it should "only be attempted for joins between native relations" in {
+    LocalExecution.isCandidate(Join(people, orders, Inner, Some(EqualTo(id, personId)))) shouldBe true
+    LocalExecution.isCandidate(people) shouldBe false
+    LocalExecution.isCandidate(Join(people, LocalRelation(personId), Inner, None)) shouldBe false
+  }
+
+  it should "evaluate the subplans which a datasource cannot execute after all" in {
+    val filteredPeople = Filter(EqualTo(name, Literal("a")), people)
+    val plan = Project(Seq(name, amount), Join(filteredPeople, orders, Inner, Some(EqualTo(id, personId))))
+    val optimisticScan: LogicalPlan => Option[NativeScan] = {
+      case Filter(_, LogicalRelation(relation: NativeScan, _)) => Some(relation)
+      case other => nativeScan(other)
+    }
+
+    val result = new LocalExecution(plan, LocalExecution.Settings(), optimisticScan).execute()
+    result.get should contain theSameElementsAs Seq(Row("a", 10), Row("a", 20))
+  }
+
+  it should "leave joins to Spark when it is disabled for the session" in {
+    val conf = new SQLConf
+    conf.setConfString(LocalExecution.EnabledProperty, "false")
+    val plan = Join(people, orders, Inner, Some(EqualTo(id, personId)))
+
+    execute(plan, LocalExecution.Settings(conf)) shouldBe None
+    execute(plan, LocalExecution.Settings(new SQLConf)) shouldBe defined
+  }
+
+}
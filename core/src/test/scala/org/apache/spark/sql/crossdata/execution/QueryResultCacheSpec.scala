@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.spark.sql.crossdata.execution
+
+import com.stratio.crossdata.test.BaseXDTest
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.catalyst.InternalRow
+import org.apache.spark.sql.catalyst.expressions.{AttributeReference, EqualTo, Literal, Rand}
+import org.apache.spark.sql.catalyst.plans.logical.{Filter, LocalRelation, LogicalPlan, Subquery}
+import org.apache.spark.sql.crossdata.XDDataFrame
+import org.apache.spark.sql.crossdata.execution.QueryResultCache.Settings
+import org.apache.spark.sql.crossdata.metrics.XDMetricsSource
+import org.apache.spark.sql.types.IntegerType
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class QueryResultCacheSpec extends BaseXDTest {
+
+  val session = Map("spark.sql.crossdata.user" -> "user")
+  val rows = Array(Row(1), Row(2))
+
+  def relation: LocalRelation =
+    LocalRelation(AttributeReference("id", IntegerType)() :: Nil, InternalRow(1) :: InternalRow(2) :: Nil)
+
+  def filterPlan(value: Int): LogicalPlan = {
+    val rel = relation
+    Filter(EqualTo(rel.output.head, Literal(value)), rel)
+  }
+
+  "A QueryResultCache" should "return the cached result of equivalent plans" in {
+    val cache = newCache(Settings(enabled = true))
+
+    cache.getOrCompute(filterPlan(1), session)(rows) shouldBe rows
+    cache.getOrCompute(filterPlan(1), session)(fail("The result should have been cached")) shouldBe rows
+    cache.lookup(filterPlan(2), session) shouldBe empty
+    cache.lookup(filterPlan(1), Map("spark.sql.crossdata.user" -> "other")) shouldBe empty
+
+    cache.metrics.resultCacheHits.getCount shouldBe 1
+    cache.metrics.resultCacheMisses.getCount shouldBe 3
+  }
+
+  it should "not cache anything when it is disabled" in {
+    val cache = newCache(Settings())
+
+    cache.getOrCompute(filterPlan(1), session)(rows)
+    cache.lookup(filterPlan(1), session) shouldBe empty
+  }
+
+  it should "not cache non-deterministic plans" in {
+    val cache = newCache(Settings(enabled = true))
+    val rel = relation
+    val plan = Filter(EqualTo(Rand(1), Literal(0.5)), rel)
+
+    cache.getOrCompute(plan, session)(rows)
+    cache.size shouldBe 0
+  }
+
+  it should "expire and evict entries" in {
+    val expiring = newCache(Settings(enabled = true, ttlMs = 0))
+    expiring.getOrCompute(filterPlan(1), session)(rows)
+    expiring.lookup(filterPlan(1), session) shouldBe empty
+
+    val bounded = newCache(Settings(enabled = true, maxEntries = 1))
+    bounded.getOrCompute(filterPlan(1), session)(rows)
+    bounded.getOrCompute(filterPlan(2), session)(rows)
+    bounded.size shouldBe 1
+    bounded.lookup(filterPlan(2), session) shouldBe defined
+    bounded.metrics.resultCacheEvictions.getCount shouldBe 1
+  }
+
+  it should "not share the cached arrays with its callers" in {
+    val cache = newCache(Settings(enabled = true))
+    val computed = Array(Row(1), Row(2))
+    cache.getOrCompute(filterPlan(1), session)(computed)
+
+    computed(0) = Row(3)
+    val cached = cache.lookup(filterPlan(1), session).get
+    cached shouldBe rows
+    cached(0) = Row(3)
+    cache.lookup(filterPlan(1), session).get shouldBe rows
+  }
+
+  it should "cache the rows of an iterator once it is exhausted" in {
+    val cache = newCache(Settings(enabled = true, maxRowsPerEntry = 2))
+
+    val iterator = cache.caching(filterPlan(1), session)(XDDataFrame.closeable(rows.iterator))
+    iterator.next()
+    cache.lookup(filterPlan(1), session) shouldBe empty
+    iterator.toList
+    cache.lookup(filterPlan(1), session).get shouldBe rows
+
+    cache.caching(filterPlan(2), session)(XDDataFrame.closeable((1 to 3).map(Row(_)).iterator)).toList should have length 3
+    cache.lookup(filterPlan(2), session) shouldBe empty
+  }
+
+  it should "discard every entry when invalidated" in {
+    val cache = newCache(Settings(enabled = true))
+    cache.getOrCompute(filterPlan(1), session)(rows)
+
+    cache.invalidateAll()
+    cache.lookup(filterPlan(1), session) shouldBe empty
+  }
+
+  it should "only discard the entries read from an invalidated table" in {
+    val cache = newCache(Settings(enabled = true))
+    cache.getOrCompute(filterPlan(1), session, Set("students"))(rows)
+    cache.getOrCompute(filterPlan(2), session, Set("teachers"))(rows)
+    cache.getOrCompute(filterPlan(3), session)(rows)
+
+    cache.invalidateTable("db.Students")
+    cache.lookup(filterPlan(1), session) shouldBe empty
+    cache.lookup(filterPlan(2), session) shouldBe defined
+    cache.lookup(filterPlan(3), session) shouldBe empty
+  }
+
+  it should "find the tables read by an analyzed plan" in {
+    val plan = Filter(EqualTo(relation.output.head, Literal(1)), Subquery("db.Students", relation))
+    QueryResultCache.referencedTables(plan) shouldBe Set("students")
+  }
+
+  private def newCache(settings: Settings): QueryResultCache = new QueryResultCache(settings, new XDMetricsSource())
+
+}
@@ -370,4 +370,9 @@ class XDDdlParserSpec extends BaseXDTest with MockitoSugar{
         Map("opt1" -> "opt1val", "opt2" -> "opt2val"))
   }
 
+  it should "successfully parse a REBUILD INDEX into a RebuildGlobalIndex RunnableCommand" in {
+    parser.parse("REBUILD INDEX myIndex") shouldBe RebuildGlobalIndex(TableIdentifier("myIndex"))
+    parser.parse("REBUILD GLOBAL INDEX gidx.myIndex") shouldBe RebuildGlobalIndex(TableIdentifier("myIndex", Some("gidx")))
+  }
+
 }
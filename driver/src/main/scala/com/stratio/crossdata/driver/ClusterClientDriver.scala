@@ -16,6 +16,8 @@
 package com.stratio.crossdata.driver
 
 import java.util.UUID
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicBoolean
 
 import akka.NotUsed
 import akka.actor.{ActorPath, ActorRef}
@@ -28,6 +30,7 @@ import com.stratio.crossdata.common.security.Session
 import com.stratio.crossdata.driver.actor.{ClusterClientSessionBeaconActor, ProxyActor, ServerClusterClientParameters}
 import com.stratio.crossdata.driver.config.DriverConf
 import com.stratio.crossdata.driver.session.{Authentication, SessionManager}
+import org.apache.spark.sql.Row
 import org.slf4j.{Logger, LoggerFactory}
 
 import scala.concurrent.ExecutionContext.Implicits.global
@@ -48,8 +51,64 @@ class ClusterClientDriver private[driver](driverConf: DriverConf,
 
   lazy val driverSession: Session = SessionManager.createSession(auth, proxyActor)
 
-  override def sqlStreamedResult(query: String): Future[StreamedSQLResult] =
-    throw new RuntimeException("ClusterClient implementation does not support streams API; use HttpDriver instead")
+  /**
+    * The result is delivered by the server in pages of `config.result-page-size` rows. Each page is requested
+    * when the previous one has been consumed so that neither the server nor the driver hold the whole result.
+    * Streams which terminate (e.g: are cancelled) before the last page release the pages left at the server.
+    */
+  override def sqlStreamedResult(query: String): Future[StreamedSQLResult] = {
+    val sqlCommand = SQLCommand(
+      query,
+      flattenResults = driverConf.getFlattenTables,
+      pageSize = Some(driverConf.getResultPageSize)
+    )
+    askCommand(securitizeCommand(sqlCommand)) map {
+      case firstPage: ResultPage =>
+        StreamedSuccessfulSQLResult(pagedRowsSource(firstPage), firstPage.schema)
+      case SQLReply(_, SuccessfulSQLResult(rows, schema)) => // Results which can't be paged (e.g: flattened ones)
+        StreamedSuccessfulSQLResult(Source(rows.toList), schema)
+      case SQLReply(_, ErrorSQLResult(message, cause)) =>
+        StreamedErrorSQLResult(message, cause)
+      case other =>
+        throw new RuntimeException(s"ResultPage expected. Received: $other")
+    }
+  }
+
+  private def pagedRowsSource(firstPage: ResultPage): Source[Row, NotUsed] = {
+    val lastPageReceived = new AtomicBoolean(firstPage.isLast)
+    val remainingPages: Source[Array[Row], NotUsed] =
+      if (firstPage.isLast) Source.empty
+      else Source.unfoldAsync[Boolean, Array[Row]](true) {
+        case false => Future.successful(None)
+        case true => requestPage(firstPage) map { page =>
+          if (page.isLast) lastPageReceived.set(true)
+          Some(!page.isLast -> page.rows)
+        }
+      }
+    val rows = (Source.single(firstPage.rows) ++ remainingPages) mapConcat (_.toList)
+    rows.watchTermination() { (_, termination) =>
+      termination onComplete { _ =>
+        if (!lastPageReceived.get) proxyActor ! (ReleaseResultPages(firstPage.requestId), firstPage.producer)
+      }
+      NotUsed
+    }
+  }
+
+  private def requestPage(firstPage: ResultPage): Future[ResultPage] = {
+    val promise = Promise[ServerReply]()
+    proxyActor ! (RequestResultPage(firstPage.requestId), firstPage.producer, promise)
+    val timeout = driverConf.getResultPageTimeout
+    val timeoutTask = system.scheduler.scheduleOnce(timeout) { // The server might have gone away
+      promise.tryFailure(new TimeoutException(s"No result page received within $timeout"))
+    }
+    promise.future onComplete (_ => timeoutTask.cancel())
+    promise.future map {
+      case page: ResultPage => page
+      case SQLReply(_, ErrorSQLResult(message, cause)) =>
+        throw cause.map(new RuntimeException(message, _)).getOrElse(new RuntimeException(message))
+      case other => throw new RuntimeException(s"ResultPage expected. Received: $other")
+    }
+  }
 
   private lazy val clusterClientActor = {
 
@@ -131,6 +190,7 @@ class ClusterClientDriver private[driver](driverConf: DriverConf,
           override def cancelCommand(): Future[QueryCancelledReply] =
             askCommand(securitizeCommand(CancelQueryExecution(sqlCommand.queryId))) map {
               case reply: QueryCancelledReply => reply
+              case SQLReply(_, ErrorSQLResult(message, _)) => throw new RuntimeException(message)
               case other => throw new RuntimeException(s"CancelQueryExecution expected. Received: $other")
             }
         }
@@ -152,6 +212,9 @@ class ClusterClientDriver private[driver](driverConf: DriverConf,
     new SQLResponse(addAppCommand.requestId, futureReply)
   }
 
+  override protected[driver] def cursorRequest(command: Command): Future[ServerReply] =
+    askCommand(securitizeCommand(command))
+
   private def askCommand(commandEnvelope: CommandEnvelope): Future[ServerReply] = {
     val promise = Promise[ServerReply]()
     proxyActor ! (commandEnvelope, promise)
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.driver
+
+import java.util.UUID
+
+import com.stratio.crossdata.common._
+import com.stratio.crossdata.common.result.{ErrorSQLResult, SuccessfulSQLResult}
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.types.StructType
+
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.duration.Duration
+import scala.concurrent.{Await, Future}
+
+/**
+  * Server-side cursor over the result of a query (see [[Driver#openCursor]]): The rows are kept by the server
+  * and they are fetched in chunks, so results larger than the driver or server memory can be consumed.
+  *
+  * The cursor is closed by the server once its last row has been fetched or after being idle for a while
+  * (`crossdata-server.config.cursors.idle-timeout`), otherwise it should be explicitly closed.
+  *
+  * @param request sends a cursor command to the server owning the cursor.
+  */
+class Cursor private[driver](val id: UUID, val schema: StructType, request: Command => Future[ServerReply]) {
+
+  @volatile private var exhausted = false
+
+  /**
+    * Whether every row has been fetched.
+    */
+  def isExhausted: Boolean = exhausted
+
+  /**
+    * Fetches the next rows.
+    *
+    * @param maxRows Maximum number of rows to be fetched, the server may cap it
+    *                (`crossdata-server.config.cursors.max-fetch-size`).
+    * @return The next rows or an empty array when the cursor is exhausted.
+    */
+  def fetch(maxRows: Int): Future[Array[Row]] =
+    if (exhausted) Future.successful(Array.empty)
+    else request(FetchCursorCommand(id, maxRows)) map {
+      case CursorFetchReply(_, _, SuccessfulSQLResult(rows, _), isLast) =>
+        exhausted = isLast
+        rows
+      case other =>
+        throw Cursor.failure(other)
+    }
+
+  def fetch(maxRows: Int, timeout: Duration): Array[Row] = Await.result(fetch(maxRows), timeout)
+
+  /**
+    * Closes the cursor releasing its resources at the server.
+    */
+  def close(): Future[Unit] =
+    if (exhausted) Future.successful(())
+    else request(CloseCursorCommand(id)) map {
+      case _: CursorClosedReply =>
+        exhausted = true
+      case other =>
+        throw Cursor.failure(other)
+    }
+
+}
+
+object Cursor {
+
+  private[driver] def failure(reply: ServerReply): RuntimeException = reply match {
+    case SQLReply(_, ErrorSQLResult(message, cause)) => new RuntimeException(message, cause.orNull)
+    case CursorFetchReply(_, _, ErrorSQLResult(message, cause), _) => new RuntimeException(message, cause.orNull)
+    case other => new RuntimeException(s"Unexpected cursor reply: $other")
+  }
+
+}
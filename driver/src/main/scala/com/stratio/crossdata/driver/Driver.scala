@@ -19,6 +19,7 @@ import akka.NotUsed
 import akka.actor.{ActorSystem, Address}
 import akka.cluster.ClusterEvent.CurrentClusterState
 import akka.cluster.MemberStatus
+import akka.stream.ActorMaterializer
 import akka.stream.scaladsl.Source
 import com.stratio.crossdata.common._
 import com.stratio.crossdata.common.result._
@@ -95,6 +96,11 @@ object Driver extends DriverFactory {
     */
   private[driver] lazy val system = ActorSystem("CrossdataServerCluster", defaultDriverConf.finalSettings)
 
+  /**
+    * Materializer shared by the drivers, it runs the HTTP streams and the streamed results received by them.
+    */
+  private[driver] implicit lazy val streamMaterializer: ActorMaterializer = ActorMaterializer()(system)
+
   /**
     * Stops the underlying actor system.
     * WARNING! It should be called once all active sessions have been closed. After the shutdown, new session cannot be created.
@@ -172,6 +178,27 @@ abstract class Driver(protected[crossdata] val driverConf: DriverConf) {
     */
   def sqlStreamedResult(query: String): Future[StreamedSQLResult]
 
+  /**
+    * Opens a server-side cursor over the result of a SQL sentence. Its rows stay at the server
+    * until they are fetched:
+    * > val cursor = Await.result(driver.openCursor("SELECT * FROM t"), 10 seconds)
+    * > val rows: Array[Row] = cursor.fetch(1000, 10 seconds)
+    * > cursor.close()
+    *
+    * @param query The SQL Command.
+    * @return A Future with the cursor, once the query has been planned and started.
+    */
+  def openCursor(query: String): Future[Cursor] =
+    cursorRequest(OpenCursorCommand(query)) map {
+      case CursorOpenedReply(_, cursorId, schema) => new Cursor(cursorId, schema, cursorRequest)
+      case other => throw Cursor.failure(other)
+    }
+
+  /**
+    * Sends a cursor command to the server owning the cursor.
+    */
+  protected[driver] def cursorRequest(command: Command): Future[ServerReply]
+
   /**
     * Add Jar to the XD Context
     *
@@ -28,12 +28,12 @@ import akka.http.scaladsl.model._
 import akka.http.scaladsl.unmarshalling.{Unmarshaller, _}
 import akka.http.scaladsl.{Http, HttpExt, HttpsConnectionContext}
 import akka.stream.scaladsl.{Keep, Sink, Source}
-import akka.stream.{ActorMaterializer, TLSClientAuth}
+import akka.stream.TLSClientAuth
 import akka.util.ByteString
 import com.stratio.crossdata.common._
 import com.stratio.crossdata.common.result._
 import com.stratio.crossdata.common.security.{KeyStoreUtils, Session}
-import com.stratio.crossdata.common.serializers.{CrossdataCommonSerializer, StreamedRowSerializer}
+import com.stratio.crossdata.common.serializers.{ColumnarResultCodec, CrossdataCommonSerializer, RowCodec}
 import com.stratio.crossdata.driver.actor.HttpSessionBeaconActor
 import com.stratio.crossdata.driver.config.DriverConf
 import com.stratio.crossdata.driver.exceptions.TLSInvalidAuthException
@@ -63,11 +63,11 @@ class HttpDriver private[driver](driverConf: DriverConf,
   private var sessionBeacon: Option[ActorRef] = None
 
   private implicit lazy val _ = system
-  private implicit lazy val materializer: ActorMaterializer = ActorMaterializer()
   private implicit lazy val http = obtainHttpContext
   private val serverHttp: String = driverConf.getCrossdataServerHttp
   private def protocol = if(driverConf.httpTlsEnable) "https" else "http"
   private val requestTimeout: Duration = Duration.Inf //TODO
+  private val ColumnarMediaType = MediaType.applicationBinary(ColumnarResultCodec.MediaSubType, MediaType.NotCompressible)
 
   import de.heikoseeberger.akkahttpjson4s.Json4sSupport._
   implicit val serialization = jackson.Serialization
@@ -151,16 +151,13 @@ class HttpDriver private[driver](driverConf: DriverConf,
 
     // Performs the request to server
     val response = Marshal(securitizeCommand(sqlCommand)).to[RequestEntity] flatMap { requestEntity =>
-      val request = HttpRequest(POST, s"$protocol://$serverHttp/query/${sqlCommand.requestId}", entity = requestEntity)
+      val request = queryRequest(sqlCommand, requestEntity)
        http.singleRequest(request) flatMap { httpResponse =>
 
          if(httpResponse.status == StatusCodes.OK) { // OK Responses will be served through streaming
 
-           receiveSchemaAndRows(httpResponse.entity.dataBytes).flatMap { case (schema, streamedRowSource) =>
-             val rows = streamedRowSource.runFold(List.empty[Row]) {
-               case (acc: List[Row], StreamedRow(row, None)) => row::acc
-               case _ => Nil
-             }
+           receiveResult(httpResponse.entity).flatMap { case (schema, rowSource) =>
+             val rows = rowSource.runFold(List.empty[Row])((acc, row) => row::acc)
              rows.map{ rowList =>
                /* TODO: Performance could be increased if `SuccessfulSQLResult`#resultSet were of type `Seq[Row]`*/
                SuccessfulSQLResult(rowList.reverse toArray, schema)
@@ -185,12 +182,17 @@ class HttpDriver private[driver](driverConf: DriverConf,
     new SQLResponse(sqlCommand.requestId, response) {
       override def cancelCommand(): Future[QueryCancelledReply] = {
         val command = CancelQueryExecution(sqlCommand.queryId)
-        simpleRequest(
-          securitizeCommand(command),
-          s"query/${command.requestId}", {
-            reply: QueryCancelledReply => reply
-          }
-        )
+        Marshal(securitizeCommand(command)).to[RequestEntity] flatMap { requestEntity =>
+          http.singleRequest(HttpRequest(POST, s"$protocol://$serverHttp/query/${command.requestId}", entity = requestEntity))
+        } flatMap { httpResponse =>
+          if (httpResponse.status == StatusCodes.OK)
+            Unmarshal(httpResponse.entity).to[QueryCancelledReply]
+          else // The query is not running
+            Unmarshal(httpResponse.entity).to[SQLReply] map {
+              case SQLReply(_, ErrorSQLResult(message, _)) => throw new RuntimeException(message)
+              case other => throw new RuntimeException(s"CancelQueryExecution expected. Received: $other")
+            }
+        }
       }
     }
 
@@ -201,12 +203,11 @@ class HttpDriver private[driver](driverConf: DriverConf,
     val sqlCommand = new SQLCommand(query, retrieveColNames = driverConf.getFlattenTables)
     Marshal(securitizeCommand(sqlCommand)).to[RequestEntity] flatMap { requestEntity =>
 
-      val request = HttpRequest(POST, s"$protocol://$serverHttp/query/${sqlCommand.requestId}", entity = requestEntity)
+      val request = queryRequest(sqlCommand, requestEntity)
       http.singleRequest(request) flatMap { httpResponse =>
 
         if (httpResponse.status == StatusCodes.OK) {  // OK Responses will be served through streaming
-          receiveSchemaAndRows(httpResponse.entity.dataBytes).map { case (schema, streamedRowSource) =>
-            val rows = streamedRowSource.map { case streamedRow: StreamedRow => streamedRow.row }
+          receiveResult(httpResponse.entity).map { case (schema, rows) =>
             StreamedSuccessfulSQLResult(rows, schema)
           }
         } else {
@@ -218,6 +219,57 @@ class HttpDriver private[driver](driverConf: DriverConf,
     }
   }
 
+  /**
+    * SQL requests accept the binary columnar format, which is cheaper to produce and to parse,
+    * but the server can still reply with JSON whenever the result cannot be represented using it.
+    */
+  override protected[driver] def cursorRequest(command: Command): Future[ServerReply] =
+    Marshal(securitizeCommand(command)).to[RequestEntity] flatMap { requestEntity =>
+      http.singleRequest(HttpRequest(POST, s"$protocol://$serverHttp/query/${command.requestId}", entity = requestEntity))
+    } flatMap { httpResponse =>
+      httpResponse.entity match {
+        case entity if httpResponse.status == StatusCodes.OK =>
+          command match {
+            case _: OpenCursorCommand => Unmarshal(entity).to[CursorOpenedReply]
+            case _: FetchCursorCommand => Unmarshal(entity).to[CursorFetchReply]
+            case _ => Unmarshal(entity).to[CursorClosedReply]
+          }
+        case HttpEntity.Strict(ContentTypes.`text/plain(UTF-8)`, content) =>
+          Future.successful(SQLReply(command.requestId, ErrorSQLResult(content.utf8String)))
+        case entity =>
+          Unmarshal(entity).to[SQLReply]
+      }
+    }
+
+  private def queryRequest(sqlCommand: SQLCommand, requestEntity: RequestEntity): HttpRequest =
+    HttpRequest(
+      POST,
+      s"$protocol://$serverHttp/query/${sqlCommand.requestId}",
+      headers = headers.Accept(ColumnarMediaType, MediaTypes.`application/json`) :: Nil,
+      entity = requestEntity
+    )
+
+  private def receiveResult(entity: ResponseEntity): Future[(StructType, Source[Row, NotUsed])] =
+    if (entity.contentType.mediaType == ColumnarMediaType)
+      receiveColumnarSchemaAndRows(entity.dataBytes)
+    else
+      receiveSchemaAndRows(entity.dataBytes) map { case (schema, streamedRowSource) =>
+        schema -> streamedRowSource.collect { case StreamedRow(row, _) => row }
+      }
+
+  private def receiveColumnarSchemaAndRows(bytesSource: Source[ByteString, Any]): Future[(StructType, Source[Row, NotUsed])] = {
+    val framesSource = bytesSource.via(ColumnarResultCodec.framing)
+    val sink = Sink.head[(Seq[ByteString], Source[ByteString, NotUsed])]
+
+    framesSource.prefixAndTail(1).toMat(sink)(Keep.right).run.map {
+      case (Seq(schemaFrame), batchFrames) =>
+        val schema = ColumnarResultCodec.decodeSchema(schemaFrame)
+        (schema, batchFrames.mapConcat(ColumnarResultCodec.batchDecoder(schema)))
+      case _ =>
+        throw emptyResultStream
+    }
+  }
+
   private def receiveSchemaAndRows(bytesSource: Source[ByteString, Any]): Future[(StructType, Source[InternalStreamedSuccessfulSQLResult, NotUsed])] = {
     val framesSource = bytesSource.filterNot(bs => bs.isEmpty || bs == ByteString("\n")) //...empty lines get removed...
     val rawSchemaAndRawRowsSource = framesSource.prefixAndTail[ByteString](1) //remaining get transformed to ByteStrings.
@@ -225,22 +277,24 @@ class HttpDriver private[driver](driverConf: DriverConf,
     // From the raw lines stream, a new stream providing the first one and a stream of the remaining ones is created
     val sink = Sink.head[(Seq[ByteString], Source[ByteString, NotUsed])] //Its single elements get extracted by future...
 
-    rawSchemaAndRawRowsSource.toMat(sink)(Keep.right).run.flatMap { case (Seq(rawSchema), rawRows) =>
-      Unmarshal(HttpEntity(ContentTypes.`application/json`, rawSchema)).to[InternalStreamedSuccessfulSQLResult].map {
-        case StreamedSchema(schema) => // Having de-serialized the schema, it can be used to deserialize each row at the un-marshalling phase
-          (schema, deserializeRows(schema, rawRows))
-      }
+    rawSchemaAndRawRowsSource.toMat(sink)(Keep.right).run.flatMap {
+      case (Seq(rawSchema), rawRows) =>
+        Unmarshal(HttpEntity(ContentTypes.`application/json`, rawSchema)).to[InternalStreamedSuccessfulSQLResult].map {
+          case StreamedSchema(schema) => // Having de-serialized the schema, it can be used to deserialize each row at the un-marshalling phase
+            (schema, deserializeRows(schema, rawRows))
+        }
+      case _ =>
+        Future.failed(emptyResultStream)
     }
   }
 
-  private def deserializeRows(schema: StructType, rawRows: Source[ByteString, NotUsed]): Source[InternalStreamedSuccessfulSQLResult, NotUsed] = {
-    implicit val json4sJacksonFormats = this.json4sJacksonFormats + new StreamedRowSerializer(schema)
-    val um: Unmarshaller[ResponseEntity, InternalStreamedSuccessfulSQLResult] = json4sUnmarshaller
+  // Every result stream starts with its schema, even those without rows
+  private def emptyResultStream: RuntimeException =
+    new RuntimeException("The server closed the result stream without sending the result schema")
 
-    rawRows.mapAsync(1) { bs =>
-      val entity = HttpEntity(ContentTypes.`application/json`, bs)
-      um(entity)
-    }
+  private def deserializeRows(schema: StructType, rawRows: Source[ByteString, NotUsed]): Source[InternalStreamedSuccessfulSQLResult, NotUsed] = {
+    val rowCodec = new RowCodec(schema)
+    rawRows.map(bs => StreamedRow(rowCodec.readStreamedRow(bs)))
   }
 
   override def addJar(path: String, toClassPath: Option[Boolean] = None): SQLResponse =
@@ -103,6 +103,9 @@ class JavaDriver private(driverConf: DriverConf,
   def sqlStreamSource(query: String): StreamedSQLResult =
     Await.result(scalaDriver.sqlStreamedResult(query), Duration.Inf)
 
+  def openCursor(query: String): Cursor =
+    Await.result(scalaDriver.openCursor(query), Duration.Inf)
+
   def importTables(dataSourceProvider: String, options: java.util.Map[String, String]): SQLResult =
     scalaDriver.importTables(dataSourceProvider, options.toMap)
 
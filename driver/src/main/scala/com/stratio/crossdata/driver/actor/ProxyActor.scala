@@ -18,14 +18,14 @@ package com.stratio.crossdata.driver.actor
 
 import java.util.UUID
 
-import akka.actor.{Actor, ActorRef, Props}
+import akka.actor.{Actor, ActorRef, Props, Terminated}
 import akka.cluster.client.ClusterClient
 import akka.pattern.pipe
 import com.stratio.crossdata.common._
 import com.stratio.crossdata.common.result.{ErrorSQLResult, SuccessfulSQLResult}
 import com.stratio.crossdata.common.security.Session
 import com.stratio.crossdata.driver.ClusterClientDriver
-import com.stratio.crossdata.driver.actor.ProxyActor.PromisesByIds
+import com.stratio.crossdata.driver.actor.ProxyActor.{ForgetPromise, PromisesByIds}
 import com.stratio.crossdata.driver.util.HttpClient
 import org.apache.log4j.Logger
 import org.apache.spark.sql.Row
@@ -40,7 +40,16 @@ object ProxyActor {
   def props(clusterClientActor: ActorRef, driver: ClusterClientDriver): Props =
     Props(new ProxyActor(clusterClientActor, driver))
 
-  case class PromisesByIds(promises: Map[UUID, Promise[ServerReply]])
+  /**
+    * @param cursorOwners Actors serving the open cursors, they are sent the cursor commands directly since a cursor
+    *                     is only known by the server where it was opened.
+    */
+  case class PromisesByIds(promises: Map[UUID, Promise[ServerReply]], cursorOwners: Map[UUID, ActorRef] = Map.empty)
+
+  /**
+    * Sent to itself once a page promise completes without a reply (e.g: it has timed out) so that it's forgotten.
+    */
+  private case class ForgetPromise(requestId: UUID, promise: Promise[ServerReply])
 
 }
 
@@ -68,6 +77,23 @@ class ProxyActor(clusterClientActor: ActorRef, driver: ClusterClientDriver) exte
       logger.debug("Sending message to the Crossdata cluster")
       context.become(start(promisesByIds.copy(promisesByIds.promises + (message.cmd.requestId -> promise))))
       self ! message
+
+    case (pageRequest: RequestResultPage, producer: ActorRef, promise: Promise[ServerReply @unchecked]) =>
+      logger.debug(s"Requesting next page of ${pageRequest.queryRequestId}")
+      context.become(start(promisesByIds.copy(promisesByIds.promises + (pageRequest.queryRequestId -> promise))))
+      import context.dispatcher
+      promise.future onFailure { case _ => self ! ForgetPromise(pageRequest.queryRequestId, promise) }
+      producer ! pageRequest
+
+    case ForgetPromise(requestId, promise) if promisesByIds.promises.get(requestId).contains(promise) =>
+      context.become(start(promisesByIds.copy(promisesByIds.promises - requestId)))
+
+    case ForgetPromise(_, _) => // It was already answered or replaced by the next page request
+
+    case (release: ReleaseResultPages, producer: ActorRef) =>
+      logger.debug(s"Releasing the remaining pages of ${release.queryRequestId}")
+      context.become(start(promisesByIds.copy(promisesByIds.promises - release.queryRequestId)))
+      producer ! release
   }
 
   // Process messages from the Crossdata Driver.
@@ -95,11 +121,32 @@ class ProxyActor(clusterClientActor: ActorRef, driver: ClusterClientDriver) exte
     case secureSQLCommand @ CommandEnvelope(_: ControlCommand, _) =>
       clusterClientActor ! ClusterClient.Send(ServerClusterClientParameters.ServerPath, secureSQLCommand, localAffinity = false)
 
+    case secureSQLCommand @ CommandEnvelope(_: OpenCursorCommand, _) =>
+      clusterClientActor ! ClusterClient.Send(ServerClusterClientParameters.ServerPath, secureSQLCommand, localAffinity = false)
+
+    case secureSQLCommand @ CommandEnvelope(FetchCursorCommand(cursorId, _), _) =>
+      sendToCursor(cursorId, secureSQLCommand, promisesByIds)
+
+    case secureSQLCommand @ CommandEnvelope(CloseCursorCommand(cursorId), _) =>
+      sendToCursor(cursorId, secureSQLCommand, promisesByIds)
+
     case sqlCommand: SQLCommand =>
       logger.warn(s"Command message not securitized: ${sqlCommand.sql}. Message won't be sent to the Crossdata cluster")
   }
 
 
+  private def sendToCursor(cursorId: UUID, secureCommand: CommandEnvelope, promisesByIds: PromisesByIds): Unit =
+    promisesByIds.cursorOwners.get(cursorId) match {
+      case Some(cursorOwner) =>
+        cursorOwner ! secureCommand
+      case None =>
+        val requestId = secureCommand.cmd.requestId
+        context.become(start(promisesByIds.copy(promisesByIds.promises - requestId)))
+        promisesByIds.promises.get(requestId) foreach {
+          _.success(SQLReply(requestId, ErrorSQLResult(s"Unknown cursor $cursorId: It is closed or it has expired")))
+        }
+    }
+
   def sendJarToServers(command: Command, path: String, session:Session): Future[SQLReply] = {
     import scala.concurrent.ExecutionContext.Implicits.global
     httpClient.sendJarToHTTPServer(path, session) map { response =>
@@ -133,17 +180,41 @@ class ProxyActor(clusterClientActor: ActorRef, driver: ClusterClientDriver) exte
               logger.info(s"Query $queryRqId cancelled")
               p.success(SQLReply(queryRqId, ErrorSQLResult("Query cancelled")))
               promisesByIds.promises.get(cancellationRqId).foreach(_.success(reply))
+            case reply @ ResultPage(_, rows, _, isLast, _) =>
+              logger.debug(s"Result page received: ${rows.length} rows, last=$isLast")
+              p.trySuccess(reply) // Its request might have timed out
             case reply @ ClusterStateReply(_, clusterState, _) =>
               logger.debug(s"Cluster snapshot received $clusterState")
               p.success(reply)
             case reply @ OpenSessionReply(_, isOpen) =>
               logger.debug(s"Open session reply received: open=$isOpen")
               p.success(reply)
+            case reply @ CursorOpenedReply(_, cursorId, _) =>
+              logger.debug(s"Cursor $cursorId opened at $sender")
+              context.watch(sender)
+              context.become(start(promisesByIds.copy(
+                promisesByIds.promises - reply.requestId, promisesByIds.cursorOwners + (cursorId -> sender)
+              )))
+              p.success(reply)
+            case reply @ CursorFetchReply(_, cursorId, _, isLast) =>
+              if (isLast) forgetCursor(cursorId, promisesByIds.copy(promisesByIds.promises - reply.requestId))
+              p.success(reply)
+            case reply @ CursorClosedReply(_, cursorId) =>
+              forgetCursor(cursorId, promisesByIds.copy(promisesByIds.promises - reply.requestId))
+              p.success(reply)
             case _ =>
               p.failure(new RuntimeException(s"Unknown message: $reply"))
           }
         case None => logger.warn(s"Unexpected response: $reply")
       }
+
+    case Terminated(cursorOwner) =>
+      context.become(start(promisesByIds.copy(cursorOwners = promisesByIds.cursorOwners.filterNot(_._2 == cursorOwner))))
+  }
+
+  private def forgetCursor(cursorId: UUID, promisesByIds: PromisesByIds): Unit = {
+    promisesByIds.cursorOwners.get(cursorId) foreach context.unwatch
+    context.become(start(promisesByIds.copy(cursorOwners = promisesByIds.cursorOwners - cursorId)))
   }
 
   def start(promisesByIds: PromisesByIds): Receive = {
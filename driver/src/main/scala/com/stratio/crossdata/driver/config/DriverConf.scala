@@ -16,13 +16,14 @@
 package com.stratio.crossdata.driver.config
 
 import java.io.File
-import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
 
 import com.typesafe.config.{Config, ConfigFactory, ConfigValue, ConfigValueFactory}
 import org.apache.log4j.Logger
 import org.apache.spark.Logging
 
 import scala.collection.JavaConversions._
+import scala.concurrent.duration.FiniteDuration
 import scala.util.Try
 
 class DriverConf extends Logging {
@@ -79,6 +80,22 @@ class DriverConf extends Logging {
     this
   }
 
+  /**
+   * @param pageSize number of rows per page when results are streamed through the cluster client
+   */
+  def setResultPageSize(pageSize: Int): DriverConf = {
+    userSettings.put(DriverResultPageSize, ConfigValueFactory.fromAnyRef(pageSize))
+    this
+  }
+
+  /**
+   * @param seconds time to wait for each page of a streamed result before failing the stream
+   */
+  def setResultPageTimeout(seconds: Int): DriverConf = {
+    userSettings.put(DriverResultPageTimeout, ConfigValueFactory.fromAnyRef(s"$seconds s"))
+    this
+  }
+
   def setTunnelTimeout(seconds: Int): DriverConf = {
     userSettings.put(AkkaClusterRecepcionistTunnelTimeout, ConfigValueFactory.fromAnyRef(seconds * 1000))
     this
@@ -136,6 +153,12 @@ class DriverConf extends Logging {
   private[crossdata] def getFlattenTables: Boolean =
     finalSettings.getBoolean(DriverFlattenTables)
 
+  private[crossdata] def getResultPageSize: Int =
+    finalSettings.getInt(DriverResultPageSize)
+
+  private[crossdata] def getResultPageTimeout: FiniteDuration =
+    FiniteDuration(finalSettings.getDuration(DriverResultPageTimeout, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS)
+
 
   private val typesafeConf: Config = {
 
@@ -239,6 +262,8 @@ object DriverConf {
   val DriverConfigFile = "external.config.filename"
   val DriverConfigHosts = "config.cluster.hosts"
   val DriverFlattenTables = "config.flatten-tables"
+  val DriverResultPageSize = "config.result-page-size"
+  val DriverResultPageTimeout = "config.result-page-timeout"
   val DriverClusterName = "config.cluster.name"
   val SSLEnabled = "akka.remote.netty.ssl.enable-ssl"
   val AkkaClusterRecepcionistTunnelTimeout = "akka.contrib.cluster.receptionist.response-tunnel-receive-timeout"
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.connector.elasticsearch
+
+import java.sql.{Date, Timestamp}
+import java.util.TimeZone
+
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.catalyst.expressions.aggregate._
+import org.apache.spark.sql.catalyst.expressions.{Alias, AttributeReference, Cast, Expression, GenericRowWithSchema, Literal, NamedExpression, TruncDate, Year}
+import org.apache.spark.sql.types._
+import org.elasticsearch.action.search.SearchResponse
+import org.elasticsearch.search.aggregations.bucket.MultiBucketsAggregation
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval
+import org.elasticsearch.search.aggregations.bucket.missing.Missing
+import org.elasticsearch.search.aggregations.metrics.NumericMetricsAggregation
+import org.elasticsearch.search.aggregations.metrics.valuecount.ValueCount
+import org.elasticsearch.search.aggregations.{AbstractAggregationBuilder, AggregationBuilder, AggregationBuilders, Aggregations}
+import org.joda.time.{DateTime, DateTimeZone}
+
+import scala.collection.JavaConverters._
+
+/**
+  * Translation of Catalyst aggregations into Elasticsearch aggregations: grouping columns become nested terms
+  * aggregations (date_histogram ones when grouping by a truncated date) and aggregate functions become metric
+  * aggregations computed within the innermost buckets.
+  */
+object ElasticSearchAggregations {
+
+  /**
+    * @param field grouped document field.
+    * @param dateInterval interval of the date histogram or `None` to group by the field values.
+    * @param dataType type of the grouping expression.
+    */
+  case class Grouping(field: String, dateInterval: Option[DateHistogramInterval], dataType: DataType)
+
+  sealed trait Metric
+  case object DocCount extends Metric
+  case class FieldCount(field: String) extends Metric
+  case class FieldMetric(function: String, field: String, dataType: DataType) extends Metric
+
+  private val NumericTypes: Set[DataType] = Set(ByteType, ShortType, IntegerType, LongType, FloatType, DoubleType)
+  private val GroupingTypes: Set[DataType] = NumericTypes ++ Set(BooleanType, DateType, TimestampType)
+
+  /**
+    * @param notAnalyzedFields string fields which can be grouped by since they are indexed as a single term.
+    */
+  def grouping(expression: Expression, notAnalyzedFields: Set[String]): Option[Grouping] = expression match {
+    case AttributeReference(name, StringType, _, _) if notAnalyzedFields contains name =>
+      Some(Grouping(name, None, StringType))
+    case AttributeReference(name, dataType, _, _) if GroupingTypes contains dataType =>
+      Some(Grouping(name, None, dataType))
+    case Year(DateAttribute(name)) =>
+      Some(Grouping(name, Some(DateHistogramInterval.YEAR), IntegerType))
+    case TruncDate(DateAttribute(name), Literal(format, StringType)) =>
+      format.toString.toUpperCase match {
+        case "YEAR" | "YYYY" | "YY" => Some(Grouping(name, Some(DateHistogramInterval.YEAR), DateType))
+        case "MONTH" | "MON" | "MM" => Some(Grouping(name, Some(DateHistogramInterval.MONTH), DateType))
+        case _ => None
+      }
+    case Cast(AttributeReference(name, TimestampType, _, _), DateType) =>
+      Some(Grouping(name, Some(DateHistogramInterval.DAY), DateType))
+    case _ => None
+  }
+
+  /**
+    * @param notAnalyzedFields string fields which can be counted, value_count would count the terms of analyzed ones.
+    */
+  def metric(aggregateFunction: AggregateFunction, notAnalyzedFields: Set[String]): Option[Metric] =
+    aggregateFunction match {
+      case Count(Literal(1, _) :: Nil) => Some(DocCount)
+      case Count(AttributeReference(name, StringType, _, _) :: Nil) if notAnalyzedFields contains name =>
+        Some(FieldCount(name))
+      case Count(AttributeReference(name, dataType, _, _) :: Nil) if GroupingTypes contains dataType =>
+        Some(FieldCount(name))
+      case Min(NumericAttribute(name, dataType)) => Some(FieldMetric("min", name, dataType))
+      case Max(NumericAttribute(name, dataType)) => Some(FieldMetric("max", name, dataType))
+      case Sum(NumericAttribute(name, FloatType | DoubleType)) => Some(FieldMetric("sum", name, DoubleType))
+      case Sum(NumericAttribute(name, _)) => Some(FieldMetric("sum", name, LongType))
+      case Average(NumericAttribute(name, _)) => Some(FieldMetric("avg", name, DoubleType))
+      case _ => None
+    }
+
+  /**
+    * Checks whether an aggregation can be computed by Elasticsearch, that is, whether every grouping expression
+    * can be translated into a bucket aggregation and every output is either a grouping expression or a
+    * supported aggregate function.
+    */
+  def isSupported(groupingExpressions: Seq[Expression],
+                  aggregateExpressions: Seq[NamedExpression],
+                  notAnalyzedFields: Set[String]): Boolean =
+    groupingExpressions.forall(grouping(_, notAnalyzedFields).isDefined) &&
+      aggregateExpressions.forall(output(_, groupingExpressions, notAnalyzedFields).isDefined)
+
+  /**
+    * @return the aggregations to add to the search request.
+    */
+  def aggregationBuilders(groupingExpressions: Seq[Expression],
+                          aggregateExpressions: Seq[NamedExpression],
+                          notAnalyzedFields: Set[String]): Seq[AbstractAggregationBuilder] = {
+
+    val groupings = groupingExpressions.flatMap(grouping(_, notAnalyzedFields))
+    val metricBuilders = metrics(aggregateExpressions, groupingExpressions, notAnalyzedFields) flatMap {
+      case (name, FieldCount(field)) =>
+        AggregationBuilders.count(name).field(field) :: Nil
+      case (name, FieldMetric(function, field, _)) =>
+        metricBuilder(function, name, field) :: AggregationBuilders.count(s"${name}_count").field(field) :: Nil
+      case _ => Nil
+    }
+
+    def builders(level: Int): Seq[AbstractAggregationBuilder] = groupings.drop(level).headOption.fold(metricBuilders) {
+      case Grouping(field, dateInterval, _) =>
+        val bucketsBuilder: AggregationBuilder[_] = dateInterval.fold[AggregationBuilder[_]] {
+          AggregationBuilders.terms(s"group_$level").field(field).size(0)
+        } { interval =>
+          AggregationBuilders.dateHistogram(s"group_$level").field(field).interval(interval)
+            .timeZone(TimeZone.getDefault.getID).minDocCount(1)
+        }
+        // Documents without the field make up their own group as Spark would group them by null
+        val missingBuilder = AggregationBuilders.missing(s"missing_$level").field(field)
+
+        builders(level + 1) foreach { subAggregation =>
+          bucketsBuilder.subAggregation(subAggregation)
+          missingBuilder.subAggregation(subAggregation)
+        }
+        bucketsBuilder :: missingBuilder :: Nil
+    }
+
+    builders(0)
+  }
+
+  /**
+    * Maps the buckets of a search response, built with [[aggregationBuilders]], back to rows.
+    */
+  def asRows(response: SearchResponse,
+             groupingExpressions: Seq[Expression],
+             aggregateExpressions: Seq[NamedExpression],
+             notAnalyzedFields: Set[String]): Array[Row] = {
+
+    val schema = StructType.fromAttributes(aggregateExpressions.map(_.toAttribute))
+    val groupings = groupingExpressions.flatMap(grouping(_, notAnalyzedFields))
+    val outputs = aggregateExpressions.flatMap(output(_, groupingExpressions, notAnalyzedFields))
+
+    def row(keys: IndexedSeq[Any], aggregations: Option[Aggregations], docCount: Long): Row = {
+      val values = outputs map {
+        case Left(groupIndex) => keys(groupIndex)
+        case Right((_, DocCount)) => docCount
+        case Right((name, FieldCount(_))) => aggregations.fold(0L)(_.get[ValueCount](name).getValue)
+        case Right((name, FieldMetric(_, _, dataType))) =>
+          aggregations.filter(_.get[ValueCount](s"${name}_count").getValue > 0).map { aggs =>
+            asType(aggs.get[NumericMetricsAggregation.SingleValue](name).value(), dataType)
+          }.orNull
+      }
+      new GenericRowWithSchema(values.toArray, schema)
+    }
+
+    def rows(aggregations: Option[Aggregations], level: Int, keys: Vector[Any], docCount: Long): Seq[Row] =
+      groupings.drop(level).headOption.fold(Seq(row(keys, aggregations, docCount))) { grouping =>
+        val buckets = aggregations.toSeq flatMap { aggs =>
+          aggs.get[MultiBucketsAggregation](s"group_$level").getBuckets.asScala map { bucket =>
+            (bucketKey(bucket.getKey, grouping), bucket.getDocCount, bucket.getAggregations)
+          }
+        }
+        val missing = aggregations.map(_.get[Missing](s"missing_$level")).filter(_.getDocCount > 0) map { bucket =>
+          (null, bucket.getDocCount, bucket.getAggregations)
+        }
+        (buckets ++ missing) flatMap { case (key, count, subAggregations) =>
+          rows(Option(subAggregations), level + 1, keys :+ key, count)
+        }
+      }
+
+    rows(Option(response.getAggregations), 0, Vector.empty, response.getHits.getTotalHits).toArray
+  }
+
+  private object DateAttribute {
+    def unapply(expression: Expression): Option[String] = expression match {
+      case AttributeReference(name, DateType | TimestampType, _, _) => Some(name)
+      case _ => None
+    }
+  }
+
+  private object NumericAttribute {
+    def unapply(expression: Expression): Option[(String, DataType)] = expression match {
+      case AttributeReference(name, dataType, _, _) if NumericTypes contains dataType => Some((name, dataType))
+      case _ => None
+    }
+  }
+
+  /**
+    * @return for each output expression, either the index of the grouping expression it refers to or the name and
+    *         definition of the metric which computes it.
+    */
+  private def output(expression: NamedExpression,
+                     groupingExpressions: Seq[Expression],
+                     notAnalyzedFields: Set[String]): Option[Either[Int, (String, Metric)]] = {
+    def unaliased(e: Expression): Expression = e match {
+      case Alias(child, _) => unaliased(child)
+      case other => other
+    }
+    unaliased(expression) match {
+      case AggregateExpression(aggregateFunction, _, false) =>
+        metric(aggregateFunction, notAnalyzedFields).map(m => Right(s"metric_${expression.exprId.id}" -> m))
+      case other =>
+        Some(groupingExpressions.indexWhere(_ semanticEquals other)).filter(_ >= 0).map(Left(_))
+    }
+  }
+
+  private def metrics(aggregateExpressions: Seq[NamedExpression],
+                      groupingExpressions: Seq[Expression],
+                      notAnalyzedFields: Set[String]): Seq[(String, Metric)] =
+    aggregateExpressions.flatMap(output(_, groupingExpressions, notAnalyzedFields)) collect {
+      case Right(metric) => metric
+    }
+
+  private def metricBuilder(function: String, name: String, field: String): AbstractAggregationBuilder =
+    function match {
+      case "min" => AggregationBuilders.min(name).field(field)
+      case "max" => AggregationBuilders.max(name).field(field)
+      case "sum" => AggregationBuilders.sum(name).field(field)
+      case "avg" => AggregationBuilders.avg(name).field(field)
+    }
+
+  private def bucketKey(key: AnyRef, grouping: Grouping): Any = (key, grouping.dataType) match {
+    case (null, _) => null
+    case (date: DateTime, IntegerType) => date.withZone(DateTimeZone.getDefault).getYear
+    case (date: DateTime, DateType) => new Date(date.getMillis)
+    case (date: DateTime, TimestampType) => new Timestamp(date.getMillis)
+    case (millis: Number, DateType) => new Date(millis.longValue)
+    case (millis: Number, TimestampType) => new Timestamp(millis.longValue)
+    case (number: Number, BooleanType) => number.longValue != 0
+    case (number: Number, LongType) => number.longValue
+    case (number: Number, dataType) => asType(number.doubleValue, dataType)
+    case (value, BooleanType) => value.toString.toBoolean
+    case (value, StringType) => value.toString
+    case (value, dataType) => asType(value.toString.toDouble, dataType)
+  }
+
+  private def asType(value: Double, dataType: DataType): Any = dataType match {
+    case ByteType => value.toByte
+    case ShortType => value.toShort
+    case IntegerType => value.toInt
+    case LongType => value.toLong
+    case FloatType => value.toFloat
+    case _ => value
+  }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.connector.elasticsearch
+
+import java.util.concurrent.{Executors, ThreadFactory, TimeUnit}
+
+import com.sksamuel.elastic4s.{ElasticClient, ElasticsearchClientUri}
+import com.stratio.common.utils.components.logger.impl.SparkLoggerComponent
+import org.elasticsearch.common.settings.Settings
+
+import scala.collection.mutable
+import scala.util.Try
+
+/**
+  * Reference-counted cache of Elasticsearch transport clients, keyed by cluster name and nodes.
+  *
+  * Building a transport client means joining the cluster and starting its thread pools so clients are shared by
+  * every native query and table inventory operation targeting the same cluster. A client is closed once it
+  * hasn't been referenced for [[ElasticSearchClientCache.MaxIdleTimeMs]].
+  */
+object ElasticSearchClientCache extends SparkLoggerComponent {
+
+  val MaxIdleTimeMs: Long = 10 * 60 * 1000
+  val IdleCheckIntervalMs: Long = 60 * 1000
+
+  case class ClientKey(clusterName: String, uri: ElasticsearchClientUri)
+
+  private class SharedClient(key: ClientKey) {
+    // Guarded by the `clients` map
+    var references = 0
+    var lastReleased: Long = System.currentTimeMillis()
+
+    @volatile var isBuilt = false
+
+    // Built by its first user outside of the `clients` lock: joining a cluster only blocks the users of that cluster
+    lazy val client: ElasticClient = {
+      val built = buildClient(key)
+      isBuilt = true
+      built
+    }
+  }
+
+  private val clients = mutable.Map.empty[ClientKey, SharedClient]
+
+  private val idleEvictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory {
+    override def newThread(r: Runnable): Thread = {
+      val thread = new Thread(r, "crossdata-elasticsearch-client-evictor")
+      thread.setDaemon(true)
+      thread
+    }
+  })
+
+  idleEvictor.scheduleWithFixedDelay(new Runnable {
+    override def run(): Unit = closeIdleClients()
+  }, IdleCheckIntervalMs, IdleCheckIntervalMs, TimeUnit.MILLISECONDS)
+
+  /**
+    * Gets the client for `key`, creating it if needed. Every acquired client must be given back by calling `release`.
+    */
+  def acquire(key: ClientKey): ElasticClient = {
+    val shared = clients.synchronized {
+      val shared = clients.getOrElseUpdate(key, new SharedClient(key))
+      shared.references += 1
+      shared
+    }
+    try {
+      shared.client
+    } catch {
+      case exc: Exception =>
+        clients.synchronized {
+          shared.references -= 1
+          if (shared.references == 0 && clients.get(key).exists(_ eq shared)) clients -= key
+        }
+        throw exc
+    }
+  }
+
+  def release(key: ClientKey): Unit = clients.synchronized {
+    clients.get(key) foreach { shared =>
+      shared.references -= 1
+      shared.lastReleased = System.currentTimeMillis()
+    }
+  }
+
+  def withClientDo[T](key: ClientKey)(f: ElasticClient => T): T = {
+    val client = acquire(key)
+    try {
+      f(client)
+    } finally {
+      release(key)
+    }
+  }
+
+  /**
+    * Closes every client which is not referenced and has been idle for, at least, `maxIdleTimeMs`.
+    */
+  def closeIdleClients(maxIdleTimeMs: Long = MaxIdleTimeMs): Unit = {
+    val now = System.currentTimeMillis()
+    val evicted = clients.synchronized {
+      val idle = clients.filter { case (_, shared) =>
+        shared.references <= 0 && now - shared.lastReleased >= maxIdleTimeMs
+      }
+      clients --= idle.keys
+      idle.values.toList
+    }
+    evicted filter (_.isBuilt) foreach { shared =>
+      log.debug("Closing idle Elasticsearch client")
+      Try(shared.client.close())
+    }
+  }
+
+  private def buildClient(key: ClientKey): ElasticClient = {
+    val settings = Settings.settingsBuilder().put("cluster.name", key.clusterName).build()
+    ElasticClient.transport(settings, key.uri)
+  }
+
+}
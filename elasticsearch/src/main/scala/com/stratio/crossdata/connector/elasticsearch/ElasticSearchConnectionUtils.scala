@@ -18,34 +18,33 @@ package com.stratio.crossdata.connector.elasticsearch
 import com.sksamuel.elastic4s.{ElasticClient, ElasticsearchClientUri}
 import com.stratio.crossdata.connector.TableInventory.Table
 import com.stratio.crossdata.connector.elasticsearch.DefaultSource._
+import com.stratio.crossdata.connector.elasticsearch.ElasticSearchClientCache.ClientKey
 import org.elasticsearch.client.IndicesAdminClient
 import org.elasticsearch.cluster.metadata.MappingMetaData
 import org.elasticsearch.common.collect.ImmutableOpenMap
-import org.elasticsearch.common.settings.Settings
 import org.elasticsearch.hadoop.cfg.ConfigurationOptions._
 
 object ElasticSearchConnectionUtils {
 
-  def withClientDo[T](parameters: Map[String, String])(f: ElasticClient => T): T = {
-    val client = buildClient(parameters)
-    try {
-      f(client)
-    } finally {
-      client.close()
-    }
-  }
-
+  def withClientDo[T](parameters: Map[String, String])(f: ElasticClient => T): T =
+    ElasticSearchClientCache.withClientDo(clientKey(parameters))(f)
 
-  private def buildClient(parameters: Map[String, String]): ElasticClient = {
-    val host: String = parameters.getOrElse(ES_NODES, ES_NODES_DEFAULT)
-    // TODO support for multiple host, no documentation found with expected format.
+  private[elasticsearch] def clientKey(parameters: Map[String, String]): ClientKey = {
     val port: Int = parameters.getOrElse(ElasticNativePort, "9300").toInt
     val clusterName = parameters(ElasticCluster)
+    ClientKey(clusterName, clientUri(parameters.getOrElse(ES_NODES, ES_NODES_DEFAULT), port))
+  }
 
-    val uri = ElasticsearchClientUri(s"elasticsearch://$host:$port")
-
-    val settings = Settings.settingsBuilder().put("cluster.name", clusterName).build()
-    ElasticClient.transport(settings, uri)
+  /**
+    * Builds the transport client URI for a comma-separated list of nodes. Ports within `es.nodes` are
+    * HTTP ports so they are replaced with the native one.
+    */
+  private[elasticsearch] def clientUri(nodes: String, nativePort: Int): ElasticsearchClientUri = {
+    val hosts = nodes.split(",").map(_.trim).filter(_.nonEmpty).map { node =>
+      val host = node.replaceFirst("^[a-zA-Z]+://", "").replaceFirst(":[0-9]+/?$", "").stripSuffix("/")
+      s"$host:$nativePort"
+    }.distinct.sorted
+    ElasticsearchClientUri(s"elasticsearch://${hosts.mkString(",")}")
   }
 
   def extractIndexAndType(options: Map[String, String]): Option[(String, String)] = {
@@ -58,13 +57,14 @@ object ElasticSearchConnectionUtils {
 
   def listTypes(options: Map[String, String]): Seq[Table] = {
 
-    val adminClient = buildClient(options).admin.indices()
-
     val indexType: Option[(String, String)] =  extractIndexAndType(options)
     val index = indexType.map(_._1).orElse(options.get(ElasticIndex))
 
-    index.fold(listAllIndexTypes(adminClient)){indexName =>
-      listIndexTypes(adminClient, indexName, indexType.map(_._2))
+    withClientDo(options) { client =>
+      val adminClient = client.admin.indices()
+      index.fold(listAllIndexTypes(adminClient)){indexName =>
+        listIndexTypes(adminClient, indexName, indexType.map(_._2))
+      }
     }
 
   }
@@ -80,14 +80,32 @@ object ElasticSearchConnectionUtils {
   }
 
   def numberOfTypes(options: Map[String, String]): Int = {
-    val adminClient = buildClient(options).admin.indices()
-
     val indexType: Option[(String, String)] =  extractIndexAndType(options)
     val index = indexType.map(_._1).orElse(options.get(ElasticIndex)) getOrElse sys.error("Index not found")
 
-    adminClient.prepareGetIndex().addIndices(index).get().mappings().get(index).size()
+    withClientDo(options) { client =>
+      client.admin.indices().prepareGetIndex().addIndices(index).get().mappings().get(index).size()
+    }
   }
 
+  /**
+    * @return the string fields of the type referenced by `options` which are indexed without being analyzed.
+    */
+  def notAnalyzedFields(options: Map[String, String]): Set[String] =
+    extractIndexAndType(options).fold(Set.empty[String]) { case (index, typeName) =>
+      withClientDo(options) { client =>
+        val indexMappings = client.admin.indices().prepareGetMappings(index).setTypes(typeName).get().mappings()
+        val typeMapping = Option(indexMappings.get(index)).flatMap(mappings => Option(mappings.get(typeName)))
+        val properties = typeMapping.flatMap(mapping => Option(mapping.sourceAsMap().get("properties")))
+
+        properties.collect { case fields: java.util.Map[String, java.util.Map[String, AnyRef]] @unchecked =>
+          fields.collect {
+            case (field, definition) if definition.get("index") == "not_analyzed" => field
+          }.toSet
+        } getOrElse Set.empty
+      }
+    }
+
   private def listIndexTypes(adminClient: IndicesAdminClient, indexName: String, typeName: Option[String] = None): Seq[Table] = {
 
     val elasticBuilder = adminClient.prepareGetIndex().addIndices(indexName)
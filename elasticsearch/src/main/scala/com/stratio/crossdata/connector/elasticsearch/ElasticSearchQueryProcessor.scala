@@ -15,25 +15,44 @@
  */
 package com.stratio.crossdata.connector.elasticsearch
 
+import java.io.Closeable
+import java.util.concurrent.CancellationException
+
 import com.sksamuel.elastic4s.ElasticDsl._
 import com.sksamuel.elastic4s._
 import com.stratio.common.utils.components.logger.impl.SparkLoggerComponent
+import com.stratio.crossdata.connector.CancellationToken
+import com.stratio.crossdata.connector.elasticsearch.ElasticSearchClientCache.ClientKey
 import com.stratio.crossdata.connector.elasticsearch.ElasticSearchConnectionUtils._
-import org.apache.spark.sql.catalyst.expressions.{Attribute, Literal}
+import org.apache.spark.sql.catalyst.expressions.{Attribute, Expression, Literal, NamedExpression}
 import org.apache.spark.sql.catalyst.planning.PhysicalOperation
-import org.apache.spark.sql.catalyst.plans.logical.{Limit, LogicalPlan}
+import org.apache.spark.sql.catalyst.plans.logical.{Aggregate, Limit, LogicalPlan}
+import org.apache.spark.sql.execution.datasources.LogicalRelation
 import org.apache.spark.sql.{Row, sources}
-import org.apache.spark.sql.sources.CatalystToCrossdataAdapter.{BaseLogicalPlan, FilterReport, ProjectReport, SimpleLogicalPlan, CrossdataExecutionPlan}
+import org.apache.spark.sql.sources.CatalystToCrossdataAdapter.{AggregationLogicalPlan, BaseLogicalPlan, FilterReport, ProjectReport, SimpleLogicalPlan, CrossdataExecutionPlan}
 import org.apache.spark.sql.sources.{CatalystToCrossdataAdapter, Filter => SourceFilter}
 import org.apache.spark.sql.types.{StructField, StructType}
 import org.elasticsearch.action.search.SearchResponse
+import org.elasticsearch.hadoop.cfg.ConfigurationOptions._
 
+import scala.concurrent.duration._
 import scala.util.{Failure, Try}
 
 object ElasticSearchQueryProcessor {
 
-  def apply(logicalPlan: LogicalPlan, parameters: Map[String, String], schemaProvided: Option[StructType] = None)
-                                          = new ElasticSearchQueryProcessor(logicalPlan, parameters, schemaProvided)
+  val DefaultLimit = 10000
+  val DefaultScrollSize = 1000
+
+  // Same as the elastic4s `await` default
+  val RequestTimeout: FiniteDuration = 10.seconds
+
+  def apply(logicalPlan: LogicalPlan,
+            parameters: Map[String, String],
+            schemaProvided: Option[StructType] = None,
+            cancellation: CancellationToken = CancellationToken.Never,
+            notAnalyzedFields: Set[String] = Set.empty)
+                                          =
+    new ElasticSearchQueryProcessor(logicalPlan, parameters, schemaProvided, cancellation, notAnalyzedFields)
 }
 
 /**
@@ -42,52 +61,100 @@ object ElasticSearchQueryProcessor {
  * @param logicalPlan [[LogicalPlan]]] to be executed
  * @param parameters ElasticSearch Configuration Parameters
  * @param schemaProvided Spark used defined schema
+ * @param cancellation Cancelling it aborts the in-flight requests of the query. Cancelled queries fail instead of
+ *                     falling back to Spark.
+ * @param notAnalyzedFields String fields indexed as a single term, the only ones which can be grouped by
+ *                          or counted natively (see [[ElasticSearchConnectionUtils.notAnalyzedFields]]).
  */
 class ElasticSearchQueryProcessor(val logicalPlan: LogicalPlan, val parameters: Map[String, String],
-                                  val schemaProvided: Option[StructType] = None) extends SparkLoggerComponent {
+                                  val schemaProvided: Option[StructType] = None,
+                                  val cancellation: CancellationToken = CancellationToken.Never,
+                                  val notAnalyzedFields: Set[String] = Set.empty) extends SparkLoggerComponent {
+
+  import ElasticSearchQueryProcessor._
 
   type Limit = Option[Int]
 
   /**
    * Executes the [[LogicalPlan]]] and query the ElasticSearch database
     *
-    * @return the query result
+    * @return the query result, capped at [[ElasticSearchQueryProcessor.DefaultLimit]] rows unless the plan
+    *         has its own limit.
    */
-  def execute(): Option[Array[Row]] = {
-
-    def tryRows(requiredColumns: Seq[Attribute], finalQuery: SearchDefinition, esClient: ElasticClient): Try[Array[Row]] = {
-      val rows: Try[Array[Row]] = Try {
-        val resp: SearchResponse = esClient.execute(finalQuery).await.original
-        if (resp.getShardFailures.length > 0) {
-          val errors = resp.getShardFailures map { failure => failure.reason() }
-          throw new RuntimeException(errors mkString("Errors from ES:", ";\n", ""))
-        } else {
-          ElasticSearchRowConverter.asRows(schemaProvided.get, resp.getHits.getHits, requiredColumns)
-        }
+  def execute(): Option[Array[Row]] =
+    executeNative(Some(DefaultLimit)) flatMap { rows =>
+      val result = Try(rows.toArray)
+      rows match {
+        case closeable: Closeable => closeable.close()
+        case _ =>
       }
-      rows
+      result.failed foreach {
+        case cancelled: CancellationException => throw cancelled
+        case _ =>
+      }
+      result.toOption
     }
 
-    val result: Try[Array[Row]] = validatedNativePlan.map {
-      case (baseLogicalPlan, limit) =>
-        val requiredColumns = baseLogicalPlan match {
-          case SimpleLogicalPlan(projects, _, _, _) =>
-            projects
-        }
+  /**
+    * Executes the [[LogicalPlan]]] scrolling through its hits, which are fetched in batches of
+    * `es.scroll.size` documents and converted to rows as the iterator is consumed.
+    * The result isn't capped unless the plan has its own limit.
+    *
+    * @return the query result
+    */
+  def executeIterator(): Option[Iterator[Row]] = executeNative(None)
+
+  private def executeNative(defaultLimit: Option[Int]): Option[Iterator[Row]] = {
 
-        val filters = baseLogicalPlan.filters
+    val result: Try[Iterator[Row]] = validatedNativePlan.map {
+      case (AggregationLogicalPlan(projects, groupingExpressions, filters, _, _), limit) =>
+        Try(aggregate(projects, groupingExpressions, filters, limit))
+
+      case (SimpleLogicalPlan(requiredColumns, filters, _, _), limit) =>
         val (esIndex, esType) = extractIndexAndType(parameters).get
 
-        val finalQuery = buildNativeQuery(requiredColumns, filters, search in esIndex / esType)
+        val finalLimit = limit orElse defaultLimit
+        val scrollSize = parameters.get(ES_SCROLL_SIZE).map(_.toInt).getOrElse(DefaultScrollSize)
+        val batchSize = finalLimit.fold(scrollSize)(math.min(_, scrollSize))
+        val keepAlive = parameters.getOrElse(ES_SCROLL_KEEPALIVE, ES_SCROLL_KEEPALIVE_DEFAULT)
 
-        withClientDo(parameters) { esClient =>
-          tryRows(requiredColumns, finalQuery, esClient)
-        }
+        val finalQuery = buildNativeQuery(requiredColumns, filters, search in esIndex / esType).size(batchSize).scroll(keepAlive)
+
+        Try(new ScrollRowIterator(clientKey(parameters), finalQuery, keepAlive, requiredColumns, finalLimit))
     }.getOrElse(Failure(new RuntimeException("Invalid native plan")))
 
+    result.failed foreach {
+      case cancelled: CancellationException => throw cancelled
+      case exc => log.warn(s"Exception executing the native query $logicalPlan", exc)
+    }
     result.toOption
   }
 
+  /**
+    * Executes an aggregation as an Elasticsearch search request which only retrieves aggregations, grouping
+    * buckets being mapped back to rows.
+    */
+  private def aggregate(aggregateExpressions: Seq[NamedExpression],
+                        groupingExpressions: Seq[Expression],
+                        filters: Array[SourceFilter],
+                        limit: Option[Int]): Iterator[Row] = {
+    val (esIndex, esType) = extractIndexAndType(parameters).get
+    val query = buildFilters(filters, search in esIndex / esType).size(0)
+    ElasticSearchAggregations.aggregationBuilders(groupingExpressions, aggregateExpressions, notAnalyzedFields) foreach {
+      query._builder.addAggregation(_)
+    }
+
+    val resp: SearchResponse = withClientDo(parameters) { client =>
+      cancellation.awaitResult(client.execute(query), RequestTimeout).original
+    }
+    if (resp.getShardFailures.length > 0) {
+      val errors = resp.getShardFailures map { failure => failure.reason() }
+      throw new RuntimeException(errors mkString("Errors from ES:", ";\n", ""))
+    }
+
+    val rows = ElasticSearchAggregations.asRows(resp, groupingExpressions, aggregateExpressions, notAnalyzedFields)
+    limit.fold(rows)(rows.take).iterator
+  }
 
   def buildNativeQuery(requiredColumns: Seq[Attribute], filters: Array[SourceFilter], query: SearchDefinition): SearchDefinition = {
     val queryWithFilters = buildFilters(filters, query)
@@ -143,26 +210,44 @@ class ElasticSearchQueryProcessor(val logicalPlan: LogicalPlan, val parameters:
   }
 
 
+  /**
+    * The plan to be executed natively together with its limit, if any. Only a limit applied after the
+    * aggregation is honoured: the aggregations are computed by Elasticsearch over the whole index, so plans
+    * which limit the rows before aggregating them, or which filter the aggregated rows, are left to Spark.
+    */
   def validatedNativePlan: Option[(BaseLogicalPlan, Limit)] = {
-    lazy val limit: Option[Int] = logicalPlan.collectFirst { case Limit(Literal(num: Int, _), _) => num }
 
-    def findProjectsFilters(lplan: LogicalPlan): Option[BaseLogicalPlan] = {
+    def findProjectsFilters(lplan: LogicalPlan, limit: Limit, aggregated: Boolean): Option[(BaseLogicalPlan, Limit)] = {
       lplan match {
 
-        case Limit(_, child) =>
-          findProjectsFilters(child)
+        case Limit(Literal(num: Int, _), child) if !aggregated && limit.isEmpty =>
+          findProjectsFilters(child, Some(num), aggregated)
 
-        case PhysicalOperation(projectList, filterList, _) =>
+        case Aggregate(_, _, child) if !aggregated =>
+          findProjectsFilters(child, limit, aggregated = true)
+
+        case PhysicalOperation(projectList, filterList, _: LogicalRelation) =>
           CatalystToCrossdataAdapter.getConnectorLogicalPlan(logicalPlan, projectList, filterList) match {
             case CrossdataExecutionPlan(_, ProjectReport(exprIgnored), FilterReport(filtersIgnored, _)) if filtersIgnored.nonEmpty || exprIgnored.nonEmpty =>
               None
             case CrossdataExecutionPlan(basePlan, _, _) =>
-              Some(basePlan)
+              Some((basePlan, limit))
           }
+
+        case _ =>
+          None
       }
     }
 
-    findProjectsFilters(logicalPlan).collect{ case bp if checkNativeFilters(bp.filters) => (bp, limit) }
+    def checkNativeAggregation(basePlan: BaseLogicalPlan): Boolean = basePlan match {
+      case AggregationLogicalPlan(projects, groupingExpressions, _, _, _) =>
+        ElasticSearchAggregations.isSupported(groupingExpressions, projects, notAnalyzedFields)
+      case _ => true
+    }
+
+    findProjectsFilters(logicalPlan, None, aggregated = false).filter {
+      case (bp, _) => checkNativeFilters(bp.filters) && checkNativeAggregation(bp)
+    }
   }
 
   private[this] def checkNativeFilters(filters: Array[SourceFilter]): Boolean = filters.forall {
@@ -181,4 +266,81 @@ class ElasticSearchQueryProcessor(val logicalPlan: LogicalPlan, val parameters:
     case _ => false
 
   }
+
+  /**
+    * Iterator over the hits of a scrolled search. The client is referenced, and the scroll context kept at
+    * Elasticsearch, until the iterator is exhausted or closed. Cancelling the query aborts the pending request and
+    * makes the iterator fail.
+    */
+  private[this] class ScrollRowIterator(clientKey: ClientKey,
+                                        query: SearchDefinition,
+                                        keepAlive: String,
+                                        requiredColumns: Seq[Attribute],
+                                        limit: Option[Int]) extends Iterator[Row] with Closeable {
+
+    private val rowConverter = ElasticSearchRowConverter(schemaProvided.get, requiredColumns)
+    private val esClient = ElasticSearchClientCache.acquire(clientKey)
+    private var closed = false
+    private var nRows = 0
+    private var scrollId: Option[String] = None
+    private var exhausted = false
+    private var batch: Iterator[Row] = Iterator.empty
+    @volatile private var pendingScroll: Option[java.util.concurrent.Future[_]] = None
+
+    cancellation.onCancel(pendingScroll foreach (_.cancel(true)))
+
+    closingOnFailure {
+      nextBatch(cancellation.awaitResult(esClient.execute(query), RequestTimeout).original)
+    }
+
+    override def hasNext: Boolean = !closed && closingOnFailure {
+      val more = limit.forall(nRows < _) && (batch.hasNext || fetchNextBatch())
+      if (!more) close()
+      more
+    }
+
+    override def next(): Row = {
+      if (!hasNext) throw new NoSuchElementException("No more rows in the Elasticsearch result")
+      nRows += 1
+      closingOnFailure(batch.next())
+    }
+
+    override def close(): Unit = if (!closed) {
+      closed = true
+      try {
+        scrollId foreach (id => Try(esClient.java.prepareClearScroll().addScrollId(id).get()))
+      } finally {
+        ElasticSearchClientCache.release(clientKey)
+      }
+    }
+
+    private def fetchNextBatch(): Boolean =
+      !exhausted && scrollId.exists { id =>
+        val request = esClient.java.prepareSearchScroll(id).setScroll(keepAlive).execute()
+        pendingScroll = Some(request)
+        cancellation.throwIfCancelled()
+        nextBatch(request.actionGet())
+        batch.hasNext
+      }
+
+    // Clears the scroll and releases the client as soon as the search, or the conversion of a hit, fails
+    private def closingOnFailure[T](action: => T): T =
+      try action catch {
+        case failure: Throwable =>
+          close()
+          throw failure
+      }
+
+    private def nextBatch(resp: SearchResponse): Unit = {
+      if (resp.getShardFailures.length > 0) {
+        val errors = resp.getShardFailures map { failure => failure.reason() }
+        throw new RuntimeException(errors mkString("Errors from ES:", ";\n", ""))
+      }
+      val hits = resp.getHits.getHits
+      scrollId = Option(resp.getScrollId) orElse scrollId
+      exhausted = hits.isEmpty
+      batch = hits.iterator map (hit => rowConverter(hit))
+    }
+
+  }
 }
@@ -19,159 +19,165 @@ import java.sql.Timestamp
 import java.sql.{Date => SQLDate}
 import java.text.SimpleDateFormat
 import java.util
-import java.util.Date
 
 import org.apache.spark.sql.Row
 import org.apache.spark.sql.catalyst.expressions.{Attribute, GenericRowWithSchema}
 import org.apache.spark.sql.types._
 import org.elasticsearch.search.SearchHit
-import org.elasticsearch.search.SearchHitField
 import org.joda.time.DateTime
 
-import scala.collection.JavaConverters._
-
-object ElasticSearchRowConverter {
+/**
+ * Converts search hits into rows of the required fields. The conversion of each field is resolved once, when the
+ * converter is created, and then applied to every hit of the query without looking up the schema again.
+ *
+ * Converters keep their own date format, so they shouldn't be shared between threads.
+ */
+class ElasticSearchRowConverter(schema: StructType, requiredFields: Seq[String]) {
 
+  import ElasticSearchRowConverter._
 
-  def asRows(schema: StructType, array: Array[SearchHit], requiredFields: Seq[Attribute]): Array[Row] = {
+  private val names: Array[String] = requiredFields.toArray
 
-    array map { hit =>
-      hitAsRow(
-        hit.fields().asScala.toMap,
-        Option(hit.getSource).map(_.asScala.toMap).getOrElse(Map.empty),
-        schema,
-        requiredFields.map(_.name)
-      )
+  private val converters: Array[AnyRef => Any] = {
+    val fields = schema.map(field => field.name -> field).toMap
+    names map { name =>
+      fields.get(name).map(field => valueConverter(field.dataType)) getOrElse {
+        (_: AnyRef) => sys.error(s"Field $name not found in the schema ${schema.simpleString}")
+      }
     }
   }
 
-  def hitAsRow(
-                hitFields: Map[String, SearchHitField],
-                subDocuments: Map[String, AnyRef],
-                schema: StructType,
-                requiredFields: Seq[String]): Row = {
+  def apply(hit: SearchHit): Row = {
+    val hitFields = hit.fields()
+    val source = hit.getSource
+    val values = new Array[Any](names.length)
+
+    var i = 0
+    while (i < names.length) {
+      // TODO: Note that if a nested subdocument is targeted, it won't work and this algorithm should be made recursive.
+      val value: AnyRef = hitFields.get(names(i)) match {
+        case null => if (source == null) null else source.get(names(i))
+        case hitField => hitField.getValue[AnyRef]
+      }
+      values(i) = if (value == null) null else converters(i)(value)
+      i += 1
+    }
 
-    val schemaMap = schema.map(field => field.name -> field.dataType).toMap
+    new GenericRowWithSchema(values, schema)
+  }
 
-    val values: Seq[Any] = requiredFields.map { name =>
+  def asRows(hits: Array[SearchHit]): Array[Row] = hits map (hit => apply(hit))
 
-      // TODO: Note that if a nested subdocument is targeted, it won't work and this algorithm should be made recursive.
-      (hitFields.get(name) orElse subDocuments.get(name)).flatMap(Option(_)) map {
-        ((value: Any) => enforceCorrectType(value, schemaMap(name))) compose {
-          case hitField: SearchHitField => hitField.getValue
-          case other => other
-        }
-      } orNull
+}
 
-    }
-    new GenericRowWithSchema(values.toArray, schema)
+object ElasticSearchRowConverter {
+
+  def apply(schema: StructType, requiredFields: Seq[Attribute]): ElasticSearchRowConverter =
+    new ElasticSearchRowConverter(schema, requiredFields.map(_.name))
+
+  def asRows(schema: StructType, array: Array[SearchHit], requiredFields: Seq[Attribute]): Array[Row] =
+    ElasticSearchRowConverter(schema, requiredFields).asRows(array)
+
+  /**
+   * Conversion of the (not null) values of a given type.
+   */
+  private[elasticsearch] def valueConverter(desiredType: DataType): AnyRef => Any = desiredType match {
+    case StringType => _.toString
+    case ByteType => nonEmpty(toByte)
+    case ShortType => nonEmpty(toShort)
+    case IntegerType => nonEmpty(toInt)
+    case LongType => nonEmpty(toLong)
+    case DoubleType => nonEmpty(toDouble)
+    case FloatType => nonEmpty(toFloat)
+    case DecimalType() => nonEmpty(toDecimal)
+    case BooleanType => nonEmpty(_.asInstanceOf[Boolean])
+    case TimestampType =>
+      val dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'hh:mm:ss.SSS")
+      nonEmpty(toTimestamp(_, dateFormat))
+    case NullType => _ => null
+    case DateType => nonEmpty(toDate)
+    case BinaryType => nonEmpty(toBinary)
+    case schema: StructType => nonEmpty(toRow(schema))
+    case _ => value => sys.error(s"Unsupported datatype conversion [${value.getClass}},$desiredType]")
   }
 
-  protected def enforceCorrectType(value: Any, desiredType: DataType): Any =
-      // TODO check if value==null
-      desiredType match {
-        case StringType => value.toString
-        case _ if value == "" => null // guard the non string type
-        case ByteType => toByte(value)
-        case ShortType => toShort(value)
-        case IntegerType => toInt(value)
-        case LongType => toLong(value)
-        case DoubleType => toDouble(value)
-        case FloatType => toFloat(value)
-        case DecimalType() => toDecimal(value)
-        case BooleanType => value.asInstanceOf[Boolean]
-        case TimestampType => toTimestamp(value)
-        case NullType => null
-        case DateType => toDate(value)
-        case BinaryType => toBinary(value)
-        case schema: StructType => toRow(value, schema)
-        case _ =>
-          sys.error(s"Unsupported datatype conversion [${value.getClass}},$desiredType]")
-          value
-      }
+  // guard the non string types
+  private def nonEmpty(convert: AnyRef => Any): AnyRef => Any =
+    value => if (value == "") null else convert(value)
 
-  private def toByte(value: Any): Byte = value match {
-    case value: Byte => value
-    case value: Int => value.toByte
-    case value: Long => value.toByte
+  private def toByte(value: AnyRef): Byte = value match {
+    case value: Number => value.byteValue
+    case _ => sys.error(s"Unsupported datatype conversion [${value.getClass}},Byte]")
   }
 
-  private def toShort(value: Any): Short = value match {
-    case value: Int => value.toShort
-    case value: Long => value.toShort
+  private def toShort(value: AnyRef): Short = value match {
+    case value: Number => value.shortValue
+    case _ => sys.error(s"Unsupported datatype conversion [${value.getClass}},Short]")
   }
 
-  private def toInt(value: Any): Int = {
-    import scala.language.reflectiveCalls
-    value match {
-      case value: String => value.toInt
-      case _ => value.asInstanceOf[ {def toInt: Int}].toInt
-    }
+  private def toInt(value: AnyRef): Int = value match {
+    case value: String => value.toInt
+    case value: Number => value.intValue
+    case _ => sys.error(s"Unsupported datatype conversion [${value.getClass}},Int]")
   }
 
-  private def toLong(value: Any): Long = {
-    value match {
-      case value: Int => value.toLong
-      case value: Long => value
-    }
+  private def toLong(value: AnyRef): Long = value match {
+    case value: Number => value.longValue
+    case _ => sys.error(s"Unsupported datatype conversion [${value.getClass}},Long]")
   }
 
-  private def toDouble(value: Any): Double = {
-    value match {
-      case value: Int => value.toDouble
-      case value: Long => value.toDouble
-      case value: Double => value
-    }
+  private def toDouble(value: AnyRef): Double = value match {
+    case value: Number => value.doubleValue
+    case _ => sys.error(s"Unsupported datatype conversion [${value.getClass}},Double]")
   }
 
-  private def toFloat(value: Any): Float = {
-    value match {
-      case value: Int => value.toFloat
-      case value: Long => value.toFloat
-      case value: Float => value
-      case value: Double => value.toFloat
-    }
+  private def toFloat(value: AnyRef): Float = value match {
+    case value: Number => value.floatValue
+    case _ => sys.error(s"Unsupported datatype conversion [${value.getClass}},Float]")
   }
 
-  private def toDecimal(value: Any): Decimal = {
-    value match {
-      case value: Int => Decimal(value)
-      case value: Long => Decimal(value)
-      case value: java.math.BigInteger => Decimal(new java.math.BigDecimal(value))
-      case value: Double => Decimal(value)
-      case value: java.math.BigDecimal => Decimal(value)
-    }
+  private def toDecimal(value: AnyRef): Decimal = value match {
+    case value: java.math.BigDecimal => Decimal(value)
+    case value: java.math.BigInteger => Decimal(new java.math.BigDecimal(value))
+    case value: java.lang.Integer => Decimal(value.intValue)
+    case value: java.lang.Long => Decimal(value.longValue)
+    case value: Number => Decimal(value.doubleValue)
+    case _ => sys.error(s"Unsupported datatype conversion [${value.getClass}},Decimal]")
   }
 
-  private def toTimestamp(value: Any): Timestamp = {
-    value match {
-      case value : String =>
-        val dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'hh:mm:ss.SSS")
-        val parsedDate = dateFormat.parse(value)
-        new java.sql.Timestamp(parsedDate.getTime)
-      case value: java.util.Date => new Timestamp(value.getTime)
-      case _ => sys.error(s"Unsupported datatype conversion [${value.getClass}},Timestamp]")
-    }
+  private def toTimestamp(value: AnyRef, dateFormat: SimpleDateFormat): Timestamp = value match {
+    case value: String => new Timestamp(dateFormat.parse(value).getTime)
+    case value: java.util.Date => new Timestamp(value.getTime)
+    case _ => sys.error(s"Unsupported datatype conversion [${value.getClass}},Timestamp]")
   }
 
-  def toDate(value: Any): Date = {
-    value match {
-      case value: String => new SQLDate(DateTime.parse(value).getMillis)
-    }
+  def toDate(value: AnyRef): SQLDate = value match {
+    case value: String => new SQLDate(DateTime.parse(value).getMillis)
+    case _ => sys.error(s"Unsupported datatype conversion [${value.getClass}},Date]")
   }
 
-  def toBinary(value: Any): Array[Byte] = value match {
+  def toBinary(value: AnyRef): Array[Byte] = value match {
     case str: String => str.getBytes
-    case arr: Array[Byte @unchecked] if arr.headOption.collect { case _: Byte => true } getOrElse false => arr
+    case arr: Array[Byte] => arr
     case _ => sys.error(s"Unsupported datatype conversion [${value.getClass}},Array[Byte]")
   }
 
-
-  def toRow(value: Any, schema: StructType): Row = value match {
-    case m: util.HashMap[String @ unchecked, _] =>
-      val rowValues = schema.fields map (field => enforceCorrectType(m.get(field.name), field.dataType))
-      new GenericRowWithSchema(rowValues, schema)
-    case _ => sys.error(s"Unsupported datatype conversion [${value.getClass}},Row")
+  def toRow(schema: StructType): AnyRef => Row = {
+    val fieldNames = schema.fieldNames
+    val fieldConverters = schema.fields map (field => valueConverter(field.dataType))
+
+    {
+      case document: util.Map[String @unchecked, AnyRef @unchecked] =>
+        val rowValues = new Array[Any](fieldNames.length)
+        var i = 0
+        while (i < fieldNames.length) {
+          val value = document.get(fieldNames(i))
+          rowValues(i) = if (value == null) null else fieldConverters(i)(value)
+          i += 1
+        }
+        new GenericRowWithSchema(rowValues, schema)
+      case value => sys.error(s"Unsupported datatype conversion [${value.getClass}},Row")
+    }
   }
 
 }
@@ -17,10 +17,11 @@ package org.elasticsearch.spark.sql
 
 import java.sql.{Date, Timestamp}
 
-import com.stratio.crossdata.connector.NativeScan
-import com.stratio.crossdata.connector.elasticsearch.ElasticSearchQueryProcessor
+import com.stratio.crossdata.connector.{CancellationToken, NativeScan}
+import com.stratio.crossdata.connector.elasticsearch.{ElasticSearchAggregations, ElasticSearchConnectionUtils, ElasticSearchQueryProcessor}
 import org.apache.spark.{Logging, Partition, SparkContext, TaskContext}
-import org.apache.spark.sql.catalyst.plans.logical.{LeafNode, LogicalPlan, Project, UnaryNode, Filter => FilterPlan}
+import org.apache.spark.sql.catalyst.expressions.Literal
+import org.apache.spark.sql.catalyst.plans.logical.{Aggregate, LeafNode, LogicalPlan, Project, UnaryNode, Filter => FilterPlan}
 import org.apache.spark.sql.catalyst.plans.logical.Limit
 import org.apache.spark.sql.sources._
 import org.apache.spark.sql.types._
@@ -29,6 +30,39 @@ import org.elasticsearch.hadoop.rest.RestService.PartitionDefinition
 import org.elasticsearch.spark.rdd.EsPartition
 
 import scala.collection.mutable
+import scala.util.Try
+
+/**
+ * Converts into dates the timestamps read by elasticsearch-hadoop for the date columns of the user schema. The
+ * positions of those columns are resolved once per row order, which is shared by the rows of a scan, instead of
+ * once per row.
+ */
+private[sql] class UserSchemaDates(userSchema: StructType) extends Serializable {
+
+  private val dateColumns: Set[String] = userSchema.collect { case StructField(name, DateType, _, _) => name }.toSet
+
+  @transient private var rowOrder: Seq[String] = _
+  @transient private var positions: Array[Int] = _
+
+  def isEmpty: Boolean = dateColumns.isEmpty
+
+  /**
+   * Positions of the date columns within the rows of the given order.
+   */
+  def datePositions(order: Seq[String]): Array[Int] = {
+    if (!(order eq rowOrder)) {
+      positions = order.zipWithIndex.collect { case (name, idx) if dateColumns contains name => idx }.toArray
+      rowOrder = order
+    }
+    positions
+  }
+
+  def toDate(timestamp: Any): Any = timestamp match {
+    case timestamp: Timestamp => new Date(timestamp.getTime)
+    case other => other
+  }
+
+}
 
 class ScalaXDEsRowRDDIterator(
                                context: TaskContext,
@@ -37,19 +71,14 @@ class ScalaXDEsRowRDDIterator(
                                userSchema: Option[StructType]
                              ) extends ScalaEsRowRDDIterator(context, partition, schema) {
 
+  private val userSchemaDates = userSchema.map(new UserSchemaDates(_)).filterNot(_.isEmpty)
+
   override def createValue(value: Array[Object]): Row = {
     val v: ScalaEsRow = super.createValue(value).asInstanceOf[ScalaEsRow]
-    userSchema foreach { uschema: StructType =>
-
-      val name2expectedType: Map[String, DataType] = uschema.map(field => field.name -> field.dataType).toMap
-      val transformations: Map[String, Any => Any] = name2expectedType.collect {
-        case (k, _: DateType) => k -> ((timestamp: Any) => new Date(timestamp.asInstanceOf[Timestamp].getTime))
+    userSchemaDates foreach { dates =>
+      dates.datePositions(v.rowOrder) foreach { idx =>
+        v.values.update(idx, dates.toDate(v.values(idx)))
       }
-
-      for(
-        ((value, name), idx) <- (v.values zip v.rowOrder) zipWithIndex;
-        trans <- transformations.get(name)
-      ) v.values.update(idx, trans(value))
     }
 
     v
@@ -84,27 +113,20 @@ class ElasticsearchXDRelation(parameters: Map[String, String], sqlContext: SQLCo
 
   override def buildScan(requiredColumns: Array[String], filters: Array[Filter]) = {
     val rdd = super.buildScan(requiredColumns, filters)
-    userSchema map { uschema: StructType =>
-      val name2expectedType: Map[String, DataType] = uschema.map(field => field.name -> field.dataType).toMap
-
-      val transformations: Map[String, Any => Any] = name2expectedType.collect {
-        case (k, _: DateType) => k -> ((timestamp: Any) => new Date(timestamp.asInstanceOf[Timestamp].getTime))
-      }
+    userSchema.map(new UserSchemaDates(_)).filterNot(_.isEmpty) map { dates =>
       rdd.map {
         case esRow: ScalaEsRow =>
-          lazy val newRow = esRow.copy()
-          var hasChanges = false
-
-          for(
-            ((value, name), idx) <- (esRow.values zip esRow.rowOrder) zipWithIndex;
-            trans <- transformations.get(name)
-          ) {
-            hasChanges = true
-            newRow.values.update(idx, trans(value))
+          val positions = dates.datePositions(esRow.rowOrder)
+          if (positions.isEmpty) {
+            esRow: Row
+          } else {
+            val newRow = esRow.copy()
+            positions foreach { idx =>
+              newRow.values.update(idx, dates.toDate(esRow.values(idx)))
+            }
+            newRow: Row
           }
 
-          (if(hasChanges) newRow else esRow) : Row
-
         case other: Row => other
       }
     } getOrElse rdd
@@ -118,10 +140,31 @@ class ElasticsearchXDRelation(parameters: Map[String, String], sqlContext: SQLCo
    */
   override def buildScan(optimizedLogicalPlan: LogicalPlan): Option[Array[Row]] = {
     logDebug(s"Processing ${optimizedLogicalPlan.toString()}")
-    val queryExecutor = ElasticSearchQueryProcessor(optimizedLogicalPlan, parameters, userSchema)
+    val queryExecutor = ElasticSearchQueryProcessor(
+      optimizedLogicalPlan, parameters, userSchema, CancellationToken.current(sqlContext.sparkContext), notAnalyzedFields
+    )
     queryExecutor.execute()
   }
 
+  /**
+   * Unlike [[buildScan]], the result isn't capped at [[ElasticSearchQueryProcessor.DefaultLimit]] rows
+   * and it is scrolled from Elasticsearch batch by batch.
+   */
+  override def buildScanIterator(optimizedLogicalPlan: LogicalPlan): Option[Iterator[Row]] = {
+    logDebug(s"Processing (streamed) ${optimizedLogicalPlan.toString()}")
+    val queryExecutor = ElasticSearchQueryProcessor(
+      optimizedLogicalPlan, parameters, userSchema, CancellationToken.current(sqlContext.sparkContext), notAnalyzedFields
+    )
+    queryExecutor.executeIterator()
+  }
+
+
+  /**
+   * String fields which are indexed as a single term, the only ones which can be grouped by or counted natively.
+   * The mapping is fetched once per relation and shared with its query processors.
+   */
+  private lazy val notAnalyzedFields: Set[String] =
+    Try(ElasticSearchConnectionUtils.notAnalyzedFields(parameters)).getOrElse(Set.empty)
 
   /**
    * Checks the ability to execute a [[LogicalPlan]].
@@ -133,8 +176,14 @@ class ElasticsearchXDRelation(parameters: Map[String, String], sqlContext: SQLCo
   override def isSupported(logicalStep: LogicalPlan, wholeLogicalPlan: LogicalPlan): Boolean = logicalStep match {
     case ln: LeafNode => true // TODO leafNode == LogicalRelation(xdSourceRelation)
     case un: UnaryNode => un match {
-      case Project(_, _) | FilterPlan(_, _)  => true
-      case Limit(_, _)=> false //TODO add support to others
+      case Project(_, _) => true
+      // Filters over aggregated rows (HAVING) can't be pushed down with the aggregation
+      case FilterPlan(_, child) => child.collectFirst { case agg: Aggregate => agg }.isEmpty
+      case Limit(Literal(_: Int, _), _) => true
+      // Elasticsearch aggregates every matching document, so rows can't be limited before being aggregated
+      case Aggregate(groupingExpressions, aggregateExpressions, child) =>
+        child.collectFirst { case limit: Limit => limit }.isEmpty &&
+          ElasticSearchAggregations.isSupported(groupingExpressions, aggregateExpressions, notAnalyzedFields)
       case _ => false
 
     }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.connector.elasticsearch
+
+import com.stratio.crossdata.test.BaseXDTest
+import org.apache.spark.sql.catalyst.expressions.aggregate.{Count, Max, Sum}
+import org.apache.spark.sql.catalyst.expressions.{Alias, AttributeReference, Literal, Upper, Year}
+import org.apache.spark.sql.types.{DateType, IntegerType, StringType}
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval
+import org.elasticsearch.search.builder.SearchSourceBuilder
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class ElasticSearchAggregationsSpec extends BaseXDTest {
+
+  val name = AttributeReference("name", StringType)()
+  val description = AttributeReference("description", StringType)()
+  val age = AttributeReference("age", IntegerType)()
+  val birthday = AttributeReference("birthday", DateType)()
+  val notAnalyzedFields = Set("name")
+
+  "ElasticSearchAggregations" should "support grouping by not analyzed strings, numbers and years" in {
+    ElasticSearchAggregations.grouping(name, notAnalyzedFields) shouldBe defined
+    ElasticSearchAggregations.grouping(age, notAnalyzedFields) shouldBe defined
+    ElasticSearchAggregations.grouping(Year(birthday), notAnalyzedFields).flatMap(_.dateInterval) shouldBe
+      Some(DateHistogramInterval.YEAR)
+
+    ElasticSearchAggregations.grouping(description, notAnalyzedFields) shouldBe None
+    ElasticSearchAggregations.grouping(Upper(name), notAnalyzedFields) shouldBe None
+  }
+
+  it should "support count, min, max, sum and avg over grouped columns" in {
+    val aggregateExpressions = Seq(
+      name,
+      Alias(Count(Literal(1) :: Nil).toAggregateExpression(), "c")(),
+      Alias(Max(age).toAggregateExpression(), "m")(),
+      Alias(Sum(age).toAggregateExpression(), "s")()
+    )
+
+    ElasticSearchAggregations.isSupported(Seq(name), aggregateExpressions, notAnalyzedFields) shouldBe true
+    ElasticSearchAggregations.isSupported(Seq(age), aggregateExpressions, notAnalyzedFields) shouldBe false
+    ElasticSearchAggregations.isSupported(
+      Seq(name), Seq(Alias(Count(Literal(1) :: Nil).toAggregateExpression(isDistinct = true), "c")()), notAnalyzedFields
+    ) shouldBe false
+  }
+
+  it should "only count the values of fields holding a single term" in {
+    ElasticSearchAggregations.metric(Count(name :: Nil), notAnalyzedFields) shouldBe defined
+    ElasticSearchAggregations.metric(Count(age :: Nil), notAnalyzedFields) shouldBe defined
+    ElasticSearchAggregations.metric(Count(birthday :: Nil), notAnalyzedFields) shouldBe defined
+
+    ElasticSearchAggregations.metric(Count(description :: Nil), notAnalyzedFields) shouldBe None
+  }
+
+  it should "nest a bucket aggregation per grouping column" in {
+    val aggregateExpressions = Seq(name, age, Alias(Max(age).toAggregateExpression(), "m")())
+
+    val builders = ElasticSearchAggregations.aggregationBuilders(Seq(name, age), aggregateExpressions, notAnalyzedFields)
+    val source = new SearchSourceBuilder()
+    builders.foreach(source.aggregation(_))
+    val request = source.toString.replaceAll("\\s", "")
+
+    request should include ("\"group_0\":{\"terms\":{\"field\":\"name\"")
+    request should include ("\"missing_0\":{\"missing\":{\"field\":\"name\"}")
+    request should include ("\"group_1\":{\"terms\":{\"field\":\"age\"")
+    request should include ("{\"max\":{\"field\":\"age\"}")
+  }
+
+}
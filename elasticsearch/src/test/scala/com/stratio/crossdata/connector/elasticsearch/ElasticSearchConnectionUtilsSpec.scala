@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.connector.elasticsearch
+
+import com.stratio.crossdata.test.BaseXDTest
+import org.elasticsearch.hadoop.cfg.ConfigurationOptions._
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class ElasticSearchConnectionUtilsSpec extends BaseXDTest {
+
+  "ElasticSearchConnectionUtils" should "build a client URI with every node using the native port" in {
+    val uri = ElasticSearchConnectionUtils.clientUri("node2:9200, http://node1:9200/,node3", 9300)
+
+    uri.hosts shouldBe List("node1" -> 9300, "node2" -> 9300, "node3" -> 9300)
+  }
+
+  it should "share clients between equivalent configurations" in {
+    val options = Map(DefaultSource.ElasticCluster -> "cluster", DefaultSource.ElasticNativePort -> "9301")
+
+    val key = ElasticSearchConnectionUtils.clientKey(options + (ES_NODES -> "node1,node2"))
+    val sameKey = ElasticSearchConnectionUtils.clientKey(options + (ES_NODES -> "node2, node1"))
+    val otherKey = ElasticSearchConnectionUtils.clientKey(options + (ES_NODES -> "node3"))
+
+    key shouldBe sameKey
+    key should not be otherKey
+  }
+
+}
@@ -17,8 +17,11 @@ package com.stratio.crossdata.connector.elasticsearch
 
 import com.sksamuel.elastic4s.{IndexAndTypes, IndexesAndTypes, SearchDefinition}
 import com.stratio.crossdata.test.BaseXDTest
-import org.apache.spark.sql.catalyst.expressions.{Attribute, PrettyAttribute}
-import org.apache.spark.sql.catalyst.plans.logical.LogicalPlan
+import org.apache.spark.sql.catalyst.expressions.aggregate.Count
+import org.apache.spark.sql.catalyst.expressions.{Alias, Attribute, GreaterThan, Literal, PrettyAttribute}
+import org.apache.spark.sql.catalyst.plans.logical.{Aggregate, Filter, Limit, LogicalPlan}
+import org.apache.spark.sql.crossdata.MockBaseRelation
+import org.apache.spark.sql.execution.datasources.LogicalRelation
 import org.apache.spark.sql.sources.{Filter => SourceFilter, _}
 import org.apache.spark.sql.types.StructType
 import org.junit.runner.RunWith
@@ -93,4 +96,23 @@ class ElasticSearchQueryProcessorSpec extends BaseXDTest with MockitoSugar {
     result should not be null
     result.toString().replace("\n", "").replace(" ", "") should be("{\"query\":{\"bool\":{}},\"post_filter\":{\"bool\":{\"must\":[{\"term\":{\"year\":1990}},{\"term\":{\"Name\":\"Lord\"}}]}},\"fields\":\"title\"}")
   }
+
+  it should "only push down the limits applied after an aggregation" in {
+    val table = LogicalRelation(new MockBaseRelation)
+    val count = Alias(Count(Literal(1) :: Nil).toAggregateExpression(), "c")()
+
+    val limitedCount = Limit(Literal(5), Aggregate(Nil, Seq(count), table))
+    ElasticSearchQueryProcessor(limitedCount, Map.empty).validatedNativePlan.map(_._2) shouldBe Some(Some(5))
+
+    val countOfLimited = Aggregate(Nil, Seq(count), Limit(Literal(5), table))
+    ElasticSearchQueryProcessor(countOfLimited, Map.empty).validatedNativePlan shouldBe None
+  }
+
+  it should "not push down filters over aggregated rows" in {
+    val table = LogicalRelation(new MockBaseRelation)
+    val count = Alias(Count(Literal(1) :: Nil).toAggregateExpression(), "c")()
+
+    val having = Filter(GreaterThan(count.toAttribute, Literal(1L)), Aggregate(Nil, Seq(count), table))
+    ElasticSearchQueryProcessor(having, Map.empty).validatedNativePlan shouldBe None
+  }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.connector.elasticsearch
+
+import java.util
+
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.catalyst.expressions.GenericRowWithSchema
+import org.apache.spark.sql.types._
+import org.elasticsearch.common.bytes.BytesArray
+import org.elasticsearch.common.text.StringText
+import org.elasticsearch.search.SearchHitField
+import org.elasticsearch.search.internal.{InternalSearchHit, InternalSearchHitField}
+
+import scala.collection.JavaConverters._
+
+/**
+ * Microbenchmark of the conversion of a 100k-hit response, comparing the per-hit conversion (which looked up the
+ * schema and converted the Java maps of every hit, using reflective calls for integers) with the compiled
+ * [[ElasticSearchRowConverter]].
+ *
+ * It isn't a test, run it with:
+ * {{{
+ *   mvn -pl elasticsearch test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.stratio.crossdata.connector.elasticsearch.ElasticSearchRowConverterBenchmark
+ * }}}
+ */
+object ElasticSearchRowConverterBenchmark {
+
+  val NumberOfHits = 100000
+  val Warmups = 5
+  val Iterations = 10
+
+  val schema = StructType(Seq(
+    StructField("id", IntegerType),
+    StructField("name", StringType),
+    StructField("age", IntegerType),
+    StructField("salary", DoubleType),
+    StructField("enrolled", BooleanType),
+    StructField("visits", LongType)
+  ))
+  val requiredFields = schema.fieldNames.toSeq
+
+  def main(args: Array[String]): Unit = {
+    val hits = (0 until NumberOfHits).map(searchHit).toArray
+    hits foreach (_.getSource) // the source is parsed once and cached by the hit, out of the measures
+
+    val perHit = measure("Per-hit conversion") {
+      hits map (hit => PerHitConversion.hitAsRow(hit.fields().asScala.toMap, hit.getSource.asScala.toMap))
+    }
+    val compiled = measure("Compiled converter") {
+      new ElasticSearchRowConverter(schema, requiredFields).asRows(hits)
+    }
+    println(f"Speed-up: ${perHit / compiled}%.2fx")
+  }
+
+  private def searchHit(i: Int): InternalSearchHit = {
+    val fields = new util.HashMap[String, SearchHitField]()
+    fields.put("id", new InternalSearchHitField("id", util.Arrays.asList[AnyRef](Long.box(i))))
+    val hit = new InternalSearchHit(i, i.toString, new StringText("student"), fields)
+    hit.sourceRef(new BytesArray(
+      s"""{"name":"Name $i","age":${i % 100},"salary":${i * 10},"enrolled":${i % 2 == 0},"visits":$i}"""
+    ))
+    hit
+  }
+
+  /**
+   * @return the average time in milliseconds
+   */
+  private def measure(name: String)(conversion: => Array[Row]): Double = {
+    (1 to Warmups) foreach (_ => conversion)
+    val times = (1 to Iterations) map { _ =>
+      val start = System.nanoTime()
+      val rows = conversion
+      require(rows.length == NumberOfHits)
+      (System.nanoTime() - start) / 1e6
+    }
+    val average = times.sum / Iterations
+    println(f"$name: $average%.1f ms per $NumberOfHits hits (min ${times.min}%.1f ms)")
+    average
+  }
+
+  /**
+   * The conversion which was applied to every hit before the converters were compiled.
+   */
+  private object PerHitConversion {
+
+    def hitAsRow(hitFields: Map[String, SearchHitField], subDocuments: Map[String, AnyRef]): Row = {
+      val schemaMap = schema.map(field => field.name -> field.dataType).toMap
+      val values: Seq[Any] = requiredFields.map { name =>
+        (hitFields.get(name) orElse subDocuments.get(name)).flatMap(Option(_)) map {
+          ((value: Any) => enforceCorrectType(value, schemaMap(name))) compose {
+            case hitField: SearchHitField => hitField.getValue
+            case other => other
+          }
+        } orNull
+      }
+      new GenericRowWithSchema(values.toArray, schema)
+    }
+
+    private def enforceCorrectType(value: Any, desiredType: DataType): Any = desiredType match {
+      case StringType => value.toString
+      case _ if value == "" => null
+      case IntegerType =>
+        import scala.language.reflectiveCalls
+        value match {
+          case value: String => value.toInt
+          case _ => value.asInstanceOf[ {def toInt: Int}].toInt
+        }
+      case LongType => value match {
+        case value: Int => value.toLong
+        case value: Long => value
+      }
+      case DoubleType => value match {
+        case value: Int => value.toDouble
+        case value: Long => value.toDouble
+        case value: Double => value
+      }
+      case BooleanType => value.asInstanceOf[Boolean]
+    }
+  }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.connector.elasticsearch
+
+import java.sql.Timestamp
+import java.util
+
+import com.stratio.crossdata.test.BaseXDTest
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.types._
+import org.elasticsearch.search.{SearchHit, SearchHitField}
+import org.junit.runner.RunWith
+import org.mockito.Mockito._
+import org.scalatest.junit.JUnitRunner
+import org.scalatest.mock.MockitoSugar
+
+import scala.collection.JavaConverters._
+
+@RunWith(classOf[JUnitRunner])
+class ElasticSearchRowConverterSpec extends BaseXDTest with MockitoSugar {
+
+  val schema = StructType(Seq(
+    StructField("id", IntegerType),
+    StructField("name", StringType),
+    StructField("salary", DoubleType),
+    StructField("age", LongType),
+    StructField("hired", TimestampType),
+    StructField("address", StructType(Seq(StructField("street", StringType), StructField("number", IntegerType))))
+  ))
+
+  def searchHit(fields: Map[String, AnyRef], source: Map[String, AnyRef]): SearchHit = {
+    val hitFields = fields map { case (name, value) =>
+      val hitField = mock[SearchHitField]
+      when(hitField.getValue[AnyRef]).thenReturn(value)
+      name -> hitField
+    }
+    val hit = mock[SearchHit]
+    when(hit.fields()).thenReturn(new util.HashMap[String, SearchHitField](hitFields.asJava))
+    when(hit.getSource).thenReturn(new util.HashMap[String, AnyRef](source.asJava))
+    hit
+  }
+
+  "An ElasticSearchRowConverter" should "convert the required fields of the hits to the types of the schema" in {
+    val hired = new java.util.Date()
+    val address = new util.HashMap[String, AnyRef](Map[String, AnyRef]("street" -> "Main", "number" -> Long.box(3)).asJava)
+    val hit = searchHit(
+      Map("id" -> Long.box(1), "name" -> "Peter"),
+      Map("salary" -> Int.box(1000), "hired" -> hired, "address" -> address)
+    )
+
+    val converter = new ElasticSearchRowConverter(schema, Seq("name", "id", "salary", "hired", "address"))
+
+    converter(hit).toSeq shouldBe Seq("Peter", 1, 1000.0, new Timestamp(hired.getTime), Row("Main", 3))
+  }
+
+  it should "return nulls for missing and empty values of non string fields" in {
+    val hit = searchHit(Map("name" -> ""), Map("id" -> ""))
+
+    val converter = new ElasticSearchRowConverter(schema, Seq("id", "name", "age"))
+
+    converter(hit).toSeq shouldBe Seq(null, "", null)
+  }
+
+  it should "reuse its field conversions across hits" in {
+    val hits = (1 to 3).map(i => searchHit(Map.empty, Map("id" -> Int.box(i), "age" -> Int.box(i * 10)))).toArray
+
+    val rows = new ElasticSearchRowConverter(schema, Seq("age", "id")).asRows(hits)
+
+    rows.map(_.toSeq) shouldBe Seq(Seq(10L, 1), Seq(20L, 2), Seq(30L, 3))
+  }
+
+}
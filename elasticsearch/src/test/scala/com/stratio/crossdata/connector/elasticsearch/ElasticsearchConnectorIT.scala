@@ -248,6 +248,64 @@ class ElasticsearchConnectorIT extends ElasticWithSharedContext {
     result(0).getDate(1) should be (DateTime.parse((1981)+"-01-01T10:00:00-00:00").toDate)
   }
 
+  it should "select with LIMIT" in {
+    assumeEnvironmentIsUpAndRunning
+
+    //Experimentation
+    val dataframe = sql(s"SELECT name FROM $Type LIMIT 3")
+
+    //Expectations
+    val result = dataframe.collect(Native)
+    result should have length 3
+  }
+
+  it should "stream every hit scrolling through them" in {
+    assumeEnvironmentIsUpAndRunning
+
+    //Experimentation
+    val dataframe = sql(s"SELECT name FROM $Type")
+
+    //Expectations
+    val result = dataframe.toLocalIterator().toList
+    result should have length 10
+    result.map(_.getString(0)).distinct should have length 10
+  }
+
+  it should "execute aggregations without grouping" in {
+    assumeEnvironmentIsUpAndRunning
+
+    //Experimentation
+    val dataframe = sql(s"SELECT count(*), min(age), max(age), sum(id), avg(id) FROM $Type")
+
+    //Expectations
+    val result = dataframe.collect(Native)
+    result should have length 1
+    result(0).toSeq should be (Seq(10L, 11, 20, 55L, 5.5))
+  }
+
+  it should "execute aggregations grouping by a field some documents lack" in {
+    assumeEnvironmentIsUpAndRunning
+
+    //Experimentation
+    val dataframe = sql(s"SELECT enrolled, count(*), max(age) FROM $Type GROUP BY enrolled")
+
+    //Expectations
+    val result = dataframe.collect(Native)
+    result.map(_.toSeq).toSet should be (Set(Seq(true, 5L, 20), Seq(null, 5L, 19)))
+  }
+
+  it should "execute aggregations grouping by year" in {
+    assumeEnvironmentIsUpAndRunning
+
+    //Experimentation
+    val dataframe = sql(s"SELECT year(birthday), count(*) FROM $Type GROUP BY year(birthday)")
+
+    //Expectations
+    val result = dataframe.collect(Native)
+    result should have length 10
+    result.map(_.getInt(0)).toSet should be ((1981 to 1990).toSet)
+  }
+
   //TODO add support for dates in query?
   ignore should "select with Date Range" in {
     assumeEnvironmentIsUpAndRunning
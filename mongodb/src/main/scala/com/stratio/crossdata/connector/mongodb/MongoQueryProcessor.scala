@@ -15,36 +15,56 @@
  */
 package com.stratio.crossdata.connector.mongodb
 
+import java.io.Closeable
 import java.util.regex.Pattern
 
-import com.mongodb.{DBObject, QueryBuilder}
+import com.mongodb.{AggregationOptions, DBObject, QueryBuilder}
 import com.mongodb.casbah.Imports._
 import com.stratio.common.utils.components.logger.impl.SparkLoggerComponent
+import com.stratio.crossdata.connector.CancellationToken
 import com.stratio.datasource.mongodb.MongodbConnection
 import com.stratio.datasource.mongodb.MongodbRelation._
 import com.stratio.datasource.mongodb.config.MongodbConfig
 import com.stratio.datasource.mongodb.schema.MongodbRowConverter._
 import com.stratio.datasource.util.Config
 import org.apache.spark.sql.catalyst.expressions._
+import org.apache.spark.sql.catalyst.expressions.aggregate.{AggregateExpression, AggregateFunction, Average, Count, Max, Min, Sum}
 import org.apache.spark.sql.catalyst.planning.PhysicalOperation
-import org.apache.spark.sql.catalyst.plans.logical.{LogicalPlan, Limit => LogicalLimit}
+import org.apache.spark.sql.catalyst.plans.logical.{Aggregate, Distinct, LeafNode, LogicalPlan, Project, Sort, Limit => LogicalLimit}
 import org.apache.spark.sql.{Row, sources}
-import org.apache.spark.sql.sources.CatalystToCrossdataAdapter.{BaseLogicalPlan, FilterReport, ProjectReport, SimpleLogicalPlan, CrossdataExecutionPlan}
+import org.apache.spark.sql.sources.CatalystToCrossdataAdapter.{AggregationLogicalPlan, BaseLogicalPlan, FilterReport, ProjectReport, SimpleLogicalPlan, CrossdataExecutionPlan}
 import org.apache.spark.sql.sources.{CatalystToCrossdataAdapter, Filter => SourceFilter}
-import org.apache.spark.sql.types.StructType
+import org.apache.spark.sql.types.{ArrayType, DecimalType, MapType, NumericType, StructField, StructType}
+
+import scala.collection.JavaConverters._
 
 object MongoQueryProcessor {
 
   val DefaultLimit = 10000
+  val DefaultCursorBatchSize = 1000
   type ColumnName = String
   type Limit = Option[Int]
 
-  case class MongoPlan(basePlan: BaseLogicalPlan, limit: Limit){
+  /**
+    * @param sortOrder ordering of the result, it refers to the base plan columns or to the aggregation output.
+    * @param output columns of the result.
+    */
+  case class MongoPlan(basePlan: BaseLogicalPlan, limit: Limit, sortOrder: Seq[SortOrder] = Seq.empty, output: Seq[Attribute] = Seq.empty){
     def projects: Seq[NamedExpression] = basePlan.projects
     def filters: Array[SourceFilter] = basePlan.filters
+    def requiresPipeline: Boolean = basePlan.isInstanceOf[AggregationLogicalPlan] || sortOrder.nonEmpty
   }
 
-  def apply(logicalPlan: LogicalPlan, config: Config, schemaProvided: Option[StructType] = None) = new MongoQueryProcessor(logicalPlan, config, schemaProvided)
+  /**
+    * Each output of an aggregation is either a grouping column (by index) or an aggregate function.
+    */
+  type AggregationOutput = Either[Int, AggregateFunction]
+
+  def apply(logicalPlan: LogicalPlan,
+            config: Config,
+            schemaProvided: Option[StructType] = None,
+            cancellation: CancellationToken = CancellationToken.Never) =
+    new MongoQueryProcessor(logicalPlan, config, schemaProvided, cancellation)
 
   def buildNativeQuery(
                         requiredColums: Seq[ColumnName],
@@ -106,6 +126,124 @@ object MongoQueryProcessor {
     queryBuilder.get
   }
 
+  /**
+    * Checks whether an aggregation can be computed by a MongoDB `$group` stage: it must group by plain columns and
+    * its output must consist of grouping columns and count, min, max, sum and avg functions.
+    */
+  def isAggregateSupported(groupingExpressions: Seq[Expression], aggregateExpressions: Seq[NamedExpression]): Boolean =
+    aggregationOutputs(groupingExpressions, aggregateExpressions).isDefined
+
+  def aggregationOutputs(groupingExpressions: Seq[Expression],
+                         aggregateExpressions: Seq[NamedExpression]): Option[Seq[AggregationOutput]] = {
+
+    def unaliased(expression: Expression): Expression = expression match {
+      case Alias(child, _) => unaliased(child)
+      case other => other
+    }
+
+    val outputs = aggregateExpressions map { expression =>
+      unaliased(expression) match {
+        case AggregateExpression(aggregateFunction, _, false) =>
+          Some(aggregateFunction).filter(groupAccumulators(_, 0).nonEmpty).map(Right(_))
+        case other =>
+          Some(groupingExpressions.indexWhere(_ semanticEquals other)).filter(_ >= 0).map(Left(_))
+      }
+    }
+
+    Some(outputs.flatten).filter { _ =>
+      groupingExpressions.forall(isPlainColumn) && outputs.forall(_.isDefined)
+    }
+  }
+
+  /**
+    * Builds the aggregation pipeline which computes a plan requiring sorting or aggregating documents. Filters are
+    * applied by a `$match` stage, aggregations by a `$group` stage whose output columns are named `c<index>` and
+    * sorting and limits by `$sort` and `$limit` stages.
+    */
+  def buildPipeline(plan: MongoPlan, config: Config): Seq[DBObject] = {
+    val matchStage = Some(plan.filters).filter(_.nonEmpty) map { filters =>
+      MongoDBObject("$match" -> filtersToDBObject(filters, Map.empty)(config))
+    }
+    val limitStage = plan.limit.map(limit => MongoDBObject("$limit" -> limit))
+
+    def sortStage(fieldName: Attribute => String): Option[DBObject] = Some(plan.sortOrder).filter(_.nonEmpty) map { order =>
+      val fields = order.collect {
+        case SortOrder(attribute: Attribute, direction) => fieldName(attribute) -> (if (direction == Ascending) 1 else -1)
+      }
+      MongoDBObject("$sort" -> MongoDBObject(fields: _*))
+    }
+
+    plan.basePlan match {
+      case AggregationLogicalPlan(aggregateExpressions, groupingExpressions, _, _, _) =>
+        val outputs = aggregationOutputs(groupingExpressions, aggregateExpressions).get
+
+        // Missing fields are grouped along with null ones, as Spark does
+        val groupId = if (groupingExpressions.isEmpty) null else MongoDBObject(
+          groupingExpressions.zipWithIndex.collect { case (attribute: Attribute, i) =>
+            s"g$i" -> MongoDBObject("$ifNull" -> MongoDBList(s"$$${attribute.name}", null))
+          }: _*
+        )
+        val accumulators = outputs.zipWithIndex flatMap {
+          case (Right(aggregateFunction), j) => groupAccumulators(aggregateFunction, j)
+          case _ => Nil
+        }
+        val projections = outputs.zipWithIndex map {
+          case (Left(i), j) => s"c$j" -> s"$$_id.g$i"
+          case (Right(aggregateFunction), j) => s"c$j" -> outputProjection(aggregateFunction, j)
+        }
+        val outputNames = aggregateExpressions.map(_.exprId).zipWithIndex.toMap
+
+        Seq(
+          matchStage,
+          Some(MongoDBObject("$group" -> MongoDBObject((("_id" -> groupId) +: accumulators).toList))),
+          Some(MongoDBObject("$project" -> MongoDBObject((("_id" -> 0) +: projections).toList))),
+          sortStage(attribute => s"c${outputNames(attribute.exprId)}"),
+          limitStage
+        ).flatten
+
+      case _ =>
+        Seq(matchStage, sortStage(_.name), limitStage, Some(MongoDBObject("$project" -> selectFields(plan.output.map(_.name))))).flatten
+    }
+  }
+
+  private def isPlainColumn(expression: Expression): Boolean = expression match {
+    case AttributeReference(_, _: ArrayType | _: MapType | _: StructType, _, _) => false
+    case _: AttributeReference => true
+    case _ => false
+  }
+
+  /**
+    * @return `$group` accumulators computing the aggregate function of the output `j` or nothing if it isn't supported.
+    */
+  private def groupAccumulators(aggregateFunction: AggregateFunction, j: Int): Seq[(String, DBObject)] = {
+    def nonNull(column: String): DBObject = MongoDBObject("$cond" -> MongoDBList(
+      MongoDBObject("$eq" -> MongoDBList(MongoDBObject("$ifNull" -> MongoDBList(s"$$$column", null)), null)), 0, 1
+    ))
+
+    aggregateFunction match {
+      case Count(Literal(1, _) :: Nil) =>
+        Seq(s"a$j" -> MongoDBObject("$sum" -> 1))
+      case Count((column: AttributeReference) :: Nil) if isPlainColumn(column) =>
+        Seq(s"a$j" -> MongoDBObject("$sum" -> nonNull(column.name)))
+      case Min(column: AttributeReference) if isPlainColumn(column) =>
+        Seq(s"a$j" -> MongoDBObject("$min" -> s"$$${column.name}"))
+      case Max(column: AttributeReference) if isPlainColumn(column) =>
+        Seq(s"a$j" -> MongoDBObject("$max" -> s"$$${column.name}"))
+      case Sum(column @ AttributeReference(_, _: NumericType, _, _)) if !column.dataType.isInstanceOf[DecimalType] =>
+        // Spark's sum is null when there are no values whereas MongoDB's one is 0
+        Seq(s"a$j" -> MongoDBObject("$sum" -> s"$$${column.name}"), s"n$j" -> MongoDBObject("$sum" -> nonNull(column.name)))
+      case Average(column @ AttributeReference(_, _: NumericType, _, _)) if !column.dataType.isInstanceOf[DecimalType] =>
+        Seq(s"a$j" -> MongoDBObject("$avg" -> s"$$${column.name}"))
+      case _ =>
+        Nil
+    }
+  }
+
+  private def outputProjection(aggregateFunction: AggregateFunction, j: Int): Any = aggregateFunction match {
+    case _: Sum => MongoDBObject("$cond" -> MongoDBList(MongoDBObject("$gt" -> MongoDBList(s"$$n$j", 0)), s"$$a$j", null))
+    case _ => s"$$a$j"
+  }
+
     /**
       * Check if the field is "_id" and if the user wants to filter by this field as an ObjectId
       *
@@ -149,21 +287,53 @@ object MongoQueryProcessor {
 
 
 // TODO logs, doc, tests
-class MongoQueryProcessor(logicalPlan: LogicalPlan, config: Config, schemaProvided: Option[StructType] = None) extends SparkLoggerComponent {
+/**
+  * @param cancellation Cancelling it closes the open cursor of the query. Cancelled queries fail instead of
+  *                     falling back to Spark.
+  */
+class MongoQueryProcessor(logicalPlan: LogicalPlan,
+                          config: Config,
+                          schemaProvided: Option[StructType] = None,
+                          cancellation: CancellationToken = CancellationToken.Never) extends SparkLoggerComponent {
 
   import MongoQueryProcessor._
 
-  def execute(): Option[Array[Row]] = {
+  /**
+    * Executes the plan natively, its result being capped at [[MongoQueryProcessor.DefaultLimit]] rows unless the plan
+    * has its own limit.
+    */
+  def execute(): Option[Array[Row]] =
+    executeRows(Some(DefaultLimit)) flatMap { rows =>
+      try {
+        Some(rows.toArray)
+      } catch {
+        case exc: Exception if !cancellation.isCancelled =>
+          log.warn(s"Exception executing the native query $logicalPlan", exc); None
+      } finally {
+        rows.close()
+      }
+    }
+
+  /**
+    * Executes the plan natively without capping its result. Documents are fetched from the cursor in batches
+    * of `cursorBatchSize` documents, which are converted to rows as the iterator is consumed. The MongoDB client
+    * is kept in use until the iterator is exhausted.
+    */
+  def executeIterator(): Option[Iterator[Row]] = executeRows(None)
 
-    // TODO convert to Spark result using an iterator with batches instead of an array
+  private[this] def executeRows(defaultLimit: Option[Int]): Option[MongoRowIterator] =
     if (schemaProvided.isEmpty) {
       None
     } else {
       try {
-        validatedNativePlan.map { case MongoPlan(bs: SimpleLogicalPlan, limit) =>
-          if (limit.exists(_ == 0)) {
-            Array.empty[Row]
-          } else {
+        validatedNativePlan.map {
+          case MongoPlan(_, Some(0), _, _) =>
+            MongoRowIterator.empty
+
+          case plan if plan.requiresPipeline =>
+            executePipeline(plan.copy(limit = plan.limit orElse defaultLimit))
+
+          case MongoPlan(bs: SimpleLogicalPlan, limit, _, _) =>
             val name2randomAccess = bs.collectionRandomAccesses.map {
               case (k, v) => s"${k.name}[${v.right}]" -> v
             }
@@ -172,45 +342,152 @@ class MongoQueryProcessor(logicalPlan: LogicalPlan, config: Config, schemaProvid
               config,
               name2randomAccess
             )
-            val resultSet = MongodbConnection.withCollectionDo(config) { collection =>
+            openCursor { collection =>
               logDebug(s"Executing native query: filters => $mongoFilters projects => $mongoRequiredColumns")
-              val cursor = collection.find(mongoFilters, mongoRequiredColumns)
-              val result = cursor.limit(limit.getOrElse(DefaultLimit)).toArray[DBObject]
-              cursor.close()
-              result
+              val cursor = collection.find(mongoFilters, mongoRequiredColumns).batchSize(batchSize)
+              (limit orElse defaultLimit) foreach (cursor.limit(_))
+              (cursor, () => cursor.close())
+            } { documents =>
+              sparkResultFromMongodb(bs.projects, bs.collectionRandomAccesses, schemaProvided.get, documents)
             }
-            sparkResultFromMongodb(bs.projects, bs.collectionRandomAccesses, schemaProvided.get, resultSet)
-          }
         }
       } catch {
-        case exc: Exception =>
-          log.warn(s"Exception executing the native query $logicalPlan", exc.getMessage); None
+        case exc: Exception if !cancellation.isCancelled =>
+          log.warn(s"Exception executing the native query $logicalPlan", exc); None
       }
     }
 
+  private[this] lazy val batchSize: Int =
+    config.get[Any](MongodbConfig.CursorBatchSize).map(_.toString.toInt).getOrElse(DefaultCursorBatchSize)
+
+  private[this] def executePipeline(plan: MongoPlan): MongoRowIterator = {
+    val pipeline = buildPipeline(plan, config)
+    val options = AggregationOptions.builder()
+      .allowDiskUse(true)
+      .batchSize(batchSize)
+      .outputMode(AggregationOptions.OutputMode.CURSOR)
+      .build()
+
+    def pipelineCursor(collection: MongoCollection): (Iterator[DBObject], () => Unit) = {
+      logDebug(s"Executing native aggregation pipeline: ${pipeline.mkString("[", ", ", "]")}")
+      val cursor = collection.underlying.aggregate(pipeline.asJava, options)
+      (cursor.asScala, () => cursor.close())
+    }
+
+    plan.basePlan match {
+      case AggregationLogicalPlan(aggregateExpressions, groupingExpressions, _, _, _) =>
+        val pipelineSchema = StructType(aggregateExpressions.zipWithIndex map { case (expression, j) =>
+          StructField(s"c$j", expression.dataType, nullable = true)
+        })
+        val outputSchema = StructType.fromAttributes(plan.output)
+        val outputIndexes = plan.output.map(attribute => aggregateExpressions.indexWhere(_.exprId == attribute.exprId))
+        def toOutputRow(row: Row): Row = new GenericRowWithSchema(outputIndexes.map(row.get).toArray, outputSchema)
+
+        val rows = openCursor(pipelineCursor)(documents => asRow(pipelineSchema, documents) map toOutputRow)
+
+        if (groupingExpressions.nonEmpty) {
+          rows
+        } else {
+          // A global aggregation always returns a row, even when there are no documents to aggregate
+          val result = try rows.toArray finally rows.close()
+          val outputs = aggregationOutputs(groupingExpressions, aggregateExpressions).get
+          val emptyAggregation = Row.fromSeq(outputs map {
+            case Right(_: Count) => 0L
+            case _ => null
+          })
+          MongoRowIterator(if (result.isEmpty) Array(toOutputRow(emptyAggregation)) else result)
+        }
+
+      case _ =>
+        openCursor(pipelineCursor) { documents =>
+          sparkResultFromMongodb(plan.output, Map.empty, schemaProvided.get, documents)
+        }
+    }
   }
 
+  /**
+    * Opens a cursor over the collection whose documents are converted to rows a batch at a time. The cursor is
+    * closed as soon as the query is cancelled so that the server releases it and any pending request fails.
+    */
+  private[this] def openCursor(cursor: MongoCollection => (Iterator[DBObject], () => Unit))
+                              (convert: Array[DBObject] => Array[Row]): MongoRowIterator = {
+    val handle = MongodbConnection.openCollection(config)
+    try {
+      val (documents, closeCursor) = cursor(handle.collection)
+      cancellation.onCancel(closeCursor())
+      val batches = documents.grouped(batchSize) map { batch =>
+        cancellation.throwIfCancelled()
+        batch
+      }
+      new MongoRowIterator(batches.flatMap(batch => convert(batch.toArray)), () => {
+        try closeCursor() finally handle.close()
+      })
+    } catch {
+      case exc: Exception =>
+        handle.close()
+        throw exc
+    }
+  }
 
-  def validatedNativePlan: Option[_] = {// TODO
+  def validatedNativePlan: Option[MongoPlan] = {
     lazy val limit: Option[Int] = logicalPlan.collectFirst { case LogicalLimit(Literal(num: Int, _), _) => num }
 
-    def findBasePlan(lplan: LogicalPlan): Option[BaseLogicalPlan] = lplan match {
+    // Supported plans: [Limit] -> [Project of columns -> Sort | Sort] -> [Aggregate | Distinct] -> Project/Filter
+    val withoutLimit = logicalPlan match {
+      case LogicalLimit(_, child) => child
+      case other => other
+    }
+    val (projectedOutput, withoutProject) = withoutLimit match {
+      case Project(projectList, sort: Sort) if projectList.forall(_.isInstanceOf[Attribute]) =>
+        (Some(projectList.map(_.toAttribute)), sort)
+      case other => (None, other)
+    }
+    val (sortOrder, withoutSort) = withoutProject match {
+      case Sort(order, _, child) => (order, child)
+      case other => (Seq.empty, other)
+    }
+    val (aggregation, basePlan) = withoutSort match {
+      case Aggregate(groupingExpressions, aggregateExpressions, child) =>
+        (Some((groupingExpressions, aggregateExpressions)), child)
+      case Distinct(child) =>
+        (Some((child.output, child.output)), child)
+      case other =>
+        (None, other)
+    }
 
-      case LogicalLimit(_, child) =>
-        findBasePlan(child)
+    def findBasePlan(lplan: LogicalPlan): Option[BaseLogicalPlan] = lplan match {
 
-      case PhysicalOperation(projectList, filterList, _) =>
+      case PhysicalOperation(projectList, filterList, _: LeafNode) =>
         CatalystToCrossdataAdapter.getConnectorLogicalPlan(logicalPlan, projectList, filterList) match {
           case CrossdataExecutionPlan(_, ProjectReport(exprIgnored), FilterReport(filtersIgnored, _)) if filtersIgnored.nonEmpty || exprIgnored.nonEmpty =>
             None
-          case CrossdataExecutionPlan(basePlan: SimpleLogicalPlan, _, _) =>
-            Some(basePlan)
-          case _ => ??? // TODO
+          case CrossdataExecutionPlan(basePlan, _, _) =>
+            aggregation.fold[Option[BaseLogicalPlan]](Some(basePlan)) { case (groupingExpressions, aggregateExpressions) =>
+              Some(AggregationLogicalPlan(
+                aggregateExpressions, groupingExpressions, basePlan.filters, basePlan.udfsMap, basePlan.collectionRandomAccesses
+              ))
+            }
         }
 
+      case _ => None
+
+    }
+
+    def isValidPipelinePlan(plan: MongoPlan): Boolean = !plan.requiresPipeline || {
+      val available = plan.basePlan match {
+        case AggregationLogicalPlan(aggregateExpressions, groupingExpressions, _, _, _) =>
+          if (isAggregateSupported(groupingExpressions, aggregateExpressions)) aggregateExpressions else Seq.empty
+        case bp => bp.projects
+      }
+      val availableIds = available.map(_.exprId).toSet
+      plan.basePlan.udfsMap.isEmpty && plan.basePlan.collectionRandomAccesses.isEmpty &&
+        plan.sortOrder.forall(order => order.child.isInstanceOf[Attribute] && order.child.references.forall(a => availableIds contains a.exprId)) &&
+        plan.output.forall(availableIds contains _.exprId)
     }
 
-    findBasePlan(logicalPlan).collect{ case bp if checkNativeFilters(bp.filters) => MongoPlan(bp, limit) }
+    findBasePlan(basePlan) collect {
+      case bp if checkNativeFilters(bp.filters) => MongoPlan(bp, limit, sortOrder, projectedOutput getOrElse withoutProject.output)
+    } filter isValidPipelinePlan
   }
 
 
@@ -252,4 +529,40 @@ class MongoQueryProcessor(logicalPlan: LogicalPlan, config: Config, schemaProvid
 
 }
 
+/**
+  * Rows of a native query which release their resources once they have all been consumed, on failure or when closed.
+  */
+private class MongoRowIterator(rows: Iterator[Row], onClose: () => Unit) extends Iterator[Row] with Closeable {
 
+  private var closed = false
+
+  override def hasNext: Boolean = !closed && closingOnFailure {
+    val more = rows.hasNext
+    if (!more) close()
+    more
+  }
+
+  override def next(): Row = {
+    if (!hasNext) throw new NoSuchElementException("No more rows in the MongoDB result")
+    closingOnFailure(rows.next())
+  }
+
+  override def close(): Unit = if (!closed) {
+    closed = true
+    onClose()
+  }
+
+  // Reading a batch, or converting its documents, may fail: The cursor and the client are released right away
+  private def closingOnFailure[T](action: => T): T =
+    try action catch {
+      case failure: Throwable =>
+        close()
+        throw failure
+    }
+
+}
+
+private object MongoRowIterator {
+  def apply(rows: Array[Row]): MongoRowIterator = new MongoRowIterator(rows.iterator, () => ())
+  def empty: MongoRowIterator = apply(Array.empty)
+}
@@ -16,10 +16,11 @@
 package com.stratio.crossdata.connector.mongodb
 
 import com.stratio.common.utils.components.logger.impl.SparkLoggerComponent
-import com.stratio.crossdata.connector.NativeScan
+import com.stratio.crossdata.connector.{CancellationToken, NativeScan}
 import com.stratio.datasource.mongodb.MongodbRelation
 import com.stratio.datasource.util.Config
-import org.apache.spark.sql.catalyst.plans.logical.{Filter, LeafNode, Limit, LogicalPlan, Project, UnaryNode}
+import org.apache.spark.sql.catalyst.expressions.Attribute
+import org.apache.spark.sql.catalyst.plans.logical.{Aggregate, Distinct, Filter, LeafNode, Limit, LogicalPlan, Project, Sort, UnaryNode}
 import org.apache.spark.sql.types.StructType
 import org.apache.spark.sql.{Row, SQLContext}
 
@@ -42,14 +43,31 @@ case class MongodbXDRelation(config: Config,
 
   override def buildScan(optimizedLogicalPlan: LogicalPlan): Option[Array[Row]] = {
     logDebug(s"Processing ${optimizedLogicalPlan.toString()}")
-    val queryExecutor = MongoQueryProcessor(optimizedLogicalPlan, config, schemaProvided)
+    val queryExecutor = MongoQueryProcessor(
+      optimizedLogicalPlan, config, schemaProvided, CancellationToken.current(sqlContext.sparkContext)
+    )
     queryExecutor.execute()
   }
 
+  /**
+   * Unlike [[buildScan]], the result isn't capped at [[MongoQueryProcessor.DefaultLimit]] rows
+   * and it is read from the MongoDB cursor batch by batch.
+   */
+  override def buildScanIterator(optimizedLogicalPlan: LogicalPlan): Option[Iterator[Row]] = {
+    logDebug(s"Processing (streamed) ${optimizedLogicalPlan.toString()}")
+    val queryExecutor = MongoQueryProcessor(
+      optimizedLogicalPlan, config, schemaProvided, CancellationToken.current(sqlContext.sparkContext)
+    )
+    queryExecutor.executeIterator()
+  }
+
   override def isSupported(logicalStep: LogicalPlan, wholeLogicalPlan: LogicalPlan): Boolean = logicalStep match {
     case ln: LeafNode => true // TODO leafNode == LogicalRelation(xdSourceRelation)
     case un: UnaryNode => un match {
-      case Limit(_, _) | Project(_, _) | Filter(_, _) => true
+      case Limit(_, _) | Project(_, _) | Filter(_, _) | Distinct(_) => true
+      case Sort(order, _, _) => order.forall(_.child.isInstanceOf[Attribute])
+      case Aggregate(groupingExpressions, aggregateExpressions, _) =>
+        MongoQueryProcessor.isAggregateSupported(groupingExpressions, aggregateExpressions)
       case _ => false
 
     }
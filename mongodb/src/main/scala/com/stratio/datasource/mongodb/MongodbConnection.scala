@@ -15,18 +15,146 @@
  */
 package com.stratio.datasource.mongodb
 
+import java.io.Closeable
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.{Executors, ThreadFactory, TimeUnit}
+
 import com.mongodb.casbah.Imports._
+import com.stratio.common.utils.components.logger.impl.SparkLoggerComponent
 import com.stratio.datasource.mongodb.client.MongodbClientFactory
 import com.stratio.datasource.mongodb.config.{MongodbConfig, MongodbConfigReader}
-import com.stratio.datasource.util.{Config, using}
+import com.stratio.datasource.util.Config
+
+import scala.collection.mutable
+import scala.util.Try
 
-object MongodbConnection {
+/**
+  * Registry of long-lived MongoDB clients shared by the native query path and the table inventory operations.
+  *
+  * There is a client per connection configuration (hosts, credentials, SSL and client options). Each client keeps
+  * its own connection pool so reusing it avoids the TCP/TLS handshake and authentication cost per query.
+  * Clients which haven't been used for [[MongodbConnection.MaxIdleTimeMs]] are closed and clients which have been
+  * idle for a while are pinged before being reused so that broken clients are replaced.
+  */
+object MongodbConnection extends SparkLoggerComponent {
 
   import MongodbConfigReader._
 
+  val MaxIdleTimeMs: Long = 10 * 60 * 1000
+  val HealthCheckAfterIdleMs: Long = 30 * 1000
+  val IdleCheckIntervalMs: Long = 60 * 1000
+
+  private[mongodb] class PooledClient[C](val client: C) {
+    // Guarded by the pool
+    var nUsers = 0
+    var lastUsed: Long = System.currentTimeMillis()
+    var discarded = false
+  }
+
+  /**
+    * Clients by key along with their number of users. Clients are only closed once nobody uses them, even if they
+    * have been discarded (and thus replaced) meanwhile.
+    *
+    * @param closeClient closes a client, it is never called while holding the pool lock.
+    * @param isHealthy checks a client which has been idle for [[HealthCheckAfterIdleMs]] before reusing it.
+    */
+  private[mongodb] class ClientPool[K, C](closeClient: C => Unit, isHealthy: C => Boolean) {
+
+    private val clients = mutable.Map.empty[K, PooledClient[C]]
+
+    def acquire(key: K)(openClient: => C): PooledClient[C] = {
+      val now = System.currentTimeMillis()
+      val (existing, needsCheck) = clients.synchronized {
+        clients.get(key) match {
+          case Some(pooled) =>
+            pooled.nUsers += 1
+            (Some(pooled), now - pooled.lastUsed >= HealthCheckAfterIdleMs)
+          case None => (None, false)
+        }
+      }
+
+      existing filter (pooled => !needsCheck || isHealthy(pooled.client)) getOrElse {
+        existing foreach discard(key)
+        val newClient = openClient
+        val (pooled, opened) = clients.synchronized {
+          clients.get(key) match {
+            case Some(pooled) => // Another thread has opened a client meanwhile
+              pooled.nUsers += 1
+              (pooled, false)
+            case None =>
+              val pooled = new PooledClient(newClient)
+              pooled.nUsers += 1
+              clients.put(key, pooled)
+              (pooled, true)
+          }
+        }
+        if (!opened) Try(closeClient(newClient))
+        pooled
+      }
+    }
+
+    def release(pooled: PooledClient[C]): Unit = {
+      val unused = clients.synchronized {
+        pooled.nUsers -= 1
+        pooled.lastUsed = System.currentTimeMillis()
+        pooled.discarded && pooled.nUsers == 0
+      }
+      if (unused) Try(closeClient(pooled.client))
+    }
+
+    /**
+      * Removes a client from the pool, it is closed once its last user has released it. The caller gives up its use
+      * of the client.
+      */
+    def discard(key: K)(pooled: PooledClient[C]): Unit = {
+      val unused = clients.synchronized {
+        if (clients.get(key).exists(_ eq pooled)) clients -= key
+        pooled.discarded = true
+        pooled.nUsers -= 1
+        pooled.nUsers == 0
+      }
+      if (unused) Try(closeClient(pooled.client))
+    }
+
+    /**
+      * Closes every client which is not being used.
+      */
+    def closeIdleClients(maxIdleTimeMs: Long): Unit = {
+      val now = System.currentTimeMillis()
+      val evicted = clients.synchronized {
+        val idle = clients.filter { case (_, pooled) => pooled.nUsers == 0 && now - pooled.lastUsed >= maxIdleTimeMs }
+        clients --= idle.keys
+        idle.values.toList
+      }
+      evicted foreach { pooled =>
+        log.debug("Closing idle MongoDB client")
+        Try(closeClient(pooled.client))
+      }
+    }
+
+    def size: Int = clients.synchronized(clients.size)
+  }
+
+  private val clients = new ClientPool[Any, MongoClient](_.close(), isHealthy)
+
+  private val idleEvictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory {
+    override def newThread(r: Runnable): Thread = {
+      val thread = new Thread(r, "crossdata-mongodb-client-evictor")
+      thread.setDaemon(true)
+      thread
+    }
+  })
+
+  idleEvictor.scheduleWithFixedDelay(new Runnable {
+    override def run(): Unit = closeIdleClients()
+  }, IdleCheckIntervalMs, IdleCheckIntervalMs, TimeUnit.MILLISECONDS)
+
   def withClientDo[T](config: Config)(code: MongoClient => T): T = {
-    using(openClient(config)) {
-      code
+    val pooledClient = acquire(config)
+    try {
+      code(pooledClient.client)
+    } finally {
+      clients.release(pooledClient)
     }
   }
 
@@ -39,8 +167,41 @@ object MongodbConnection {
     }
   }
 
+  /**
+    * Collection whose client is kept in use until the handle is closed, for results which are lazily consumed.
+    */
+  class CollectionHandle private[MongodbConnection](pooledClient: PooledClient[MongoClient],
+                                                    val collection: MongoCollection) extends Closeable {
+
+    private val released = new AtomicBoolean(false)
+
+    override def close(): Unit = if (released.compareAndSet(false, true)) clients.release(pooledClient)
+  }
+
+  def openCollection(config: Config): CollectionHandle = {
+    val databaseName: String = config(MongodbConfig.Database)
+    val collectionName: String = config(MongodbConfig.Collection)
+
+    val pooledClient = acquire(config)
+    new CollectionHandle(pooledClient, pooledClient.client(databaseName)(collectionName))
+  }
+
+  /**
+    * Closes every client which is not being used.
+    */
+  def closeIdleClients(maxIdleTimeMs: Long = MaxIdleTimeMs): Unit = clients.closeIdleClients(maxIdleTimeMs)
+
+  private def clientKey(config: Config): Any = (config.hosts, config.credentials, config.sslOptions, config.clientOptions)
+
+  private def acquire(config: Config): PooledClient[MongoClient] = clients.acquire(clientKey(config))(openClient(config))
+
+  private def isHealthy(client: MongoClient): Boolean = {
+    val healthy = Try(client("admin").command(MongoDBObject("ping" -> 1)).ok()).getOrElse(false)
+    if (!healthy) log.warn("Discarding unhealthy MongoDB client")
+    healthy
+  }
+
   private def openClient(config: Config): MongoClient =
     MongodbClientFactory.getClient(config.hosts, config.credentials, config.sslOptions, config.clientOptions)
 
-
-}
\ No newline at end of file
+}
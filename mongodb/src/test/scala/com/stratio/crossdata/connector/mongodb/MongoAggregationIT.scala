@@ -24,13 +24,21 @@ class MongoAggregationIT extends MongoWithSharedContext {
 
   //(id BIGINT, age INT, description STRING, enrolled BOOLEAN, name STRING, optionalField BOOLEAN)
 
-  ignore should "execute natively a (SELECT count(*) FROM _)" in {
+  "The Mongo connector" should "execute natively a (SELECT count(*) FROM _)" in {
     assumeEnvironmentIsUpAndRunning
 
     val result = sql(s"SELECT count(*) FROM $Collection").collect(Native)
     result should have length 1
     result(0) should have length 1
-    result(0).getInt(0) should be(10)
+    result(0).getLong(0) should be(10)
+  }
+
+  it should "execute natively a (SELECT max(col), min(col), avg(col), sum(col) FROM _)" in {
+    assumeEnvironmentIsUpAndRunning
+    val dataframe = sql(s"SELECT max(age), min(age), avg(age), sum(age) FROM $Collection")
+    val result = dataframe.collect(Native)
+    result should have length 1
+    result(0).toSeq should be (Seq(20, 11, 15.5, 155L))
   }
 
   ignore should "execute natively a (SELECT max(col), min(col), avg(col), sum(col), first(col), last(col) FROM _)" in {
@@ -52,11 +60,25 @@ class MongoAggregationIT extends MongoWithSharedContext {
     result(0).getInt(0) should be(10)
   }
 
-  ignore should "execute natively a (SELECT col, count(*) FROM _ GROUP BY col)" in {
+  it should "execute natively a (SELECT col, count(*) FROM _ GROUP BY col)" in {
     assumeEnvironmentIsUpAndRunning
 
     val result = sql(s"SELECT enrolled, count(*) FROM $Collection GROUP BY enrolled").collect(Native)
-    ???
+    result.map(_.toSeq).toSet should be (Set(Seq(true, 5L), Seq(false, 5L)))
+  }
+
+  it should "execute natively a (SELECT col, count(*) FROM _ GROUP BY col ORDER BY col LIMIT n)" in {
+    assumeEnvironmentIsUpAndRunning
+
+    val result = sql(s"SELECT age, count(*) FROM $Collection WHERE id > 2 GROUP BY age ORDER BY age DESC LIMIT 3").collect(Native)
+    result.map(_.getInt(0)) should be (Array(20, 19, 18))
+  }
+
+  it should "execute natively a (SELECT col FROM _ ORDER BY col)" in {
+    assumeEnvironmentIsUpAndRunning
+
+    val result = sql(s"SELECT id FROM $Collection ORDER BY age DESC").collect(Native)
+    result.map(_.getLong(0)) should be ((10L to 1L by -1).toArray)
   }
 
   ignore should "execute natively a (SELECT col1, col2, count(*) FROM _ GROUP BY col1, col2)" in {
@@ -66,11 +88,11 @@ class MongoAggregationIT extends MongoWithSharedContext {
     ???
   }
 
-  ignore should "execute natively a (SELECT DISTINCT id FROM _)" in {
+  it should "execute natively a (SELECT DISTINCT col FROM _)" in {
     assumeEnvironmentIsUpAndRunning
 
-    val result = sql(s"SELECT DISTINCT id FROM $Collection").collect(Native)
-    ???
+    val result = sql(s"SELECT DISTINCT enrolled FROM $Collection").collect(Native)
+    result.map(_.getBoolean(0)).toSet should be (Set(true, false))
   }
 
   ignore should "execute natively a (SELECT count(*) FROM _ GROUP BY _ WHERE filterCondition)" in {
@@ -18,6 +18,7 @@ package com.stratio.crossdata.connector.mongodb
 import com.mongodb.casbah.MongoClient
 import com.mongodb.casbah.commons.MongoDBObject
 import org.apache.spark.sql.crossdata.ExecutionType._
+import org.apache.spark.sql.execution.datasources.LogicalRelation
 import org.apache.spark.sql.crossdata.exceptions.CrossdataException
 import org.junit.runner.RunWith
 import org.scalatest.junit.JUnitRunner
@@ -145,6 +146,20 @@ class MongoConnectorIT extends MongoWithSharedContext {
     result should have length 0
   }
 
+  it should "stream every document reading the cursor batch by batch" in {
+    assumeEnvironmentIsUpAndRunning
+    val dataframe = sql(s"SELECT id FROM $Collection")
+    val optimizedPlan = dataframe.queryExecution.optimizedPlan
+    val relation = optimizedPlan collectFirst { case LogicalRelation(mongoRelation: MongodbXDRelation, _) =>
+      mongoRelation
+    }
+    relation flatMap (_.buildScanIterator(optimizedPlan)) map (_.size) shouldBe Some(10)
+
+    val result = dataframe.toLocalIterator().toList
+    result should have length 10
+    result.map(_.getLong(0)).distinct should have length 10
+  }
+
 
   // NOT SUPPORTED => JOIN
   it should "not execute natively a (SELECT * ...  ORDER BY _ )" in {
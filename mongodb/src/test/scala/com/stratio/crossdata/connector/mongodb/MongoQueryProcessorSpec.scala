@@ -19,9 +19,15 @@ import java.util
 import java.util.regex.Pattern
 
 import com.mongodb.{DBObject, QueryOperators}
+import com.mongodb.casbah.commons.{MongoDBList, MongoDBObject}
+import com.stratio.crossdata.connector.mongodb.MongoQueryProcessor.MongoPlan
 import com.stratio.crossdata.test.BaseXDTest
 import com.stratio.datasource.mongodb.config.{MongodbConfig, MongodbConfigBuilder}
+import org.apache.spark.sql.catalyst.expressions.aggregate.{Count, Sum}
+import org.apache.spark.sql.catalyst.expressions.{Add, Alias, AttributeReference, Descending, Literal, SortOrder}
+import org.apache.spark.sql.sources.CatalystToCrossdataAdapter.AggregationLogicalPlan
 import org.apache.spark.sql.sources._
+import org.apache.spark.sql.types.{BooleanType, IntegerType}
 import org.junit.runner.RunWith
 import org.scalatest.junit.JUnitRunner
 
@@ -185,4 +191,33 @@ class MongoQueryProcessorSpec extends BaseXDTest {
     filters.get(ColumnId).asInstanceOf[Pattern].pattern should be (Pattern.compile(s".*${ValueId.toString}.*").pattern)
   }
 
+  it should "build an aggregation pipeline" in {
+    val enrolled = AttributeReference("enrolled", BooleanType)()
+    val count = Alias(Count(Literal(1) :: Nil).toAggregateExpression(), "c")()
+    val basePlan = AggregationLogicalPlan(
+      Seq(enrolled, count), Seq(enrolled), Array(GreaterThan(ColumnAge, ValueAge)), Map.empty, Map.empty
+    )
+    val plan = MongoPlan(basePlan, Some(Limit), Seq(SortOrder(count.toAttribute, Descending)), Seq(enrolled, count.toAttribute))
+
+    val pipeline = MongoQueryProcessor.buildPipeline(plan, config)
+
+    pipeline.map(_.keySet.iterator.next) should be (Seq("$match", "$group", "$project", "$sort", "$limit"))
+    val group = pipeline(1).get("$group").asInstanceOf[DBObject]
+    group.get("_id") should be (MongoDBObject("g0" -> MongoDBObject("$ifNull" -> MongoDBList("$enrolled", null))))
+    group.get("a1") should be (MongoDBObject("$sum" -> 1))
+    pipeline(2).get("$project") should be (MongoDBObject("_id" -> 0, "c0" -> "$_id.g0", "c1" -> "$a1"))
+    pipeline(3).get("$sort") should be (MongoDBObject("c1" -> -1))
+    pipeline(4).get("$limit") should be (Limit)
+  }
+
+  it should "not support aggregations by non-column expressions or with unsupported functions" in {
+    val age = AttributeReference("age", IntegerType)()
+    val countDistinct = Alias(Count(age :: Nil).toAggregateExpression(isDistinct = true), "c")()
+    val sum = Alias(Sum(age).toAggregateExpression(), "s")()
+
+    MongoQueryProcessor.isAggregateSupported(Seq(age), Seq(age, sum)) should be (true)
+    MongoQueryProcessor.isAggregateSupported(Seq(age), Seq(age, countDistinct)) should be (false)
+    MongoQueryProcessor.isAggregateSupported(Seq(Add(age, Literal(1))), Seq(sum)) should be (false)
+  }
+
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.datasource.mongodb
+
+import com.stratio.crossdata.test.BaseXDTest
+import com.stratio.datasource.mongodb.MongodbConnection.ClientPool
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class MongodbConnectionSpec extends BaseXDTest {
+
+  class FakeClient {
+    var closed = false
+  }
+
+  def newPool(): ClientPool[String, FakeClient] = new ClientPool[String, FakeClient](_.closed = true, _ => true)
+
+  "A MongoDB client pool" should "share a client among the users of a key" in {
+    val pool = newPool()
+    val first = pool.acquire("key")(new FakeClient)
+    val second = pool.acquire("key")(fail("A new client should not have been opened"))
+
+    second shouldBe theSameInstanceAs(first)
+    first.nUsers shouldBe 2
+    pool.acquire("other")(new FakeClient) should not be theSameInstanceAs(first)
+    pool.size shouldBe 2
+  }
+
+  it should "keep released clients until they have been idle for too long" in {
+    val pool = newPool()
+    val pooled = pool.acquire("key")(new FakeClient)
+
+    pool.release(pooled)
+    pooled.nUsers shouldBe 0
+    pooled.client.closed shouldBe false
+
+    pool.closeIdleClients(maxIdleTimeMs = 0)
+    pooled.client.closed shouldBe true
+    pool.size shouldBe 0
+  }
+
+  it should "not close idle clients while they are being used" in {
+    val pool = newPool()
+    val pooled = pool.acquire("key")(new FakeClient)
+
+    pool.closeIdleClients(maxIdleTimeMs = 0)
+    pooled.client.closed shouldBe false
+    pool.size shouldBe 1
+    pool.release(pooled)
+  }
+
+  it should "close a discarded client once its last user releases it" in {
+    val pool = newPool()
+    val pooled = pool.acquire("key")(new FakeClient)
+    pool.acquire("key")(new FakeClient)
+
+    pool.discard("key")(pooled)
+    pool.size shouldBe 0
+    pooled.client.closed shouldBe false
+
+    val replacement = pool.acquire("key")(new FakeClient)
+    replacement should not be theSameInstanceAs(pooled)
+
+    pool.release(pooled)
+    pooled.client.closed shouldBe true
+    replacement.client.closed shouldBe false
+  }
+
+  it should "replace the clients which fail their health check" in {
+    val pool = new ClientPool[String, FakeClient](_.closed = true, _ => false)
+    val pooled = pool.acquire("key")(new FakeClient)
+    pool.release(pooled)
+    pooled.lastUsed = 0
+
+    val replacement = pool.acquire("key")(new FakeClient)
+    replacement should not be theSameInstanceAs(pooled)
+    pooled.client.closed shouldBe true
+    replacement.nUsers shouldBe 1
+  }
+
+}
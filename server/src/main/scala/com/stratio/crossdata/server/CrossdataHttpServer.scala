@@ -24,15 +24,15 @@ import akka.actor.{ActorRef, ActorSystem}
 import akka.pattern.ask
 import akka.cluster.pubsub.DistributedPubSub
 import akka.cluster.pubsub.DistributedPubSubMediator.{Publish, SendToAll}
-import akka.http.scaladsl.common.EntityStreamingSupport
 import akka.http.scaladsl.model._
 import akka.http.scaladsl.model.Multipart.BodyPart
 import akka.http.scaladsl.server.Directive
 import akka.http.scaladsl.server.Directives._
 import akka.stream.ActorMaterializer
-import akka.stream.scaladsl.{FileIO, Flow, Source}
+import akka.stream.scaladsl.{FileIO, Source}
 import akka.util.{ByteString, Timeout}
 import com.stratio.crossdata.common.security.Session
+import com.stratio.crossdata.common.serializers.{ColumnarResultCodec, RowCodec}
 import com.stratio.crossdata.common.util.akka.keepalive.LiveMan.HeartBeat
 import com.stratio.crossdata.common._
 import com.stratio.crossdata.common.result._
@@ -41,6 +41,7 @@ import com.stratio.crossdata.server.config.ServerConfig
 import com.stratio.crossdata.util.HdfsUtils
 import com.typesafe.config.{Config, ConfigException}
 import org.apache.log4j.Logger
+import org.apache.spark.sql.Row
 import org.apache.spark.sql.crossdata.XDContext
 import org.apache.spark.sql.crossdata.serializers.CrossdataSerializer
 import org.apache.spark.sql.types.StructType
@@ -136,6 +137,18 @@ class CrossdataHttpServer(config: Config, serverActor: ActorRef, implicit val sy
 
               onSuccess(serverActor ? rq) {
                 case qcr: QueryCancelledReply => complete(qcr)
+                case reply: SQLReply => complete(StatusCodes.InternalServerError -> reply) // The query isn't running
+              }
+
+            case _: OpenCursorCommand | _: FetchCursorCommand | _: CloseCursorCommand => // Cursor commands
+
+              onComplete(serverActor ? rq) {
+                case Success(reply: SQLReply) =>
+                  complete(StatusCodes.InternalServerError -> reply)
+                case Success(reply: ServerReply) =>
+                  complete(reply)
+                case other =>
+                  completeWithErrorResult(s"Internal XD server error: $other")
               }
 
             case _ =>                       // SQL Commands
@@ -149,20 +162,10 @@ class CrossdataHttpServer(config: Config, serverActor: ActorRef, implicit val sy
                   reply match {
 
                     case SQLReply(_, SuccessfulSQLResult(resultSet, schema)) =>
+                      completeWithResult(Source.fromIterator(() => resultSet.toIterator), schema)
 
-                      implicit val jsonStreamingSupport = EntityStreamingSupport.json()
-                        .withFramingRenderer(
-                          Flow[ByteString].intersperse(ByteString("\n"))
-                        )
-
-                      implicit val _: StructType = schema
-                      import InternalStreamedSuccessfulSQLResult._
-                      val responseStream: Source[InternalStreamedSuccessfulSQLResult, NotUsed] =
-                        Source.fromIterator(() => resultSet.toIterator).map(row =>
-                          row: InternalStreamedSuccessfulSQLResult
-                        ) prepend Source.single(schema)
-
-                      complete(responseStream)
+                    case SQLReply(_, StreamedSuccessfulSQLResult(rowsSource, schema)) =>
+                      completeWithResult(rowsSource, schema)
 
                     case _ => complete(StatusCodes.InternalServerError -> reply)
 
@@ -199,6 +202,51 @@ class CrossdataHttpServer(config: Config, serverActor: ActorRef, implicit val sy
 
   lazy val route = withRequestTimeout(requestExecutionTimeout)(routeAPI)
 
+  private val ColumnarMediaType =
+    MediaType.applicationBinary(ColumnarResultCodec.MediaSubType, MediaType.NotCompressible)
+
+  /**
+    * Serves a result using the binary columnar format when the client explicitly accepts it and the result schema
+    * can be represented by it. Otherwise, the result is served as a JSON stream.
+    */
+  private def completeWithResult(rows: Source[Row, NotUsed], schema: StructType) = extractRequest { request =>
+
+    val acceptsColumnar = request.header[headers.Accept].exists(_.mediaRanges.exists {
+      case MediaRange.One(mediaType, _) => mediaType == ColumnarMediaType
+      case _ => false
+    })
+
+    if (acceptsColumnar && ColumnarResultCodec.isSupported(schema))
+      completeWithColumnarStream(rows, schema)
+    else
+      completeWithRowsStream(rows, schema)
+  }
+
+  /**
+    * Serves a result as a stream of [[ColumnarResultCodec]] frames: The schema frame followed by row batches
+    * which are encoded as the client consumes the response.
+    */
+  private def completeWithColumnarStream(rows: Source[Row, NotUsed], schema: StructType) = {
+    val encodeBatch = ColumnarResultCodec.batchEncoder(schema)
+    val frames: Source[ByteString, NotUsed] =
+      rows.grouped(ColumnarResultCodec.DefaultBatchSize).map(encodeBatch) prepend
+        Source.single(ColumnarResultCodec.encodeSchema(schema))
+
+    complete(HttpResponse(entity = HttpEntity(ContentType(ColumnarMediaType), frames)))
+  }
+
+  /**
+    * Serves a result as a newline-delimited JSON stream: Its first element is the schema followed by the rows,
+    * these are pulled from `rows` and encoded by a schema-compiled [[RowCodec]] as the client consumes the response.
+    */
+  private def completeWithRowsStream(rows: Source[Row, NotUsed], schema: StructType) = {
+    val rowCodec = new RowCodec(schema)
+    val schemaFrame = ByteString(serialization.write(StreamedSchema(schema): InternalStreamedSuccessfulSQLResult))
+    val frames: Source[ByteString, NotUsed] = rows.map(rowCodec.writeStreamedRow) prepend Source.single(schemaFrame)
+
+    complete(HttpResponse(entity = HttpEntity(ContentTypes.`application/json`, frames.intersperse(ByteString("\n")))))
+  }
+
   //TODO: Remove this debugging tool when a minimal stable API has been reached
   /*val getRqEnt = extract[HttpRequest] { rqCtx =>
     rqCtx.request
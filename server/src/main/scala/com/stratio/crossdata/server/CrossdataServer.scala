@@ -33,6 +33,8 @@ import com.stratio.crossdata.common.util.akka.keepalive.KeepAliveMaster
 import com.stratio.crossdata.server.actors.{ResourceManagerActor, ServerActor}
 import com.stratio.crossdata.server.config.ServerConfig
 import com.stratio.crossdata.server.discovery.{ServiceDiscoveryConfigHelper => SDCH, ServiceDiscoveryHelper => SDH}
+import com.stratio.crossdata.server.results.ResultBuffers
+import com.stratio.crossdata.server.scheduler.QueryScheduler
 import com.typesafe.config.{Config, ConfigFactory}
 import org.apache.log4j.Logger
 import org.apache.spark.sql.crossdata
@@ -50,6 +52,8 @@ class CrossdataServer(sConfig: ServerConfig) extends ServiceDiscoveryProvider {
 
   private var system: Option[ActorSystem] = None
   private var bindingFuture: Option[Future[ServerBinding]] = None
+  private var querySchedulerOpt: Option[QueryScheduler] = None
+  private var resultBuffersOpt: Option[ResultBuffers] = None
 
   override protected lazy val serverConfig = sConfig.config
 
@@ -125,6 +129,14 @@ class CrossdataServer(sConfig: ServerConfig) extends ServiceDiscoveryProvider {
         }
       }
 
+      // Shared by all the server actors so that the admission limits apply to the whole server
+      val queryScheduler = QueryScheduler(sConfig)
+      querySchedulerOpt = Some(queryScheduler)
+
+      // Shared as well so that the memory budget for results applies to the whole server
+      val resultBuffers = ResultBuffers(sConfig)
+      resultBuffersOpt = Some(resultBuffers)
+
       val resizer = DefaultResizer(lowerBound = sConfig.minServerActorInstances, upperBound = sConfig.maxServerActorInstances)
       val serverActor = actorSystem.actorOf(
         RoundRobinPool(sConfig.minServerActorInstances, Some(resizer)).props(
@@ -132,7 +144,9 @@ class CrossdataServer(sConfig: ServerConfig) extends ServiceDiscoveryProvider {
             classOf[ServerActor],
             xdCluster,
             sessionProvider,
-            sConfig)),
+            sConfig,
+            queryScheduler,
+            resultBuffers)),
         sConfig.actorName)
 
       val clientMonitor = actorSystem.actorOf(KeepAliveMaster.props(serverActor), "client-monitor")
@@ -175,6 +189,8 @@ class CrossdataServer(sConfig: ServerConfig) extends ServiceDiscoveryProvider {
     */
   def stop(): Unit = {
 
+    querySchedulerOpt.foreach(_.shutdown())
+    resultBuffersOpt.foreach(_.shutdown())
     sessionProviderOpt.foreach(_.close())
     sessionProviderOpt.foreach(_.sc.stop())
 
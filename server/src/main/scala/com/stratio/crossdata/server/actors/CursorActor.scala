@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.server.actors
+
+import java.io.Closeable
+import java.util.UUID
+import java.util.concurrent.atomic.AtomicBoolean
+
+import akka.actor.{Actor, ActorRef, Props, ReceiveTimeout}
+import com.stratio.crossdata.common._
+import com.stratio.crossdata.common.result.{ErrorSQLResult, SuccessfulSQLResult}
+import com.stratio.crossdata.connector.CancellationToken
+import com.stratio.crossdata.server.actors.CursorActor._
+import com.stratio.crossdata.server.results.ResultBuffers
+import com.stratio.crossdata.server.scheduler.QueryScheduler
+import org.apache.log4j.Logger
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.crossdata.{XDContext, XDDataFrame}
+import org.apache.spark.sql.types.StructType
+
+import scala.collection.mutable.ArrayBuffer
+import scala.concurrent.{ExecutionContext, Future}
+import scala.concurrent.duration.FiniteDuration
+import scala.util.{Failure, Success, Try}
+
+object CursorActor {
+
+  def props(
+             xdContext: XDContext,
+             cursorId: UUID,
+             sessionId: UUID,
+             queryScheduler: QueryScheduler,
+             resultBuffers: ResultBuffers,
+             settings: Settings
+           ): Props =
+    Props(new CursorActor(xdContext, cursorId, sessionId, queryScheduler, resultBuffers, settings))
+
+  /**
+    * @param idleTimeout Cursors which haven't been requested anything for this time are closed.
+    * @param maxFetchSize Maximum number of rows returned by a fetch.
+    */
+  case class Settings(idleTimeout: FiniteDuration, maxFetchSize: Int)
+
+  /**
+    * Cursor command to be served to `requester`.
+    */
+  case class Request(envelope: CommandEnvelope, requester: ActorRef)
+
+  private case class Opened(rows: Iterator[Row], schema: StructType, request: Request)
+
+  private case class Fetched(rows: Array[Row], isLast: Boolean, request: Request)
+
+  private case class Failed(error: Throwable, request: Request)
+
+  private def close(rows: Iterator[Row]): Unit = rows match {
+    case closeable: Closeable => Try(closeable.close())
+    case _ =>
+  }
+
+}
+
+/**
+  * Server-side cursor: The query is executed through the server query scheduler and its result is drained into
+  * a result buffer (kept in memory up to its budget and spilled to local disk beyond it), which is served in chunks
+  * of rows as they are fetched. Thus, idle cursors don't hold any scheduler thread nor Spark job.
+  *
+  * The actor stops (releasing its buffer) when the last row is fetched, when it is closed and when it hasn't been
+  * used for [[CursorActor.Settings.idleTimeout]]. Stopping it while the query is still running cancels its Spark
+  * job group, which is identified by the cursor id.
+  */
+class CursorActor(
+                   xdContext: XDContext,
+                   cursorId: UUID,
+                   sessionId: UUID,
+                   queryScheduler: QueryScheduler,
+                   resultBuffers: ResultBuffers,
+                   settings: CursorActor.Settings
+                 ) extends Actor {
+
+  lazy val logger = Logger.getLogger(classOf[CursorActor])
+
+  private var rows: Option[Iterator[Row]] = None
+
+  // Query execution or fetch being run, the iterator can only be used by one of them at once.
+  private var runningTask: Option[Future[Any]] = None
+
+  private val stopped = new AtomicBoolean(false)
+
+  private val jobGroupId = cursorId.toString
+
+  override def preStart(): Unit = {
+    super.preStart()
+    context.setReceiveTimeout(settings.idleTimeout)
+  }
+
+  override def postStop(): Unit = {
+    stopped.set(true)
+    if (runningTask.isDefined && rows.isEmpty) CancellationToken.cancelJobGroup(xdContext.sparkContext, jobGroupId)
+    CancellationToken.unregister(jobGroupId)
+    val pendingRows = rows
+    runningTask match {
+      case Some(task) => task.onComplete(_ => pendingRows foreach CursorActor.close)(context.dispatcher)
+      case None => pendingRows foreach CursorActor.close
+    }
+    super.postStop()
+  }
+
+  override def receive: Receive = common orElse opening
+
+  private def opening: Receive = {
+    case request @ Request(CommandEnvelope(OpenCursorCommand(sql), _), _) if runningTask.isEmpty && rows.isEmpty =>
+      CancellationToken.register(jobGroupId)
+      runAtScheduler(request)(withinJobGroup {
+        val df = xdContext.sql(sql).asInstanceOf[XDDataFrame]
+        Opened(resultBuffers.fill(df.schema, df.toLocalIterator()).rows(), df.schema, request)
+      })
+
+    case Opened(iterator, schema, request) =>
+      runningTask = None
+      rows = Some(iterator)
+      request.requester ! CursorOpenedReply(request.envelope.cmd.requestId, cursorId, schema)
+      context.become(common orElse open(iterator, schema))
+  }
+
+  private def open(iterator: Iterator[Row], schema: StructType): Receive = {
+    case request @ Request(CommandEnvelope(FetchCursorCommand(_, maxRows), _), requester) =>
+      if (runningTask.isDefined) {
+        requester ! SQLReply(request.envelope.cmd.requestId, ErrorSQLResult(s"Cursor $cursorId is already being fetched"))
+      } else {
+        val nRows = if (maxRows > 0) math.min(maxRows, settings.maxFetchSize) else settings.maxFetchSize
+        run(request)(fetch(iterator, nRows, request))(context.dispatcher)
+      }
+
+    case Fetched(fetchedRows, isLast, request) =>
+      runningTask = None
+      request.requester ! CursorFetchReply(
+        request.envelope.cmd.requestId, cursorId, SuccessfulSQLResult(fetchedRows, schema), isLast
+      )
+      if (isLast) context.stop(self)
+  }
+
+  private def common: Receive = {
+    // Sent by the driver straight to this actor
+    case envelope: CommandEnvelope =>
+      self forward Request(envelope, envelope.session.clientRef getOrElse sender)
+
+    case Request(envelope, requester) if envelope.session.id != sessionId =>
+      requester ! SQLReply(envelope.cmd.requestId, ErrorSQLResult(s"Unknown cursor $cursorId"))
+
+    case Request(envelope @ CommandEnvelope(_: CloseCursorCommand, _), requester) =>
+      requester ! CursorClosedReply(envelope.cmd.requestId, cursorId)
+      context.stop(self)
+
+    case Failed(error, request) =>
+      logger.warn(s"Cursor $cursorId failed", error)
+      runningTask = None
+      request.requester ! SQLReply(request.envelope.cmd.requestId, ErrorSQLResult(error.getMessage))
+      context.stop(self)
+
+    case ReceiveTimeout if runningTask.isEmpty =>
+      logger.info(s"Closing cursor $cursorId after ${settings.idleTimeout} without being used")
+      context.stop(self)
+  }
+
+  private def fetch(iterator: Iterator[Row], maxRows: Int, request: Request): Fetched = {
+    val buffer = new ArrayBuffer[Row](math.min(maxRows, 1024))
+    while (buffer.length < maxRows && iterator.hasNext) buffer += iterator.next()
+    Fetched(buffer.toArray, !iterator.hasNext, request)
+  }
+
+  private def withinJobGroup[T](task: => T): T = {
+    val sparkContext = xdContext.sparkContext
+    sparkContext.setJobGroup(jobGroupId, s"Cursor $cursorId", interruptOnCancel = true)
+    try {
+      CancellationToken.current(sparkContext).throwIfCancelled()
+      task
+    } finally {
+      sparkContext.clearJobGroup()
+    }
+  }
+
+  private def runAtScheduler(request: Request)(task: => Any): Unit =
+    queryScheduler.reserve(sessionId) match {
+      case Some(executionSlot) =>
+        executionSlot.onRejected(self ! Failed(new RuntimeException(QueryScheduler.ServerBusyMessage), request))
+        run(request)(task)(executionSlot)
+
+      case None =>
+        request.requester ! SQLReply(request.envelope.cmd.requestId, ErrorSQLResult(QueryScheduler.ServerBusyMessage))
+        context.stop(self)
+    }
+
+  private def run(request: Request)(task: => Any)(executor: ExecutionContext): Unit = {
+    val future = Future(task)(executor)
+    runningTask = Some(future)
+    future.onComplete {
+      case Success(Opened(iterator, _, _)) if stopped.get => CursorActor.close(iterator)
+      case Success(result) => self ! result
+      case Failure(error) => self ! Failed(error, request)
+    }(context.dispatcher)
+  }
+
+}
@@ -16,19 +16,29 @@
 package com.stratio.crossdata.server.actors
 
 import java.util.UUID
-import java.util.concurrent.{CancellationException, Executor}
+import java.util.concurrent.CancellationException
+import java.util.concurrent.atomic.AtomicBoolean
 
-import akka.actor.{Actor, ActorRef, Props}
+import akka.NotUsed
+import akka.actor.{Actor, ActorRef, Props, ReceiveTimeout}
+import akka.stream.ActorMaterializer
+import akka.stream.scaladsl.{Sink, SinkQueue, Source}
 import com.stratio.common.utils.concurrent.Cancellable
-import com.stratio.crossdata.common.result.{ErrorSQLResult, SuccessfulSQLResult}
-import com.stratio.crossdata.common.{QueryCancelledReply, SQLCommand, SQLReply}
+import com.stratio.crossdata.common.result.{ErrorSQLResult, SQLResult, StreamedSuccessfulSQLResult, SuccessfulSQLResult}
+import com.stratio.crossdata.common._
+import com.stratio.crossdata.connector.CancellationToken
 import com.stratio.crossdata.server.actors.JobActor.Commands.{CancelJob, GetJobStatus, StartJob}
-import com.stratio.crossdata.server.actors.JobActor.Events.{JobCompleted, JobFailed}
-import com.stratio.crossdata.server.actors.JobActor.{ProlificExecutor, Task}
+import com.stratio.crossdata.server.actors.JobActor.Events.{JobCompleted, JobFailed, JobRejected, PagesReady}
+import com.stratio.crossdata.server.actors.JobActor.{ResultPages, Task}
+import com.stratio.crossdata.server.results.{ResultBuffer, ResultBuffers}
+import com.stratio.crossdata.server.scheduler.QueryScheduler
+import com.stratio.crossdata.server.scheduler.QueryScheduler.ExecutionSlot
 import org.apache.log4j.Logger
+import org.apache.spark.sql.Row
 import org.apache.spark.sql.crossdata.{XDContext, XDDataFrame, XDSession}
+import org.apache.spark.sql.types.StructType
 
-import scala.concurrent.duration.FiniteDuration
+import scala.concurrent.duration.{Duration, FiniteDuration}
 import scala.concurrent.{ExecutionContext, ExecutionException}
 import scala.util.{Failure, Success}
 
@@ -49,6 +59,8 @@ object JobActor {
   object Events {
     case object JobCompleted extends JobEvent
     case class JobFailed(err: Throwable) extends JobEvent
+    case object JobRejected extends JobEvent
+    case class PagesReady(rowsSource: Source[Row, NotUsed], schema: StructType) extends JobEvent
   }
 
   object Commands {
@@ -64,13 +76,19 @@ object JobActor {
 
   case class Task(command: SQLCommand, requester: ActorRef, timeout: Option[FiniteDuration])
 
+  /**
+    * Paged result being served to the requester.
+    * @param queue pages which haven't been requested yet.
+    */
+  case class ResultPages(queue: SinkQueue[Seq[Row]], schema: StructType)
 
   /**
     * The [[JobActor]] state is directly given by the running task which can be: None (Idle st) or a Running, Completed,
     * Cancelled or Failed task.
     * @param runningTask [[Cancellable]] wrapping a [[scala.concurrent.Future]] which acts as a Spark driver.
+    * @param pages Pages pending to be pulled by the requester when the command asked for a paged result.
     */
-  case class State(runningTask: Option[Cancellable[SQLReply]]) {
+  case class State(runningTask: Option[Cancellable[SQLReply]], pages: Option[ResultPages] = None) {
     import JobStatus._
     def getStatus: JobStatus = runningTask map { task =>
       task.future.value map {
@@ -81,19 +99,27 @@ object JobActor {
     } getOrElse Idle
   }
 
-  def props(xdSession: XDSession, command: SQLCommand, requester: ActorRef, timeout: Option[FiniteDuration]): Props =
-    Props(new JobActor(xdSession, Task(command, requester, timeout)))
+  def props(
+             xdSession: XDSession,
+             command: SQLCommand,
+             requester: ActorRef,
+             timeout: Option[FiniteDuration],
+             executionSlot: ExecutionSlot,
+             resultBuffers: ResultBuffers,
+             pagesIdleTimeout: FiniteDuration
+           ): Props =
+    Props(new JobActor(xdSession, Task(command, requester, timeout), executionSlot, resultBuffers, pagesIdleTimeout))
 
-  /**
-    * Executor class which runs each command in a brand new thread each time
-    */
-  class ProlificExecutor extends Executor { override def execute(command: Runnable): Unit = new Thread(command) start }
+  val DefaultPageSize = 1000
 
 }
 
 class JobActor(
                 val xdContext: XDContext,
-                val task: Task
+                val task: Task,
+                val executionSlot: ExecutionSlot,
+                val resultBuffers: ResultBuffers,
+                val pagesIdleTimeout: FiniteDuration
               ) extends Actor {
 
 
@@ -104,6 +130,34 @@ class JobActor(
 
   lazy val logger = Logger.getLogger(classOf[ServerActor])
 
+  // Bound to this actor so that a paged result which is not completely consumed gets cancelled when the job dies
+  private lazy val materializer = ActorMaterializer()(context)
+
+  override def preStart(): Unit = {
+    super.preStart()
+    executionSlot.onRejected(self ! JobRejected)
+  }
+
+  /* Buffer holding the streamed result: Once its stream is run, the stream owns it (releasing it when it terminates)
+      so that the requester can go on reading it after this job has finished. Paged results are the exception as
+      this actor consumes their stream. */
+  @volatile private var resultBuffer: Option[ResultBuffer] = None
+
+  private val stopped = new AtomicBoolean(false)
+
+  // The Spark jobs, and the native executions, of the query are run within its own job group
+  private val jobGroupId = command.queryId.toString
+
+  override def postStop(): Unit = {
+    stopped.set(true)
+    executionSlot.release() // The job might have never been launched
+    CancellationToken.unregister(jobGroupId)
+    resultBuffer foreach { buffer =>
+      if (command.pageSize.isDefined) buffer.close() else buffer.closeUnlessRead()
+    }
+    super.postStop()
+  }
+
   override def receive: Receive = receive(State(None))
 
 
@@ -116,8 +170,11 @@ class JobActor(
 
       import context.dispatcher
 
+      CancellationToken.register(jobGroupId)
       val runningTask = launchTask
       runningTask.future onComplete {
+        case Success(SQLReply(_, StreamedSuccessfulSQLResult(rowsSource, schema))) if command.pageSize.isDefined =>
+          self ! PagesReady(rowsSource, schema)
         case Success(queryRes) =>
           requester ! queryRes
           self ! JobCompleted
@@ -132,51 +189,139 @@ class JobActor(
       val isRunning = runningTask.future.value.isEmpty
 
       timeout.filter(_ => isRunning).foreach {
-        context.system.scheduler.scheduleOnce(_, self, CancelJob)
+        context.system.scheduler.scheduleOnce(_, self, CancelJob(self, None))
       }
 
       context.become(receive(st.copy(runningTask = Some(runningTask))))
 
     case CancelJob(cancellationRequester, cancelRequestId) =>
-      st.runningTask.foreach{ tsk =>
-        logger.debug(s"Cancelling ${self.path}'s task ")
-        import context.dispatcher
-        cancelRequestId foreach { cancelRqId =>
-          tsk.future onFailure { case _: CancellationException =>
-            cancellationRequester ! QueryCancelledReply(command.requestId, cancelRqId)
+      st.runningTask match {
+        case Some(tsk) =>
+          logger.debug(s"Cancelling ${self.path}'s task ")
+          import context.dispatcher
+          cancelRequestId foreach { cancelRqId =>
+            tsk.future onComplete {
+              case Failure(_: CancellationException) =>
+                cancellationRequester ! QueryCancelledReply(command.requestId, cancelRqId)
+              case _ => // The task had already completed
+                cancellationRequester ! ServerActor.queryNotRunningReply(cancelRqId, command.queryId)
+            }
+          }
+          tsk.cancel()
+          CancellationToken.cancelJobGroup(xdContext.sparkContext, jobGroupId)
+        case None =>
+          cancelRequestId foreach { cancelRqId =>
+            cancellationRequester ! ServerActor.queryNotRunningReply(cancelRqId, command.queryId)
           }
-        }
-        tsk.cancel()
       }
 
+    case RequestResultPage(queryRequestId) if queryRequestId == command.requestId =>
+      st.pages foreach sendNextPage
+
+    case ReleaseResultPages(queryRequestId) if queryRequestId == command.requestId && st.pages.isDefined =>
+      discardPages(st, s"Discarding the result of ${command.requestId}: Released by the requester")
+
     case GetJobStatus =>
       sender ! st.getStatus
 
     // Events
 
+    case PagesReady(rowsSource, schema) if sender == self =>
+      val pageSize = command.pageSize.filter(_ > 0).getOrElse(JobActor.DefaultPageSize)
+      val queue = rowsSource.grouped(pageSize).runWith(Sink.queue[Seq[Row]]())(materializer)
+      val pages = ResultPages(queue, schema)
+      sendNextPage(pages) // The first page is pushed without waiting for the requester to ask for it
+      context.setReceiveTimeout(pagesIdleTimeout) // Requesters might stop asking for pages
+      context.become(receive(st.copy(pages = Some(pages))))
+
+    case ReceiveTimeout if st.pages.isDefined =>
+      discardPages(st, s"Discarding the result of ${command.requestId}: No page requested for $pagesIdleTimeout")
+
     case event @ JobFailed(e) if sender == self =>
       logger.debug(s"Task failed at ${self.path}")
       context.parent ! event
       requester ! SQLReply(command.requestId, ErrorSQLResult(e.getMessage, Some(new Exception(e.getMessage))))
       throw e //Let It Crash: It'll be managed by its supervisor
 
+    case JobRejected if sender == self =>
+      logger.debug(s"Task rejected at ${self.path}")
+      requester ! SQLReply(command.requestId, ErrorSQLResult(QueryScheduler.ServerBusyMessage))
+      context.parent ! JobCompleted
+
     case msg @ JobCompleted if sender == self =>
       logger.debug(s"Completed or cancelled ${self.path} task")
+      context.setReceiveTimeout(Duration.Undefined)
       context.parent ! msg
   }
 
+  private def discardPages(st: State, reason: String): Unit = {
+    logger.info(reason)
+    context.setReceiveTimeout(Duration.Undefined)
+    resultBuffer.foreach(_.close())
+    context.become(receive(st.copy(pages = None)))
+    self ! JobCompleted
+  }
+
+  private def sendNextPage(pages: ResultPages): Unit = {
+    import context.dispatcher
+    pages.queue.pull() onComplete {
+      case Success(Some(rows)) =>
+        requester ! ResultPage(command.requestId, rows.toArray, pages.schema, isLast = false, self)
+      case Success(None) =>
+        requester ! ResultPage(command.requestId, Array.empty, pages.schema, isLast = true, self)
+        self ! JobCompleted
+      case Failure(reason) =>
+        self ! JobFailed(reason)
+    }
+  }
+
   private def launchTask: Cancellable[SQLReply] = {
 
-    implicit val _: ExecutionContext = ExecutionContext.fromExecutor(new ProlificExecutor)
+    // The task waits at the server query scheduler until one of its threads can run it
+    implicit val _: ExecutionContext = executionSlot
+
+    Cancellable(withinJobGroup {
+      val df = xdContext.sql(command.sql).asInstanceOf[XDDataFrame] //TODO: Replace this cast by an implicit conversion
+
+      val result: SQLResult = if (command.flattenResults)
+        SuccessfulSQLResult(df.flattenedCollect(), df.schema)
+      else if (isLocalRequester || command.pageSize.isDefined) {
+        /* Requesters living in this JVM (e.g: the HTTP server) consume the result as a stream, so it doesn't
+            need to be materialized at the server heap: The rows are drained into a result buffer, which spills
+            them to local disk beyond its memory budget, and streamed from there. Thus, the Spark jobs are run
+            within the execution slot regardless of how fast the requester consumes the rows. Paged results are
+            produced from this stream as the requester asks for them. */
+        val buffer = resultBuffers.fill(df.schema, df.toLocalIterator())
+        resultBuffer = Some(buffer)
+        if (stopped.get) { // The job has been stopped (e.g: cancelled) while the result was being buffered
+          buffer.close()
+          throw new CancellationException("The job was stopped before its result was buffered")
+        }
+        StreamedSuccessfulSQLResult(buffer.source, df.schema)
+      } else SuccessfulSQLResult(df.collect(), df.schema)
 
-    Cancellable {
-      val df = xdContext.sql(command.sql)
-      val rows = if (command.flattenResults)
-        df.asInstanceOf[XDDataFrame].flattenedCollect() //TODO: Replace this cast by an implicit conversion
-      else df.collect()
+      SQLReply(command.requestId, result)
+    })
+  }
 
-      SQLReply(command.requestId, SuccessfulSQLResult(rows, df.schema))
+  /**
+    * Runs the task within the query job group so that cancelling it also cancels its Spark jobs (interrupting
+    * their running tasks) and its native executions. The group is cleared as scheduler threads are reused.
+    */
+  private def withinJobGroup[T](task: => T): T = {
+    val sparkContext = xdContext.sparkContext
+    sparkContext.setJobGroup(jobGroupId, command.sql, interruptOnCancel = true)
+    try {
+      CancellationToken.current(sparkContext).throwIfCancelled() // Cancelled while waiting at the scheduler
+      task
+    } finally {
+      sparkContext.clearJobGroup()
     }
   }
 
+  /**
+    * Streamed results can't be serialized so they can only be sent to requesters within the local actor system.
+    */
+  private def isLocalRequester: Boolean = requester.path.address.hasLocalScope
+
 }
@@ -29,6 +29,8 @@ import com.stratio.crossdata.common.{CommandEnvelope, SQLCommand, _}
 import com.stratio.crossdata.server.actors.JobActor.Commands.{CancelJob, StartJob}
 import com.stratio.crossdata.server.actors.JobActor.Events.{JobCompleted, JobFailed}
 import com.stratio.crossdata.server.config.ServerConfig
+import com.stratio.crossdata.server.results.ResultBuffers
+import com.stratio.crossdata.server.scheduler.QueryScheduler
 import org.apache.log4j.Logger
 import org.apache.spark.sql.crossdata.session.{HazelcastSessionProvider, XDSessionProvider}
 import org.apache.spark.sql.types.StructType
@@ -41,11 +43,19 @@ import scala.util.{Failure, Success}
 object ServerActor {
   val ManagementTopic: String = "jobsManagement"
 
-  def props(cluster: Cluster, sessionProvider: XDSessionProvider, serverConfig: ServerConfig): Props =
-    Props(new ServerActor(cluster, sessionProvider, serverConfig))
+  def props(
+             cluster: Cluster,
+             sessionProvider: XDSessionProvider,
+             serverConfig: ServerConfig,
+             queryScheduler: QueryScheduler,
+             resultBuffers: ResultBuffers
+           ): Props =
+    Props(new ServerActor(cluster, sessionProvider, serverConfig, queryScheduler, resultBuffers))
 
   case class JobId(sessionId: UUID, queryId: UUID)
 
+  case class CursorId(sessionId: UUID, cursorId: UUID)
+
   private case class ManagementEnvelope(command: ControlCommand, source: ActorRef)
 
   private object ManagementMessages {
@@ -56,13 +66,25 @@ object ServerActor {
 
   }
 
-  private case class State(jobsById: Map[JobId, ActorRef])
+  private case class State(jobsById: Map[JobId, ActorRef], cursorsById: Map[CursorId, ActorRef] = Map.empty)
+
+  /**
+    * Answer to the cancellation of a query which has already completed or has never been run, so that the requester
+    * doesn't wait for a [[QueryCancelledReply]] which won't ever come.
+    */
+  private[actors] def queryNotRunningReply(cancelRequestId: UUID, queryId: UUID): SQLReply =
+    SQLReply(cancelRequestId, ErrorSQLResult(s"The query $queryId is not running: It has already completed or it is unknown"))
 
 }
 
 // TODO it should only accept messages from known sessions
-class ServerActor(cluster: Cluster, sessionProvider: XDSessionProvider, serverConfig: ServerConfig)
-  extends Actor {
+class ServerActor(
+                   cluster: Cluster,
+                   sessionProvider: XDSessionProvider,
+                   serverConfig: ServerConfig,
+                   queryScheduler: QueryScheduler,
+                   resultBuffers: ResultBuffers
+                 ) extends Actor {
 
   import ServerActor.ManagementMessages._
   import ServerActor._
@@ -105,16 +127,26 @@ class ServerActor(cluster: Cluster, sessionProvider: XDSessionProvider, serverCo
     */
 
   private def executeAccepted(cmd: CommandEnvelope, requester: ActorRef)(st: State): Unit = cmd match {
-    case CommandEnvelope(sqlCommand@SQLCommand(query, queryId, withColnames, timeout), session@Session(id, _)) =>
+    case CommandEnvelope(sqlCommand@SQLCommand(query, queryId, withColnames, timeout, _), session@Session(id, _)) =>
       logger.debug(s"Query received $queryId: $query. Actor ${self.path.toStringWithoutAddress}")
       logger.debug(s"Session identifier $session")
       sessionProvider.session(id) match {
         case Success(xdSession) =>
-          val jobActor = context.actorOf(JobActor.props(xdSession, sqlCommand, requester, timeout))
-          jobActor ! StartJob
-          context.become(
-            ready(st.copy(jobsById = st.jobsById + (JobId(id, sqlCommand.queryId) -> jobActor)))
-          )
+          queryScheduler.reserve(id) match {
+            case Some(executionSlot) =>
+              val jobActor = context.actorOf(
+                JobActor.props(
+                  xdSession, sqlCommand, requester, timeout, executionSlot, resultBuffers, serverConfig.pagesIdleTimeout
+                )
+              )
+              jobActor ! StartJob
+              context.become(
+                ready(st.copy(jobsById = st.jobsById + (JobId(id, sqlCommand.queryId) -> jobActor)))
+              )
+
+            case None => // Overloaded server: The query is rejected instead of piling up more Spark drivers
+              requester ! SQLReply(sqlCommand.requestId, ErrorSQLResult(QueryScheduler.ServerBusyMessage))
+          }
 
         case Failure(error) =>
           logger.warn(s"Received message with an unknown sessionId $id", error)
@@ -132,9 +164,45 @@ class ServerActor(cluster: Cluster, sessionProvider: XDSessionProvider, serverCo
         sender ! SQLReply(addAppCommand.requestId, ErrorSQLResult("App can't be stored in the catalog"))
 
     case CommandEnvelope(cc@CancelQueryExecution(queryId), session@Session(id, Some(cancellationRequester))) =>
-      st.jobsById(JobId(id, queryId)) ! CancelJob(cancellationRequester, Some(cc.requestId))
+      st.jobsById.get(JobId(id, queryId)) map {
+        _ ! CancelJob(cancellationRequester, Some(cc.requestId))
+      } getOrElse {
+        cancellationRequester ! ServerActor.queryNotRunningReply(cc.requestId, queryId)
+      }
+  }
+
+  private def openCursor(cmd: CommandEnvelope, requester: ActorRef)(st: State): Unit = {
+    val sessionId = cmd.session.id
+    sessionProvider.session(sessionId) match {
+      case Success(_) if st.cursorsById.keys.count(_.sessionId == sessionId) >= serverConfig.cursorsMaxPerSession =>
+        requester ! SQLReply(
+          cmd.cmd.requestId,
+          ErrorSQLResult(s"Too many open cursors: up to ${serverConfig.cursorsMaxPerSession} cursors per session")
+        )
+
+      case Success(xdSession) =>
+        val cursorId = UUID.randomUUID()
+        val settings = CursorActor.Settings(serverConfig.cursorsIdleTimeout, serverConfig.cursorsMaxFetchSize)
+        val cursorActor = context.actorOf(CursorActor.props(xdSession, cursorId, sessionId, queryScheduler, resultBuffers, settings))
+        context.watch(cursorActor)
+        cursorActor ! CursorActor.Request(cmd, requester)
+        context.become(ready(st.copy(cursorsById = st.cursorsById + (CursorId(sessionId, cursorId) -> cursorActor))))
+
+      case Failure(error) =>
+        logger.warn(s"Received message with an unknown sessionId $sessionId", error)
+        requester ! SQLReply(
+          cmd.cmd.requestId,
+          ErrorSQLResult(s"Unable to recover the session $sessionId. Cause: ${error.getMessage}")
+        )
+    }
   }
 
+  private def forwardToCursor(cursorId: UUID, cmd: CommandEnvelope, requester: ActorRef)(st: State): Unit =
+    st.cursorsById.get(CursorId(cmd.session.id, cursorId)) match {
+      case Some(cursorActor) => cursorActor ! CursorActor.Request(cmd, requester)
+      case None => requester ! SQLReply(cmd.cmd.requestId, ErrorSQLResult(s"Unknown cursor $cursorId"))
+    }
+
 
   // Receive functions:
 
@@ -159,6 +227,17 @@ class ServerActor(cluster: Cluster, sessionProvider: XDSessionProvider, serverCo
     case sc@CommandEnvelope(_: SQLCommand, session) =>
       executeAccepted(sc, actualRequester(session.clientRef))(st)
 
+    case sc@CommandEnvelope(_: OpenCursorCommand, session) =>
+      openCursor(sc, actualRequester(session.clientRef))(st)
+
+    /* Cursors are owned by the server where they were opened: The HTTP server always talks to the same server actor
+        and the cluster client driver sends the cursor commands straight to the cursor actor. */
+    case sc@CommandEnvelope(FetchCursorCommand(cursorId, _), session) =>
+      forwardToCursor(cursorId, sc, actualRequester(session.clientRef))(st)
+
+    case sc@CommandEnvelope(CloseCursorCommand(cursorId), session) =>
+      forwardToCursor(cursorId, sc, actualRequester(session.clientRef))(st)
+
     /*case sc@CommandEnvelope(_: AddJARCommand, _, _) => //TODO Adapt Requester
       executeAccepted(sc)(st)
 
@@ -168,11 +247,19 @@ class ServerActor(cluster: Cluster, sessionProvider: XDSessionProvider, serverCo
 
     case sc@CommandEnvelope(cc: ControlCommand, session@Session(id, requesterOpt)) =>
         val requester = actualRequester(requesterOpt)
-      st.jobsById.get(JobId(id, cc.requestId)) map { _ =>
+      val jobId = cc match {
+        case CancelQueryExecution(queryId) => JobId(id, queryId)
+        case _ => JobId(id, cc.requestId)
+      }
+      st.jobsById.get(jobId) map { _ =>
         executeAccepted(sc, requester)(st) // Command validated to be executed by this server.
       } getOrElse {
-        // If it can't run here it should be executed somewhere else
-        mediator ! Publish(ManagementTopic, DelegateCommand(sc.copy(session = Session(id, Some(requester))), self))
+        cc match {
+          case cancel: CancelQueryExecution if cluster.state.members.size <= 1 => // No other server can be running it
+            requester ! ServerActor.queryNotRunningReply(cancel.requestId, cancel.queryId)
+          case _ => // If it can't run here it should be executed somewhere else
+            mediator ! Publish(ManagementTopic, DelegateCommand(sc.copy(session = Session(id, Some(requester))), self))
+        }
       }
 
     case sc@CommandEnvelope(_: ClusterStateCommand, session) => {
@@ -221,6 +308,9 @@ class ServerActor(cluster: Cluster, sessionProvider: XDSessionProvider, serverCo
     case FinishJob(who) =>
       context.become(ready(st.copy(jobsById = st.jobsById.filterNot(_._2 == who))))
       context.children.find(_ == who).foreach(gracefullyKill)
+
+    case Terminated(cursorActor) =>
+      context.become(ready(st.copy(cursorsById = st.cursorsById.filterNot(_._2 == cursorActor))))
   }
 
   // Manages clients' heartbeats losses, closing their sessions and stopping all jobs related to them.
@@ -245,7 +335,9 @@ class ServerActor(cluster: Cluster, sessionProvider: XDSessionProvider, serverCo
         false
       case _ => true
     }
-    context.become(ready(st.copy(jobsById = newjobsmap)))
+    val (sessionCursors, otherCursors) = st.cursorsById partition { case (CursorId(sid, _), _) => sid == sessionId }
+    sessionCursors.values foreach context.stop
+    context.become(ready(st.copy(jobsById = newjobsmap, cursorsById = otherCursors)))
     sessionProvider.closeSession(sessionId)
   }
 
@@ -18,6 +18,7 @@ package com.stratio.crossdata.server.config
 import java.io.File
 import java.util.concurrent.TimeUnit
 
+import com.stratio.crossdata.server.scheduler.QueryScheduler
 import com.typesafe.config.{Config, ConfigFactory, ConfigValueFactory}
 import org.apache.log4j.Logger
 import org.apache.spark.sql.crossdata.config.CoreConfig
@@ -52,6 +53,26 @@ object ServerConfig {
   // Job management settings
   val FinishedJobTTL = "config.jobs.finished.ttl_ms"
 
+  // Query execution scheduling
+  val SchedulerPoolSize = "config.scheduler.pool-size"
+  val SchedulerQueueDepth = "config.scheduler.queue-depth"
+  val SchedulerMaxRunningPerSession = "config.scheduler.max-running-per-session"
+  val SchedulerRejectionPolicy = "config.scheduler.rejection-policy"
+  val SchedulerFairShare = "config.scheduler.fair-share"
+
+  // Server-side cursors
+  val CursorsIdleTimeout = "config.cursors.idle-timeout"
+  val CursorsMaxPerSession = "config.cursors.max-per-session"
+  val CursorsMaxFetchSize = "config.cursors.max-fetch-size"
+
+  // Result buffers
+  val ResultsScratchDir = "config.results.scratch-dir"
+  val ResultsMaxMemoryPerQuery = "config.results.max-memory-per-query"
+  val ResultsMaxMemory = "config.results.max-memory"
+  val ResultsMaxDiskPerQuery = "config.results.max-disk-per-query"
+  val ResultsMaxDisk = "config.results.max-disk"
+  val ResultsPagesIdleTimeout = "config.results.pages-idle-timeout"
+
   // Host
   val Host = "akka.remote.netty.tcp.hostname"
 
@@ -81,6 +102,20 @@ object ServerConfig {
 
 
   val DefaultHTTPRequestExecutionTimeout = 4 hour
+
+  val DefaultSchedulerPoolSize = 16
+  val DefaultSchedulerQueueDepth = 256
+  val DefaultSchedulerMaxRunningPerSession = 8
+
+  val DefaultCursorsIdleTimeout = 10 minutes
+  val DefaultCursorsMaxPerSession = 8
+  val DefaultCursorsMaxFetchSize = 10000
+
+  val DefaultResultsMaxMemoryPerQuery: Long = 64L * 1024 * 1024
+  val DefaultResultsMaxMemory: Long = 512L * 1024 * 1024
+  val DefaultResultsMaxDiskPerQuery: Long = 8L * 1024 * 1024 * 1024
+  val DefaultResultsMaxDisk: Long = 32L * 1024 * 1024 * 1024
+  val DefaultResultsPagesIdleTimeout = 5 minutes
 }
 
 class ServerConfig(userConfig: Option[Config] = None) extends NumberActorConfig {
@@ -108,6 +143,45 @@ class ServerConfig(userConfig: Option[Config] = None) extends NumberActorConfig
 
   lazy val isHazelcastEnabled = config.getBoolean(ServerConfig.IsHazelcastProviderEnabledProperty)
 
+  lazy val schedulerPoolSize: Int =
+    Try(config.getInt(ServerConfig.SchedulerPoolSize)).getOrElse(ServerConfig.DefaultSchedulerPoolSize)
+  lazy val schedulerQueueDepth: Int =
+    Try(config.getInt(ServerConfig.SchedulerQueueDepth)).getOrElse(ServerConfig.DefaultSchedulerQueueDepth)
+  lazy val schedulerMaxRunningPerSession: Int =
+    Try(config.getInt(ServerConfig.SchedulerMaxRunningPerSession)).getOrElse(ServerConfig.DefaultSchedulerMaxRunningPerSession)
+  // A misspelled policy must not silently become the default one
+  lazy val schedulerRejectionPolicy: QueryScheduler.RejectionPolicy =
+    if (config.hasPath(ServerConfig.SchedulerRejectionPolicy))
+      QueryScheduler.RejectionPolicy(config.getString(ServerConfig.SchedulerRejectionPolicy))
+    else QueryScheduler.RejectionPolicy.Abort
+  lazy val schedulerFairShare: Boolean = Try(config.getBoolean(ServerConfig.SchedulerFairShare)).getOrElse(true)
+
+  lazy val cursorsIdleTimeout: FiniteDuration = extractDurationField(ServerConfig.CursorsIdleTimeout) match {
+    case d: FiniteDuration => d
+    case _ => ServerConfig.DefaultCursorsIdleTimeout
+  }
+  lazy val cursorsMaxPerSession: Int =
+    Try(config.getInt(ServerConfig.CursorsMaxPerSession)).getOrElse(ServerConfig.DefaultCursorsMaxPerSession)
+  lazy val cursorsMaxFetchSize: Int =
+    Try(config.getInt(ServerConfig.CursorsMaxFetchSize)).toOption.filter(_ > 0).getOrElse(ServerConfig.DefaultCursorsMaxFetchSize)
+
+  lazy val resultsScratchDir: File =
+    Try(config.getString(ServerConfig.ResultsScratchDir)).toOption.filter(_.nonEmpty) map (new File(_)) getOrElse {
+      new File(System.getProperty("java.io.tmpdir"))
+    }
+  lazy val resultsMaxMemoryPerQuery: Long =
+    Try(config.getBytes(ServerConfig.ResultsMaxMemoryPerQuery).longValue).getOrElse(ServerConfig.DefaultResultsMaxMemoryPerQuery)
+  lazy val resultsMaxMemory: Long =
+    Try(config.getBytes(ServerConfig.ResultsMaxMemory).longValue).getOrElse(ServerConfig.DefaultResultsMaxMemory)
+  lazy val resultsMaxDiskPerQuery: Long =
+    Try(config.getBytes(ServerConfig.ResultsMaxDiskPerQuery).longValue).getOrElse(ServerConfig.DefaultResultsMaxDiskPerQuery)
+  lazy val resultsMaxDisk: Long =
+    Try(config.getBytes(ServerConfig.ResultsMaxDisk).longValue).getOrElse(ServerConfig.DefaultResultsMaxDisk)
+  lazy val pagesIdleTimeout: FiniteDuration = extractDurationField(ServerConfig.ResultsPagesIdleTimeout) match {
+    case d: FiniteDuration => d
+    case _ => ServerConfig.DefaultResultsPagesIdleTimeout
+  }
+
   override val config: Config = {
 
     var defaultConfig = ConfigFactory.load(ServerConfig.ServerBasicConfig).getConfig(ServerConfig.ParentConfigName)
@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.server.results
+
+import java.io.{Closeable, File}
+import java.nio.channels.FileChannel
+import java.nio.channels.FileChannel.MapMode
+import java.nio.file.{Files, Path, StandardOpenOption}
+import java.nio.{ByteOrder, MappedByteBuffer}
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicLong}
+
+import akka.NotUsed
+import akka.stream.scaladsl.Source
+import akka.util.{ByteString, ByteStringBuilder}
+import com.stratio.crossdata.common.serializers.{ColumnarResultCodec, RowCodec}
+import com.stratio.crossdata.server.config.ServerConfig
+import org.apache.log4j.Logger
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.types.StructType
+
+import scala.annotation.tailrec
+import scala.collection.mutable
+import scala.util.Try
+
+object ResultBuffers {
+
+  /**
+    * @param scratchDir Local directory where the results exceeding their memory budget are spilled.
+    * @param maxMemoryPerResult Maximum number of (encoded) bytes of a result kept at the heap.
+    * @param maxMemory Maximum number of (encoded) bytes of all the results kept at the heap.
+    * @param maxDiskPerResult Maximum number of bytes of a result spilled to disk, results exceeding it fail.
+    * @param maxDisk Maximum number of bytes of all the results spilled to disk, results exceeding it fail.
+    * @param batchSize Number of rows encoded, stored and decoded together.
+    */
+  case class Settings(
+                       scratchDir: File,
+                       maxMemoryPerResult: Long,
+                       maxMemory: Long,
+                       maxDiskPerResult: Long = Long.MaxValue,
+                       maxDisk: Long = Long.MaxValue,
+                       batchSize: Int = 1024
+                     ) {
+    require(maxMemoryPerResult >= 0, "Result buffers memory per result shouldn't be negative")
+    require(maxMemory >= 0, "Result buffers memory shouldn't be negative")
+    require(maxDiskPerResult >= 0, "Result buffers disk per result shouldn't be negative")
+    require(maxDisk >= 0, "Result buffers disk shouldn't be negative")
+    require(batchSize > 0, "Result buffers batch size should be positive")
+  }
+
+  def apply(serverConfig: ServerConfig): ResultBuffers = new ResultBuffers(
+    Settings(
+      serverConfig.resultsScratchDir,
+      serverConfig.resultsMaxMemoryPerQuery,
+      serverConfig.resultsMaxMemory,
+      serverConfig.resultsMaxDiskPerQuery,
+      serverConfig.resultsMaxDisk
+    )
+  )
+
+  // Spilled batches are read through memory mapped windows of (at least) this size
+  private[results] val MapWindowSize: Int = 64 * 1024 * 1024
+
+}
+
+/**
+  * Storage for query results between their production by Spark and their consumption by the requester, so that
+  * the rows of big results (or of several results at once) don't need to be held by the server heap.
+  *
+  * Results are stored as compact binary batches (see [[ColumnarResultCodec]]) which are kept in memory up to
+  * a budget per result and a global budget. Once any of them is exhausted, the following batches of the result are
+  * spilled to a file in the scratch directory which is memory mapped to read them back. Spilled bytes are also
+  * limited per result and globally: Results which don't fit in them fail.
+  *
+  * Note that the space of a deleted spill file isn't given back by the file system until its mapped windows are
+  * garbage collected (the JVM doesn't provide any way of unmapping them), so the actual disk usage may temporarily
+  * exceed the disk budget.
+  *
+  * This class is thread-safe and it is meant to be shared by all the server actors of a server instance.
+  */
+class ResultBuffers(val settings: ResultBuffers.Settings) {
+
+  private val logger = Logger.getLogger(classOf[ResultBuffers])
+
+  private val usedMemory = new AtomicLong(0)
+  private val usedDisk = new AtomicLong(0)
+
+  private[results] lazy val scratchDir: Path = {
+    settings.scratchDir.mkdirs()
+    val dir = Files.createTempDirectory(settings.scratchDir.toPath, "crossdata-results-")
+    dir.toFile.deleteOnExit()
+    dir
+  }
+
+  /**
+    * Drains `rows` into a new buffer.
+    *
+    * @return The buffer, whose rows can be read once (see [[ResultBuffer#rows]]).
+    */
+  def fill(schema: StructType, rows: Iterator[Row]): ResultBuffer = {
+    val buffer = new ResultBuffer(schema, this)
+    try {
+      rows.grouped(settings.batchSize) foreach buffer.append
+      buffer
+    } catch {
+      case failure: Throwable =>
+        buffer.close()
+        throw failure
+    } finally {
+      rows match {
+        case closeable: Closeable => closeable.close()
+        case _ =>
+      }
+    }
+  }
+
+  def memoryInUse: Long = usedMemory.get
+
+  def diskInUse: Long = usedDisk.get
+
+  /**
+    * Deletes the scratch directory, it should only be called once the buffers are no longer used.
+    */
+  def shutdown(): Unit = Try {
+    Option(scratchDir.toFile.listFiles()).getOrElse(Array.empty) foreach (_.delete())
+    Files.deleteIfExists(scratchDir)
+  }
+
+  private[results] def tryReserve(bytes: Long): Boolean = tryReserve(usedMemory, settings.maxMemory, bytes)
+
+  private[results] def release(bytes: Long): Unit = usedMemory.addAndGet(-bytes)
+
+  private[results] def tryReserveDisk(bytes: Long): Boolean = tryReserve(usedDisk, settings.maxDisk, bytes)
+
+  private[results] def releaseDisk(bytes: Long): Unit = usedDisk.addAndGet(-bytes)
+
+  @tailrec
+  private def tryReserve(used: AtomicLong, max: Long, bytes: Long): Boolean = {
+    val current = used.get
+    if (current + bytes > max) false
+    else used.compareAndSet(current, current + bytes) || tryReserve(used, max, bytes)
+  }
+
+  private[results] def newSpillFile(): Path = {
+    val file = Files.createTempFile(scratchDir, "result-", ".bin")
+    logger.debug(s"Spilling result to $file")
+    file
+  }
+
+}
+
+/**
+  * Result written once (by [[ResultBuffers#fill]]) and read once. Its memory and its spill file are released
+  * when it is closed, which happens as soon as its reader is closed.
+  */
+class ResultBuffer private[results](val schema: StructType, owner: ResultBuffers) extends Closeable {
+
+  import ResultBuffers._
+
+  private val codec = BatchCodec(schema)
+
+  // Encoded batches (length prefix included), those kept at the heap come before the spilled ones
+  private val inMemory = mutable.Queue.empty[ByteString]
+  private var memoryBytes = 0L
+  private var spillFile: Option[Path] = None
+  private var spillChannel: Option[FileChannel] = None
+  private var spilledBytes = 0L
+
+  private val released = new AtomicBoolean(false)
+  private val reading = new AtomicBoolean(false)
+
+  def isSpilled: Boolean = spillFile.isDefined
+
+  /**
+    * @return The buffered rows, closing the iterator releases the buffer.
+    */
+  def rows(): Iterator[Row] with Closeable = {
+    require(reading.compareAndSet(false, true), "A result buffer can only be read once")
+    new BufferReader
+  }
+
+  /**
+    * Releases the buffer unless its rows are being, or have been, read: Their reader owns the buffer then.
+    * Once called, the rows can no longer be read.
+    */
+  def closeUnlessRead(): Unit = if (reading.compareAndSet(false, true)) close()
+
+  /**
+    * Stream of the buffered rows, the buffer is released when the stream terminates.
+    */
+  def source: Source[Row, NotUsed] =
+    Source.unfoldResource[Row, Iterator[Row] with Closeable](
+      () => rows(),
+      reader => if (reader.hasNext) Some(reader.next()) else None,
+      _.close()
+    )
+
+  override def close(): Unit = if (released.compareAndSet(false, true)) synchronized {
+    owner.release(memoryBytes)
+    owner.releaseDisk(spilledBytes)
+    memoryBytes = 0
+    inMemory.clear()
+    spillChannel foreach (channel => Try(channel.close()))
+    spillFile foreach (file => Try(Files.deleteIfExists(file)))
+  }
+
+  private[results] def append(batch: Seq[Row]): Unit = synchronized {
+    val frame = codec.encode(batch)
+    if (spillFile.isEmpty && memoryBytes + frame.length <= owner.settings.maxMemoryPerResult && owner.tryReserve(frame.length)) {
+      inMemory.enqueue(frame)
+      memoryBytes += frame.length
+    } else {
+      if (spilledBytes + frame.length > owner.settings.maxDiskPerResult)
+        throw new RuntimeException(
+          s"The result exceeds the disk budget per query (${owner.settings.maxDiskPerResult} bytes)"
+        )
+      if (!owner.tryReserveDisk(frame.length))
+        throw new RuntimeException(
+          s"The server is running out of disk for results (${owner.settings.maxDisk} bytes), try again later"
+        )
+      // Reserved bytes are accounted as spilled right away so that they are given back when the buffer is closed
+      spilledBytes += frame.length
+      val channel = spillChannel getOrElse openSpillChannel()
+      frame.asByteBuffers foreach { byteBuffer =>
+        while (byteBuffer.hasRemaining) channel.write(byteBuffer)
+      }
+    }
+  }
+
+  private def openSpillChannel(): FileChannel = {
+    val file = owner.newSpillFile()
+    val channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)
+    spillFile = Some(file)
+    spillChannel = Some(channel)
+    channel
+  }
+
+  private class BufferReader extends Iterator[Row] with Closeable {
+
+    private var currentBatch: Iterator[Row] = Iterator.empty
+    private var finished = false
+
+    private var window: Option[MappedByteBuffer] = None
+    private var windowStart = 0L
+    private var position = 0L
+
+    override def hasNext: Boolean = currentBatch.hasNext || !finished && {
+      nextBatch() match {
+        case Some(batch) => currentBatch = batch.iterator
+        case None => finished = true
+      }
+      hasNext
+    }
+
+    override def next(): Row = if (hasNext) currentBatch.next() else Iterator.empty.next()
+
+    override def close(): Unit = ResultBuffer.this.close()
+
+    private def nextBatch(): Option[Seq[Row]] = ResultBuffer.this.synchronized {
+      if (released.get) {
+        throw new IllegalStateException("The result buffer has been released before being completely read")
+      } else if (inMemory.nonEmpty) {
+        // Batches already read are given back to the memory budget
+        val frame = inMemory.dequeue()
+        memoryBytes -= frame.length
+        owner.release(frame.length)
+        Some(codec.decode(frame.drop(4)))
+      } else if (position < spilledBytes) {
+        val length = mapped(4).getInt
+        val frame = mapped(4 + length).duplicate()
+        frame.position(frame.position + 4)
+        frame.limit(frame.position + length)
+        position += 4 + length
+        Some(codec.decode(ByteString(frame)))
+      } else {
+        None
+      }
+    }
+
+    /**
+      * @return The mapped window positioned at the current position and having, at least, `nBytes` bytes.
+      */
+    private def mapped(nBytes: Int): MappedByteBuffer = {
+      val current = window filter (w => position + nBytes <= windowStart + w.limit())
+      val buffer = current getOrElse {
+        val size = math.min(spilledBytes - position, math.max(nBytes.toLong, MapWindowSize.toLong))
+        val newWindow = spillChannel.get.map(MapMode.READ_ONLY, position, size)
+        newWindow.order(ByteOrder.BIG_ENDIAN)
+        window = Some(newWindow)
+        windowStart = position
+        newWindow
+      }
+      buffer.position((position - windowStart).toInt)
+      buffer
+    }
+
+  }
+
+}
+
+/**
+  * Encodes batches of rows as length-prefixed frames: Columnar frames when the schema is supported by
+  * [[ColumnarResultCodec]] and a sequence of [[RowCodec]] rows otherwise.
+  */
+private[results] abstract class BatchCodec {
+  def encode(batch: Seq[Row]): ByteString
+
+  /**
+    * @param frame Frame without its length prefix.
+    */
+  def decode(frame: ByteString): Seq[Row]
+}
+
+private[results] object BatchCodec {
+
+  def apply(schema: StructType): BatchCodec =
+    if (ColumnarResultCodec.isSupported(schema)) new ColumnarBatchCodec(schema) else new RowsBatchCodec(schema)
+
+  private class ColumnarBatchCodec(schema: StructType) extends BatchCodec {
+    private val encoder = ColumnarResultCodec.batchEncoder(schema)
+    private val decoder = ColumnarResultCodec.batchDecoder(schema)
+
+    override def encode(batch: Seq[Row]): ByteString = encoder(batch)
+    override def decode(frame: ByteString): Seq[Row] = decoder(frame)
+  }
+
+  private class RowsBatchCodec(schema: StructType) extends BatchCodec {
+    private implicit val byteOrder = ByteOrder.BIG_ENDIAN
+    private val rowCodec = new RowCodec(schema)
+
+    override def encode(batch: Seq[Row]): ByteString = {
+      val body = new ByteStringBuilder
+      batch foreach { row =>
+        val bytes = rowCodec.writeStreamedRow(row)
+        body.putInt(bytes.length).append(bytes)
+      }
+      val content = body.result()
+      new ByteStringBuilder().putInt(content.length).append(content).result()
+    }
+
+    override def decode(frame: ByteString): Seq[Row] = {
+      val rows = mutable.ArrayBuffer.empty[Row]
+      var remaining = frame
+      while (remaining.nonEmpty) {
+        val length = remaining.iterator.getInt
+        rows += rowCodec.readStreamedRow(remaining.slice(4, 4 + length))
+        remaining = remaining.drop(4 + length)
+      }
+      rows
+    }
+  }
+
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.server.scheduler
+
+import java.util.UUID
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{ExecutorService, Executors, ThreadFactory}
+
+import com.stratio.crossdata.server.config.ServerConfig
+import org.apache.log4j.Logger
+
+import scala.collection.mutable
+import scala.concurrent.ExecutionContext
+
+object QueryScheduler {
+
+  val ServerBusyMessage = "Server busy: too many queries are being executed, try again later"
+
+  sealed trait RejectionPolicy
+
+  object RejectionPolicy {
+
+    /**
+      * New queries are rejected while the queue is full.
+      */
+    case object Abort extends RejectionPolicy
+
+    /**
+      * The oldest query waiting in the queue is rejected to make room for the new one.
+      */
+    case object DiscardOldest extends RejectionPolicy
+
+    def apply(name: String): RejectionPolicy = name.toLowerCase match {
+      case "abort" => Abort
+      case "discard-oldest" => DiscardOldest
+      case other => throw new IllegalArgumentException(s"Unknown query scheduler rejection policy: $other")
+    }
+  }
+
+  /**
+    * @param poolSize Number of threads acting as Spark drivers, that is, maximum number of queries running at once.
+    * @param queueDepth Maximum number of admitted queries waiting for a thread.
+    * @param maxRunningPerSession Maximum number of queries of a single session running at once.
+    * @param rejectionPolicy What to do when a query arrives and the queue is full.
+    * @param fairShare Whether free threads are given in turns to the sessions having waiting queries
+    *                  or to the oldest waiting query.
+    */
+  case class Settings(
+                       poolSize: Int,
+                       queueDepth: Int,
+                       maxRunningPerSession: Int,
+                       rejectionPolicy: RejectionPolicy,
+                       fairShare: Boolean
+                     ) {
+    require(poolSize > 0, "Query scheduler pool size should be positive")
+    require(queueDepth >= 0, "Query scheduler queue depth shouldn't be negative")
+    require(maxRunningPerSession > 0, "Query scheduler max running queries per session should be positive")
+  }
+
+  def apply(serverConfig: ServerConfig): QueryScheduler = new QueryScheduler(
+    Settings(
+      serverConfig.schedulerPoolSize,
+      serverConfig.schedulerQueueDepth,
+      serverConfig.schedulerMaxRunningPerSession,
+      serverConfig.schedulerRejectionPolicy,
+      serverConfig.schedulerFairShare
+    )
+  )
+
+  /**
+    * Admission granted to a query. Its job should be executed through the slot, acting as an [[ExecutionContext]],
+    * which will queue it until it can be run at the scheduler pool.
+    */
+  trait ExecutionSlot extends ExecutionContext {
+
+    def sessionId: UUID
+
+    /**
+      * Registers the action to be performed when the query gets rejected after its admission
+      * (see [[RejectionPolicy.DiscardOldest]]), its job won't be run in that case.
+      */
+    def onRejected(callback: => Unit): Unit
+
+    /**
+      * Gives the slot back when its job hasn't been executed, running or finished jobs release their slots
+      * by themselves.
+      */
+    def release(): Unit
+
+  }
+
+}
+
+/**
+  * Bounded pool of threads running queries as Spark drivers with admission control: The number of queries
+  * running at once and the number of queries waiting to be run are limited, both globally and by session.
+  * Queries which can't be admitted are rejected so the server degrades gracefully under overload.
+  *
+  * This scheduler is thread-safe and it is meant to be shared by all the server actors of a server instance.
+  */
+class QueryScheduler(val settings: QueryScheduler.Settings) {
+
+  import QueryScheduler._
+
+  private val logger = Logger.getLogger(classOf[QueryScheduler])
+
+  private val workers: ExecutorService = Executors.newFixedThreadPool(settings.poolSize, new ThreadFactory {
+    private val nThreads = new AtomicInteger(0)
+    override def newThread(r: Runnable): Thread = {
+      val thread = new Thread(r, s"crossdata-query-worker-${nThreads.incrementAndGet()}")
+      thread.setDaemon(true)
+      thread
+    }
+  })
+
+  // The following fields are guarded by `this`
+
+  // Sessions having admitted queries which are not running yet. Sessions are kept in turn order for fair share.
+  private val waiting = mutable.LinkedHashMap.empty[UUID, mutable.Queue[Slot]]
+  private val runningBySession = mutable.Map.empty[UUID, Int] withDefaultValue 0
+  private var nWaiting = 0
+  private var nRunning = 0
+  private var nextSequence = 0L
+
+  /**
+    * Tries to admit a new query.
+    * @return The slot where the query job should be executed or None if the server is too busy to admit it.
+    */
+  def reserve(sessionId: UUID): Option[ExecutionSlot] = {
+
+    val (admitted, discarded) = synchronized {
+
+      val discarded: Option[Slot] =
+        if (nWaiting + nRunning < settings.poolSize + settings.queueDepth) None
+        else settings.rejectionPolicy match {
+          case RejectionPolicy.DiscardOldest => oldestWaiting map { oldest =>
+            dequeue(oldest)
+            oldest.state = Rejected
+            oldest
+          }
+          case RejectionPolicy.Abort => None
+        }
+
+      val admitted = if (nWaiting + nRunning < settings.poolSize + settings.queueDepth) {
+        val slot = new Slot(sessionId, nextSequence)
+        nextSequence += 1
+        waiting.getOrElseUpdate(sessionId, mutable.Queue.empty) enqueue slot
+        nWaiting += 1
+        Some(slot)
+      } else {
+        logger.warn(s"Query of session $sessionId rejected: $nRunning running and $nWaiting waiting")
+        None
+      }
+
+      (admitted, discarded)
+    }
+
+    discarded foreach { slot =>
+      logger.warn(s"Query of session ${slot.sessionId} discarded from the queue to admit a new one")
+      slot.fireRejection()
+    }
+
+    admitted
+  }
+
+  def shutdown(): Unit = workers.shutdownNow()
+
+  private sealed trait SlotState
+  private case object Reserved extends SlotState
+  private case class Ready(job: Runnable) extends SlotState
+  private case object Running extends SlotState
+  private case object Finished extends SlotState
+  private case object Rejected extends SlotState
+
+  private class Slot(val sessionId: UUID, val sequence: Long) extends ExecutionSlot {
+
+    // Guarded by the scheduler instance
+    var state: SlotState = Reserved
+    private var rejectionCallback: Option[() => Unit] = None
+    private var rejectionFired = false
+
+    override def execute(runnable: Runnable): Unit = {
+      val currentState = QueryScheduler.this.synchronized {
+        val previous = state
+        if (previous == Reserved) state = Ready(runnable)
+        previous
+      }
+      currentState match {
+        case Reserved => dispatch()
+        case Rejected => // The job has been rejected so it won't be run
+        case _ => ExecutionContext.global.execute(runnable) // Callbacks registered by the job itself
+      }
+    }
+
+    override def reportFailure(cause: Throwable): Unit =
+      logger.error(s"Query of session $sessionId failed", cause)
+
+    override def onRejected(callback: => Unit): Unit = {
+      val fireNow = QueryScheduler.this.synchronized {
+        rejectionCallback = Some(() => callback)
+        state == Rejected
+      }
+      if (fireNow) fireRejection()
+    }
+
+    override def release(): Unit = {
+      val released = QueryScheduler.this.synchronized {
+        state match {
+          case Reserved | Ready(_) =>
+            dequeue(this)
+            state = Finished
+            true
+          case _ => false
+        }
+      }
+      if (released) dispatch()
+    }
+
+    def fireRejection(): Unit = {
+      val callback = QueryScheduler.this.synchronized {
+        if (rejectionFired) None
+        else {
+          rejectionFired = rejectionCallback.isDefined
+          rejectionCallback
+        }
+      }
+      callback.foreach(_())
+    }
+
+  }
+
+  private def oldestWaiting: Option[Slot] = {
+    val heads = waiting.values.flatMap(_.headOption)
+    if (heads.isEmpty) None else Some(heads.minBy(_.sequence))
+  }
+
+  private def dequeue(slot: Slot): Unit = waiting.get(slot.sessionId) foreach { sessionQueue =>
+    sessionQueue.dequeueFirst(_ eq slot) foreach (_ => nWaiting -= 1)
+    if (sessionQueue.isEmpty) waiting -= slot.sessionId
+  }
+
+  /**
+    * Hands over ready jobs to the pool threads while there are free threads.
+    */
+  private def dispatch(): Unit = {
+    val toRun = synchronized {
+      val selected = mutable.ListBuffer.empty[(Slot, Runnable)]
+      var next = nextReady
+      while (nRunning < settings.poolSize && next.isDefined) {
+        val (slot, job) = next.get
+        dequeue(slot)
+        slot.state = Running
+        nRunning += 1
+        runningBySession(slot.sessionId) += 1
+        if (settings.fairShare) waiting.remove(slot.sessionId).foreach(waiting.put(slot.sessionId, _)) // Next turn
+        selected += slot -> job
+        next = if (nRunning < settings.poolSize) nextReady else None
+      }
+      selected.toList
+    }
+
+    toRun foreach { case (slot, job) =>
+      workers.execute(new Runnable {
+        override def run(): Unit = try job.run() finally finished(slot)
+      })
+    }
+  }
+
+  private def nextReady: Option[(Slot, Runnable)] = {
+    val candidates = waiting.values.toList.flatMap(_.headOption) filter { slot =>
+      runningBySession(slot.sessionId) < settings.maxRunningPerSession
+    } flatMap { slot =>
+      slot.state match {
+        case Ready(job) => Some(slot -> job)
+        case _ => None
+      }
+    }
+    if (settings.fairShare || candidates.isEmpty) candidates.headOption
+    else Some(candidates.minBy(_._1.sequence))
+  }
+
+  private def finished(slot: Slot): Unit = {
+    synchronized {
+      slot.state = Finished
+      nRunning -= 1
+      runningBySession(slot.sessionId) -= 1
+      if (runningBySession(slot.sessionId) == 0) runningBySession -= slot.sessionId
+    }
+    dispatch()
+  }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.server.results
+
+import java.nio.file.Files
+
+import com.stratio.crossdata.server.results.ResultBuffers.Settings
+import com.stratio.crossdata.test.BaseXDTest
+import org.apache.spark.sql.Row
+import org.apache.spark.sql.types._
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class ResultBuffersSpec extends BaseXDTest {
+
+  val flatSchema = StructType(StructField("id", IntegerType) :: StructField("name", StringType) :: Nil)
+  val nestedSchema = StructType(StructField("id", IntegerType) :: StructField("tags", ArrayType(StringType)) :: Nil)
+
+  def flatRows(n: Int): Seq[Row] = (1 to n) map (i => Row(i, if (i % 3 == 0) null else s"name$i"))
+
+  "A ResultBuffer" should "keep small results in memory" in withBuffers(1024 * 1024, 1024 * 1024) { buffers =>
+    val buffer = buffers.fill(flatSchema, flatRows(100).iterator)
+
+    buffer.isSpilled shouldBe false
+    buffers.memoryInUse should be > 0L
+
+    val rows = buffer.rows()
+    rows.toList shouldBe flatRows(100)
+    rows.close()
+    buffers.memoryInUse shouldBe 0L
+  }
+
+  it should "spill the rows exceeding its memory budget and delete them once released" in
+    withBuffers(1024, 1024 * 1024) { buffers =>
+      val buffer = buffers.fill(flatSchema, flatRows(10000).iterator)
+
+      buffer.isSpilled shouldBe true
+      spillFiles(buffers) should have length 1
+
+      val rows = buffer.rows()
+      rows.toList shouldBe flatRows(10000)
+      rows.close()
+      spillFiles(buffers) shouldBe empty
+    }
+
+  it should "spill the rows exceeding the global memory budget" in withBuffers(1024 * 1024, 1024) { buffers =>
+    val buffer = buffers.fill(flatSchema, flatRows(10000).iterator)
+
+    buffer.isSpilled shouldBe true
+    buffers.memoryInUse should be <= 1024L
+
+    val rows = buffer.rows()
+    rows.toList shouldBe flatRows(10000)
+    rows.close()
+  }
+
+  it should "store the results of schemas unsupported by the columnar codec" in withBuffers(0, 0) { buffers =>
+    val expected = (1 to 3000) map (i => Row(i, Seq(s"tag$i", s"other$i")))
+    val buffer = buffers.fill(nestedSchema, expected.iterator)
+
+    val rows = buffer.rows()
+    rows.toList shouldBe expected
+    rows.close()
+  }
+
+  it should "only be read once" in withBuffers(1024, 1024) { buffers =>
+    val buffer = buffers.fill(flatSchema, flatRows(10).iterator)
+    buffer.rows()
+    an [IllegalArgumentException] should be thrownBy buffer.rows()
+    buffer.close()
+  }
+
+  it should "be left to its reader when it is released while being read" in withBuffers(1024 * 1024, 1024 * 1024) {
+    buffers =>
+      val unread = buffers.fill(flatSchema, flatRows(10).iterator)
+      unread.closeUnlessRead()
+      buffers.memoryInUse shouldBe 0L
+
+      val buffer = buffers.fill(flatSchema, flatRows(10).iterator)
+      val rows = buffer.rows()
+      buffer.closeUnlessRead()
+      rows.toList shouldBe flatRows(10)
+      rows.close()
+      buffers.memoryInUse shouldBe 0L
+  }
+
+  it should "fail when the result exceeds its disk budget" in withBuffers(0, 0, maxDiskPerResult = 1024) { buffers =>
+    val error = the [RuntimeException] thrownBy buffers.fill(flatSchema, flatRows(10000).iterator)
+    error.getMessage should include ("disk budget per query")
+    buffers.diskInUse shouldBe 0L
+    spillFiles(buffers) shouldBe empty
+  }
+
+  it should "fail when the results exceed the global disk budget" in withBuffers(0, 0, maxDisk = 1024) { buffers =>
+    a [RuntimeException] should be thrownBy buffers.fill(flatSchema, flatRows(10000).iterator)
+    buffers.diskInUse shouldBe 0L
+  }
+
+  private def spillFiles(buffers: ResultBuffers) = buffers.scratchDir.toFile.listFiles().toSeq
+
+  private def withBuffers(
+                           maxMemoryPerResult: Long,
+                           maxMemory: Long,
+                           maxDiskPerResult: Long = Long.MaxValue,
+                           maxDisk: Long = Long.MaxValue
+                         )(test: ResultBuffers => Unit): Unit = {
+    val scratchDir = Files.createTempDirectory("result-buffers-spec").toFile
+    val buffers = new ResultBuffers(
+      Settings(scratchDir, maxMemoryPerResult, maxMemory, maxDiskPerResult, maxDisk, batchSize = 100)
+    )
+    try test(buffers) finally {
+      buffers.shutdown()
+      scratchDir.delete()
+    }
+  }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.server.scheduler
+
+import java.util.UUID
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+import java.util.concurrent.atomic.AtomicBoolean
+
+import com.stratio.crossdata.server.scheduler.QueryScheduler.{RejectionPolicy, Settings}
+import com.stratio.crossdata.test.BaseXDTest
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import scala.collection.mutable
+
+@RunWith(classOf[JUnitRunner])
+class QuerySchedulerSpec extends BaseXDTest {
+
+  val sessionA = UUID.randomUUID()
+  val sessionB = UUID.randomUUID()
+
+  "A QueryScheduler" should "reject new queries once its threads and queue are exhausted" in
+    withScheduler(Settings(1, 1, 1, RejectionPolicy.Abort, fairShare = true)) { scheduler =>
+      val blocker = new CountDownLatch(1)
+      val running = scheduler.reserve(sessionA).get
+      running.execute(blockingJob(blocker))
+
+      scheduler.reserve(sessionA) shouldBe defined
+      scheduler.reserve(sessionB) shouldBe empty
+
+      blocker.countDown()
+    }
+
+  it should "reject the oldest waiting query to admit a new one when configured to discard the oldest" in
+    withScheduler(Settings(1, 1, 1, RejectionPolicy.DiscardOldest, fairShare = true)) { scheduler =>
+      val blocker = new CountDownLatch(1)
+      scheduler.reserve(sessionA).get.execute(blockingJob(blocker))
+
+      val rejected = new AtomicBoolean(false)
+      val oldest = scheduler.reserve(sessionA).get
+      oldest.onRejected(rejected.set(true))
+
+      scheduler.reserve(sessionB) shouldBe defined
+      rejected.get shouldBe true
+
+      blocker.countDown()
+    }
+
+  it should "limit the number of running queries per session and give turns to other sessions" in
+    withScheduler(Settings(2, 10, 1, RejectionPolicy.Abort, fairShare = true)) { scheduler =>
+      val blocker = new CountDownLatch(1)
+      val started = mutable.ArrayBuffer.empty[String]
+      val allStarted = new CountDownLatch(2)
+
+      def job(name: String): Runnable = new Runnable {
+        override def run(): Unit = {
+          started.synchronized(started += name)
+          allStarted.countDown()
+          blocker.await(10, TimeUnit.SECONDS)
+        }
+      }
+
+      scheduler.reserve(sessionA).get.execute(job("A1"))
+      scheduler.reserve(sessionA).get.execute(job("A2"))
+      scheduler.reserve(sessionB).get.execute(job("B1"))
+
+      allStarted.await(10, TimeUnit.SECONDS) shouldBe true
+      started.synchronized(started.toSet) shouldBe Set("A1", "B1")
+
+      blocker.countDown()
+    }
+
+  it should "give back the slots of queries which are never launched" in
+    withScheduler(Settings(1, 0, 1, RejectionPolicy.Abort, fairShare = true)) { scheduler =>
+      scheduler.reserve(sessionA).get.release()
+      scheduler.reserve(sessionB) shouldBe defined
+    }
+
+  private def blockingJob(blocker: CountDownLatch): Runnable = new Runnable {
+    override def run(): Unit = blocker.await(10, TimeUnit.SECONDS)
+  }
+
+  private def withScheduler(settings: Settings)(test: QueryScheduler => Unit): Unit = {
+    val scheduler = new QueryScheduler(settings)
+    try test(scheduler) finally scheduler.shutdown()
+  }
+
+}
@@ -24,7 +24,13 @@ import org.apache.spark.sql.crossdata.models.EphemeralQueryModel
 
 import scala.util.Try
 
-class EphemeralQueryActor(zookeeperConfiguration: Map[String, String]) extends Actor
+/**
+ * Keeps the ephemeral queries stored in Zookeeper, which are reloaded when they are modified.
+ *
+ * @param onUpdate called with every version of the queries once the listener has been added.
+ */
+class EphemeralQueryActor(zookeeperConfiguration: Map[String, String],
+                          onUpdate: Seq[EphemeralQueryModel] => Unit = _ => ()) extends Actor
 with EphemeralQueriesMapDAO {
 
   lazy val memoryMap = Map(ZookeeperPrefixName -> zookeeperConfiguration)
@@ -49,7 +55,11 @@ with EphemeralQueriesMapDAO {
   }
 
   private def doAddListener(): Unit = {
-    repository.addEntityListener(dao.entity, _ => streamingQueries = dao.getAll())
+    repository.addEntityListener(dao.entity, _ => {
+      streamingQueries = dao.getAll()
+      onUpdate(streamingQueries)
+    })
+    onUpdate(streamingQueries)
     sender ! ListenerResponse(true)
   }
 }
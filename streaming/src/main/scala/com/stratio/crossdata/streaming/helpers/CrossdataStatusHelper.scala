@@ -39,6 +39,9 @@ object CrossdataStatusHelper extends SparkLoggerComponent {
   private var ephemeralQueryActor: Option[ActorRef] = None
   private var ephemeralStatusActor: Option[ActorRef] = None
 
+  // Ephemeral queries pushed by the query actor whenever they change in Zookeeper
+  @volatile private var cachedQueries: Option[Seq[EphemeralQueryModel]] = None
+
   def initStatusActor(streamingContext: StreamingContext,
                       zookeeperConfiguration: Map[String, String],
                       ephemeralTableName: String): Option[ActorRef] = {
@@ -64,15 +67,17 @@ object CrossdataStatusHelper extends SparkLoggerComponent {
 
     createEphemeralQueryActor(zookeeperConfiguration)
 
-    ephemeralQueryActor.fold(Seq.empty[EphemeralQueryModel]) { queryActorRef =>
-      val futureResult = queryActorRef ? GetQueries
-      Await.result(futureResult, timeout.duration) match {
-        case EphemeralQueriesResponse(queries) =>
-          queries.filter(streamingQueryModel => streamingQueryModel.ephemeralTableName == ephemeralTableName)
-        case _ =>
-          Seq.empty
+    val queries = cachedQueries orElse {
+      ephemeralQueryActor map { queryActorRef =>
+        val futureResult = queryActorRef ? GetQueries
+        Await.result(futureResult, timeout.duration) match {
+          case EphemeralQueriesResponse(queries) => queries
+          case _ => Seq.empty
+        }
       }
     }
+
+    queries.getOrElse(Seq.empty).filter(streamingQueryModel => streamingQueryModel.ephemeralTableName == ephemeralTableName)
   }
 
   def setEphemeralStatus(status: EphemeralExecutionStatus.Value,
@@ -87,6 +92,7 @@ object CrossdataStatusHelper extends SparkLoggerComponent {
 
   def close(): Unit = {
     ephemeralQueryActor.foreach(_ ! PoisonPill)
+    cachedQueries = None
     ephemeralStatusActor.foreach(_ ! PoisonPill)
     if(!actorSystem.isTerminated) {
       actorSystem.shutdown()
@@ -98,7 +104,10 @@ object CrossdataStatusHelper extends SparkLoggerComponent {
     synchronized {
       if (ephemeralQueryActor.isEmpty) {
         Try (
-          actorSystem.actorOf(Props(new EphemeralQueryActor(zookeeperConfiguration)),EphemeralQueryActorName)
+          actorSystem.actorOf(
+            Props(new EphemeralQueryActor(zookeeperConfiguration, queries => cachedQueries = Option(queries))),
+            EphemeralQueryActorName
+          )
         ) match {
           case Success(actorRef) =>
             ephemeralQueryActor = Option(actorRef)
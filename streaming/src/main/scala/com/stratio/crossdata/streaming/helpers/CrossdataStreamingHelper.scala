@@ -24,6 +24,7 @@ import org.apache.spark.rdd.RDD
 import org.apache.spark.sql.DataFrame
 import org.apache.spark.sql.crossdata.XDContext
 import org.apache.spark.sql.crossdata.models._
+import org.apache.spark.storage.StorageLevel
 import org.apache.spark.streaming.dstream.DStream
 import org.apache.spark.streaming.{Seconds, StreamingContext}
 import org.apache.spark.{SparkConf, SparkContext}
@@ -59,26 +60,10 @@ object CrossdataStreamingHelper extends SparkLoggerComponent {
 
       if (rdd.take(1).length > 0) {
         val ephemeralQueries = CrossdataStatusHelper.queriesFromEphemeralTable(zookeeperConf, ephemeralTable.name)
+        val queriesToExecute = firingQueries(ephemeralQueries, countdowns, sparkStreamingWindow)
 
-        if (ephemeralQueries.nonEmpty) {
-          ephemeralQueries.foreach( ephemeralQuery => {
-            val alias = ephemeralQuery.alias
-            if(!countdowns.contains(alias)){
-              countdowns.put(alias, (ephemeralQuery.window / sparkStreamingWindow))
-            }
-            countdowns.put(alias, countdowns.get(alias).getOrElse(0)-1)
-            logDebug(s"Countdowns: ${countdowns.mkString(", ")}")
-
-            countdowns.get(alias) foreach {
-              case 0 => {
-                countdowns.put(alias, (ephemeralQuery.window / sparkStreamingWindow))
-                logInfo(s"Executing streaming query $alias")
-                executeQuery(rdd, ephemeralQuery, ephemeralTable, kafkaOptions, zookeeperConf, crossdataCatalogConf)
-              }
-              case countdown =>
-                logDebug(s"Current countdown for $alias: $countdown")
-            }
-          })
+        if (queriesToExecute.nonEmpty) {
+          executeQueries(rdd, queriesToExecute, ephemeralTable, kafkaOptions, zookeeperConf, crossdataCatalogConf)
         }
       }
     }
@@ -90,44 +75,92 @@ object CrossdataStreamingHelper extends SparkLoggerComponent {
     Try(ConfigFactory.parseMap(catalogConf)).toOption
   }
 
-  private def executeQuery(rdd: RDD[(Long, String)],
-                           ephemeralQuery: EphemeralQueryModel,
-                           ephemeralTable: EphemeralTableModel,
-                           kafkaOptions: KafkaOptionsModel,
-                           zookeeperConf: Map[String, String],
-                           catalogConf: Map[String, String]): Unit = {
+  /**
+   * Updates the countdowns of the ephemeral queries and returns the queries which have to be executed in this batch.
+   */
+  private[streaming] def firingQueries(ephemeralQueries: Seq[EphemeralQueryModel],
+                                       countdowns: collection.mutable.Map[String, Int],
+                                       sparkStreamingWindow: Int): Seq[EphemeralQueryModel] =
+    ephemeralQueries filter { ephemeralQuery =>
+      val alias = ephemeralQuery.alias
+      val countdown = countdowns.getOrElse(alias, ephemeralQuery.window / sparkStreamingWindow) - 1
+      logDebug(s"Current countdown for $alias: $countdown")
+
+      if (countdown == 0) {
+        countdowns.put(alias, ephemeralQuery.window / sparkStreamingWindow)
+        true
+      } else {
+        countdowns.put(alias, countdown)
+        false
+      }
+    }
+
+  /**
+   * Executes the ephemeral queries over the events of their windows. The events are parsed once per window size:
+   * the queries sharing a window size run against the same DataFrame, which is cached in memory (columnar) when
+   * it is read by more than one query.
+   */
+  private def executeQueries(rdd: RDD[(Long, String)],
+                             ephemeralQueries: Seq[EphemeralQueryModel],
+                             ephemeralTable: EphemeralTableModel,
+                             kafkaOptions: KafkaOptionsModel,
+                             zookeeperConf: Map[String, String],
+                             catalogConf: Map[String, String]): Unit = {
     val sqlTableName = ephemeralTable.name
-    val query = ephemeralQuery.sql
-    val kafkaOptionsMerged = mergeKafkaOptions(ephemeralQuery, kafkaOptions)
     val xdContext = XDContext.getOrCreate(rdd.context, parseCatalogConfig(catalogConf))
-    // TODO add sampling ratio
-    val dfReader = xdContext.read
-    val dfReaderWithschema = ephemeralTable.schema.map(dfReader.schema).getOrElse(dfReader)
-    val df = dfReaderWithschema.json(filterRddWithWindow(rdd, ephemeralQuery.window))
-    //df.cache()
-    if (df.head(1).length > 0) {
-      df.registerTempTable(sqlTableName)
-      Try {
-        val dataFrame = xdContext.sql(query)
-        val topic = ephemeralQuery.alias
-
-        ephemeralTable.options.outputFormat match {
-          case EphemeralOutputFormat.JSON => saveToKafkaInJSONFormat(dataFrame, topic, kafkaOptionsMerged)
-          case _ => saveToKafkaInRowFormat(dataFrame, topic, kafkaOptionsMerged)
+    val batchTime = DateTime.now.getMillis
+
+    ephemeralQueries.groupBy(_.window) foreach { case (window, queries) =>
+      // TODO add sampling ratio
+      val dfReader = xdContext.read
+      val dfReaderWithschema = ephemeralTable.schema.map(dfReader.schema).getOrElse(dfReader)
+      val df = dfReaderWithschema.json(filterRddWithWindow(rdd, window, batchTime))
+      val shared = queries.length > 1
+      if (shared) df.persist(StorageLevel.MEMORY_ONLY)
+
+      try {
+        if (df.head(1).length > 0) {
+          df.registerTempTable(sqlTableName)
+          try {
+            queries foreach { ephemeralQuery =>
+              logInfo(s"Executing streaming query ${ephemeralQuery.alias}")
+              executeQuery(xdContext, df, ephemeralQuery, ephemeralTable, mergeKafkaOptions(ephemeralQuery, kafkaOptions))
+            }
+          } finally {
+            xdContext.dropTempTable(sqlTableName)
+          }
         }
-      } match {
-        case Failure(throwable) =>
-          logger.warn(
-            s"""|There are problems executing the ephemeral query: $query
-                |with Schema: ${df.printSchema()}
-                |and the first row is: ${df.show(1)}
-                |Exception message: ${throwable.getMessage}
-                |Exception stackTrace: ${throwable.getStackTraceString}
-           """.stripMargin
-          )
-        case _ =>
+      } finally {
+        if (shared) df.unpersist(blocking = false)
       }
-      xdContext.dropTempTable(sqlTableName)
+    }
+  }
+
+  private def executeQuery(xdContext: XDContext,
+                           df: DataFrame,
+                           ephemeralQuery: EphemeralQueryModel,
+                           ephemeralTable: EphemeralTableModel,
+                           kafkaOptionsMerged: KafkaOptionsModel): Unit = {
+    val query = ephemeralQuery.sql
+    Try {
+      val dataFrame = xdContext.sql(query)
+      val topic = ephemeralQuery.alias
+
+      ephemeralTable.options.outputFormat match {
+        case EphemeralOutputFormat.JSON => saveToKafkaInJSONFormat(dataFrame, topic, kafkaOptionsMerged)
+        case _ => saveToKafkaInRowFormat(dataFrame, topic, kafkaOptionsMerged)
+      }
+    } match {
+      case Failure(throwable) =>
+        logger.warn(
+          s"""|There are problems executing the ephemeral query: $query
+              |with Schema: ${df.printSchema()}
+              |and the first row is: ${df.show(1)}
+              |Exception message: ${throwable.getMessage}
+              |Exception stackTrace: ${throwable.getStackTraceString}
+         """.stripMargin
+        )
+      case _ =>
     }
   }
 
@@ -138,11 +171,15 @@ object CrossdataStreamingHelper extends SparkLoggerComponent {
       additionalOptions = kafkaOptions.additionalOptions ++ ephemeralQuery.options)
   }
 
-  private[streaming] def filterRddWithWindow(rdd: RDD[(Long, String)], window: Int): RDD[String] =
+  private[streaming] def filterRddWithWindow(rdd: RDD[(Long, String)],
+                                             window: Int,
+                                             now: Long = DateTime.now.getMillis): RDD[String] = {
+    val windowStart = now - window * 1000
     rdd.flatMap { case (time, row) =>
-      if (time > DateTime.now.getMillis - window * 1000) Option(row)
+      if (time > windowStart) Option(row)
       else None
     }
+  }
 
   private[streaming] def toWindowDStream(inputStream: DStream[(String, String)],
                                          ephemeralOptions: EphemeralOptionsModel): DStream[(Long, String)] =
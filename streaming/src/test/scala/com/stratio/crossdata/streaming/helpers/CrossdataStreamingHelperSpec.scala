@@ -18,6 +18,7 @@ package com.stratio.crossdata.streaming.helpers
 import com.stratio.crossdata.streaming.test.{BaseStreamingXDTest, CommonValues}
 import com.typesafe.config.ConfigFactory
 import org.apache.spark.sql.crossdata.XDContext._
+import org.apache.spark.sql.crossdata.models.EphemeralQueryModel
 import org.junit.runner.RunWith
 import org.scalatest.junit.JUnitRunner
 
@@ -64,4 +65,23 @@ class CrossdataStreamingHelperSpec extends BaseStreamingXDTest with CommonValues
 
     result should be(expected)
   }
+
+  "Helper" should "return the queries whose countdown fires in each batch" in {
+
+    val everyBatch = EphemeralQueryModel(TableName, Sql, "everyBatch", 5)
+    val everyTwoBatches = EphemeralQueryModel(TableName, Sql, "everyTwoBatches", 10)
+    val countdowns = collection.mutable.Map.empty[String, Int]
+
+    val result = (1 to 4) map { _ =>
+      CrossdataStreamingHelper.firingQueries(Seq(everyBatch, everyTwoBatches), countdowns, 5).map(_.alias)
+    }
+    val expected = Seq(
+      Seq("everyBatch"),
+      Seq("everyBatch", "everyTwoBatches"),
+      Seq("everyBatch"),
+      Seq("everyBatch", "everyTwoBatches")
+    )
+
+    result should be(expected)
+  }
 }
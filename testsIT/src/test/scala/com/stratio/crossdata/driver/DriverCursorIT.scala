@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2015 Stratio (http://stratio.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.stratio.crossdata.driver
+
+import java.nio.file.Paths
+
+import com.stratio.crossdata.driver.test.Utils._
+import org.apache.spark.sql.Row
+import org.junit.runner.RunWith
+import org.scalatest.junit.JUnitRunner
+
+import scala.concurrent.Await
+import scala.concurrent.duration._
+import scala.language.postfixOps
+
+@RunWith(classOf[JUnitRunner])
+class DriverCursorIT extends EndToEndTest {
+
+  driverFactories foreach { case (factory, description) =>
+
+    implicit val ctx = DriverTestContext(factory)
+    val factoryDesc = s" $description"
+
+    "CrossdataDriver" should "fetch the rows of a cursor in chunks" + factoryDesc in {
+      assumeCrossdataUpAndRunning()
+      withDriverDo { driver =>
+
+        driver.sql(s"CREATE TEMPORARY TABLE jsonTable USING org.apache.spark.sql.json OPTIONS (path '${Paths.get(getClass.getResource("/tabletest.json").toURI).toString}')").waitForResult()
+
+        val cursor = Await.result(driver.openCursor("SELECT id, title FROM jsonTable ORDER BY id"), 10 seconds)
+        cursor.schema.fieldNames should contain allOf("id", "title")
+
+        cursor.fetch(1, 10 seconds) shouldBe Array(Row(1, "Crossdata"))
+        cursor.fetch(5, 10 seconds) shouldBe Array(Row(2, "Fuse"))
+        cursor.isExhausted shouldBe true
+        cursor.fetch(5, 10 seconds) shouldBe empty
+      }
+    }
+
+    it should "fail to fetch a closed cursor" + factoryDesc in {
+      assumeCrossdataUpAndRunning()
+      withDriverDo { driver =>
+
+        driver.sql(s"CREATE TEMPORARY TABLE jsonTable USING org.apache.spark.sql.json OPTIONS (path '${Paths.get(getClass.getResource("/tabletest.json").toURI).toString}')").waitForResult()
+
+        val cursor = Await.result(driver.openCursor("SELECT * FROM jsonTable"), 10 seconds)
+        Await.result(cursor.close(), 10 seconds)
+
+        val reopened = new Cursor(cursor.id, cursor.schema, driver.cursorRequest)
+        a [RuntimeException] should be thrownBy reopened.fetch(1, 10 seconds)
+      }
+    }
+
+  }
+
+}
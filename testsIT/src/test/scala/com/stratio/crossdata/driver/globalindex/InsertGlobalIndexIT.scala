@@ -96,4 +96,16 @@ class InsertGlobalIndexIT extends MongoAndElasticWithSharedContext {
 
   }
 
-}
\ No newline at end of file
+  it should "rebuild the index from the indexed table without duplicating documents" in {
+
+    val result = sql(s"REBUILD INDEX $indexName").collect()
+    result.head.getLong(0) shouldBe 2
+
+    elasticClient.execute{
+      flushIndex(defaultIndexES)
+    }.await
+
+    elasticClient.execute(search in defaultIndexES / indexName).await.getHits.totalHits() shouldBe 2
+  }
+
+}